@@ -109,6 +109,31 @@ public boolean getBoolean(boolean defaultValue) {
       return get_(BOOLEAN_CONVERTER, Boolean.toString(defaultValue));
     }
 
+    /** Returns the long value of this property. Throws if not set and no
+     * default. */
+    public long getLong() {
+      return getLong((Number) property.defaultValue());
+    }
+
+    /** Returns the long value of this property. Throws if not set and no
+     * default. */
+    public long getLong(Number defaultValue) {
+      assert property.type() == ConnectionProperty.Type.NUMBER;
+      return get_(LONG_CONVERTER,
+          defaultValue == null ? null : defaultValue.toString());
+    }
+
+    /** Returns the int value of this property. Throws if not set and no
+     * default, or if the value is out of range. */
+    public int getInt() {
+      final long value = getLong();
+      if (value != (int) value) {
+        throw new RuntimeException("Property '" + property.camelName()
+            + "' value " + value + " is out of range");
+      }
+      return (int) value;
+    }
+
     /** Returns the enum value of this property. Throws if not set and no
      * default. */
     public <E extends Enum<E>> E getEnum(Class<E> enumClass) {
@@ -141,6 +166,23 @@ public Boolean apply(ConnectionProperty connectionProperty, String s) {
         }
       };
 
+  public static final Converter<Long> LONG_CONVERTER =
+      new Converter<Long>() {
+        public Long apply(ConnectionProperty connectionProperty, String s) {
+          if (s == null) {
+            throw new RuntimeException("Required property '"
+                + connectionProperty.camelName() + "' not specified");
+          }
+          try {
+            return Long.parseLong(s.trim());
+          } catch (NumberFormatException e) {
+            throw new RuntimeException("Property '"
+                + connectionProperty.camelName() + "' value '" + s
+                + "' is not a valid number");
+          }
+        }
+      };
+
   public static final Converter<String> IDENTITY_CONVERTER =
       new Converter<String>() {
         public String apply(ConnectionProperty connectionProperty, String s) {
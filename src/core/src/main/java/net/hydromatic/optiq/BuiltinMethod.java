@@ -62,10 +62,21 @@ public enum BuiltinMethod {
   DATA_CONTEXT_GET(DataContext.class, "get", String.class),
   DATA_CONTEXT_GET_ROOT_SCHEMA(DataContext.class, "getRootSchema"),
   JDBC_SCHEMA_DATA_SOURCE(JdbcSchema.class, "getDataSource"),
+  JDBC_SCHEMA_FETCH_SIZE(JdbcSchema.class, "getFetchSize"),
+  JDBC_SCHEMA_SCAN_PARALLELISM(JdbcSchema.class, "getScanParallelism"),
   RESULT_SET_ENUMERABLE_OF(ResultSetEnumerable.class, "of", DataSource.class,
       String.class, Function1.class),
+  RESULT_SET_ENUMERABLE_OF2(ResultSetEnumerable.class, "of", DataSource.class,
+      String.class, Function1.class, int.class),
+  PARTITIONED_RESULT_SET_ENUMERABLE_OF(PartitionedResultSetEnumerable.class,
+      "of", DataSource.class, String.class, String.class, int.class,
+      Function1.class, Comparator.class, int.class),
   JOIN(ExtendedEnumerable.class, "join", Enumerable.class, Function1.class,
       Function1.class, Function2.class),
+  HYBRID_HASH_JOIN(HybridHashJoin.class, "join", Enumerable.class,
+      Enumerable.class, Function1.class, Function1.class, Function2.class,
+      EqualityComparer.class, boolean.class, boolean.class,
+      DataContext.class),
   SEMI_JOIN(Enumerables.class, "semiJoin", Enumerable.class, Enumerable.class,
       Function1.class, Function1.class),
   SELECT(ExtendedEnumerable.class, "select", Function1.class),
@@ -78,8 +89,13 @@ public enum BuiltinMethod {
   GROUP_BY(ExtendedEnumerable.class, "groupBy", Function1.class),
   GROUP_BY2(ExtendedEnumerable.class, "groupBy", Function1.class,
       Function0.class, Function2.class, Function2.class),
+  HASH_AGGREGATE(HashAggregate.class, "groupBy", Enumerable.class,
+      Function1.class, Function0.class, Function2.class, Function2.class,
+      EqualityComparer.class, DataContext.class),
   AGGREGATE(ExtendedEnumerable.class, "aggregate", Object.class,
       Function2.class, Function1.class),
+  EXTERNAL_SORT(ExternalSort.class, "orderBy", Enumerable.class,
+      Function1.class, Comparator.class, DataContext.class),
   ORDER_BY(ExtendedEnumerable.class, "orderBy", Function1.class,
       Comparator.class),
   UNION(ExtendedEnumerable.class, "union", Enumerable.class),
@@ -145,6 +161,11 @@ public enum BuiltinMethod {
       Object.class, int.class, int.class, Function1.class, Comparator.class),
   BINARY_SEARCH6_UPPER(BinarySearch.class, "upperBound", Object[].class,
       Object.class, int.class, int.class, Function1.class, Comparator.class),
+  MIN_MAX_QUEUE_CLEAR(MinMaxQueue.class, "clear"),
+  MIN_MAX_QUEUE_ADD(MinMaxQueue.class, "add", int.class, Comparable.class),
+  MIN_MAX_QUEUE_REMOVE(MinMaxQueue.class, "remove", int.class),
+  MIN_MAX_QUEUE_IS_EMPTY(MinMaxQueue.class, "isEmpty"),
+  MIN_MAX_QUEUE_PEEK(MinMaxQueue.class, "peek"),
   ARRAY_ITEM(SqlFunctions.class, "arrayItem", List.class, int.class),
   MAP_ITEM(SqlFunctions.class, "mapItem", Map.class, Object.class),
   ANY_ITEM(SqlFunctions.class, "item", Object.class, Object.class),
@@ -166,6 +187,9 @@ public enum BuiltinMethod {
   RTRIM(SqlFunctions.class, "rtrim", String.class),
   LIKE(SqlFunctions.class, "like", String.class, String.class),
   SIMILAR(SqlFunctions.class, "similar", String.class, String.class),
+  LIKE_MATCHER(SqlFunctions.class, "likeMatcher", String.class),
+  SIMILAR_MATCHER(SqlFunctions.class, "similarMatcher", String.class),
+  MATCHER_MATCHES(Like.Matcher.class, "matches", String.class),
   IS_TRUE(SqlFunctions.class, "isTrue", Boolean.class),
   IS_NOT_FALSE(SqlFunctions.class, "isNotFalse", Boolean.class),
   MODIFIABLE_TABLE_GET_MODIFIABLE_COLLECTION(ModifiableTable.class,
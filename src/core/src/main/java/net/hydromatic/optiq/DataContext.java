@@ -82,7 +82,22 @@ enum Variable {
     /** Time zone in which the current statement is executing. Required;
      * defaults to the time zone of the JVM if the connection does not specify a
      * time zone. */
-    TIME_ZONE("timeZone", TimeZone.class);
+    TIME_ZONE("timeZone", TimeZone.class),
+
+    /** Number of bytes that the build side of a hash join may occupy before
+     * the join spills to disk. Optional; if not present, joins do not
+     * spill. */
+    JOIN_MEMORY_BUDGET("joinMemoryBudget", Long.class),
+
+    /** Number of bytes of rows that a sort may hold in memory before it
+     * writes a sorted run to disk. Optional; if not present, sorts do not
+     * spill. */
+    SORT_MEMORY_BUDGET("sortMemoryBudget", Long.class),
+
+    /** Number of bytes that the groups of a hash aggregation may occupy
+     * before it spills rows to disk. Optional; if not present, aggregations
+     * do not spill. */
+    AGGREGATE_MEMORY_BUDGET("aggregateMemoryBudget", Long.class);
 
     public final String camelName;
     public final Class clazz;
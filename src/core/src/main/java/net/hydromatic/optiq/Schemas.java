@@ -23,6 +23,7 @@
 import net.hydromatic.optiq.config.OptiqConnectionConfig;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
 import net.hydromatic.optiq.jdbc.*;
+import net.hydromatic.optiq.prepare.OptiqPrepareImpl;
 
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeFactory;
@@ -178,6 +179,22 @@ public static OptiqPrepare.ParseResult parse(
     }
   }
 
+  /** Parses, validates and converts a SQL query to a relational expression.
+   * For use within Optiq only. */
+  public static OptiqPrepareImpl.ConvertResult convert(
+      final OptiqConnection connection, final OptiqSchema schema,
+      final List<String> schemaPath, final String sql) {
+    final OptiqPrepareImpl prepare = new OptiqPrepareImpl();
+    final OptiqPrepare.Context context =
+        makeContext(connection, schema, schemaPath);
+    OptiqPrepare.Dummy.push(context);
+    try {
+      return prepare.convert(context, sql);
+    } finally {
+      OptiqPrepare.Dummy.pop(context);
+    }
+  }
+
   /** Prepares a SQL query for execution. For use within Optiq only. */
   public static OptiqPrepare.PrepareResult<Object> prepare(
       final OptiqConnection connection, final OptiqSchema schema,
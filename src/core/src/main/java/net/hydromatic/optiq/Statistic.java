@@ -33,6 +33,10 @@ public interface Statistic {
    * of a unique key, of the table.
    */
   boolean isKey(BitSet columns);
+
+  /** Returns the approximate number of distinct values of the given set of
+   * columns. */
+  Double getDistinctRowCount(BitSet columns);
 }
 
 // End Statistic.java
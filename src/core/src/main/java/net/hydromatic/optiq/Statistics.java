@@ -18,6 +18,8 @@
 
 import net.hydromatic.optiq.util.BitSets;
 
+import com.google.common.collect.ImmutableMap;
+
 import java.util.*;
 
 /**
@@ -37,10 +39,22 @@ public Double getRowCount() {
         public boolean isKey(BitSet columns) {
           return false;
         }
+
+        public Double getDistinctRowCount(BitSet columns) {
+          return null;
+        }
       };
 
   /** Returns a statistic with a given row count and set of unique keys. */
   public static Statistic of(final double rowCount, final List<BitSet> keys) {
+    return of(rowCount, keys, ImmutableMap.<BitSet, Double>of());
+  }
+
+  /** Returns a statistic with a given row count, set of unique keys, and
+   * number of distinct values of given sets of columns. The row count may be
+   * null if it is not known. */
+  public static Statistic of(final Double rowCount, final List<BitSet> keys,
+      final Map<BitSet, Double> distinctRowCounts) {
     return new Statistic() {
       public Double getRowCount() {
         return rowCount;
@@ -54,6 +68,13 @@ public boolean isKey(BitSet columns) {
         }
         return false;
       }
+
+      public Double getDistinctRowCount(BitSet columns) {
+        if (isKey(columns)) {
+          return rowCount;
+        }
+        return distinctRowCounts.get(columns);
+      }
     };
   }
 }
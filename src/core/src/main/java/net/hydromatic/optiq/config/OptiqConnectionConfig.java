@@ -33,6 +33,15 @@ public interface OptiqConnectionConfig extends ConnectionConfig {
   Casing quotedCasing();
   boolean caseSensitive();
   boolean spark();
+  boolean parameterizeLiterals();
+  boolean planCache();
+  boolean reduceConstants();
+  boolean columnarScan();
+  long joinMemoryBudget();
+  long sortMemoryBudget();
+  long aggregateMemoryBudget();
+  long plannerTimeBudget();
+  long plannerRuleBudget();
 }
 
 // End OptiqConnectionConfig.java
@@ -34,6 +34,30 @@ public enum OptiqConnectionProperty implements ConnectionProperty {
   /** Whether materializations are enabled. */
   MATERIALIZATIONS_ENABLED("materializationsEnabled", Type.BOOLEAN, true),
 
+  /** Number of bytes that the build (right) side of a hash join may occupy
+   * before the join partitions its inputs to temporary files. If negative
+   * (the default), joins are performed in memory. */
+  JOIN_MEMORY_BUDGET("joinMemoryBudget", Type.NUMBER, -1L),
+
+  /** Number of bytes of rows that a sort may hold in memory before it writes
+   * a sorted run to a temporary file. If negative (the default), sorts are
+   * performed in memory. */
+  SORT_MEMORY_BUDGET("sortMemoryBudget", Type.NUMBER, -1L),
+
+  /** Number of bytes that the groups of an aggregation may occupy before it
+   * writes rows of further groups to temporary files. If negative (the
+   * default), aggregations are performed in memory. */
+  AGGREGATE_MEMORY_BUDGET("aggregateMemoryBudget", Type.NUMBER, -1L),
+
+  /** Number of milliseconds that the planner may spend firing rules before
+   * it settles for the best plan found so far. If negative (the default),
+   * there is no limit. */
+  PLANNER_TIME_BUDGET("plannerTimeBudget", Type.NUMBER, -1L),
+
+  /** Number of rules that the planner may fire before it settles for the
+   * best plan found so far. If negative (the default), there is no limit. */
+  PLANNER_RULE_BUDGET("plannerRuleBudget", Type.NUMBER, -1L),
+
   /** URI of the model. */
   MODEL("model", Type.STRING, null),
 
@@ -56,6 +80,32 @@ public enum OptiqConnectionProperty implements ConnectionProperty {
    *  If not specified, value from {@link #LEX} is used. */
   CASE_SENSITIVE("caseSensitive", Type.BOOLEAN, null),
 
+  /** Whether filters on in-memory (cloned) tables are evaluated on batches
+   * of column values, converting only the rows that pass to objects.
+   * Simple comparisons of a column with literals are evaluated this way; the
+   * scan returns only the columns that are needed, but projections and other
+   * conditions are still evaluated one row at a time. */
+  COLUMNAR_SCAN("columnarScan", Type.BOOLEAN, false),
+
+  /** Whether to replace literals in comparisons by parameters before
+   * planning, so that queries that differ only in their literal values share
+   * a plan. */
+  PARAMETERIZE_LITERALS("parameterizeLiterals", Type.BOOLEAN, false),
+
+  /** Whether to cache optimized plans, keyed by logical plan, so that
+   * statements whose SQL differs but whose logical plans are the same are
+   * optimized and compiled only once. */
+  PLAN_CACHE("planCache", Type.BOOLEAN, false),
+
+  /** Whether the planner reduces expressions whose arguments are all
+   * constant, for example {@code DATE '2014-01-01' + INTERVAL '1' DAY}, to
+   * literals, and removes filters that are always true or always false.
+   *
+   * <p>Off by default. Reduction changes the plans of many existing
+   * queries, and an expression that {@link org.eigenbase.rex.RexInterpreter}
+   * cannot evaluate is still compiled by Janino while planning.</p> */
+  REDUCE_CONSTANTS("reduceConstants", Type.BOOLEAN, false),
+
   /** Name of initial schema. */
   SCHEMA("schema", Type.STRING, null),
 
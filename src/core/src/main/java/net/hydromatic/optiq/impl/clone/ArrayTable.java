@@ -16,6 +16,8 @@
  */
 package net.hydromatic.optiq.impl.clone;
 
+import net.hydromatic.avatica.ByteString;
+
 import net.hydromatic.linq4j.*;
 import net.hydromatic.linq4j.expressions.Primitive;
 
@@ -32,6 +34,7 @@
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Type;
+import java.nio.*;
 import java.util.*;
 
 /**
@@ -39,8 +42,15 @@
  * Column store formats are chosen based on the type and distribution of the
  * values in the column; see {@link Representation} and
  * {@link RepresentationType}.
+ *
+ * <p>Besides the row-at-a-time {@link #asQueryable} interface, the table
+ * can be scanned in batches via {@link #scan(int[], Filter[])}; see
+ * {@link ArrayTableScan}.</p>
  */
 class ArrayTable extends AbstractQueryableTable {
+  /** Number of rows in each batch of a {@link #scan(int[], Filter[])}. */
+  public static final int BATCH_SIZE = 1024;
+
   private final RelProtoDataType protoRowType;
   private final Supplier<Content> supplier;
 
@@ -103,6 +113,614 @@ public void close() {
     };
   }
 
+  /** Returns an enumerable over the rows that satisfy all of the given
+   * filters, with the given columns.
+   *
+   * <p>Filters are evaluated a batch of rows at a time, directly against
+   * the column stores; a selection vector holds the ordinals of the rows in
+   * the current batch that have passed all filters so far. Only rows that
+   * pass all filters are converted to objects.</p>
+   *
+   * <p>A filter on a dictionary-encoded column is translated, when the scan
+   * starts, into a condition on the column's codes (see
+   * {@link CodeFilter}), and rows are filtered without decoding their
+   * values.</p>
+   *
+   * <p>If there is one field, each row is the value of that field;
+   * otherwise each row is an {@code Object[]}.</p>
+   *
+   * <p>Called via {@link CloneSchema#scan}.</p>
+   *
+   * @param fields Ordinals of columns to return
+   * @param filters Filters; each row returned satisfies all of them
+   */
+  public Enumerable<Object> scan(final int[] fields, final Filter[] filters) {
+    return new AbstractEnumerable<Object>() {
+      public Enumerator<Object> enumerator() {
+        return new BatchEnumerator(supplier.get(), fields, filters);
+      }
+    };
+  }
+
+  /** Comparison operator of a {@link Filter}. */
+  public enum Op {
+    EQUALS("="),
+    NOT_EQUALS("<>"),
+    LESS_THAN("<"),
+    LESS_THAN_OR_EQUAL("<="),
+    GREATER_THAN(">"),
+    GREATER_THAN_OR_EQUAL(">="),
+    IS_NULL("IS NULL"),
+    IS_NOT_NULL("IS NOT NULL"),
+    IN("IN");
+
+    public final String sql;
+
+    Op(String sql) {
+      this.sql = sql;
+    }
+
+    /** Returns whether a value passes, given the result of comparing it to
+     * the filter's value. */
+    boolean accept(int c) {
+      switch (this) {
+      case EQUALS:
+        return c == 0;
+      case NOT_EQUALS:
+        return c != 0;
+      case LESS_THAN:
+        return c < 0;
+      case LESS_THAN_OR_EQUAL:
+        return c <= 0;
+      case GREATER_THAN:
+        return c > 0;
+      case GREATER_THAN_OR_EQUAL:
+        return c >= 0;
+      default:
+        throw new AssertionError(this);
+      }
+    }
+  }
+
+  /** Condition on one column of an {@link ArrayTable}, of the form
+   * "column op value", "column IS NULL", "column IS NOT NULL" or
+   * "column IN (value, ...)".
+   *
+   * <p>A row whose value is null does not pass a comparison. The value must
+   * be of the same class as the column's values (for example,
+   * {@link Integer} for an {@code INTEGER} column).</p> */
+  public static class Filter {
+    public final int ordinal;
+    public final Op op;
+    public final Comparable value;
+    /** Values of an {@link Op#IN} filter; otherwise null. */
+    public final ImmutableList<Comparable> values;
+
+    /** Creates a Filter. The operator is given by name, so that generated
+     * code can create filters easily. */
+    public Filter(int ordinal, String op, Comparable value) {
+      this(ordinal, Op.valueOf(op), value, null);
+      assert this.op != Op.IN;
+    }
+
+    private Filter(int ordinal, Op op, Comparable value,
+        ImmutableList<Comparable> values) {
+      this.ordinal = ordinal;
+      this.op = op;
+      this.value = value;
+      this.values = values;
+      assert (value == null) == (op == Op.IS_NULL
+          || op == Op.IS_NOT_NULL
+          || op == Op.IN);
+      assert (values != null) == (op == Op.IN);
+    }
+
+    /** Creates a filter that passes rows whose value is equal to one of
+     * the given values. */
+    public static Filter in(int ordinal, Comparable[] values) {
+      return new Filter(ordinal, Op.IN, null, ImmutableList.copyOf(values));
+    }
+
+    @Override public String toString() {
+      switch (op) {
+      case IS_NULL:
+      case IS_NOT_NULL:
+        return op.sql + "($" + ordinal + ")";
+      case IN:
+        return op.sql + "($" + ordinal + ", " + values + ")";
+      default:
+        return op.sql + "($" + ordinal + ", " + value + ")";
+      }
+    }
+
+    @Override public int hashCode() {
+      return Util.hashV(ordinal, op, value, values);
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj == this
+          || obj instanceof Filter
+          && ((Filter) obj).ordinal == ordinal
+          && ((Filter) obj).op == op
+          && Util.equal(((Filter) obj).value, value)
+          && Util.equal(((Filter) obj).values, values);
+    }
+
+    /** Returns whether a value passes this filter. */
+    boolean test(Object v) {
+      switch (op) {
+      case IS_NULL:
+        return v == null;
+      case IS_NOT_NULL:
+        return v != null;
+      case IN:
+        if (v != null) {
+          for (Comparable value : values) {
+            //noinspection unchecked
+            if (((Comparable) v).compareTo(value) == 0) {
+              return true;
+            }
+          }
+        }
+        return false;
+      default:
+        //noinspection unchecked
+        return v != null && op.accept(((Comparable) v).compareTo(value));
+      }
+    }
+
+    /** Translates this filter into a condition on the codes of a
+     * dictionary-encoded column, or returns null if the column is not
+     * dictionary-encoded. Called once per scan. */
+    CodeFilter toCodeFilter(Column column) {
+      final Representation codeRepresentation;
+      final Object codes;
+      final int orderedCount;
+      final Comparable[] others;
+      switch (column.representation.getType()) {
+      case OBJECT_DICTIONARY:
+        final ObjectDictionary dictionary =
+            (ObjectDictionary) column.representation;
+        //noinspection unchecked
+        final Pair<Object, Comparable[]> pair =
+            (Pair<Object, Comparable[]>) column.dataSet;
+        codeRepresentation = dictionary.representation;
+        codes = pair.left;
+        final Comparable[] codeValues = pair.right;
+        if (codeValues.length > 0
+            && codeValues[codeValues.length - 1] == null) {
+          orderedCount = codeValues.length - 1;
+          others = new Comparable[] {null};
+        } else {
+          orderedCount = codeValues.length;
+          others = new Comparable[0];
+        }
+        break;
+      case STRING_DICTIONARY:
+      case BYTE_STRING_DICTIONARY:
+        final BlockDictionary blockDictionary =
+            (BlockDictionary) column.representation;
+        final BlockData data = (BlockData) column.dataSet;
+        codeRepresentation = blockDictionary.representation;
+        codes = data.codes;
+        orderedCount = data.blockLength;
+        others = data.exceptions;
+        break;
+      default:
+        return null;
+      }
+      int lo = 0;
+      int hi = 0;
+      boolean negate = false;
+      int[] inCodes = null;
+      final int[] bounds = value == null ? null : bounds(column, value);
+      switch (op) {
+      case EQUALS:
+        lo = bounds[0];
+        hi = bounds[1];
+        break;
+      case NOT_EQUALS:
+        lo = bounds[0];
+        hi = bounds[1];
+        negate = true;
+        break;
+      case LESS_THAN:
+        hi = bounds[0];
+        break;
+      case LESS_THAN_OR_EQUAL:
+        hi = bounds[1];
+        break;
+      case GREATER_THAN:
+        lo = bounds[1];
+        hi = orderedCount;
+        break;
+      case GREATER_THAN_OR_EQUAL:
+        lo = bounds[0];
+        hi = orderedCount;
+        break;
+      case IS_NULL:
+        break;
+      case IS_NOT_NULL:
+        hi = orderedCount;
+        break;
+      case IN:
+        final List<Integer> list = new ArrayList<Integer>();
+        for (Comparable v : values) {
+          final int[] b = bounds(column, v);
+          if (b[1] > b[0]) {
+            list.add(b[0]);
+          }
+        }
+        inCodes = new int[list.size()];
+        for (int i = 0; i < inCodes.length; i++) {
+          inCodes[i] = list.get(i);
+        }
+        Arrays.sort(inCodes);
+        break;
+      default:
+        throw new AssertionError(op);
+      }
+      final boolean[] otherResults = new boolean[others.length];
+      for (int i = 0; i < others.length; i++) {
+        otherResults[i] = test(others[i]);
+      }
+      return new CodeFilter(codeRepresentation, codes, orderedCount, lo, hi,
+          negate, inCodes, otherResults);
+    }
+
+    /** Returns the range of ordered codes whose values are equal to a given
+     * value: the first code whose value is greater than or equal to it, and
+     * the first code whose value is greater. */
+    private static int[] bounds(Column column, Comparable v) {
+      if (column.representation instanceof BlockDictionary) {
+        return ((BlockDictionary) column.representation).bounds(
+            (BlockData) column.dataSet, v);
+      }
+      //noinspection unchecked
+      final Comparable[] codeValues =
+          ((Pair<Object, Comparable[]>) column.dataSet).right;
+      int n = codeValues.length;
+      if (n > 0 && codeValues[n - 1] == null) {
+        --n;
+      }
+      final int i = Arrays.binarySearch(codeValues, 0, n, v);
+      return i >= 0
+          ? new int[] {i, i + 1}
+          : new int[] {-(i + 1), -(i + 1)};
+    }
+
+    /** Removes from a selection vector the rows that do not pass this
+     * filter, and returns the number of rows remaining.
+     *
+     * @param column Column
+     * @param selection Ordinals of the selected rows; modified in place
+     * @param n Number of selected rows
+     * @param longs Work area, at least {@code n} long
+     * @param doubles Work area, at least {@code n} double
+     */
+    int filter(Column column, int[] selection, int n, long[] longs,
+        double[] doubles) {
+      final Representation representation = column.representation;
+      final Object dataSet = column.dataSet;
+      switch (representation.getType()) {
+      case CONSTANT:
+        return test(representation.getObject(dataSet, 0)) ? n : 0;
+      case PRIMITIVE_ARRAY:
+        if (value instanceof Number) {
+          final PrimitiveArray array = (PrimitiveArray) representation;
+          switch (array.primitive) {
+          case FLOAT:
+          case DOUBLE:
+            array.getDoubles(dataSet, selection, n, doubles);
+            return filterDoubles(op, doubles, ((Number) value).doubleValue(),
+                selection, n);
+          case BOOLEAN:
+          case CHAR:
+            break;
+          default:
+            array.getLongs(dataSet, selection, n, longs);
+            return filterLongs(op, longs, ((Number) value).longValue(),
+                selection, n);
+          }
+        }
+        break;
+      case BIT_SLICED_PRIMITIVE_ARRAY:
+        final BitSlicedPrimitiveArray slicedArray =
+            (BitSlicedPrimitiveArray) representation;
+        if (value instanceof Number && !slicedArray.signed) {
+          slicedArray.getLongs(dataSet, selection, n, longs);
+          return filterLongs(op, longs, ((Number) value).longValue(),
+              selection, n);
+        }
+        break;
+      }
+      int j = 0;
+      for (int i = 0; i < n; i++) {
+        final int row = selection[i];
+        if (test(representation.getObject(dataSet, row))) {
+          selection[j++] = row;
+        }
+      }
+      return j;
+    }
+
+    private static int filterLongs(Op op, long[] values, long v,
+        int[] selection, int n) {
+      int j = 0;
+      switch (op) {
+      case EQUALS:
+        for (int i = 0; i < n; i++) {
+          if (values[i] == v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case NOT_EQUALS:
+        for (int i = 0; i < n; i++) {
+          if (values[i] != v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case LESS_THAN:
+        for (int i = 0; i < n; i++) {
+          if (values[i] < v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case LESS_THAN_OR_EQUAL:
+        for (int i = 0; i < n; i++) {
+          if (values[i] <= v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case GREATER_THAN:
+        for (int i = 0; i < n; i++) {
+          if (values[i] > v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case GREATER_THAN_OR_EQUAL:
+        for (int i = 0; i < n; i++) {
+          if (values[i] >= v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case IS_NULL:
+        // Primitive columns never contain null.
+        return 0;
+      case IS_NOT_NULL:
+        return n;
+      default:
+        throw new AssertionError(op);
+      }
+    }
+
+    private static int filterDoubles(Op op, double[] values, double v,
+        int[] selection, int n) {
+      int j = 0;
+      switch (op) {
+      case EQUALS:
+        for (int i = 0; i < n; i++) {
+          if (values[i] == v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case NOT_EQUALS:
+        for (int i = 0; i < n; i++) {
+          if (values[i] != v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case LESS_THAN:
+        for (int i = 0; i < n; i++) {
+          if (values[i] < v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case LESS_THAN_OR_EQUAL:
+        for (int i = 0; i < n; i++) {
+          if (values[i] <= v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case GREATER_THAN:
+        for (int i = 0; i < n; i++) {
+          if (values[i] > v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case GREATER_THAN_OR_EQUAL:
+        for (int i = 0; i < n; i++) {
+          if (values[i] >= v) {
+            selection[j++] = selection[i];
+          }
+        }
+        return j;
+      case IS_NULL:
+        return 0;
+      case IS_NOT_NULL:
+        return n;
+      default:
+        throw new AssertionError(op);
+      }
+    }
+  }
+
+  /** {@link Filter} translated into a condition on the codes of a
+   * dictionary-encoded column, so that rows can be filtered without
+   * decoding their values.
+   *
+   * <p>Codes less than {@link #orderedCount} are in the same order as the
+   * values they stand for, so a comparison becomes a range of codes,
+   * equality a range of at most one code, and {@code IN} a set of codes.
+   * The filter has been evaluated in advance for each of the other codes
+   * (null, and the exceptions of a {@link BlockDictionary}).</p> */
+  static class CodeFilter {
+    final Representation codeRepresentation;
+    final Object codes;
+    final int orderedCount;
+    /** Range of ordered codes that pass, unless {@link #negate}. */
+    final int lo;
+    final int hi;
+    final boolean negate;
+    /** Sorted ordered codes that pass an {@code IN} filter; otherwise
+     * null. */
+    final int[] inCodes;
+    /** Whether each code from {@link #orderedCount} upwards passes. */
+    final boolean[] others;
+
+    CodeFilter(Representation codeRepresentation, Object codes,
+        int orderedCount, int lo, int hi, boolean negate, int[] inCodes,
+        boolean[] others) {
+      this.codeRepresentation = codeRepresentation;
+      this.codes = codes;
+      this.orderedCount = orderedCount;
+      this.lo = lo;
+      this.hi = hi;
+      this.negate = negate;
+      this.inCodes = inCodes;
+      this.others = others;
+    }
+
+    /** Returns whether the value that a code stands for passes. */
+    boolean accept(int code) {
+      if (code >= orderedCount) {
+        return others[code - orderedCount];
+      }
+      if (inCodes != null) {
+        return Arrays.binarySearch(inCodes, code) >= 0;
+      }
+      return (code >= lo && code < hi) != negate;
+    }
+
+    /** Removes from a selection vector the rows that do not pass, and
+     * returns the number of rows remaining.
+     *
+     * @see Filter#filter */
+    int filter(int[] selection, int n, long[] longs) {
+      switch (codeRepresentation.getType()) {
+      case PRIMITIVE_ARRAY:
+        ((PrimitiveArray) codeRepresentation).getLongs(codes, selection, n,
+            longs);
+        break;
+      case BIT_SLICED_PRIMITIVE_ARRAY:
+        ((BitSlicedPrimitiveArray) codeRepresentation).getLongs(codes,
+            selection, n, longs);
+        break;
+      case CONSTANT:
+        return accept(codeRepresentation.getInt(codes, 0)) ? n : 0;
+      default:
+        for (int i = 0; i < n; i++) {
+          longs[i] = codeRepresentation.getInt(codes, selection[i]);
+        }
+      }
+      int j = 0;
+      for (int i = 0; i < n; i++) {
+        if (accept((int) longs[i])) {
+          selection[j++] = selection[i];
+        }
+      }
+      return j;
+    }
+  }
+
+  /** Enumerator that evaluates filters over batches of rows, and converts
+   * to objects only the rows that pass. */
+  private static class BatchEnumerator implements Enumerator<Object> {
+    private final Content content;
+    private final Column[] columns;
+    private final Filter[] filters;
+    /** For each filter on a dictionary-encoded column, the filter on its
+     * codes; otherwise null. */
+    private final CodeFilter[] codeFilters;
+    private final int[] selection = new int[BATCH_SIZE];
+    private final long[] longs;
+    private final double[] doubles;
+    /** Ordinal of the first row of the next batch. */
+    private int start;
+    /** Number of rows in the current batch that passed all filters. */
+    private int selectedCount;
+    /** Offset of the current row in the selection vector. */
+    private int k;
+
+    BatchEnumerator(Content content, int[] fields, Filter[] filters) {
+      this.content = content;
+      this.columns = new Column[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        columns[i] = content.columns.get(fields[i]);
+      }
+      this.filters = filters;
+      this.codeFilters = new CodeFilter[filters.length];
+      for (int i = 0; i < filters.length; i++) {
+        codeFilters[i] =
+            filters[i].toCodeFilter(content.columns.get(filters[i].ordinal));
+      }
+      this.longs = filters.length > 0 ? new long[BATCH_SIZE] : null;
+      this.doubles = filters.length > 0 ? new double[BATCH_SIZE] : null;
+      reset();
+    }
+
+    public Object current() {
+      final int row = selection[k];
+      if (columns.length == 1) {
+        return columns[0].representation.getObject(columns[0].dataSet, row);
+      }
+      final Object[] objects = new Object[columns.length];
+      for (int j = 0; j < objects.length; j++) {
+        final Column column = columns[j];
+        objects[j] = column.representation.getObject(column.dataSet, row);
+      }
+      return objects;
+    }
+
+    public boolean moveNext() {
+      while (++k >= selectedCount) {
+        if (start >= content.size) {
+          k = selectedCount;
+          return false;
+        }
+        final int end = Math.min(start + BATCH_SIZE, content.size);
+        int n = 0;
+        for (int row = start; row < end; row++) {
+          selection[n++] = row;
+        }
+        for (int i = 0; i < filters.length; i++) {
+          final Filter filter = filters[i];
+          n = codeFilters[i] != null
+              ? codeFilters[i].filter(selection, n, longs)
+              : filter.filter(content.columns.get(filter.ordinal), selection,
+                  n, longs, doubles);
+          if (n == 0) {
+            break;
+          }
+        }
+        start = end;
+        selectedCount = n;
+        k = -1;
+      }
+      return true;
+    }
+
+    public void reset() {
+      start = 0;
+      selectedCount = 0;
+      k = -1;
+    }
+
+    public void close() {
+    }
+  }
+
   /** How a column's values are represented. */
   enum RepresentationType {
     /** Constant. Contains only one value.
@@ -280,16 +898,18 @@ public Object freeze(ColumnLoader.ValueSet valueSet, int[] sources) {
     }
 
     public Object permute(Object dataSet, int[] sources) {
-      Comparable[] list = (Comparable[]) dataSet;
-      final int size = list.length;
+      final int size = size(dataSet);
       final Comparable[] comparables = new Comparable[size];
       for (int i = 0; i < size; i++) {
-        comparables[i] = list[sources[i]];
+        comparables[i] = (Comparable) getObject(dataSet, sources[i]);
       }
       return comparables;
     }
 
     public Object getObject(Object dataSet, int ordinal) {
+      if (dataSet instanceof ColumnFile.MappedValues) {
+        return ((ColumnFile.MappedValues) dataSet).get(ordinal);
+      }
       return ((Comparable[]) dataSet)[ordinal];
     }
 
@@ -298,20 +918,31 @@ public int getInt(Object dataSet, int ordinal) {
     }
 
     public int size(Object dataSet) {
+      if (dataSet instanceof ColumnFile.MappedValues) {
+        return ((ColumnFile.MappedValues) dataSet).size();
+      }
       return ((Comparable[]) dataSet).length;
     }
 
     public String toString(Object dataSet) {
+      if (dataSet instanceof ColumnFile.MappedValues) {
+        return Column.asList(this, dataSet).toString();
+      }
       return Arrays.toString((Comparable[]) dataSet);
     }
   }
 
   /** Representation that stores the values of a column in an array of
-   * primitive values. */
+   * primitive values.
+   *
+   * <p>The data set is either a Java array of {@link #primitive} or, if the
+   * content was read by {@link ColumnFile}, a buffer of the corresponding
+   * type ({@link java.nio.IntBuffer} for {@code int}, and so forth, or
+   * {@link ByteBuffer} for {@code byte}) mapped from a file.</p> */
   public static class PrimitiveArray implements Representation {
     final int ordinal;
-    private final Primitive primitive;
-    private final Primitive p;
+    final Primitive primitive;
+    final Primitive p;
 
     public PrimitiveArray(int ordinal, Primitive primitive, Primitive p) {
       this.ordinal = ordinal;
@@ -337,23 +968,214 @@ public Object freeze(ColumnLoader.ValueSet valueSet, int[] sources) {
     }
 
     public Object permute(Object dataSet, int[] sources) {
-      return primitive.permute(dataSet, sources);
+      return primitive.permute(toArray(dataSet), sources);
     }
 
     public Object getObject(Object dataSet, int ordinal) {
+      if (dataSet instanceof Buffer) {
+        return box(p, bufferItem((Buffer) dataSet, ordinal));
+      }
       return p.arrayItem(dataSet, ordinal);
     }
 
     public int getInt(Object dataSet, int ordinal) {
+      if (dataSet instanceof Buffer) {
+        return ((Number) bufferItem((Buffer) dataSet, ordinal)).intValue();
+      }
       return Array.getInt(dataSet, ordinal);
     }
 
     public int size(Object dataSet) {
+      if (dataSet instanceof Buffer) {
+        return ((Buffer) dataSet).limit();
+      }
       return Array.getLength(dataSet);
     }
 
     public String toString(Object dataSet) {
-      return p.arrayToString(dataSet);
+      return p.arrayToString(toArray(dataSet));
+    }
+
+    /** Reads a value from a mapped data set. */
+    private Number bufferItem(Buffer buffer, int ordinal) {
+      switch (primitive) {
+      case BYTE:
+        return ((ByteBuffer) buffer).get(ordinal);
+      case SHORT:
+        return ((ShortBuffer) buffer).get(ordinal);
+      case INT:
+        return ((IntBuffer) buffer).get(ordinal);
+      case LONG:
+        return ((LongBuffer) buffer).get(ordinal);
+      case FLOAT:
+        return ((FloatBuffer) buffer).get(ordinal);
+      case DOUBLE:
+        return ((DoubleBuffer) buffer).get(ordinal);
+      default:
+        throw new AssertionError(primitive + " unexpected");
+      }
+    }
+
+    /** Converts a number to a value of a given primitive type. */
+    private static Object box(Primitive p, Number n) {
+      switch (p) {
+      case BOOLEAN:
+        return n.longValue() != 0;
+      case BYTE:
+        return n.byteValue();
+      case CHAR:
+        return (char) n.intValue();
+      case SHORT:
+        return n.shortValue();
+      case INT:
+        return n.intValue();
+      case LONG:
+        return n.longValue();
+      case FLOAT:
+        return n.floatValue();
+      case DOUBLE:
+        return n.doubleValue();
+      default:
+        throw new AssertionError(p + " unexpected");
+      }
+    }
+
+    /** Returns the data set as a Java array, copying it if it is mapped. */
+    Object toArray(Object dataSet) {
+      if (!(dataSet instanceof Buffer)) {
+        return dataSet;
+      }
+      final Buffer buffer = (Buffer) dataSet;
+      final Object array = Array.newInstance(primitive.primitiveClass,
+          buffer.limit());
+      switch (primitive) {
+      case BYTE:
+        ((ByteBuffer) buffer).duplicate().get((byte[]) array);
+        break;
+      case SHORT:
+        ((ShortBuffer) buffer).duplicate().get((short[]) array);
+        break;
+      case INT:
+        ((IntBuffer) buffer).duplicate().get((int[]) array);
+        break;
+      case LONG:
+        ((LongBuffer) buffer).duplicate().get((long[]) array);
+        break;
+      case FLOAT:
+        ((FloatBuffer) buffer).duplicate().get((float[]) array);
+        break;
+      case DOUBLE:
+        ((DoubleBuffer) buffer).duplicate().get((double[]) array);
+        break;
+      default:
+        throw new AssertionError(primitive + " unexpected");
+      }
+      return array;
+    }
+
+    /** Copies the values of the selected rows into an array of longs.
+     * Valid for all fixed-point primitive types except {@code boolean} and
+     * {@code char}. */
+    void getLongs(Object dataSet, int[] selection, int n, long[] target) {
+      if (dataSet instanceof Buffer) {
+        getBufferLongs((Buffer) dataSet, selection, n, target);
+        return;
+      }
+      switch (primitive) {
+      case BYTE:
+        final byte[] bytes = (byte[]) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = bytes[selection[i]];
+        }
+        break;
+      case SHORT:
+        final short[] shorts = (short[]) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = shorts[selection[i]];
+        }
+        break;
+      case INT:
+        final int[] ints = (int[]) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = ints[selection[i]];
+        }
+        break;
+      case LONG:
+        final long[] longs = (long[]) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = longs[selection[i]];
+        }
+        break;
+      default:
+        throw new AssertionError(primitive + " unexpected");
+      }
+    }
+
+    /** Copies the values of the selected rows into an array of doubles.
+     * Valid for {@code float} and {@code double}. */
+    void getDoubles(Object dataSet, int[] selection, int n, double[] target) {
+      if (dataSet instanceof DoubleBuffer) {
+        final DoubleBuffer buffer = (DoubleBuffer) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = buffer.get(selection[i]);
+        }
+        return;
+      }
+      if (dataSet instanceof FloatBuffer) {
+        final FloatBuffer buffer = (FloatBuffer) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = buffer.get(selection[i]);
+        }
+        return;
+      }
+      switch (primitive) {
+      case FLOAT:
+        final float[] floats = (float[]) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = floats[selection[i]];
+        }
+        break;
+      case DOUBLE:
+        final double[] doubles = (double[]) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = doubles[selection[i]];
+        }
+        break;
+      default:
+        throw new AssertionError(primitive + " unexpected");
+      }
+    }
+
+    private void getBufferLongs(Buffer dataSet, int[] selection, int n,
+        long[] target) {
+      switch (primitive) {
+      case BYTE:
+        final ByteBuffer bytes = (ByteBuffer) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = bytes.get(selection[i]);
+        }
+        break;
+      case SHORT:
+        final ShortBuffer shorts = (ShortBuffer) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = shorts.get(selection[i]);
+        }
+        break;
+      case INT:
+        final IntBuffer ints = (IntBuffer) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = ints.get(selection[i]);
+        }
+        break;
+      case LONG:
+        final LongBuffer longs = (LongBuffer) dataSet;
+        for (int i = 0; i < n; i++) {
+          target[i] = longs.get(selection[i]);
+        }
+        break;
+      default:
+        throw new AssertionError(primitive + " unexpected");
+      }
     }
   }
 
@@ -472,80 +1294,416 @@ public String toString(Object dataSet) {
     }
   }
 
-  /** Representation that stores string column values. */
-  public static class StringDictionary implements Representation {
-    public StringDictionary() {
-    }
+  /** Representation that stores the values of a column in a block of
+   * length-prefixed data, and the value of each row as a code that is an
+   * offset into the block. Base class for {@link StringDictionary} and
+   * {@link ByteStringDictionary}.
+   *
+   * <p>A code less than the length of the block is the offset of a value in
+   * the block; other codes are indexes, starting at the length of the
+   * block, into an array of exceptions. The exceptions are values that
+   * occur very commonly, which are therefore worth keeping as objects;
+   * values too long for their length to fit in 16 bits; and null, which is
+   * last. Other values are created on demand. Values in the block are sorted,
+   * so that a dictionary created from the same value set is the same.</p>
+   *
+   * <p>The data set is a {@link BlockData}.</p> */
+  abstract static class BlockDictionary implements Representation {
+    /** Length of the longest value that can be stored in the block. */
+    static final int MAX_LENGTH = 0xFFFF;
+
+    /** A value is an exception if at least this fraction of the rows have
+     * it; there are therefore at most this many common values. */
+    static final int COMMON_FRACTION = 64;
 
-    @Override
-    public String toString() {
-      return "StringDictionary()";
-    }
+    final int ordinal;
+    final Representation representation;
 
-    public RepresentationType getType() {
-      return RepresentationType.STRING_DICTIONARY;
+    /** Layout computed while choosing this representation, to be used by
+     * {@link #freeze}; null after it has been used. */
+    private Layout layout;
+
+    BlockDictionary(int ordinal, Representation representation,
+        Layout layout) {
+      this.ordinal = ordinal;
+      this.representation = representation;
+      this.layout = layout;
     }
 
+    /** Returns the number of units (chars or bytes) of the length
+     * prefix. */
+    abstract int prefixLength();
+
+    /** Creates a block of a given number of units. */
+    abstract Object allocate(int length);
+
+    /** Writes a value, prefixed by its length, into a block. */
+    abstract void put(Object block, int offset, Comparable value);
+
+    /** Creates the value at a given offset in a block. */
+    abstract Comparable get(Object block, int offset);
+
     public Object freeze(ColumnLoader.ValueSet valueSet, int[] sources) {
-      throw new UnsupportedOperationException(); // TODO:
+      Layout layout = this.layout;
+      this.layout = null;
+      if (layout == null || layout.valueSet != valueSet) {
+        layout = new Layout(valueSet, prefixLength());
+      }
+      final Object block = allocate(layout.blockLength);
+      for (Map.Entry<Comparable, Integer> entry : layout.offsets.entrySet()) {
+        put(block, entry.getValue(), entry.getKey());
+      }
+      final Map<Comparable, Integer> exceptionCodes =
+          new HashMap<Comparable, Integer>();
+      for (int i = 0; i < layout.exceptions.size(); i++) {
+        exceptionCodes.put(layout.exceptions.get(i), layout.blockLength + i);
+      }
+      final ColumnLoader.ValueSet codeValueSet =
+          new ColumnLoader.ValueSet(int.class);
+      for (Comparable value : permuteList(valueSet.values, sources)) {
+        Integer code = layout.offsets.get(value);
+        if (code == null) {
+          code = exceptionCodes.get(value);
+          assert code != null : value;
+        }
+        codeValueSet.add(code);
+      }
+      return new BlockData(representation.freeze(codeValueSet, null), block,
+          layout.blockLength,
+          layout.exceptions.toArray(
+              new Comparable[layout.exceptions.size()]));
     }
 
     public Object permute(Object dataSet, int[] sources) {
-      throw new UnsupportedOperationException(); // TODO:
+      final BlockData data = (BlockData) dataSet;
+      return new BlockData(representation.permute(data.codes, sources),
+          data.block, data.blockLength, data.exceptions);
+    }
+
+    /** Returns the offset of the value after the value at a given offset in
+     * a block. */
+    abstract int next(Object block, int offset);
+
+    /** Compares the value at a given offset in a block with a value,
+     * without creating an object if possible. */
+    abstract int compare(Object block, int offset, Comparable value);
+
+    /** Returns the first offset whose value is greater than or equal to a
+     * given value, and the first offset whose value is greater; either is
+     * the length of the block if there is no such offset. Values in the
+     * block are sorted and distinct, so does a binary search over the
+     * offsets of the values. */
+    int[] bounds(BlockData data, Comparable value) {
+      final int[] offsets = offsets(data);
+      int lo = 0;
+      int hi = offsets.length;
+      while (lo < hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (compare(data.block, offsets[mid], value) < 0) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      final int lower = lo < offsets.length ? offsets[lo] : data.blockLength;
+      if (lo < offsets.length
+          && compare(data.block, offsets[lo], value) == 0) {
+        ++lo;
+      }
+      final int upper = lo < offsets.length ? offsets[lo] : data.blockLength;
+      return new int[] {lower, upper};
+    }
+
+    /** Returns the offset of each value in a block, in order. Walks the
+     * block the first time, and remembers the result in the data set. */
+    int[] offsets(BlockData data) {
+      int[] offsets = data.offsets;
+      if (offsets == null) {
+        int count = 0;
+        for (int offset = 0; offset < data.blockLength;
+             offset = next(data.block, offset)) {
+          ++count;
+        }
+        offsets = new int[count];
+        int i = 0;
+        for (int offset = 0; offset < data.blockLength;
+             offset = next(data.block, offset)) {
+          offsets[i++] = offset;
+        }
+        data.offsets = offsets;
+      }
+      return offsets;
+    }
+
+    /** Returns the code of the value in a given row. */
+    int getCode(Object dataSet, int ordinal) {
+      return representation.getInt(((BlockData) dataSet).codes, ordinal);
+    }
+
+    /** Returns the value that a code stands for. */
+    Comparable decode(BlockData data, int code) {
+      if (code >= data.blockLength) {
+        return data.exceptions[code - data.blockLength];
+      }
+      return get(data.block, code);
     }
 
     public Object getObject(Object dataSet, int ordinal) {
-      throw new UnsupportedOperationException(); // TODO:
+      return decode((BlockData) dataSet, getCode(dataSet, ordinal));
     }
 
+    /** Not supported, because values are strings or byte strings. Call
+     * {@link #getObject} for the value of a row, or {@link #getCode} for its
+     * code. */
     public int getInt(Object dataSet, int ordinal) {
-      throw new UnsupportedOperationException(); // TODO:
+      throw new UnsupportedOperationException(
+          "getInt on a column of strings; use getObject or getCode");
     }
 
     public int size(Object dataSet) {
-      throw new UnsupportedOperationException(); // TODO:
+      return representation.size(((BlockData) dataSet).codes);
     }
 
     public String toString(Object dataSet) {
       return Column.asList(this, dataSet).toString();
     }
+
+    /** Returns the length of a string or byte string. */
+    static int length(Comparable value) {
+      return value instanceof ByteString
+          ? ((ByteString) value).length()
+          : ((String) value).length();
+    }
+
+    /** Assignment of the distinct values of a value set to offsets in a
+     * block, or to exceptions. */
+    static class Layout {
+      final ColumnLoader.ValueSet valueSet;
+      final Map<Comparable, Integer> offsets =
+          new HashMap<Comparable, Integer>();
+      final List<Comparable> exceptions = new ArrayList<Comparable>();
+      int blockLength;
+
+      Layout(ColumnLoader.ValueSet valueSet, int prefixLength) {
+        this.valueSet = valueSet;
+        final Map<Comparable, int[]> counts = new HashMap<Comparable, int[]>();
+        for (Comparable value : valueSet.values) {
+          if (value != null) {
+            int[] count = counts.get(value);
+            if (count == null) {
+              count = new int[1];
+              counts.put(value, count);
+            }
+            ++count[0];
+          }
+        }
+        final int commonCount =
+            Math.max(2, valueSet.values.size() / COMMON_FRACTION);
+        final Comparable[] values =
+            valueSet.map.keySet().toArray(new Comparable[counts.size()]);
+        Arrays.sort(values);
+        for (Comparable value : values) {
+          final int length = length(value);
+          if (length > MAX_LENGTH || counts.get(value)[0] >= commonCount) {
+            exceptions.add(value);
+          } else {
+            offsets.put(value, blockLength);
+            blockLength += prefixLength + length;
+          }
+        }
+        if (valueSet.containsNull) {
+          exceptions.add(null);
+        }
+      }
+
+      /** Returns the largest code. */
+      int maxCode() {
+        return blockLength + exceptions.size() - 1;
+      }
+    }
+  }
+
+  /** Data set of a {@link BlockDictionary}. */
+  static class BlockData {
+    /** Data set of the codes. */
+    final Object codes;
+    /** Block of values; a {@code char[]} or {@link CharBuffer} for a
+     * {@link StringDictionary}, a {@code byte[]} or {@link ByteBuffer} for a
+     * {@link ByteStringDictionary}. */
+    final Object block;
+    final int blockLength;
+    final Comparable[] exceptions;
+    /** Offset of each value in the block, in order; computed on first use
+     * by {@link BlockDictionary#offsets}. */
+    volatile int[] offsets;
+
+    BlockData(Object codes, Object block, int blockLength,
+        Comparable[] exceptions) {
+      this.codes = codes;
+      this.block = block;
+      this.blockLength = blockLength;
+      this.exceptions = exceptions;
+    }
   }
 
-  /** Representation that stores byte-string column values. */
-  public static class ByteStringDictionary implements Representation {
-    public ByteStringDictionary() {
+  /** Representation that stores string column values in a block of chars.
+   * Each value is preceded by a char that holds its length. */
+  public static class StringDictionary extends BlockDictionary {
+    public StringDictionary(int ordinal, Representation representation) {
+      this(ordinal, representation, null);
     }
 
+    StringDictionary(int ordinal, Representation representation,
+        Layout layout) {
+      super(ordinal, representation, layout);
+    }
+
+    @Override
     public String toString() {
-      return "ByteStringDictionary()";
+      return "StringDictionary(ordinal=" + ordinal
+          + ", representation=" + representation
+          + ")";
+    }
+
+    public RepresentationType getType() {
+      return RepresentationType.STRING_DICTIONARY;
+    }
+
+    int prefixLength() {
+      return 1;
+    }
+
+    Object allocate(int length) {
+      return new char[length];
+    }
+
+    void put(Object block, int offset, Comparable value) {
+      final String s = (String) value;
+      final char[] chars = (char[]) block;
+      chars[offset] = (char) s.length();
+      s.getChars(0, s.length(), chars, offset + 1);
+    }
+
+    int next(Object block, int offset) {
+      return offset + 1 + charAt(block, offset);
+    }
+
+    int compare(Object block, int offset, Comparable value) {
+      final String s = (String) value;
+      final int length = charAt(block, offset);
+      final int n = Math.min(length, s.length());
+      for (int i = 0; i < n; i++) {
+        final int c = charAt(block, offset + 1 + i) - s.charAt(i);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return length - s.length();
+    }
+
+    private static char charAt(Object block, int i) {
+      return block instanceof CharBuffer
+          ? ((CharBuffer) block).get(i)
+          : ((char[]) block)[i];
+    }
+
+    Comparable get(Object block, int offset) {
+      if (block instanceof CharBuffer) {
+        final CharBuffer buffer = (CharBuffer) block;
+        final char[] chars = new char[buffer.get(offset)];
+        for (int i = 0; i < chars.length; i++) {
+          chars[i] = buffer.get(offset + 1 + i);
+        }
+        return new String(chars);
+      }
+      final char[] chars = (char[]) block;
+      return new String(chars, offset + 1, chars[offset]);
+    }
+  }
+
+  /** Representation that stores byte-string column values in a block of
+   * bytes. Each value is preceded by two bytes that hold its length. */
+  public static class ByteStringDictionary extends BlockDictionary {
+    public ByteStringDictionary(int ordinal, Representation representation) {
+      this(ordinal, representation, null);
+    }
+
+    ByteStringDictionary(int ordinal, Representation representation,
+        Layout layout) {
+      super(ordinal, representation, layout);
+    }
+
+    public String toString() {
+      return "ByteStringDictionary(ordinal=" + ordinal
+          + ", representation=" + representation
+          + ")";
     }
 
     public RepresentationType getType() {
       return RepresentationType.BYTE_STRING_DICTIONARY;
     }
 
-    public Object freeze(ColumnLoader.ValueSet valueSet, int[] sources) {
-      throw new UnsupportedOperationException(); // TODO:
+    int prefixLength() {
+      return 2;
     }
 
-    public Object permute(Object dataSet, int[] sources) {
-      throw new UnsupportedOperationException(); // TODO:
+    Object allocate(int length) {
+      return new byte[length];
     }
 
-    public Object getObject(Object dataSet, int ordinal) {
-      throw new UnsupportedOperationException(); // TODO:
+    void put(Object block, int offset, Comparable value) {
+      final byte[] bytes = ((ByteString) value).getBytes();
+      final byte[] block1 = (byte[]) block;
+      block1[offset] = (byte) (bytes.length >> 8);
+      block1[offset + 1] = (byte) bytes.length;
+      System.arraycopy(bytes, 0, block1, offset + 2, bytes.length);
     }
 
-    public int getInt(Object dataSet, int ordinal) {
-      throw new UnsupportedOperationException(); // TODO:
+    int next(Object block, int offset) {
+      return offset + 2 + lengthAt(block, offset);
     }
 
-    public int size(Object dataSet) {
-      throw new UnsupportedOperationException(); // TODO:
+    /** Compares in place, the same way as {@link ByteString#compareTo}. */
+    int compare(Object block, int offset, Comparable value) {
+      final ByteString s = (ByteString) value;
+      final int length = lengthAt(block, offset);
+      final int n = Math.min(length, s.length());
+      for (int i = 0; i < n; i++) {
+        final int c = byteAt(block, offset + 2 + i) - s.byteAt(i);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return length - s.length();
     }
 
-    public String toString(Object dataSet) {
-      return Column.asList(this, dataSet).toString();
+    private static int lengthAt(Object block, int offset) {
+      return block instanceof ByteBuffer
+          ? ((ByteBuffer) block).getChar(offset)
+          : ((((byte[]) block)[offset] & 0xFF) << 8)
+              | (((byte[]) block)[offset + 1] & 0xFF);
+    }
+
+    private static byte byteAt(Object block, int i) {
+      return block instanceof ByteBuffer
+          ? ((ByteBuffer) block).get(i)
+          : ((byte[]) block)[i];
+    }
+
+    Comparable get(Object block, int offset) {
+      if (block instanceof ByteBuffer) {
+        final ByteBuffer buffer = (ByteBuffer) block;
+        final byte[] bytes = new byte[buffer.getChar(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+          bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new ByteString(bytes);
+      }
+      final byte[] bytes = (byte[]) block;
+      final int length =
+          ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+      return new ByteString(
+          Arrays.copyOfRange(bytes, offset + 2, offset + 2 + length));
     }
   }
 
@@ -576,7 +1734,7 @@ public Object permute(Object dataSet, int[] sources) {
 
     public Object getObject(Object dataSet, int ordinal) {
       Pair<Object, Integer> pair = (Pair<Object, Integer>) dataSet;
-      return pair.getValue();
+      return pair.left;
     }
 
     public int getInt(Object dataSet, int ordinal) {
@@ -599,7 +1757,10 @@ public String toString(Object dataSet) {
    * array. Each value does not necessarily occupy 8, 16, 32 or 64
    * bits (the number of bits used by the built-in types). This
    * representation is often used to store the value codes for a
-   * dictionary-based representation. */
+   * dictionary-based representation.
+   *
+   * <p>The data set is a {@code long[]} or, if the content was read by
+   * {@link ColumnFile}, a {@link LongBuffer} mapped from a file.</p> */
   public static class BitSlicedPrimitiveArray implements Representation {
     final int ordinal;
     final int bitCount;
@@ -679,7 +1840,7 @@ public Object freeze(ColumnLoader.ValueSet valueSet, int[] sources) {
     }
 
     public Object permute(Object dataSet, int[] sources) {
-      final long[] longs0 = (long[]) dataSet;
+      final long[] longs0 = toArray(dataSet);
       int n = sources.length;
       final long[] longs = new long[longs0.length];
       for (int i = 0; i < n; i++) {
@@ -691,10 +1852,9 @@ public Object permute(Object dataSet, int[] sources) {
     }
 
     public Object getObject(Object dataSet, int ordinal) {
-      final long[] longs = (long[]) dataSet;
       final int chunksPerWord = 64 / bitCount;
       final int word = ordinal / chunksPerWord;
-      final long v = longs[word];
+      final long v = word(dataSet, word);
       final int chunk = ordinal % chunksPerWord;
       final int mask = (1 << bitCount) - 1;
       final int signMask = 1 << (bitCount - 1);
@@ -723,10 +1883,9 @@ public Object getObject(Object dataSet, int ordinal) {
     }
 
     public int getInt(Object dataSet, int ordinal) {
-      final long[] longs = (long[]) dataSet;
       final int chunksPerWord = 64 / bitCount;
       final int word = ordinal / chunksPerWord;
-      final long v = longs[word];
+      final long v = word(dataSet, word);
       final int chunk = ordinal % chunksPerWord;
       final int mask = (1 << bitCount) - 1;
       final int signMask = 1 << (bitCount - 1);
@@ -773,9 +1932,53 @@ public static void orLong(
     }
 
     public int size(Object dataSet) {
-      final long[] longs = (long[]) dataSet;
+      final int wordCount = dataSet instanceof LongBuffer
+          ? ((LongBuffer) dataSet).limit()
+          : ((long[]) dataSet).length;
+      final int chunksPerWord = 64 / bitCount;
+      return wordCount * chunksPerWord; // may be slightly too high
+    }
+
+    /** Returns a word of a data set. */
+    private static long word(Object dataSet, int word) {
+      if (dataSet instanceof LongBuffer) {
+        return ((LongBuffer) dataSet).get(word);
+      }
+      return ((long[]) dataSet)[word];
+    }
+
+    /** Returns the data set as an array, copying it if it is mapped. */
+    static long[] toArray(Object dataSet) {
+      if (dataSet instanceof LongBuffer) {
+        final LongBuffer buffer = (LongBuffer) dataSet;
+        final long[] longs = new long[buffer.limit()];
+        buffer.duplicate().get(longs);
+        return longs;
+      }
+      return (long[]) dataSet;
+    }
+
+    /** Copies the values of the selected rows into an array of longs.
+     * Valid only if the array is not signed. */
+    void getLongs(Object dataSet, int[] selection, int n, long[] target) {
+      assert !signed;
       final int chunksPerWord = 64 / bitCount;
-      return longs.length * chunksPerWord; // may be slightly too high
+      final long mask = (1L << bitCount) - 1L;
+      if (dataSet instanceof LongBuffer) {
+        final LongBuffer buffer = (LongBuffer) dataSet;
+        for (int i = 0; i < n; i++) {
+          final int ordinal = selection[i];
+          final long value = buffer.get(ordinal / chunksPerWord);
+          target[i] =
+              (value >> ((ordinal % chunksPerWord) * bitCount)) & mask;
+        }
+        return;
+      }
+      final long[] longs = (long[]) dataSet;
+      for (int i = 0; i < n; i++) {
+        target[i] = getLong(bitCount, chunksPerWord, mask, longs,
+            selection[i]);
+      }
     }
 
     public String toString(Object dataSet) {
@@ -801,9 +2004,9 @@ public int size() {
 
   /** Contents of a table. */
   public static class Content {
-    private final List<Column> columns;
-    private final int size;
-    private final int sortField;
+    final List<Column> columns;
+    final int size;
+    final int sortField;
 
     public Content(List<? extends Column> columns, int size, int sortField) {
       this.columns = ImmutableList.copyOf(columns);
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.impl.clone;
+
+import net.hydromatic.linq4j.expressions.*;
+
+import net.hydromatic.optiq.Table;
+import net.hydromatic.optiq.rules.java.*;
+
+import org.eigenbase.rel.*;
+import org.eigenbase.relopt.*;
+import org.eigenbase.reltype.*;
+import org.eigenbase.util.ImmutableIntList;
+
+import com.google.common.collect.ImmutableList;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relational expression that scans an {@link ArrayTable}, returning a subset
+ * of its columns and only the rows that satisfy a list of simple filters.
+ *
+ * <p>The filters are evaluated by {@link ArrayTable#scan} against the column
+ * stores, a batch of rows at a time; rows that fail them are never converted
+ * to objects. Only the columns that are needed are converted, but
+ * expressions of the projection are not evaluated over batches; they are
+ * evaluated row by row by a calc on top of the scan. Created by
+ * {@link ArrayTableScanRule}.</p>
+ */
+class ArrayTableScan extends TableAccessRelBase implements EnumerableRel {
+  private static final Method SCAN_METHOD =
+      Types.lookupMethod(CloneSchema.class, "scan", Table.class,
+          int[].class, int[].class, String[].class, Comparable[][].class);
+
+  /** Ordinals of the columns of the table that are returned. */
+  final ImmutableIntList fields;
+
+  /** Filters; each row returned satisfies all of them. */
+  final ImmutableList<ArrayTable.Filter> filters;
+
+  ArrayTableScan(RelOptCluster cluster, RelTraitSet traitSet,
+      RelOptTable table, ImmutableIntList fields,
+      ImmutableList<ArrayTable.Filter> filters) {
+    super(cluster, traitSet, table);
+    assert getConvention() instanceof EnumerableConvention;
+    assert !fields.isEmpty();
+    this.fields = fields;
+    this.filters = filters;
+  }
+
+  @Override public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+    assert inputs.isEmpty();
+    return new ArrayTableScan(getCluster(), traitSet, table, fields, filters);
+  }
+
+  @Override public RelDataType deriveRowType() {
+    final List<RelDataTypeField> fieldList =
+        table.getRowType().getFieldList();
+    final RelDataTypeFactory.FieldInfoBuilder builder =
+        getCluster().getTypeFactory().builder();
+    for (int field : fields) {
+      builder.add(fieldList.get(field));
+    }
+    return builder.build();
+  }
+
+  @Override public RelWriter explainTerms(RelWriter pw) {
+    return super.explainTerms(pw)
+        .item("fields", fields)
+        .itemIf("filters", filters, !filters.isEmpty());
+  }
+
+  public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    // ArrayTable.scan returns the value itself if there is one field,
+    // otherwise an Object[]. This is what PhysTypeImpl does for ARRAY format.
+    final PhysType physType =
+        PhysTypeImpl.of(
+            implementor.getTypeFactory(),
+            getRowType(),
+            JavaRowFormat.ARRAY);
+    final List<Expression> fieldExpressions = new ArrayList<Expression>();
+    for (int field : fields) {
+      fieldExpressions.add(Expressions.constant(field));
+    }
+    // Generated code cannot see ArrayTable.Filter, so pass the ordinal,
+    // operator and values of each filter to CloneSchema.scan.
+    final List<Expression> ordinalExpressions = new ArrayList<Expression>();
+    final List<Expression> opExpressions = new ArrayList<Expression>();
+    final List<Expression> valuesExpressions = new ArrayList<Expression>();
+    for (ArrayTable.Filter filter : filters) {
+      final List<Expression> valueExpressions = new ArrayList<Expression>();
+      if (filter.op == ArrayTable.Op.IN) {
+        for (Comparable value : filter.values) {
+          valueExpressions.add(valueExpression(value));
+        }
+      } else {
+        valueExpressions.add(valueExpression(filter.value));
+      }
+      ordinalExpressions.add(Expressions.constant(filter.ordinal));
+      opExpressions.add(Expressions.constant(filter.op.name()));
+      valuesExpressions.add(
+          Expressions.newArrayInit(Comparable.class, valueExpressions));
+    }
+    final Expression expression =
+        Expressions.call(
+            SCAN_METHOD,
+            table.getExpression(Table.class),
+            Expressions.newArrayInit(int.class, fieldExpressions),
+            Expressions.newArrayInit(int.class, ordinalExpressions),
+            Expressions.newArrayInit(String.class, opExpressions),
+            Expressions.newArrayInit(Comparable[].class, valuesExpressions));
+    return implementor.result(physType, Blocks.toBlock(expression));
+  }
+
+  /** Generates an expression for the value of a filter; for example,
+   * "Integer.valueOf(10)" or "null". */
+  private static Expression valueExpression(Comparable value) {
+    if (value == null) {
+      return Expressions.constant(null, Comparable.class);
+    }
+    final Primitive primitive = Primitive.ofBox(value.getClass());
+    if (primitive != null) {
+      return Expressions.box(
+          Expressions.constant(value, primitive.primitiveClass),
+          primitive);
+    }
+    return Expressions.constant(value);
+  }
+}
+
+// End ArrayTableScan.java
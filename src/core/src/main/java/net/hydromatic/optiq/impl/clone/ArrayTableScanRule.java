@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.impl.clone;
+
+import net.hydromatic.optiq.rules.java.JavaRules;
+import net.hydromatic.optiq.util.BitSets;
+
+import org.eigenbase.relopt.*;
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeField;
+import org.eigenbase.rex.*;
+import org.eigenbase.sql.SqlKind;
+import org.eigenbase.util.ImmutableIntList;
+import org.eigenbase.util.NlsString;
+import org.eigenbase.util.mapping.Mappings;
+
+import com.google.common.collect.ImmutableList;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Rule that converts a
+ * {@link net.hydromatic.optiq.rules.java.JavaRules.EnumerableCalcRel} on
+ * top of a scan of an {@link ArrayTable} into an {@link ArrayTableScan}.
+ *
+ * <p>Conjuncts of the condition of the form "column op literal" (where op is
+ * a comparison operator), "column IS NULL", "column IS NOT NULL" and
+ * "column = literal OR column = literal ..." (which is how
+ * "column IN (literal, ...)" arrives) are evaluated by the scan, and the
+ * scan returns only the columns that the rest of the program needs. What
+ * remains of the program, if anything, is evaluated by a calc on top of the
+ * scan.</p>
+ *
+ * <p>Runs after the Volcano planner, in the same way as
+ * {@link org.eigenbase.rel.rules.MergeCalcRule}; enabled by the
+ * "columnarScan" connection property.</p>
+ */
+public class ArrayTableScanRule extends RelOptRule {
+  public static final ArrayTableScanRule INSTANCE = new ArrayTableScanRule();
+
+  private ArrayTableScanRule() {
+    super(
+        operand(JavaRules.EnumerableCalcRel.class,
+            operand(JavaRules.EnumerableTableAccessRel.class, none())));
+  }
+
+  public void onMatch(RelOptRuleCall call) {
+    final JavaRules.EnumerableCalcRel calc = call.rel(0);
+    final JavaRules.EnumerableTableAccessRel scan = call.rel(1);
+    final RelOptTable table = scan.getTable();
+    if (table.unwrap(ArrayTable.class) == null) {
+      return;
+    }
+    final RexBuilder rexBuilder = calc.getCluster().getRexBuilder();
+    final RexProgram program = calc.getProgram();
+    final List<RelDataTypeField> fieldList = scan.getRowType().getFieldList();
+
+    // Split the condition into filters that the scan can evaluate, and
+    // the rest.
+    final List<ArrayTable.Filter> filters = new ArrayList<ArrayTable.Filter>();
+    final List<RexNode> remaining = new ArrayList<RexNode>();
+    if (program.getCondition() != null) {
+      final RexNode condition =
+          program.expandLocalRef(program.getCondition());
+      for (RexNode node : RelOptUtil.conjunctions(condition)) {
+        final ArrayTable.Filter filter = toFilter(node, fieldList);
+        if (filter != null) {
+          filters.add(filter);
+        } else {
+          remaining.add(node);
+        }
+      }
+    }
+    final RexNode condition =
+        RexUtil.composeConjunction(rexBuilder, remaining, true);
+    final List<RexNode> projects = new ArrayList<RexNode>();
+    for (RexLocalRef ref : program.getProjectList()) {
+      projects.add(program.expandLocalRef(ref));
+    }
+
+    // Only return the columns used by the projections and the remaining
+    // condition.
+    final BitSet used = RelOptUtil.InputFinder.bits(projects, condition);
+    if (filters.isEmpty() && used.cardinality() == fieldList.size()) {
+      return;
+    }
+    if (used.isEmpty()) {
+      // For example, "select count(*) from t where x > 5". We need to
+      // return something for each row.
+      used.set(0);
+    }
+    final ImmutableIntList fields =
+        ImmutableIntList.copyOf(BitSets.toList(used));
+    final ArrayTableScan arrayTableScan =
+        new ArrayTableScan(scan.getCluster(), scan.getTraitSet(), table,
+            fields, ImmutableList.copyOf(filters));
+
+    final RexShuttle shuttle =
+        new RexPermuteInputsShuttle(
+            Mappings.target(fields, fieldList.size()), arrayTableScan);
+    final RexProgram program2 =
+        RexProgram.create(arrayTableScan.getRowType(),
+            shuttle.apply(projects),
+            shuttle.apply(condition),
+            calc.getRowType(),
+            rexBuilder);
+    if (program2.isTrivial()
+        && RelOptUtil.areRowTypesEqual(arrayTableScan.getRowType(),
+            calc.getRowType(), true)) {
+      call.transformTo(arrayTableScan);
+    } else {
+      call.transformTo(
+          new JavaRules.EnumerableCalcRel(calc.getCluster(),
+              calc.getTraitSet(), arrayTableScan, calc.getRowType(),
+              program2, calc.getCollationList()));
+    }
+  }
+
+  /** Converts a conjunct into a filter, or returns null if it is not of a
+   * form that {@link ArrayTable#scan} can evaluate. */
+  private static ArrayTable.Filter toFilter(RexNode node,
+      List<RelDataTypeField> fieldList) {
+    if (!(node instanceof RexCall)) {
+      return null;
+    }
+    final List<RexNode> operands = ((RexCall) node).getOperands();
+    SqlKind kind = node.getKind();
+    switch (kind) {
+    case IS_NULL:
+    case IS_NOT_NULL:
+      if (operands.get(0) instanceof RexInputRef) {
+        return new ArrayTable.Filter(
+            ((RexInputRef) operands.get(0)).getIndex(), kind.name(), null);
+      }
+      return null;
+    case EQUALS:
+    case NOT_EQUALS:
+    case LESS_THAN:
+    case LESS_THAN_OR_EQUAL:
+    case GREATER_THAN:
+    case GREATER_THAN_OR_EQUAL:
+      RexNode op0 = operands.get(0);
+      RexNode op1 = operands.get(1);
+      if (op0 instanceof RexLiteral) {
+        // "5 < x" becomes "x > 5"
+        final RexNode op = op0;
+        op0 = op1;
+        op1 = op;
+        kind = reverse(kind);
+      }
+      if (!(op0 instanceof RexInputRef)
+          || !(op1 instanceof RexLiteral)) {
+        return null;
+      }
+      final int index = ((RexInputRef) op0).getIndex();
+      final Comparable value =
+          toValue((RexLiteral) op1, fieldList.get(index).getType());
+      if (value == null) {
+        return null;
+      }
+      return new ArrayTable.Filter(index, kind.name(), value);
+    case OR:
+      // "x = 1 OR x = 3 OR 5 = x" becomes "x IN (1, 3, 5)"
+      int ordinal = -1;
+      final List<Comparable> values = new ArrayList<Comparable>();
+      for (RexNode operand : operands) {
+        final ArrayTable.Filter filter = toFilter(operand, fieldList);
+        if (filter == null
+            || filter.op != ArrayTable.Op.EQUALS
+            || ordinal >= 0 && filter.ordinal != ordinal) {
+          return null;
+        }
+        ordinal = filter.ordinal;
+        values.add(filter.value);
+      }
+      return ArrayTable.Filter.in(ordinal,
+          values.toArray(new Comparable[values.size()]));
+    default:
+      return null;
+    }
+  }
+
+  private static SqlKind reverse(SqlKind kind) {
+    switch (kind) {
+    case LESS_THAN:
+      return SqlKind.GREATER_THAN;
+    case LESS_THAN_OR_EQUAL:
+      return SqlKind.GREATER_THAN_OR_EQUAL;
+    case GREATER_THAN:
+      return SqlKind.LESS_THAN;
+    case GREATER_THAN_OR_EQUAL:
+      return SqlKind.LESS_THAN_OR_EQUAL;
+    default:
+      return kind;
+    }
+  }
+
+  /** Converts a literal to a value of the same class as the values of a
+   * column of the given type, or returns null if that is not possible
+   * without loss. */
+  private static Comparable toValue(RexLiteral literal, RelDataType type) {
+    final Comparable value = literal.getValue();
+    if (value instanceof BigDecimal) {
+      final BigDecimal bd = (BigDecimal) value;
+      try {
+        switch (type.getSqlTypeName()) {
+        case TINYINT:
+          return bd.byteValueExact();
+        case SMALLINT:
+          return bd.shortValueExact();
+        case INTEGER:
+          return bd.intValueExact();
+        case BIGINT:
+          return bd.longValueExact();
+        case DOUBLE:
+          return bd.doubleValue();
+        default:
+          return null;
+        }
+      } catch (ArithmeticException e) {
+        // Value has a fractional part, or is out of range.
+        return null;
+      }
+    }
+    if (value instanceof NlsString) {
+      switch (type.getSqlTypeName()) {
+      case VARCHAR:
+        return ((NlsString) value).getValue();
+      default:
+        return null;
+      }
+    }
+    return null;
+  }
+}
+
+// End ArrayTableScanRule.java
@@ -31,6 +31,8 @@
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -40,6 +42,12 @@
 
 /**
  * Schema that contains in-memory copies of tables from a JDBC schema.
+ *
+ * <p>If a directory is specified, the content of each table is saved to a
+ * {@link ColumnFile} in that directory the first time it is loaded, and is
+ * read from that file (by mapping it into memory) in subsequent runs. The
+ * files are not refreshed if the source data changes; delete them to force
+ * a reload.</p>
  */
 public class CloneSchema extends AbstractSchema {
   // TODO: implement 'driver' property
@@ -47,6 +55,7 @@ public class CloneSchema extends AbstractSchema {
   // TODO: test Factory
 
   private final SchemaPlus sourceSchema;
+  private final File directory;
 
   /**
    * Creates a CloneSchema.
@@ -54,8 +63,20 @@ public class CloneSchema extends AbstractSchema {
    * @param sourceSchema JDBC data source
    */
   public CloneSchema(SchemaPlus sourceSchema) {
+    this(sourceSchema, null);
+  }
+
+  /**
+   * Creates a CloneSchema that saves its tables to files.
+   *
+   * @param sourceSchema JDBC data source
+   * @param directory Directory in which to save the content of tables, or
+   *     null to hold content only in memory
+   */
+  public CloneSchema(SchemaPlus sourceSchema, File directory) {
     super();
     this.sourceSchema = sourceSchema;
+    this.directory = directory;
   }
 
   @Override
@@ -77,13 +98,28 @@ private Table createCloneTable(QueryProvider queryProvider,
     final JavaTypeFactory typeFactory =
         ((OptiqConnection) queryProvider).getTypeFactory();
     return createCloneTable(typeFactory, Schemas.proto(sourceTable), null,
-        queryable);
+        queryable,
+        directory == null ? null : new File(directory, name + ".optiq"));
   }
 
   public static <T> Table createCloneTable(final JavaTypeFactory typeFactory,
       final RelProtoDataType protoRowType,
       final List<ColumnMetaData.Rep> repList,
       final Enumerable<T> source) {
+    return createCloneTable(typeFactory, protoRowType, repList, source, null);
+  }
+
+  /** Creates a table that holds a copy of the rows of an enumerable.
+   *
+   * <p>If {@code file} is not null and contains content that was loaded
+   * with the same row type and representations, reads the content from the
+   * file; otherwise, or if the file cannot be read, loads the content from
+   * the source and writes it to the file.</p> */
+  public static <T> Table createCloneTable(final JavaTypeFactory typeFactory,
+      final RelProtoDataType protoRowType,
+      final List<ColumnMetaData.Rep> repList,
+      final Enumerable<T> source,
+      final File file) {
     final Type elementType = source instanceof QueryableTable
         ? ((QueryableTable) source).getElementType()
         : Object[].class;
@@ -93,15 +129,98 @@ public static <T> Table createCloneTable(final JavaTypeFactory typeFactory,
         Suppliers.memoize(
             new Supplier<ArrayTable.Content>() {
               public ArrayTable.Content get() {
+                final String fingerprint =
+                    protoRowType.apply(typeFactory).getFullTypeString()
+                    + "; " + repList;
+                if (file != null && file.exists()) {
+                  // If the file is from an old version, was written for a
+                  // different row type, or is corrupt, reload from the
+                  // source, and overwrite.
+                  try {
+                    return ColumnFile.read(file, fingerprint);
+                  } catch (IOException e) {
+                    // reload
+                  } catch (RuntimeException e) {
+                    // reload
+                  } catch (AssertionError e) {
+                    // reload
+                  }
+                }
                 final ColumnLoader loader =
                     new ColumnLoader<T>(typeFactory, source, protoRowType,
                         repList);
-                return new ArrayTable.Content(loader.representationValues,
-                    loader.size(), loader.sortField);
+                final ArrayTable.Content content =
+                    new ArrayTable.Content(loader.representationValues,
+                        loader.size(), loader.sortField);
+                if (file == null) {
+                  return content;
+                }
+                return save(content, fingerprint, file);
               }
             }));
   }
 
+  /** Returns the rows of a table created by {@link #createCloneTable} that
+   * satisfy some simple filters, with a subset of its columns. Each row
+   * returned satisfies all of the filters. If there is one field, each row
+   * is the value of that field; otherwise each row is an
+   * {@code Object[]}.
+   *
+   * <p>Filter {@code i} compares column {@code ordinals[i]} using the
+   * operator named {@code ops[i]}, such as "LESS_THAN", "IS_NULL" or "IN".
+   * For "IN", {@code values[i]} holds the list of values; for other
+   * operators, it holds one value, which is null for "IS_NULL" and
+   * "IS_NOT_NULL".</p>
+   *
+   * <p>Called from the code generated for a columnar scan, which is enabled
+   * by the "columnarScan" connection property.</p>
+   *
+   * @param table Table created by {@link #createCloneTable}
+   * @param fields Ordinals of columns to return
+   * @param ordinals Ordinal of the column of each filter
+   * @param ops Name of the operator of each filter
+   * @param values Values of each filter
+   */
+  public static Enumerable<Object> scan(Table table, int[] fields,
+      int[] ordinals, String[] ops, Comparable[][] values) {
+    final ArrayTable.Filter[] filters = new ArrayTable.Filter[ordinals.length];
+    for (int i = 0; i < filters.length; i++) {
+      filters[i] = ops[i].equals(ArrayTable.Op.IN.name())
+          ? ArrayTable.Filter.in(ordinals[i], values[i])
+          : new ArrayTable.Filter(ordinals[i], ops[i], values[i][0]);
+    }
+    return ((ArrayTable) table).scan(fields, filters);
+  }
+
+  /** Writes content to a file, and returns the content mapped from that
+   * file, so that the copy in heap can be garbage-collected. The file is
+   * written under a temporary name, unique to this call, and renamed, so
+   * that other processes never see a partial file and two processes saving
+   * the same table do not write to the same file. */
+  private static ArrayTable.Content save(ArrayTable.Content content,
+      String fingerprint, File file) {
+    final File directory = file.getAbsoluteFile().getParentFile();
+    File tempFile = null;
+    try {
+      //noinspection ResultOfMethodCallIgnored
+      directory.mkdirs();
+      tempFile = File.createTempFile(file.getName() + ".", ".tmp", directory);
+      ColumnFile.write(content, fingerprint, tempFile);
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("could not rename " + tempFile + " to " + file);
+      }
+      return ColumnFile.read(file, fingerprint);
+    } catch (IOException e) {
+      if (tempFile != null) {
+        //noinspection ResultOfMethodCallIgnored
+        tempFile.delete();
+      }
+      throw new RuntimeException("Error while saving table to " + file, e);
+    }
+  }
+
   /** Schema factory that creates a
    * {@link net.hydromatic.optiq.impl.clone.CloneSchema}.
    * This allows you to create a clone schema inside a model.json file.
@@ -119,12 +238,16 @@ public ArrayTable.Content get() {
    *         jdbcDriver: 'com.mysql.jdbc.Driver',
    *         jdbcUrl: 'jdbc:mysql://localhost/foodmart',
    *         jdbcUser: 'foodmart',
-   *         jdbcPassword: 'foodmart'
+   *         jdbcPassword: 'foodmart',
+   *         directory: '/var/cache/optiq/foodmart'
    *       }
    *     }
    *   ]
    * }
    * }</pre>
+   *
+   * <p>The optional {@code directory} operand is where the content of
+   * each table is saved; see {@link CloneSchema}.</p>
    */
   public static class Factory implements SchemaFactory {
     public Schema create(
@@ -134,7 +257,9 @@ public Schema create(
       SchemaPlus schema =
           parentSchema.add(name,
               JdbcSchema.create(parentSchema, name + "$source", operand));
-      return new CloneSchema(schema);
+      final String directory = (String) operand.get("directory");
+      return new CloneSchema(schema,
+          directory == null ? null : new File(directory));
     }
   }
 }
@@ -0,0 +1,743 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.impl.clone;
+
+import net.hydromatic.avatica.ByteString;
+
+import net.hydromatic.linq4j.expressions.Primitive;
+
+import org.eigenbase.util.Pair;
+
+import com.google.common.io.CountingOutputStream;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the {@link ArrayTable.Content} of an {@link ArrayTable}
+ * in a versioned, columnar file.
+ *
+ * <p>{@link #read(File)} maps the file into memory. Arrays of primitive
+ * values, bit-sliced arrays, dictionary codes and the blocks of string
+ * dictionaries are accessed in place, via buffers over the mapped file, so
+ * opening a file takes time proportional to the number of columns, not the
+ * number of rows, and several processes that read the same file share the
+ * operating system's page cache. Object values (for example strings) are
+ * decoded when they are read. Only the values of object dictionaries and
+ * the exceptions of string dictionaries, which are typically small, are
+ * copied into heap.</p>
+ *
+ * <p>File layout (all numbers big-endian):</p>
+ *
+ * <pre>
+ * int     magic
+ * int     version
+ * int     length of fingerprint
+ * byte[]  fingerprint, in UTF-8
+ * int     row count
+ * int     sort field (-1 if none)
+ * int     column count
+ * long[]  offset and length of each column section
+ * column sections, each aligned to 8 bytes
+ * </pre>
+ *
+ * <p>The fingerprint describes what the content was loaded from, for
+ * example its row type, so that a reader can tell whether the file is
+ * stale.</p>
+ *
+ * <p>A column section holds the cardinality of the column followed by its
+ * representation: a one-byte {@link ArrayTable.RepresentationType}, the
+ * representation's parameters, and its data. Columns are written straight
+ * to the file, not buffered in memory, but each column section must be
+ * less than 2GB so that it can be mapped in one piece. If you change the
+ * format, increment {@link #VERSION}.</p>
+ */
+public class ColumnFile {
+  static final int MAGIC = 0x4F505443; // "OPTC"
+  static final int VERSION = 3;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // Tags for values of object arrays and dictionaries.
+  private static final byte NULL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte BYTE = 3;
+  private static final byte SHORT = 4;
+  private static final byte INT = 5;
+  private static final byte LONG = 6;
+  private static final byte FLOAT = 7;
+  private static final byte DOUBLE = 8;
+  private static final byte CHAR = 9;
+  private static final byte STRING = 10;
+  private static final byte DECIMAL = 11;
+  private static final byte BYTES = 12;
+
+  private ColumnFile() {
+  }
+
+  /** Writes the content of a table to a file, with an empty
+   * fingerprint. */
+  public static void write(ArrayTable.Content content, File file)
+      throws IOException {
+    write(content, "", file);
+  }
+
+  /** Writes the content of a table to a file.
+   *
+   * <p>Each column is written through a buffered stream directly to the
+   * file; then the header, which holds the position of each column, is
+   * written at the start of the file.</p> */
+  public static void write(ArrayTable.Content content, String fingerprint,
+      File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(0);
+      final byte[] fingerprintBytes = fingerprint.getBytes(UTF8);
+      final int columnCount = content.columns.size();
+      final long headerSize =
+          6 * 4 + fingerprintBytes.length + columnCount * 16;
+      final long[] offsets = new long[columnCount];
+      final long[] lengths = new long[columnCount];
+      final CountingOutputStream counter =
+          new CountingOutputStream(
+              new BufferedOutputStream(
+                  Channels.newOutputStream(raf.getChannel())));
+      final Writer writer = new Writer(counter);
+      writer.pad(align(headerSize));
+      for (int i = 0; i < columnCount; i++) {
+        offsets[i] = counter.getCount();
+        writer.writeColumn(content.columns.get(i));
+        lengths[i] = counter.getCount() - offsets[i];
+        if (lengths[i] > Integer.MAX_VALUE) {
+          throw new IOException("column " + i + " is too large ("
+              + lengths[i] + " bytes) to be mapped");
+        }
+        writer.pad(align(counter.getCount()));
+      }
+      writer.out.flush();
+      raf.seek(0);
+      raf.writeInt(MAGIC);
+      raf.writeInt(VERSION);
+      raf.writeInt(fingerprintBytes.length);
+      raf.write(fingerprintBytes);
+      raf.writeInt(content.size);
+      raf.writeInt(content.sortField);
+      raf.writeInt(columnCount);
+      for (int i = 0; i < columnCount; i++) {
+        raf.writeLong(offsets[i]);
+        raf.writeLong(lengths[i]);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** Opens a file written by {@link #write}, mapping it into memory,
+   * whatever its fingerprint.
+   *
+   * @throws IOException if the file cannot be read, or is not a column file
+   *   of the current version */
+  public static ArrayTable.Content read(File file) throws IOException {
+    return read(file, null);
+  }
+
+  /** Opens a file written by {@link #write}, mapping it into memory.
+   *
+   * @param file File
+   * @param fingerprint Fingerprint that the file must have, or null to
+   *   accept any fingerprint
+   * @throws IOException if the file cannot be read, is not a column file
+   *   of the current version, or has a different fingerprint */
+  public static ArrayTable.Content read(File file, String fingerprint)
+      throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      if (raf.readInt() != MAGIC) {
+        throw new IOException("not a column file: " + file);
+      }
+      final int version = raf.readInt();
+      if (version != VERSION) {
+        throw new IOException("column file " + file + " has version "
+            + version + ", expected " + VERSION);
+      }
+      final int fingerprintLength = raf.readInt();
+      if (fingerprintLength < 0 || fingerprintLength > raf.length()) {
+        throw new IOException("column file " + file + " is corrupt");
+      }
+      final byte[] fingerprintBytes = new byte[fingerprintLength];
+      raf.readFully(fingerprintBytes);
+      if (fingerprint != null
+          && !fingerprint.equals(new String(fingerprintBytes, UTF8))) {
+        throw new IOException("column file " + file
+            + " was written for different content");
+      }
+      final int size = raf.readInt();
+      final int sortField = raf.readInt();
+      final int columnCount = raf.readInt();
+      final List<ArrayTable.Column> columns =
+          new ArrayList<ArrayTable.Column>();
+      final long[] offsets = new long[columnCount];
+      final long[] lengths = new long[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+        offsets[i] = raf.readLong();
+        lengths[i] = raf.readLong();
+      }
+      for (int i = 0; i < columnCount; i++) {
+        // Map each column separately, so that a table may be larger than
+        // 2GB as long as each of its columns is not.
+        final ByteBuffer buffer =
+            channel.map(FileChannel.MapMode.READ_ONLY, offsets[i],
+                lengths[i]);
+        columns.add(readColumn(buffer));
+      }
+      // The mappings remain valid after the channel is closed.
+      return new ArrayTable.Content(columns, size, sortField);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("column file " + file + " is truncated", e);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("column file " + file + " is corrupt", e);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+
+  private static ArrayTable.Column readColumn(ByteBuffer buffer) {
+    final int cardinality = buffer.getInt();
+    final ArrayTable.Representation representation =
+        readRepresentation(buffer);
+    final Object dataSet = readDataSet(buffer, representation);
+    return new ArrayTable.Column(representation, dataSet, cardinality);
+  }
+
+  private static ArrayTable.Representation readRepresentation(
+      ByteBuffer buffer) {
+    final ArrayTable.RepresentationType type =
+        ArrayTable.RepresentationType.values()[buffer.get()];
+    switch (type) {
+    case CONSTANT:
+      return new ArrayTable.Constant(buffer.getInt());
+    case OBJECT_ARRAY:
+      return new ArrayTable.ObjectArray(buffer.getInt());
+    case PRIMITIVE_ARRAY:
+      return new ArrayTable.PrimitiveArray(buffer.getInt(),
+          Primitive.values()[buffer.get()], Primitive.values()[buffer.get()]);
+    case BIT_SLICED_PRIMITIVE_ARRAY:
+      return new ArrayTable.BitSlicedPrimitiveArray(buffer.getInt(),
+          buffer.getInt(), Primitive.values()[buffer.get()],
+          buffer.get() != 0);
+    case OBJECT_DICTIONARY:
+      final int ordinal = buffer.getInt();
+      return new ArrayTable.ObjectDictionary(ordinal,
+          readRepresentation(buffer));
+    case STRING_DICTIONARY:
+      final int ordinal2 = buffer.getInt();
+      return new ArrayTable.StringDictionary(ordinal2,
+          readRepresentation(buffer));
+    case BYTE_STRING_DICTIONARY:
+      final int ordinal3 = buffer.getInt();
+      return new ArrayTable.ByteStringDictionary(ordinal3,
+          readRepresentation(buffer));
+    default:
+      throw new UnsupportedOperationException(
+          "cannot read representation " + type);
+    }
+  }
+
+  private static Object readDataSet(ByteBuffer buffer,
+      ArrayTable.Representation representation) {
+    switch (representation.getType()) {
+    case CONSTANT:
+      final Object value = readValue(buffer, buffer.position());
+      buffer.position(buffer.position() + valueLength(buffer));
+      return Pair.of(value, buffer.getInt());
+    case OBJECT_ARRAY:
+      final int count = buffer.getInt();
+      final int dataLength = buffer.getInt();
+      align(buffer);
+      final IntBuffer offsets = slice(buffer, (count + 1) * 4).asIntBuffer();
+      final ByteBuffer data = slice(buffer, dataLength);
+      return new MappedValues(offsets, data, count);
+    case PRIMITIVE_ARRAY:
+      final ArrayTable.PrimitiveArray primitiveArray =
+          (ArrayTable.PrimitiveArray) representation;
+      final int length = buffer.getInt();
+      align(buffer);
+      switch (primitiveArray.primitive) {
+      case BYTE:
+        return slice(buffer, length);
+      case SHORT:
+        return slice(buffer, length * 2).asShortBuffer();
+      case INT:
+        return slice(buffer, length * 4).asIntBuffer();
+      case LONG:
+        return slice(buffer, length * 8).asLongBuffer();
+      case FLOAT:
+        return slice(buffer, length * 4).asFloatBuffer();
+      case DOUBLE:
+        return slice(buffer, length * 8).asDoubleBuffer();
+      default:
+        throw new AssertionError(primitiveArray.primitive);
+      }
+    case BIT_SLICED_PRIMITIVE_ARRAY:
+      final int wordCount = buffer.getInt();
+      align(buffer);
+      return slice(buffer, wordCount * 8).asLongBuffer();
+    case OBJECT_DICTIONARY:
+      final ArrayTable.ObjectDictionary dictionary =
+          (ArrayTable.ObjectDictionary) representation;
+      final Comparable[] codeValues = new Comparable[buffer.getInt()];
+      for (int i = 0; i < codeValues.length; i++) {
+        codeValues[i] = (Comparable) readValue(buffer, buffer.position());
+        buffer.position(buffer.position() + valueLength(buffer));
+      }
+      final Object codes = readDataSet(buffer, dictionary.representation);
+      return Pair.of(codes, codeValues);
+    case STRING_DICTIONARY:
+    case BYTE_STRING_DICTIONARY:
+      final ArrayTable.BlockDictionary blockDictionary =
+          (ArrayTable.BlockDictionary) representation;
+      final int blockLength = buffer.getInt();
+      final Comparable[] exceptions = new Comparable[buffer.getInt()];
+      for (int i = 0; i < exceptions.length; i++) {
+        exceptions[i] = (Comparable) readValue(buffer, buffer.position());
+        buffer.position(buffer.position() + valueLength(buffer));
+      }
+      align(buffer);
+      final Object block =
+          representation.getType()
+              == ArrayTable.RepresentationType.STRING_DICTIONARY
+              ? slice(buffer, blockLength * 2).asCharBuffer()
+              : slice(buffer, blockLength);
+      align(buffer);
+      final Object blockCodes =
+          readDataSet(buffer, blockDictionary.representation);
+      return new ArrayTable.BlockData(blockCodes, block, blockLength,
+          exceptions);
+    default:
+      throw new AssertionError(representation);
+    }
+  }
+
+  /** Advances the position of a buffer to a multiple of 8. */
+  private static void align(ByteBuffer buffer) {
+    buffer.position((int) align(buffer.position()));
+  }
+
+  /** Returns a buffer over the next {@code length} bytes of a buffer, and
+   * advances past them. */
+  private static ByteBuffer slice(ByteBuffer buffer, int length) {
+    final ByteBuffer duplicate = buffer.duplicate();
+    duplicate.limit(buffer.position() + length);
+    buffer.position(buffer.position() + length);
+    return duplicate.slice();
+  }
+
+  /** Returns the number of bytes occupied by the value at the current
+   * position of a buffer. */
+  private static int valueLength(ByteBuffer buffer) {
+    final int position = buffer.position();
+    switch (buffer.get(position)) {
+    case NULL:
+    case FALSE:
+    case TRUE:
+      return 1;
+    case BYTE:
+      return 2;
+    case SHORT:
+    case CHAR:
+      return 3;
+    case INT:
+    case FLOAT:
+      return 5;
+    case LONG:
+    case DOUBLE:
+      return 9;
+    case STRING:
+    case BYTES:
+      return 5 + buffer.getInt(position + 1);
+    case DECIMAL:
+      return 9 + buffer.getInt(position + 5);
+    default:
+      throw new AssertionError("unknown tag " + buffer.get(position));
+    }
+  }
+
+  /** Reads the value at a given position in a buffer, without changing the
+   * buffer's position; safe to call from several threads. */
+  static Object readValue(ByteBuffer buffer, int position) {
+    final byte tag = buffer.get(position);
+    switch (tag) {
+    case NULL:
+      return null;
+    case FALSE:
+      return false;
+    case TRUE:
+      return true;
+    case BYTE:
+      return buffer.get(position + 1);
+    case SHORT:
+      return buffer.getShort(position + 1);
+    case CHAR:
+      return buffer.getChar(position + 1);
+    case INT:
+      return buffer.getInt(position + 1);
+    case FLOAT:
+      return buffer.getFloat(position + 1);
+    case LONG:
+      return buffer.getLong(position + 1);
+    case DOUBLE:
+      return buffer.getDouble(position + 1);
+    case STRING:
+      return new String(bytes(buffer, position + 5,
+          buffer.getInt(position + 1)), UTF8);
+    case BYTES:
+      return new ByteString(bytes(buffer, position + 5,
+          buffer.getInt(position + 1)));
+    case DECIMAL:
+      final int scale = buffer.getInt(position + 1);
+      final byte[] unscaled =
+          bytes(buffer, position + 9, buffer.getInt(position + 5));
+      return new BigDecimal(new BigInteger(unscaled), scale);
+    default:
+      throw new AssertionError("unknown tag " + tag);
+    }
+  }
+
+  private static byte[] bytes(ByteBuffer buffer, int position, int length) {
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(position + i);
+    }
+    return bytes;
+  }
+
+  /** Values of an {@link ArrayTable.ObjectArray} in a mapped file. Holds
+   * the offset of each value; decodes a value each time it is read. */
+  static class MappedValues {
+    private final IntBuffer offsets;
+    private final ByteBuffer data;
+    private final int size;
+
+    MappedValues(IntBuffer offsets, ByteBuffer data, int size) {
+      this.offsets = offsets;
+      this.data = data;
+      this.size = size;
+    }
+
+    Object get(int ordinal) {
+      return readValue(data, offsets.get(ordinal));
+    }
+
+    int size() {
+      return size;
+    }
+  }
+
+  /** Writes a column in the format read by {@link #readColumn}. */
+  private static class Writer {
+    final CountingOutputStream counter;
+    final DataOutputStream out;
+
+    Writer(CountingOutputStream counter) {
+      this.counter = counter;
+      this.out = new DataOutputStream(counter);
+    }
+
+    void writeColumn(ArrayTable.Column column) throws IOException {
+      out.writeInt(column.cardinality);
+      writeRepresentation(column.representation);
+      writeDataSet(column.representation, column.dataSet);
+    }
+
+    private void writeRepresentation(
+        ArrayTable.Representation representation) throws IOException {
+      out.writeByte(representation.getType().ordinal());
+      switch (representation.getType()) {
+      case CONSTANT:
+        out.writeInt(((ArrayTable.Constant) representation).ordinal);
+        break;
+      case OBJECT_ARRAY:
+        out.writeInt(((ArrayTable.ObjectArray) representation).ordinal);
+        break;
+      case PRIMITIVE_ARRAY:
+        final ArrayTable.PrimitiveArray primitiveArray =
+            (ArrayTable.PrimitiveArray) representation;
+        out.writeInt(primitiveArray.ordinal);
+        out.writeByte(primitiveArray.primitive.ordinal());
+        out.writeByte(primitiveArray.p.ordinal());
+        break;
+      case BIT_SLICED_PRIMITIVE_ARRAY:
+        final ArrayTable.BitSlicedPrimitiveArray slicedArray =
+            (ArrayTable.BitSlicedPrimitiveArray) representation;
+        out.writeInt(slicedArray.ordinal);
+        out.writeInt(slicedArray.bitCount);
+        out.writeByte(slicedArray.primitive.ordinal());
+        out.writeByte(slicedArray.signed ? 1 : 0);
+        break;
+      case OBJECT_DICTIONARY:
+        final ArrayTable.ObjectDictionary dictionary =
+            (ArrayTable.ObjectDictionary) representation;
+        out.writeInt(dictionary.ordinal);
+        writeRepresentation(dictionary.representation);
+        break;
+      case STRING_DICTIONARY:
+      case BYTE_STRING_DICTIONARY:
+        final ArrayTable.BlockDictionary blockDictionary =
+            (ArrayTable.BlockDictionary) representation;
+        out.writeInt(blockDictionary.ordinal);
+        writeRepresentation(blockDictionary.representation);
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "cannot write representation " + representation);
+      }
+    }
+
+    private void writeDataSet(ArrayTable.Representation representation,
+        Object dataSet) throws IOException {
+      switch (representation.getType()) {
+      case CONSTANT:
+        final Pair<Object, Integer> pair = (Pair<Object, Integer>) dataSet;
+        writeValue(out, pair.left);
+        out.writeInt(pair.right);
+        break;
+      case OBJECT_ARRAY:
+        // Compute the offsets of the values in one pass, then write the
+        // values in a second pass, rather than buffer them.
+        final int count = representation.size(dataSet);
+        long dataLength = 0;
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+          dataLength += valueSize(representation.getObject(dataSet, i));
+        }
+        if (dataLength > Integer.MAX_VALUE) {
+          throw new IOException("values of column are too large ("
+              + dataLength + " bytes) to be mapped");
+        }
+        out.writeInt((int) dataLength);
+        pad();
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+          out.writeInt(offset);
+          offset += valueSize(representation.getObject(dataSet, i));
+        }
+        out.writeInt(offset);
+        for (int i = 0; i < count; i++) {
+          writeValue(out, representation.getObject(dataSet, i));
+        }
+        break;
+      case PRIMITIVE_ARRAY:
+        final ArrayTable.PrimitiveArray primitiveArray =
+            (ArrayTable.PrimitiveArray) representation;
+        final Object array = primitiveArray.toArray(dataSet);
+        final int length = java.lang.reflect.Array.getLength(array);
+        out.writeInt(length);
+        pad();
+        switch (primitiveArray.primitive) {
+        case BYTE:
+          out.write((byte[]) array);
+          break;
+        case SHORT:
+          for (short v : (short[]) array) {
+            out.writeShort(v);
+          }
+          break;
+        case INT:
+          for (int v : (int[]) array) {
+            out.writeInt(v);
+          }
+          break;
+        case LONG:
+          for (long v : (long[]) array) {
+            out.writeLong(v);
+          }
+          break;
+        case FLOAT:
+          for (float v : (float[]) array) {
+            out.writeFloat(v);
+          }
+          break;
+        case DOUBLE:
+          for (double v : (double[]) array) {
+            out.writeDouble(v);
+          }
+          break;
+        default:
+          throw new AssertionError(primitiveArray.primitive);
+        }
+        break;
+      case BIT_SLICED_PRIMITIVE_ARRAY:
+        final long[] longs =
+            ArrayTable.BitSlicedPrimitiveArray.toArray(dataSet);
+        out.writeInt(longs.length);
+        pad();
+        for (long v : longs) {
+          out.writeLong(v);
+        }
+        break;
+      case OBJECT_DICTIONARY:
+        final ArrayTable.ObjectDictionary dictionary =
+            (ArrayTable.ObjectDictionary) representation;
+        final Pair<Object, Comparable[]> codesAndValues =
+            (Pair<Object, Comparable[]>) dataSet;
+        out.writeInt(codesAndValues.right.length);
+        for (Comparable value : codesAndValues.right) {
+          writeValue(out, value);
+        }
+        writeDataSet(dictionary.representation, codesAndValues.left);
+        break;
+      case STRING_DICTIONARY:
+      case BYTE_STRING_DICTIONARY:
+        final ArrayTable.BlockData blockData = (ArrayTable.BlockData) dataSet;
+        out.writeInt(blockData.blockLength);
+        out.writeInt(blockData.exceptions.length);
+        for (Comparable value : blockData.exceptions) {
+          writeValue(out, value);
+        }
+        pad();
+        if (blockData.block instanceof char[]) {
+          for (char c : (char[]) blockData.block) {
+            out.writeChar(c);
+          }
+        } else if (blockData.block instanceof CharBuffer) {
+          final CharBuffer chars = (CharBuffer) blockData.block;
+          for (int i = 0; i < blockData.blockLength; i++) {
+            out.writeChar(chars.get(i));
+          }
+        } else if (blockData.block instanceof byte[]) {
+          out.write((byte[]) blockData.block);
+        } else {
+          final ByteBuffer bytes2 = (ByteBuffer) blockData.block;
+          for (int i = 0; i < blockData.blockLength; i++) {
+            out.writeByte(bytes2.get(i));
+          }
+        }
+        pad();
+        writeDataSet(
+            ((ArrayTable.BlockDictionary) representation).representation,
+            blockData.codes);
+        break;
+      default:
+        throw new AssertionError(representation);
+      }
+    }
+
+    /** Writes zeros until the offset within the column is a multiple of 8.
+     * (Column sections start at a multiple of 8 in the file.) */
+    private void pad() throws IOException {
+      pad(align(counter.getCount()));
+    }
+
+    /** Writes zeros until the offset in the file is {@code offset}. */
+    void pad(long offset) throws IOException {
+      while (counter.getCount() < offset) {
+        out.writeByte(0);
+      }
+    }
+
+    /** Returns the number of bytes that {@link #writeValue} writes for a
+     * value. */
+    private static int valueSize(Object o) {
+      if (o == null || o instanceof Boolean) {
+        return 1;
+      } else if (o instanceof String) {
+        return 5 + ((String) o).getBytes(UTF8).length;
+      } else if (o instanceof Integer || o instanceof Float) {
+        return 5;
+      } else if (o instanceof Long || o instanceof Double) {
+        return 9;
+      } else if (o instanceof Byte) {
+        return 2;
+      } else if (o instanceof Short || o instanceof Character) {
+        return 3;
+      } else if (o instanceof BigDecimal) {
+        return 9
+            + ((BigDecimal) o).unscaledValue().toByteArray().length;
+      } else if (o instanceof ByteString) {
+        return 5 + ((ByteString) o).length();
+      } else {
+        throw new UnsupportedOperationException(
+            "cannot write value of " + o.getClass());
+      }
+    }
+
+    private static void writeValue(DataOutputStream out, Object o)
+        throws IOException {
+      if (o == null) {
+        out.writeByte(NULL);
+      } else if (o instanceof String) {
+        final byte[] bytes = ((String) o).getBytes(UTF8);
+        out.writeByte(STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } else if (o instanceof Integer) {
+        out.writeByte(INT);
+        out.writeInt((Integer) o);
+      } else if (o instanceof Long) {
+        out.writeByte(LONG);
+        out.writeLong((Long) o);
+      } else if (o instanceof Double) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) o);
+      } else if (o instanceof Boolean) {
+        out.writeByte((Boolean) o ? TRUE : FALSE);
+      } else if (o instanceof Byte) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) o);
+      } else if (o instanceof Short) {
+        out.writeByte(SHORT);
+        out.writeShort((Short) o);
+      } else if (o instanceof Character) {
+        out.writeByte(CHAR);
+        out.writeChar((Character) o);
+      } else if (o instanceof Float) {
+        out.writeByte(FLOAT);
+        out.writeFloat((Float) o);
+      } else if (o instanceof BigDecimal) {
+        final BigDecimal bd = (BigDecimal) o;
+        final byte[] bytes = bd.unscaledValue().toByteArray();
+        out.writeByte(DECIMAL);
+        out.writeInt(bd.scale());
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } else if (o instanceof ByteString) {
+        final byte[] bytes = ((ByteString) o).getBytes();
+        out.writeByte(BYTES);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } else {
+        throw new UnsupportedOperationException(
+            "cannot write value of " + o.getClass());
+      }
+    }
+  }
+}
+
+// End ColumnFile.java
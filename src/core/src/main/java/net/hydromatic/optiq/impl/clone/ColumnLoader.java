@@ -16,6 +16,7 @@
  */
 package net.hydromatic.optiq.impl.clone;
 
+import net.hydromatic.avatica.ByteString;
 import net.hydromatic.avatica.ColumnMetaData;
 
 import net.hydromatic.linq4j.Enumerable;
@@ -49,6 +50,13 @@
     0x2, 0xC, 0xF0, 0xFF00, 0xFFFF0000, 0xFFFFFFFF00000000L};
   static final int[] LONG_S = {1, 2, 4, 8, 16, 32};
 
+  /** Estimated size of an object pointer, in bytes. */
+  private static final int POINTER_SIZE = 8;
+
+  /** Estimated overhead, in bytes, of a string or byte string, including
+   * the header of its array. */
+  private static final int OBJECT_OVERHEAD = 40;
+
   private static final Function1<Timestamp, Long> TIMESTAMP_TO_LONG =
       new Function1<Timestamp, Long>() {
         public Long apply(Timestamp a0) {
@@ -362,9 +370,50 @@ ArrayTable.Representation chooseRep(int ordinal) {
             chooseFixedRep(-1, Primitive.INT, 0, codeCount - 1);
         return new ArrayTable.ObjectDictionary(ordinal, representation);
       }
+
+      // For a large column of strings or byte strings with many distinct
+      // values, use a block dictionary if it is smaller than an object
+      // array.
+      if (values.size() > 2000
+          && (clazz == String.class || clazz == ByteString.class)) {
+        final int unitSize = clazz == String.class ? 2 : 1;
+        final int prefixLength = clazz == String.class ? 1 : 2;
+        final ArrayTable.BlockDictionary.Layout layout =
+            new ArrayTable.BlockDictionary.Layout(this, prefixLength);
+        final int maxCode = layout.maxCode();
+        long blockSize = (long) values.size()
+            * log2(nextPowerOf2(maxCode + 1)) / 8
+            + (long) layout.blockLength * unitSize;
+        for (Comparable value : layout.exceptions) {
+          if (value != null) {
+            blockSize += objectSize(unitSize, value);
+          }
+        }
+        long arraySize = (long) values.size() * POINTER_SIZE;
+        for (Comparable value : map.keySet()) {
+          arraySize += objectSize(unitSize, value);
+        }
+        if (blockSize < arraySize) {
+          final ArrayTable.Representation representation =
+              chooseFixedRep(-1, Primitive.INT, 0, maxCode);
+          // Pass the layout on, so that freeze does not compute it again.
+          return clazz == String.class
+              ? new ArrayTable.StringDictionary(ordinal, representation,
+                  layout)
+              : new ArrayTable.ByteStringDictionary(ordinal, representation,
+                  layout);
+        }
+      }
       return new ArrayTable.ObjectArray(ordinal);
     }
 
+    /** Estimates the number of bytes of heap used by a string or byte
+     * string object, including its array of chars or bytes. */
+    private static long objectSize(int unitSize, Comparable value) {
+      return OBJECT_OVERHEAD
+          + (long) ArrayTable.BlockDictionary.length(value) * unitSize;
+    }
+
     private long toLong(Object o) {
       // We treat Boolean and Character as if they were subclasses of
       // Number but actually they are not.
@@ -43,11 +43,19 @@
  * as much as possible of the query logic to SQL.</p>
  */
 public class JdbcSchema implements Schema {
+  /** Default number of milliseconds for which statistics about a table are
+   * re-used before they are read again. */
+  public static final long DEFAULT_STATISTIC_TTL = 10 * 60 * 1000L;
+
   final DataSource dataSource;
   final String catalog;
   final String schema;
   public final SqlDialect dialect;
   final JdbcConvention convention;
+  final long statisticTtl;
+  final boolean statisticCount;
+  final int fetchSize;
+  final int scanParallelism;
   private ImmutableMap<String, JdbcTable> tableMap;
 
   /**
@@ -61,12 +69,72 @@ public class JdbcSchema implements Schema {
    */
   public JdbcSchema(DataSource dataSource, SqlDialect dialect,
       JdbcConvention convention, String catalog, String schema) {
+    this(dataSource, dialect, convention, catalog, schema,
+        DEFAULT_STATISTIC_TTL, 0, 1);
+  }
+
+  /**
+   * Creates a JDBC schema, specifying for how long statistics are cached, how
+   * many rows are fetched at a time, and into how many partitions a scan is
+   * split.
+   *
+   * @param dataSource Data source
+   * @param dialect SQL dialect
+   * @param convention Calling convention
+   * @param catalog Catalog name, or null
+   * @param schema Schema name pattern
+   * @param statisticTtl Number of milliseconds for which statistics about a
+   *                     table are re-used; if negative, statistics are not
+   *                     gathered
+   * @param fetchSize Number of rows to fetch at a time, or 0 to use the
+   *                  driver's default; see
+   *                  {@link net.hydromatic.optiq.runtime.ResultSetEnumerable}
+   * @param scanParallelism Number of concurrent queries that a scan of a
+   *                        table with a numeric or date primary key is split
+   *                        into; 1 means scans are not split
+   */
+  public JdbcSchema(DataSource dataSource, SqlDialect dialect,
+      JdbcConvention convention, String catalog, String schema,
+      long statisticTtl, int fetchSize, int scanParallelism) {
+    this(dataSource, dialect, convention, catalog, schema, statisticTtl,
+        false, fetchSize, scanParallelism);
+  }
+
+  /**
+   * Creates a JDBC schema, specifying also whether to count the rows of a
+   * table whose row count the database does not report.
+   *
+   * @param dataSource Data source
+   * @param dialect SQL dialect
+   * @param convention Calling convention
+   * @param catalog Catalog name, or null
+   * @param schema Schema name pattern
+   * @param statisticTtl Number of milliseconds for which statistics about a
+   *                     table are re-used; if negative, statistics are not
+   *                     gathered
+   * @param statisticCount Whether to execute "SELECT COUNT(*)" if the
+   *                       database's catalog does not report a table's row
+   *                       count; the query is executed while planning, and
+   *                       may read the whole table
+   * @param fetchSize Number of rows to fetch at a time, or 0 to use the
+   *                  driver's default
+   * @param scanParallelism Number of concurrent queries that a scan of a
+   *                        table is split into; 1 means scans are not split
+   */
+  public JdbcSchema(DataSource dataSource, SqlDialect dialect,
+      JdbcConvention convention, String catalog, String schema,
+      long statisticTtl, boolean statisticCount, int fetchSize,
+      int scanParallelism) {
     super();
     this.dataSource = dataSource;
     this.dialect = dialect;
     this.convention = convention;
     this.catalog = catalog;
     this.schema = schema;
+    this.statisticTtl = statisticTtl;
+    this.statisticCount = statisticCount;
+    this.fetchSize = fetchSize;
+    this.scanParallelism = scanParallelism;
     assert dialect != null;
     assert dataSource != null;
   }
@@ -77,12 +145,27 @@ public static JdbcSchema create(
       DataSource dataSource,
       String catalog,
       String schema) {
+    return create(parentSchema, name, dataSource, catalog, schema,
+        DEFAULT_STATISTIC_TTL, false, 0, 1);
+  }
+
+  private static JdbcSchema create(
+      SchemaPlus parentSchema,
+      String name,
+      DataSource dataSource,
+      String catalog,
+      String schema,
+      long statisticTtl,
+      boolean statisticCount,
+      int fetchSize,
+      int scanParallelism) {
     final Expression expression =
         Schemas.subSchemaExpression(parentSchema, name, JdbcSchema.class);
     final SqlDialect dialect = createDialect(dataSource);
     final JdbcConvention convention =
         JdbcConvention.of(dialect, expression, name);
-    return new JdbcSchema(dataSource, dialect, convention, catalog, schema);
+    return new JdbcSchema(dataSource, dialect, convention, catalog, schema,
+        statisticTtl, statisticCount, fetchSize, scanParallelism);
   }
 
   /**
@@ -115,8 +198,18 @@ public static JdbcSchema create(
     }
     String jdbcCatalog = (String) operand.get("jdbcCatalog");
     String jdbcSchema = (String) operand.get("jdbcSchema");
+    final Number statisticTtl = (Number) operand.get("statisticTtl");
+    final Boolean statisticCount = (Boolean) operand.get("statisticCount");
+    final Number fetchSize = (Number) operand.get("fetchSize");
+    final Number scanParallelism = (Number) operand.get("scanParallelism");
     return JdbcSchema.create(parentSchema, name, dataSource, jdbcCatalog,
-        jdbcSchema);
+        jdbcSchema,
+        statisticTtl == null
+            ? DEFAULT_STATISTIC_TTL
+            : statisticTtl.longValue(),
+        statisticCount != null && statisticCount,
+        fetchSize == null ? 0 : fetchSize.intValue(),
+        scanParallelism == null ? 1 : scanParallelism.intValue());
   }
 
   /** Returns a suitable SQL dialect for the given data source. */
@@ -152,6 +245,16 @@ public DataSource getDataSource() {
     return dataSource;
   }
 
+  // Used by generated code.
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  // Used by generated code.
+  public int getScanParallelism() {
+    return scanParallelism;
+  }
+
   public Expression getExpression(SchemaPlus parentSchema, String name) {
     return Schemas.subSchemaExpression(parentSchema, name, JdbcSchema.class);
   }
@@ -257,6 +360,168 @@ RelProtoDataType getRelDataType(DatabaseMetaData metaData, String catalogName,
     return RelDataTypeImpl.proto(fieldInfo.build());
   }
 
+  /** Reads statistics about a table: its row count, unique keys, and the
+   * number of distinct values of indexed columns.
+   *
+   * <p>Uses the table-statistic row and index cardinalities returned by
+   * {@link DatabaseMetaData#getIndexInfo}, and the primary key. If the
+   * database does not report the row count, estimates it from the
+   * cardinality of a unique index. Only if there is no such estimate, and
+   * {@link #statisticCount} is set, counts the rows; otherwise the row count
+   * is unknown, but keys are still reported.</p>
+   *
+   * @param fieldNames Names of the table's columns, in order
+   */
+  Statistic getStatistic(String catalogName, String schemaName,
+      String tableName, List<String> fieldNames) throws SQLException {
+    Connection connection = null;
+    Statement statement = null;
+    ResultSet resultSet = null;
+    try {
+      connection = dataSource.getConnection();
+      final DatabaseMetaData metaData = connection.getMetaData();
+      final List<BitSet> keys = new ArrayList<BitSet>();
+      final Map<String, BitSet> indexColumns =
+          new LinkedHashMap<String, BitSet>();
+      final Map<String, Double> indexCardinalities =
+          new HashMap<String, Double>();
+      final Set<String> uniqueIndexes = new HashSet<String>();
+      Double rowCount = null;
+      resultSet = metaData.getIndexInfo(catalogName, schemaName, tableName,
+          false, true);
+      while (resultSet.next()) {
+        final boolean nonUnique = resultSet.getBoolean(4);
+        final String indexName = resultSet.getString(6);
+        final short type = resultSet.getShort(7);
+        final String columnName = resultSet.getString(9);
+        final long cardinality = resultSet.getLong(11);
+        final boolean cardinalityKnown =
+            !resultSet.wasNull() && cardinality >= 0;
+        if (type == DatabaseMetaData.tableIndexStatistic) {
+          if (cardinalityKnown) {
+            rowCount = (double) cardinality;
+          }
+          continue;
+        }
+        final int field = fieldNames.indexOf(columnName);
+        if (indexName == null || field < 0) {
+          continue;
+        }
+        BitSet columns = indexColumns.get(indexName);
+        if (columns == null) {
+          columns = new BitSet();
+          indexColumns.put(indexName, columns);
+        }
+        columns.set(field);
+        if (!nonUnique) {
+          uniqueIndexes.add(indexName);
+        }
+        if (cardinalityKnown) {
+          indexCardinalities.put(indexName, (double) cardinality);
+        }
+      }
+      resultSet.close();
+      resultSet = null;
+
+      final BitSet primaryKey = new BitSet();
+      resultSet = metaData.getPrimaryKeys(catalogName, schemaName, tableName);
+      while (resultSet.next()) {
+        final int field = fieldNames.indexOf(resultSet.getString(4));
+        if (field >= 0) {
+          primaryKey.set(field);
+        }
+      }
+      resultSet.close();
+      resultSet = null;
+      if (!primaryKey.isEmpty()) {
+        keys.add(primaryKey);
+      }
+
+      if (rowCount == null) {
+        // Each row has a distinct value of a unique index.
+        for (String indexName : uniqueIndexes) {
+          final Double cardinality = indexCardinalities.get(indexName);
+          if (cardinality != null
+              && (rowCount == null || cardinality > rowCount)) {
+            rowCount = cardinality;
+          }
+        }
+      }
+      if (rowCount == null && statisticCount) {
+        statement = connection.createStatement();
+        resultSet = statement.executeQuery(countSql(tableName));
+        if (resultSet.next()) {
+          rowCount = (double) resultSet.getLong(1);
+        }
+      }
+
+      final Map<BitSet, Double> distinctRowCounts =
+          new HashMap<BitSet, Double>();
+      for (Map.Entry<String, BitSet> entry : indexColumns.entrySet()) {
+        if (uniqueIndexes.contains(entry.getKey())) {
+          keys.add(entry.getValue());
+        } else {
+          final Double cardinality = indexCardinalities.get(entry.getKey());
+          if (cardinality != null) {
+            distinctRowCounts.put(entry.getValue(),
+                rowCount == null
+                    ? cardinality
+                    : Math.min(cardinality, rowCount));
+          }
+        }
+      }
+      if (rowCount == null && keys.isEmpty() && distinctRowCounts.isEmpty()) {
+        return Statistics.UNKNOWN;
+      }
+      return Statistics.of(rowCount, keys, distinctRowCounts);
+    } finally {
+      close(connection, statement, resultSet);
+    }
+  }
+
+  /** Returns the name of the first column of a table's primary key, or null
+   * if the table has no primary key. */
+  String getPrimaryKeyColumn(String catalogName, String schemaName,
+      String tableName) throws SQLException {
+    Connection connection = null;
+    ResultSet resultSet = null;
+    try {
+      connection = dataSource.getConnection();
+      resultSet = connection.getMetaData().getPrimaryKeys(catalogName,
+          schemaName, tableName);
+      while (resultSet.next()) {
+        if (resultSet.getShort(5) == 1) {
+          return resultSet.getString(4);
+        }
+      }
+      return null;
+    } finally {
+      close(connection, null, resultSet);
+    }
+  }
+
+  /** Generates "SELECT COUNT(*) FROM table", quoting identifiers in this
+   * schema's dialect. */
+  private String countSql(String tableName) {
+    final StringBuilder buf = new StringBuilder("SELECT COUNT(*) FROM ");
+    quoteTableName(buf, tableName);
+    return buf.toString();
+  }
+
+  /** Appends the qualified name of a table, quoting identifiers in this
+   * schema's dialect. */
+  void quoteTableName(StringBuilder buf, String tableName) {
+    if (catalog != null) {
+      dialect.quoteIdentifier(buf, catalog);
+      buf.append(".");
+    }
+    if (schema != null) {
+      dialect.quoteIdentifier(buf, schema);
+      buf.append(".");
+    }
+    dialect.quoteIdentifier(buf, tableName);
+  }
+
   private RelDataType sqlType(RelDataTypeFactory typeFactory, int dataType,
       int precision, int scale, String typeString) {
     SqlTypeName sqlTypeName = SqlTypeName.getNameForJdbcType(dataType);
@@ -27,6 +27,8 @@
 import net.hydromatic.optiq.jdbc.OptiqConnection;
 import net.hydromatic.optiq.runtime.ResultSetEnumerable;
 
+import org.eigenbase.rel.RelCollation;
+import org.eigenbase.rel.RelFieldCollation;
 import org.eigenbase.rel.RelNode;
 import org.eigenbase.relopt.RelOptTable;
 import org.eigenbase.reltype.RelDataType;
@@ -36,6 +38,8 @@
 import org.eigenbase.sql.*;
 import org.eigenbase.sql.parser.SqlParserPos;
 import org.eigenbase.sql.pretty.SqlPrettyWriter;
+import org.eigenbase.sql.type.SqlTypeFactoryImpl;
+import org.eigenbase.sql.type.SqlTypeName;
 import org.eigenbase.sql.util.SqlString;
 import org.eigenbase.util.Pair;
 import org.eigenbase.util.Util;
@@ -59,6 +63,10 @@ class JdbcTable extends AbstractQueryableTable implements TranslatableTable {
   private final String jdbcSchemaName;
   private final String jdbcTableName;
   private final Schema.TableType jdbcTableType;
+  private Statistic statistic;
+  private long statisticTimestamp;
+  private String partitionColumn;
+  private boolean partitionColumnKnown;
 
   public JdbcTable(JdbcSchema jdbcSchema, String jdbcCatalogName,
       String jdbcSchemaName, String tableName, Schema.TableType jdbcTableType) {
@@ -95,6 +103,126 @@ public RelDataType getRowType(RelDataTypeFactory typeFactory) {
     return protoRowType.apply(typeFactory);
   }
 
+  /** {@inheritDoc}
+   *
+   * <p>Statistics are read from the database, and re-used for
+   * {@link JdbcSchema#statisticTtl} milliseconds. If they cannot be read,
+   * the table is planned as if nothing were known about it.</p> */
+  @Override public synchronized Statistic getStatistic() {
+    if (jdbcSchema.statisticTtl < 0) {
+      return Statistics.UNKNOWN;
+    }
+    final long now = System.currentTimeMillis();
+    if (statistic == null
+        || now - statisticTimestamp > jdbcSchema.statisticTtl) {
+      final List<String> fieldNames =
+          getRowType(new SqlTypeFactoryImpl()).getFieldNames();
+      try {
+        statistic =
+            jdbcSchema.getStatistic(jdbcCatalogName, jdbcSchemaName,
+                jdbcTableName, fieldNames);
+      } catch (SQLException e) {
+        // Statistics are an optimization. Plan without them rather than
+        // failing the query, but remember the failure until they expire.
+        statistic = Statistics.UNKNOWN;
+      }
+      statisticTimestamp = now;
+    }
+    return statistic;
+  }
+
+  /** Returns the column on whose ranges a scan of this table can be split
+   * into concurrent queries, or null if scans are not to be split.
+   *
+   * <p>Scans are split if the schema's
+   * {@link JdbcSchema#scanParallelism} is greater than 1 and the first column
+   * of the table's primary key is numeric or a date-time.</p> */
+  synchronized String partitionColumn() {
+    if (jdbcSchema.scanParallelism <= 1) {
+      return null;
+    }
+    if (!partitionColumnKnown) {
+      String column;
+      try {
+        column = jdbcSchema.getPrimaryKeyColumn(jdbcCatalogName,
+            jdbcSchemaName, jdbcTableName);
+      } catch (SQLException e) {
+        // Splitting is an optimization; scan with one query instead.
+        column = null;
+      }
+      if (column != null) {
+        final RelDataTypeField field =
+            getRowType(new SqlTypeFactoryImpl()).getField(column, true);
+        if (field == null || !isPartitionable(field.getType())) {
+          column = null;
+        }
+      }
+      partitionColumn = column;
+      partitionColumnKnown = true;
+    }
+    return partitionColumn;
+  }
+
+  private static boolean isPartitionable(RelDataType type) {
+    final SqlTypeName typeName = type.getSqlTypeName();
+    switch (typeName) {
+    case DATE:
+    case TIME:
+    case TIMESTAMP:
+      return true;
+    default:
+      return SqlTypeName.NUMERIC_TYPES.contains(typeName);
+    }
+  }
+
+  /** Generates "SELECT MIN(column), MAX(column) FROM table", which reads the
+   * bounds of a partitioned scan. */
+  String generateBoundsSql(String column) {
+    final StringBuilder buf = new StringBuilder("SELECT MIN(");
+    jdbcSchema.dialect.quoteIdentifier(buf, column);
+    buf.append("), MAX(");
+    jdbcSchema.dialect.quoteIdentifier(buf, column);
+    buf.append(") FROM ");
+    jdbcSchema.quoteTableName(buf, jdbcTableName);
+    return buf.toString();
+  }
+
+  /** Generates the statement that reads one range of a partitioned scan, as
+   * required by
+   * {@link net.hydromatic.optiq.runtime.PartitionedResultSetEnumerable}:
+   *
+   * <blockquote>SELECT * FROM table
+   * WHERE column &gt;= ? AND (column &lt; ? OR column = ?)
+   * ORDER BY ...</blockquote>
+   */
+  String generatePartitionSql(String column, RelCollation collation) {
+    final SqlDialect dialect = jdbcSchema.dialect;
+    final StringBuilder buf = new StringBuilder("SELECT * FROM ");
+    jdbcSchema.quoteTableName(buf, jdbcTableName);
+    buf.append(" WHERE ");
+    dialect.quoteIdentifier(buf, column);
+    buf.append(" >= ? AND (");
+    dialect.quoteIdentifier(buf, column);
+    buf.append(" < ? OR ");
+    dialect.quoteIdentifier(buf, column);
+    buf.append(" = ?)");
+    final List<String> fieldNames =
+        getRowType(new SqlTypeFactoryImpl()).getFieldNames();
+    String sep = " ORDER BY ";
+    for (RelFieldCollation fieldCollation : collation.getFieldCollations()) {
+      buf.append(sep);
+      sep = ", ";
+      dialect.quoteIdentifier(buf,
+          fieldNames.get(fieldCollation.getFieldIndex()));
+      switch (fieldCollation.getDirection()) {
+      case DESCENDING:
+      case STRICTLY_DESCENDING:
+        buf.append(" DESC");
+      }
+    }
+    return buf.toString();
+  }
+
   private List<Pair<Primitive, Integer>> fieldClasses(
       final JavaTypeFactory typeFactory) {
     final RelDataType rowType = protoRowType.apply(typeFactory);
@@ -154,7 +282,8 @@ public Enumerator<T> enumerator() {
         final Enumerable<T> enumerable = (Enumerable<T>) ResultSetEnumerable.of(
             jdbcSchema.getDataSource(),
             sql.getSql(),
-            JdbcUtils.ObjectArrayRowBuilder.factory(fieldClasses(typeFactory)));
+            JdbcUtils.ObjectArrayRowBuilder.factory(fieldClasses(typeFactory)),
+            jdbcSchema.fetchSize);
         return enumerable.enumerator();
       }
     };
@@ -26,10 +26,14 @@
 import net.hydromatic.optiq.runtime.Hook;
 import net.hydromatic.optiq.runtime.SqlFunctions;
 
+import org.eigenbase.rel.RelCollation;
+import org.eigenbase.rel.RelCollationImpl;
+import org.eigenbase.rel.RelFieldCollation;
 import org.eigenbase.rel.RelNode;
 import org.eigenbase.rel.convert.ConverterRelImpl;
 import org.eigenbase.relopt.*;
 import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeField;
 import org.eigenbase.sql.SqlDialect;
 import org.eigenbase.sql.type.SqlTypeName;
 
@@ -39,6 +43,7 @@
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.List;
 import java.util.TimeZone;
 
@@ -68,7 +73,8 @@ public RelOptCost computeSelfCost(RelOptPlanner planner) {
 
   public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
     // Generate:
-    //   ResultSetEnumerable.of(schema.getDataSource(), "select ...")
+    //   ResultSetEnumerable.of(schema.getDataSource(), "select ...",
+    //       rowBuilderFactory, schema.getFetchSize())
     final BlockBuilder builder0 = new BlockBuilder(false);
     final JdbcRel child = (JdbcRel) getChild();
     final PhysType physType =
@@ -77,7 +83,17 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
             pref.prefer(JavaRowFormat.CUSTOM));
     final JdbcConvention jdbcConvention =
         (JdbcConvention) child.getConvention();
-    String sql = generateSql(jdbcConvention.dialect);
+    final JdbcTableScan scan = partitionableScan(child);
+    final String partitionColumn =
+        scan == null ? null : scan.jdbcTable.partitionColumn();
+    final RelCollation collation =
+        child instanceof JdbcRules.JdbcSortRel
+            ? ((JdbcRules.JdbcSortRel) child).getCollation()
+            : RelCollationImpl.EMPTY;
+    String sql =
+        partitionColumn == null
+            ? generateSql(jdbcConvention.dialect)
+            : scan.jdbcTable.generatePartitionSql(partitionColumn, collation);
     if (OptiqPrepareImpl.DEBUG) {
       System.out.println("[" + sql + "]");
     }
@@ -139,22 +155,96 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
                                                 RuntimeException.class,
                                                 e_)))))))),
                 resultSet_));
-    final Expression enumerable =
-        builder0.append(
-            "enumerable",
-            Expressions.call(
-                BuiltinMethod.RESULT_SET_ENUMERABLE_OF.method,
-                Expressions.call(
-                    Schemas.unwrap(jdbcConvention.expression,
-                        JdbcSchema.class),
-                    BuiltinMethod.JDBC_SCHEMA_DATA_SOURCE.method),
-                sql_,
-                rowBuilderFactory_));
+    final Expression schema_ =
+        builder0.append("jdbcSchema",
+            Schemas.unwrap(jdbcConvention.expression, JdbcSchema.class));
+    final Expression enumerable;
+    if (partitionColumn == null) {
+      enumerable =
+          builder0.append(
+              "enumerable",
+              Expressions.call(
+                  BuiltinMethod.RESULT_SET_ENUMERABLE_OF2.method,
+                  Expressions.call(schema_,
+                      BuiltinMethod.JDBC_SCHEMA_DATA_SOURCE.method),
+                  sql_,
+                  rowBuilderFactory_,
+                  Expressions.call(schema_,
+                      BuiltinMethod.JDBC_SCHEMA_FETCH_SIZE.method)));
+    } else {
+      // Generate:
+      //   PartitionedResultSetEnumerable.of(schema.getDataSource(),
+      //       "select min(k), max(k) ...", "select ... where k >= ? ...",
+      //       schema.getScanParallelism(), rowBuilderFactory, comparator,
+      //       schema.getFetchSize())
+      // The row builder returns the value itself if there is one column,
+      // otherwise an array; the comparator must expect the same.
+      final Expression comparator_ =
+          collation.getFieldCollations().isEmpty()
+              ? Expressions.constant(null, Comparator.class)
+              : PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(),
+                  fieldCount == 1 ? JavaRowFormat.SCALAR : JavaRowFormat.ARRAY)
+                  .generateComparator(collation);
+      enumerable =
+          builder0.append(
+              "enumerable",
+              Expressions.call(
+                  BuiltinMethod.PARTITIONED_RESULT_SET_ENUMERABLE_OF.method,
+                  Expressions.call(schema_,
+                      BuiltinMethod.JDBC_SCHEMA_DATA_SOURCE.method),
+                  Expressions.constant(
+                      scan.jdbcTable.generateBoundsSql(partitionColumn)),
+                  sql_,
+                  Expressions.call(schema_,
+                      BuiltinMethod.JDBC_SCHEMA_SCAN_PARALLELISM.method),
+                  rowBuilderFactory_,
+                  comparator_,
+                  Expressions.call(schema_,
+                      BuiltinMethod.JDBC_SCHEMA_FETCH_SIZE.method)));
+    }
     builder0.add(
         Expressions.return_(null, enumerable));
     return implementor.result(physType, builder0.toBlock());
   }
 
+  /** Returns the table scan that is the input to this converter, if the scan
+   * can be split into concurrent queries over ranges of a key.
+   *
+   * <p>That is the case if the input is a scan, or a sort of a scan. The
+   * partitions of a sort are merged using a comparator generated by Java,
+   * which must agree with the database's order, so the sort keys must be
+   * NOT NULL and ascending or descending.</p> */
+  private static JdbcTableScan partitionableScan(RelNode rel) {
+    if (rel instanceof JdbcTableScan) {
+      return (JdbcTableScan) rel;
+    }
+    if (rel instanceof JdbcRules.JdbcSortRel) {
+      final JdbcRules.JdbcSortRel sort = (JdbcRules.JdbcSortRel) rel;
+      final List<RelDataTypeField> fields =
+          sort.getRowType().getFieldList();
+      for (RelFieldCollation fieldCollation
+          : sort.getCollation().getFieldCollations()) {
+        switch (fieldCollation.getDirection()) {
+        case ASCENDING:
+        case STRICTLY_ASCENDING:
+        case DESCENDING:
+        case STRICTLY_DESCENDING:
+          break;
+        default:
+          return null;
+        }
+        if (fields.get(fieldCollation.getFieldIndex()).getType()
+            .isNullable()) {
+          return null;
+        }
+      }
+      if (sort.getChild() instanceof JdbcTableScan) {
+        return (JdbcTableScan) sort.getChild();
+      }
+    }
+    return null;
+  }
+
   private UnaryExpression getTimeZoneExpression(
       EnumerableRelImplementor implementor) {
     return Expressions.convert_(
@@ -288,6 +288,20 @@ static class DataContextImpl implements DataContext {
           .put(Variable.CURRENT_TIMESTAMP.camelName, time + currentOffset)
           .put(Variable.LOCAL_TIMESTAMP.camelName, time + localOffset)
           .put(Variable.TIME_ZONE.camelName, timeZone);
+      final long joinMemoryBudget = connection.config().joinMemoryBudget();
+      if (joinMemoryBudget >= 0) {
+        builder.put(Variable.JOIN_MEMORY_BUDGET.camelName, joinMemoryBudget);
+      }
+      final long sortMemoryBudget = connection.config().sortMemoryBudget();
+      if (sortMemoryBudget >= 0) {
+        builder.put(Variable.SORT_MEMORY_BUDGET.camelName, sortMemoryBudget);
+      }
+      final long aggregateMemoryBudget =
+          connection.config().aggregateMemoryBudget();
+      if (aggregateMemoryBudget >= 0) {
+        builder.put(Variable.AGGREGATE_MEMORY_BUDGET.camelName,
+            aggregateMemoryBudget);
+      }
       for (Ord<Object> value : Ord.zip(parameterValues)) {
         Object e = value.e;
         if (e == null) {
@@ -441,6 +455,50 @@ public boolean caseSensitive() {
     public boolean spark() {
       return OptiqConnectionProperty.SPARK.wrap(properties).getBoolean();
     }
+
+    public boolean parameterizeLiterals() {
+      return OptiqConnectionProperty.PARAMETERIZE_LITERALS.wrap(properties)
+          .getBoolean();
+    }
+
+    public boolean planCache() {
+      return OptiqConnectionProperty.PLAN_CACHE.wrap(properties).getBoolean();
+    }
+
+    public boolean reduceConstants() {
+      return OptiqConnectionProperty.REDUCE_CONSTANTS.wrap(properties)
+          .getBoolean();
+    }
+
+    public boolean columnarScan() {
+      return OptiqConnectionProperty.COLUMNAR_SCAN.wrap(properties)
+          .getBoolean();
+    }
+
+    public long joinMemoryBudget() {
+      return OptiqConnectionProperty.JOIN_MEMORY_BUDGET.wrap(properties)
+          .getLong();
+    }
+
+    public long sortMemoryBudget() {
+      return OptiqConnectionProperty.SORT_MEMORY_BUDGET.wrap(properties)
+          .getLong();
+    }
+
+    public long aggregateMemoryBudget() {
+      return OptiqConnectionProperty.AGGREGATE_MEMORY_BUDGET.wrap(properties)
+          .getLong();
+    }
+
+    public long plannerTimeBudget() {
+      return OptiqConnectionProperty.PLANNER_TIME_BUDGET.wrap(properties)
+          .getLong();
+    }
+
+    public long plannerRuleBudget() {
+      return OptiqConnectionProperty.PLANNER_RULE_BUDGET.wrap(properties)
+          .getLong();
+    }
   }
 }
 
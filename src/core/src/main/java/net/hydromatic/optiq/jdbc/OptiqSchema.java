@@ -70,6 +70,9 @@ public int compare(String o1, String o2) {
       new TreeMap<String, OptiqSchema>(COMPARATOR);
   private ImmutableList<ImmutableList<String>> path;
   private boolean cache = true;
+  /** Incremented whenever an object is explicitly added to this schema. See
+   * {@link #getVersion()}. */
+  private int version;
   private final Cached<SubSchemaCache> implicitSubSchemaCache;
   private final Cached<NavigableSet<String>> implicitTableCache;
   private final Cached<NavigableSet<String>> implicitFunctionCache;
@@ -131,6 +134,7 @@ private FunctionEntry add(String name, Function function) {
         new FunctionEntryImpl(this, name, function);
     functionMap.put(name, entry);
     functionNames.add(name);
+    ++version;
     if (function.getParameters().isEmpty()) {
       nullaryFunctionMap.put(name, entry);
     }
@@ -211,9 +215,25 @@ public final OptiqSchema getSubSchema(String schemaName,
   public OptiqSchema add(String name, Schema schema) {
     final OptiqSchema optiqSchema = new OptiqSchema(this, schema, name);
     subSchemaMap.put(name, optiqSchema);
+    ++version;
     return optiqSchema;
   }
 
+  /** Returns the version of this schema.
+   *
+   * <p>The version increases whenever a table, function or sub-schema is
+   * explicitly added to the schema, or its path is changed. It does not
+   * change when the catalog reader registers a table that it found in the
+   * underlying {@link Schema}; use
+   * {@link Schema#contentsHaveChangedSince(long, long)} to find out whether
+   * those tables have changed.</p>
+   *
+   * <p>Together, they allow a cache to detect that objects it derived from
+   * this schema, such as a query plan, may be out of date.</p> */
+  public int getVersion() {
+    return version;
+  }
+
   /** Returns a table with the given name. Does not look for views. */
   public final Pair<String, Table> getTable(String tableName,
       boolean caseSensitive) {
@@ -582,10 +602,12 @@ public <T> T unwrap(Class<T> clazz) {
 
     public void setPath(ImmutableList<ImmutableList<String>> path) {
       OptiqSchema.this.path = path;
+      ++version;
     }
 
     public void add(String name, Table table) {
       OptiqSchema.this.add(name, table);
+      ++version;
     }
 
     public void add(String name, net.hydromatic.optiq.Function function) {
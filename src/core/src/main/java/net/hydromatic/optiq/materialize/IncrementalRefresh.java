@@ -0,0 +1,489 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.materialize;
+
+import net.hydromatic.linq4j.Linq4j;
+import net.hydromatic.linq4j.QueryProvider;
+import net.hydromatic.linq4j.expressions.Primitive;
+import net.hydromatic.linq4j.function.Function1;
+
+import net.hydromatic.optiq.DataContext;
+import net.hydromatic.optiq.ModifiableTable;
+import net.hydromatic.optiq.SchemaPlus;
+import net.hydromatic.optiq.Table;
+import net.hydromatic.optiq.impl.clone.CloneSchema;
+import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.util.BitSets;
+
+import org.eigenbase.rel.*;
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeField;
+import org.eigenbase.reltype.RelDataTypeImpl;
+import org.eigenbase.rex.*;
+import org.eigenbase.sql.fun.*;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Brings a materialization up to date by applying the rows that have been
+ * appended to its source table, rather than executing its query again.
+ *
+ * <p>Applies to a query that is an aggregate over filters and projects over
+ * a {@link ModifiableTable} (the shape that
+ * {@code SubstitutionVisitor.AggregateToAggregateUnifyRule} matches), if the
+ * table's modifiable collection is a {@link List} to which rows are only
+ * appended, the aggregate has at least one grouping column, and each
+ * aggregate function is COUNT, SUM, $SUM0, MIN or MAX without DISTINCT. New
+ * rows are filtered, projected and aggregated, and the totals are merged into
+ * the rows of the existing table, which was created by
+ * {@link CloneSchema#createCloneTable}.</p>
+ *
+ * <p>If the list is shorter than at the previous refresh, or the first or
+ * last row applied then is no longer in the same position, rows have been
+ * removed or replaced rather than appended, and the content is computed
+ * again from every row of the list.</p>
+ */
+class IncrementalRefresh {
+  private final List<?> source;
+  private final List<String> sourceFieldNames;
+  private final List<Stage> stages;
+  private final int[] groupKeys;
+  private final List<AggKind> aggKinds;
+  private final List<List<Integer>> aggArgs;
+  /** For each column of the materialized table, the aggregate field it
+   * holds. */
+  private final int[] outputs;
+  /** For each aggregate field, the class of its values. */
+  private final Class[] classes;
+  private final Map<Class, Field[]> fieldMap = new HashMap<Class, Field[]>();
+
+  /** Number of rows of the source that have been applied. */
+  private int rowCount;
+  /** The first and last rows of the source that have been applied, or
+   * null. */
+  private Object firstRow;
+  private Object lastRow;
+
+  private IncrementalRefresh(List<?> source, List<String> sourceFieldNames,
+      List<Stage> stages, int[] groupKeys, List<AggKind> aggKinds,
+      List<List<Integer>> aggArgs, int[] outputs, Class[] classes) {
+    this.source = source;
+    this.sourceFieldNames = sourceFieldNames;
+    this.stages = stages;
+    this.groupKeys = groupKeys;
+    this.aggKinds = aggKinds;
+    this.aggArgs = aggArgs;
+    this.outputs = outputs;
+    this.classes = classes;
+  }
+
+  /** Creates an IncrementalRefresh for a query, or returns null if the query
+   * cannot be refreshed incrementally. */
+  static IncrementalRefresh create(RelNode rel, JavaTypeFactory typeFactory) {
+    int[] outputs = null;
+    if (rel instanceof ProjectRelBase) {
+      outputs = permutation((ProjectRelBase) rel);
+      if (outputs == null) {
+        return null;
+      }
+      rel = ((ProjectRelBase) rel).getChild();
+    }
+    if (!(rel instanceof AggregateRelBase)) {
+      return null;
+    }
+    final AggregateRelBase aggregate = (AggregateRelBase) rel;
+    if (aggregate.getGroupSet().isEmpty()) {
+      // An aggregate without GROUP BY returns one row even if its input is
+      // empty. Merging groups would return no rows.
+      return null;
+    }
+    final int fieldCount = aggregate.getRowType().getFieldCount();
+    if (outputs == null) {
+      outputs = new int[fieldCount];
+      for (int i = 0; i < fieldCount; i++) {
+        outputs[i] = i;
+      }
+    } else if (outputs.length != fieldCount) {
+      return null;
+    }
+    final List<AggKind> aggKinds = new ArrayList<AggKind>();
+    final List<List<Integer>> aggArgs = new ArrayList<List<Integer>>();
+    for (AggregateCall aggCall : aggregate.getAggCallList()) {
+      final AggKind aggKind = AggKind.of(aggCall);
+      if (aggKind == null) {
+        return null;
+      }
+      aggKinds.add(aggKind);
+      aggArgs.add(aggCall.getArgList());
+    }
+
+    // Compile each filter and project below the aggregate.
+    final LinkedList<Stage> stages = new LinkedList<Stage>();
+    final RexExecutorImpl executor = new RexExecutorImpl(null);
+    rel = aggregate.getChild();
+    for (;;) {
+      final RexBuilder rexBuilder = rel.getCluster().getRexBuilder();
+      if (rel instanceof FilterRelBase) {
+        final FilterRelBase filter = (FilterRelBase) rel;
+        stages.addFirst(
+            new Stage(true,
+                executor.getExecutable(rexBuilder,
+                    Collections.singletonList(filter.getCondition()),
+                    filter.getChild().getRowType()).getFunction()));
+        rel = filter.getChild();
+      } else if (rel instanceof ProjectRelBase) {
+        final ProjectRelBase project = (ProjectRelBase) rel;
+        stages.addFirst(
+            new Stage(false,
+                executor.getExecutable(rexBuilder, project.getProjects(),
+                    project.getChild().getRowType()).getFunction()));
+        rel = project.getChild();
+      } else {
+        break;
+      }
+    }
+    if (!(rel instanceof TableAccessRelBase)) {
+      return null;
+    }
+    final ModifiableTable table =
+        rel.getTable().unwrap(ModifiableTable.class);
+    if (table == null
+        || !(table.getModifiableCollection() instanceof List)) {
+      return null;
+    }
+
+    final Class[] classes = new Class[fieldCount];
+    for (RelDataTypeField field : aggregate.getRowType().getFieldList()) {
+      classes[field.getIndex()] =
+          (Class) Primitive.box(typeFactory.getJavaClass(field.getType()));
+    }
+    return new IncrementalRefresh(
+        (List<?>) table.getModifiableCollection(),
+        rel.getRowType().getFieldNames(),
+        stages,
+        BitSets.toArray(aggregate.getGroupSet()),
+        aggKinds, aggArgs, outputs, classes);
+  }
+
+  /** Returns, for each expression of a project, the field that it
+   * references, or null if the project is not a permutation of its
+   * input. */
+  private static int[] permutation(ProjectRelBase project) {
+    final List<RexNode> projects = project.getProjects();
+    final int[] outputs = new int[projects.size()];
+    final BitSet seen = new BitSet();
+    for (int i = 0; i < outputs.length; i++) {
+      final RexNode e = projects.get(i);
+      if (!(e instanceof RexInputRef)) {
+        return null;
+      }
+      outputs[i] = ((RexInputRef) e).getIndex();
+      if (seen.get(outputs[i])) {
+        return null;
+      }
+      seen.set(outputs[i]);
+    }
+    return outputs;
+  }
+
+  /** Merges the rows appended to the source since the previous refresh
+   * into the content of a table, and returns a table with the new
+   * content. If the source has been modified other than by appending rows,
+   * ignores the table and aggregates every row of the source.
+   *
+   * @param dataContext Data context for evaluating expressions
+   * @param typeFactory Type factory
+   * @param rowType Row type of the materialized table
+   * @param table Current table, or null to start from empty
+   */
+  synchronized Table refresh(final DataContext dataContext,
+      JavaTypeFactory typeFactory, RelDataType rowType, Table table) {
+    final Map<List<Object>, Object[]> groups =
+        new LinkedHashMap<List<Object>, Object[]>();
+    final int end = source.size();
+    if (end < rowCount
+        || rowCount > 0
+        && (source.get(0) != firstRow
+            || source.get(rowCount - 1) != lastRow)) {
+      rowCount = 0;
+      table = null;
+    }
+    if (table != null) {
+      final int[] fields = new int[outputs.length];
+      for (int i = 0; i < fields.length; i++) {
+        fields[i] = i;
+      }
+      for (Object o
+          : CloneSchema.scan(table, fields, new int[0], new String[0],
+              new Comparable[0][])) {
+        final Object[] row =
+            outputs.length == 1 ? new Object[] {o} : (Object[]) o;
+        final Object[] values = new Object[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+          values[outputs[i]] = coerce(row[i], classes[outputs[i]]);
+        }
+        groups.put(key(values), values);
+      }
+    }
+
+    final RowDataContext rowContext = new RowDataContext(dataContext);
+    for (Object element : source.subList(rowCount, end)) {
+      Object[] row = toRow(element);
+      boolean pass = true;
+      for (Stage stage : stages) {
+        rowContext.row = row;
+        final Object[] results = stage.function.apply(rowContext);
+        if (stage.filter) {
+          if (!Boolean.TRUE.equals(results[0])) {
+            pass = false;
+            break;
+          }
+        } else {
+          row = results;
+        }
+      }
+      if (pass) {
+        add(groups, row);
+      }
+    }
+    rowCount = end;
+    firstRow = end > 0 ? source.get(0) : null;
+    lastRow = end > 0 ? source.get(end - 1) : null;
+
+    final List<Object> rows = new ArrayList<Object>();
+    for (Object[] values : groups.values()) {
+      if (outputs.length == 1) {
+        rows.add(values[outputs[0]]);
+      } else {
+        final Object[] row = new Object[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+          row[i] = values[outputs[i]];
+        }
+        rows.add(row);
+      }
+    }
+    return CloneSchema.createCloneTable(typeFactory,
+        RelDataTypeImpl.proto(rowType), null, Linq4j.asEnumerable(rows));
+  }
+
+  /** Adds a row to the totals of its group. */
+  private void add(Map<List<Object>, Object[]> groups, Object[] row) {
+    final Object[] values = new Object[classes.length];
+    for (int i = 0; i < groupKeys.length; i++) {
+      values[i] = coerce(row[groupKeys[i]], classes[i]);
+    }
+    final List<Object> key = key(values);
+    final Object[] totals = groups.get(key);
+    for (int i = 0; i < aggKinds.size(); i++) {
+      final int field = groupKeys.length + i;
+      final List<Integer> args = aggArgs.get(i);
+      Object value;
+      if (aggKinds.get(i) == AggKind.COUNT) {
+        value = 1L;
+        for (int arg : args) {
+          if (row[arg] == null) {
+            value = 0L;
+          }
+        }
+      } else {
+        value = row[args.get(0)];
+      }
+      value = coerce(value, classes[field]);
+      values[field] =
+          aggKinds.get(i).merge(totals == null ? null : totals[field], value,
+              classes[field]);
+    }
+    groups.put(key, values);
+  }
+
+  private List<Object> key(Object[] values) {
+    return Arrays.asList(values).subList(0, groupKeys.length);
+  }
+
+  /** Converts an element of the source collection to an array of field
+   * values. */
+  private Object[] toRow(Object element) {
+    if (element instanceof Object[]) {
+      return (Object[]) element;
+    }
+    if (sourceFieldNames.size() == 1) {
+      return new Object[] {element};
+    }
+    Field[] fields = fieldMap.get(element.getClass());
+    if (fields == null) {
+      fields = new Field[sourceFieldNames.size()];
+      for (int i = 0; i < fields.length; i++) {
+        try {
+          fields[i] = element.getClass().getField(sourceFieldNames.get(i));
+        } catch (NoSuchFieldException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      fieldMap.put(element.getClass(), fields);
+    }
+    final Object[] row = new Object[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      try {
+        row[i] = fields[i].get(element);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return row;
+  }
+
+  /** Converts a value to a given class. Column stores may return a number
+   * in a narrower type than the column's. */
+  private static Object coerce(Object value, Class clazz) {
+    if (value == null || clazz.isInstance(value)
+        || !(value instanceof Number)) {
+      return value;
+    }
+    final Number number = (Number) value;
+    if (clazz == Long.class) {
+      return number.longValue();
+    } else if (clazz == Integer.class) {
+      return number.intValue();
+    } else if (clazz == Short.class) {
+      return number.shortValue();
+    } else if (clazz == Byte.class) {
+      return number.byteValue();
+    } else if (clazz == Double.class) {
+      return number.doubleValue();
+    } else if (clazz == Float.class) {
+      return number.floatValue();
+    } else if (clazz == BigDecimal.class) {
+      return new BigDecimal(number.toString());
+    }
+    return value;
+  }
+
+  /** Filter or project below the aggregate, compiled to a function that
+   * reads the current row from the data context. */
+  private static class Stage {
+    final boolean filter;
+    final Function1<DataContext, Object[]> function;
+
+    Stage(boolean filter, Function1<DataContext, Object[]> function) {
+      this.filter = filter;
+      this.function = function;
+    }
+  }
+
+  /** Aggregate function whose totals can be merged. */
+  private enum AggKind {
+    COUNT, SUM, SUM0, MIN, MAX;
+
+    static AggKind of(AggregateCall aggCall) {
+      if (aggCall.isDistinct()) {
+        return null;
+      }
+      final Aggregation aggregation = aggCall.getAggregation();
+      if (aggregation instanceof SqlCountAggFunction) {
+        return COUNT;
+      } else if (aggregation instanceof SqlSumAggFunction) {
+        return SUM;
+      } else if (aggregation instanceof SqlSumEmptyIsZeroAggFunction) {
+        return SUM0;
+      } else if (aggregation instanceof SqlMinMaxAggFunction) {
+        return ((SqlMinMaxAggFunction) aggregation).isMin() ? MIN : MAX;
+      }
+      return null;
+    }
+
+    /** Merges two totals of a given class; null means no values, or only
+     * null values. */
+    Object merge(Object v0, Object v1, Class clazz) {
+      if (v0 == null && v1 == null && this == SUM0) {
+        // Unlike SUM, $SUM0 returns 0 if there are no non-null values.
+        return coerce(0, clazz);
+      }
+      if (v0 == null) {
+        return v1;
+      }
+      if (v1 == null) {
+        return v0;
+      }
+      switch (this) {
+      case COUNT:
+      case SUM:
+      case SUM0:
+        return plus((Number) v0, (Number) v1);
+      case MIN:
+        //noinspection unchecked
+        return ((Comparable) v0).compareTo(v1) <= 0 ? v0 : v1;
+      default:
+        //noinspection unchecked
+        return ((Comparable) v0).compareTo(v1) >= 0 ? v0 : v1;
+      }
+    }
+
+    private static Number plus(Number v0, Number v1) {
+      if (v0 instanceof Long) {
+        return v0.longValue() + v1.longValue();
+      } else if (v0 instanceof Integer) {
+        return v0.intValue() + v1.intValue();
+      } else if (v0 instanceof Short) {
+        return (short) (v0.shortValue() + v1.shortValue());
+      } else if (v0 instanceof Byte) {
+        return (byte) (v0.byteValue() + v1.byteValue());
+      } else if (v0 instanceof Double) {
+        return v0.doubleValue() + v1.doubleValue();
+      } else if (v0 instanceof Float) {
+        return v0.floatValue() + v1.floatValue();
+      } else if (v0 instanceof BigDecimal) {
+        return ((BigDecimal) v0).add((BigDecimal) v1);
+      }
+      throw new AssertionError("cannot add " + v0.getClass());
+    }
+  }
+
+  /** Data context that provides the current row as "inputRecord", the
+   * variable read by code generated by
+   * {@link RexExecutorImpl#getExecutable}. */
+  private static class RowDataContext implements DataContext {
+    private final DataContext dataContext;
+    Object[] row;
+
+    RowDataContext(DataContext dataContext) {
+      this.dataContext = dataContext;
+    }
+
+    public SchemaPlus getRootSchema() {
+      return dataContext.getRootSchema();
+    }
+
+    public JavaTypeFactory getTypeFactory() {
+      return dataContext.getTypeFactory();
+    }
+
+    public QueryProvider getQueryProvider() {
+      return dataContext.getQueryProvider();
+    }
+
+    public Object get(String name) {
+      if (name.equals("inputRecord")) {
+        return row;
+      }
+      return dataContext.get(name);
+    }
+  }
+}
+
+// End IncrementalRefresh.java
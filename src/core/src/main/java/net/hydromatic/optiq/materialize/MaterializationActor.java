@@ -33,6 +33,11 @@ class MaterializationActor {
   final Map<MaterializationKey, Materialization> keyMap =
       new HashMap<MaterializationKey, Materialization>();
 
+  /** Materializations, indexed by the qualified name of each table that
+   * their query uses. */
+  final Map<List<String>, List<Materialization>> tableMap =
+      new HashMap<List<String>, List<Materialization>>();
+
   /** A query materialized in a table, so that reading from the table gives the
    * same results as executing the query. */
   static class Materialization {
@@ -41,6 +46,13 @@ static class Materialization {
     OptiqSchema.TableEntry materializedTable;
     final String sql;
     final RelDataType rowType;
+    final Set<List<String>> tables;
+    final boolean aggregate;
+    final List<String> viewSchemaPath;
+    /** How the table is refreshed; null if the table was not created by the
+     * materialization service, and is therefore never refreshed. */
+    final MaterializationService.RefreshPolicy refreshPolicy;
+    final IncrementalRefresh incrementalRefresh;
 
     /** Creates a materialization.
      *
@@ -52,17 +64,33 @@ static class Materialization {
      *                          materialization service will change the value as
      * @param sql  Query that is materialized
      * @param rowType Row type
+     * @param tables Qualified names of the tables used by the query
+     * @param aggregate Whether the query contains an aggregate
+     * @param viewSchemaPath Schema path in which the query is validated
+     * @param refreshPolicy Refresh policy, or null
+     * @param incrementalRefresh Applies appended rows, or null if the table
+     *                           cannot be refreshed incrementally
      */
     Materialization(MaterializationKey key,
         OptiqRootSchema rootSchema,
         OptiqSchema.TableEntry materializedTable,
         String sql,
-        RelDataType rowType) {
+        RelDataType rowType,
+        Set<List<String>> tables,
+        boolean aggregate,
+        List<String> viewSchemaPath,
+        MaterializationService.RefreshPolicy refreshPolicy,
+        IncrementalRefresh incrementalRefresh) {
       this.key = key;
       this.rootSchema = rootSchema;
       this.materializedTable = materializedTable; // may be null
       this.sql = sql;
       this.rowType = rowType;
+      this.tables = tables;
+      this.aggregate = aggregate;
+      this.viewSchemaPath = viewSchemaPath;
+      this.refreshPolicy = refreshPolicy;
+      this.incrementalRefresh = incrementalRefresh;
     }
   }
 }
@@ -27,8 +27,11 @@
 import net.hydromatic.optiq.impl.clone.CloneSchema;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
 import net.hydromatic.optiq.jdbc.*;
+import net.hydromatic.optiq.prepare.OptiqPrepareImpl;
 import net.hydromatic.optiq.prepare.Prepare;
 
+import org.eigenbase.relopt.RelOptTable;
+import org.eigenbase.relopt.RelOptUtil;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeImpl;
 import org.eigenbase.util.Pair;
@@ -61,73 +64,161 @@ private MaterializationService() {
   /** Defines a new materialization. Returns its key. */
   public MaterializationKey defineMaterialization(final OptiqSchema schema,
       String viewSql, List<String> viewSchemaPath, String tableName) {
+    return defineMaterialization(schema, viewSql, viewSchemaPath, tableName,
+        RefreshPolicy.FULL);
+  }
+
+  /** Defines a new materialization with a given refresh policy. Returns its
+   * key. */
+  public MaterializationKey defineMaterialization(final OptiqSchema schema,
+      String viewSql, List<String> viewSchemaPath, String tableName,
+      RefreshPolicy refreshPolicy) {
     final OptiqConnection connection =
         MetaImpl.connect(schema.root(), null);
     final MaterializationKey key = new MaterializationKey();
     Table materializedTable;
     RelDataType rowType = null;
     OptiqSchema.TableEntry tableEntry;
+    boolean owned = false;
     if (tableName != null) {
       final Pair<String, Table> pair = schema.getTable(tableName, true);
       materializedTable = pair == null ? null : pair.right;
       if (materializedTable == null) {
-        final OptiqPrepare.PrepareResult<Object> prepareResult =
-            Schemas.prepare(connection, schema, viewSchemaPath, viewSql);
-        rowType = prepareResult.rowType;
-        final JavaTypeFactory typeFactory = connection.getTypeFactory();
-        materializedTable =
-            CloneSchema.createCloneTable(typeFactory,
-                RelDataTypeImpl.proto(prepareResult.rowType),
-                Functions.adapt(prepareResult.structType.columns,
-                    new Function1<ColumnMetaData, ColumnMetaData.Rep>() {
-                      public ColumnMetaData.Rep apply(ColumnMetaData column) {
-                        return column.type.representation;
-                      }
-                    }),
-                new AbstractQueryable<Object>() {
-                  public Enumerator<Object> enumerator() {
-                    final DataContext dataContext =
-                        Schemas.createDataContext(connection);
-                    return prepareResult.enumerator(dataContext);
-                  }
-
-                  public Type getElementType() {
-                    return Object.class;
-                  }
-
-                  public Expression getExpression() {
-                    throw new UnsupportedOperationException();
-                  }
-
-                  public QueryProvider getProvider() {
-                    return connection;
-                  }
-
-                  public Iterator<Object> iterator() {
-                    final DataContext dataContext =
-                        Schemas.createDataContext(connection);
-                    return prepareResult.iterator(dataContext);
-                  }
-                });
-        schema.add(tableName, materializedTable);
+        final Pair<RelDataType, Table> pair2 =
+            createTable(connection, schema, viewSchemaPath, viewSql);
+        rowType = pair2.left;
+        materializedTable = pair2.right;
+        owned = true;
       }
       tableEntry = schema.add(tableName, materializedTable);
     } else {
       tableEntry = null;
     }
+    // Convert the SQL (validating it, if we didn't validate it by populating
+    // a table) and remember which tables it uses, so that the planner can
+    // quickly discard the materialization for queries that don't use them.
+    final OptiqPrepareImpl.ConvertResult convert =
+        Schemas.convert(connection, schema, viewSchemaPath, viewSql);
     if (rowType == null) {
-      // If we didn't validate the SQL by populating a table, validate it now.
-      final OptiqPrepare.ParseResult parse =
-          Schemas.parse(connection, schema, viewSchemaPath, viewSql);
-      rowType = parse.rowType;
+      rowType = convert.rowType;
+    }
+    final Set<List<String>> tables = new HashSet<List<String>>();
+    for (RelOptTable table : RelOptUtil.findTables(convert.relNode)) {
+      tables.add(table.getQualifiedName());
+    }
+
+    // If the table can be refreshed incrementally, populate it from the rows
+    // of the source, so that we know which rows it contains. The table
+    // created above has not been loaded yet, so we have wasted no effort.
+    IncrementalRefresh incrementalRefresh = null;
+    if (owned && refreshPolicy == RefreshPolicy.INCREMENTAL) {
+      incrementalRefresh =
+          IncrementalRefresh.create(convert.relNode,
+              connection.getTypeFactory());
+      if (incrementalRefresh != null) {
+        materializedTable =
+            incrementalRefresh.refresh(Schemas.createDataContext(connection),
+                connection.getTypeFactory(), rowType, null);
+        tableEntry = schema.add(tableName, materializedTable);
+      }
     }
     final MaterializationActor.Materialization materialization =
         new MaterializationActor.Materialization(key, schema.root(),
-            tableEntry, viewSql, rowType);
+            tableEntry, viewSql, rowType, tables,
+            RelOptUtil.containsAggregate(convert.relNode), viewSchemaPath,
+            owned ? refreshPolicy : null, incrementalRefresh);
     actor.keyMap.put(materialization.key, materialization);
+    for (List<String> table : tables) {
+      List<MaterializationActor.Materialization> list =
+          actor.tableMap.get(table);
+      if (list == null) {
+        list = new ArrayList<MaterializationActor.Materialization>();
+        actor.tableMap.put(table, list);
+      }
+      list.add(materialization);
+    }
     return key;
   }
 
+  /** Creates a table populated by executing a query. The table is loaded
+   * when it is first used. Returns the row type of the query and the
+   * table. */
+  private static Pair<RelDataType, Table> createTable(
+      final OptiqConnection connection, OptiqSchema schema,
+      List<String> viewSchemaPath, String viewSql) {
+    final OptiqPrepare.PrepareResult<Object> prepareResult =
+        Schemas.prepare(connection, schema, viewSchemaPath, viewSql);
+    final JavaTypeFactory typeFactory = connection.getTypeFactory();
+    final Table table =
+        CloneSchema.createCloneTable(typeFactory,
+            RelDataTypeImpl.proto(prepareResult.rowType),
+            Functions.adapt(prepareResult.structType.columns,
+                new Function1<ColumnMetaData, ColumnMetaData.Rep>() {
+                  public ColumnMetaData.Rep apply(ColumnMetaData column) {
+                    return column.type.representation;
+                  }
+                }),
+            new AbstractQueryable<Object>() {
+              public Enumerator<Object> enumerator() {
+                final DataContext dataContext =
+                    Schemas.createDataContext(connection);
+                return prepareResult.enumerator(dataContext);
+              }
+
+              public Type getElementType() {
+                return Object.class;
+              }
+
+              public Expression getExpression() {
+                throw new UnsupportedOperationException();
+              }
+
+              public QueryProvider getProvider() {
+                return connection;
+              }
+
+              public Iterator<Object> iterator() {
+                final DataContext dataContext =
+                    Schemas.createDataContext(connection);
+                return prepareResult.iterator(dataContext);
+              }
+            });
+    return Pair.of(prepareResult.rowType, table);
+  }
+
+  /** Brings a materialization up to date with the data in the tables it
+   * reads.
+   *
+   * <p>If the materialization's refresh policy is
+   * {@link RefreshPolicy#INCREMENTAL} and its query allows, merges the rows
+   * that have been appended to its source table into the existing content;
+   * otherwise executes the query again. Does nothing if the materialization
+   * does not exist, or if its table was not created by this service.</p> */
+  public void refresh(MaterializationKey key) {
+    final MaterializationActor.Materialization materialization =
+        actor.keyMap.get(key);
+    if (materialization == null || materialization.refreshPolicy == null) {
+      return;
+    }
+    final OptiqSchema.TableEntry tableEntry =
+        materialization.materializedTable;
+    final OptiqSchema schema = tableEntry.schema;
+    final OptiqConnection connection =
+        MetaImpl.connect(schema.root(), null);
+    final Table table;
+    if (materialization.incrementalRefresh != null) {
+      table =
+          materialization.incrementalRefresh.refresh(
+              Schemas.createDataContext(connection),
+              connection.getTypeFactory(), materialization.rowType,
+              tableEntry.getTable());
+    } else {
+      table = createTable(connection, schema,
+          materialization.viewSchemaPath, materialization.sql).right;
+    }
+    materialization.materializedTable = schema.add(tableEntry.name, table);
+  }
+
   /** Checks whether a materialization is valid, and if so, returns the table
    * where the data are stored. */
   public OptiqSchema.TableEntry checkValid(MaterializationKey key) {
@@ -150,17 +241,85 @@ public List<Prepare.Materialization> query(OptiqSchema rootSchema) {
         : actor.keyMap.values()) {
       if (materialization.rootSchema == rootSchema
           && materialization.materializedTable != null) {
-        list.add(
-            new Prepare.Materialization(materialization.materializedTable,
-                materialization.sql));
+        list.add(toPrepare(materialization));
       }
     }
     return list;
   }
 
+  /** Returns the materializations within a given root schema that might be
+   * used to answer a query.
+   *
+   * <p>A materialization might be used if its query uses one of the tables
+   * used by the query, or, transitively, the table of another such
+   * materialization. A materialization that contains an aggregate is used
+   * only if the query contains an aggregate. Candidates are found via an
+   * index, built when materializations are defined, from each table to the
+   * materializations that use it, so the cost does not grow with the number
+   * of materializations that are of no use.</p>
+   *
+   * @param rootSchema Root schema
+   * @param tables Qualified names of the tables used by the query
+   * @param aggregate Whether the query contains an aggregate
+   */
+  public List<Prepare.Materialization> query(OptiqSchema rootSchema,
+      Collection<List<String>> tables, boolean aggregate) {
+    final Set<MaterializationActor.Materialization> found =
+        new LinkedHashSet<MaterializationActor.Materialization>();
+    final Set<List<String>> seen = new HashSet<List<String>>(tables);
+    final LinkedList<List<String>> queue =
+        new LinkedList<List<String>>(tables);
+    while (!queue.isEmpty()) {
+      final List<MaterializationActor.Materialization> candidates =
+          actor.tableMap.get(queue.removeFirst());
+      if (candidates == null) {
+        continue;
+      }
+      for (MaterializationActor.Materialization materialization
+          : candidates) {
+        if (materialization.rootSchema == rootSchema
+            && materialization.materializedTable != null
+            && (aggregate || !materialization.aggregate)
+            && found.add(materialization)) {
+          final List<String> path = materialization.materializedTable.path();
+          if (seen.add(path)) {
+            queue.add(path);
+          }
+        }
+      }
+    }
+    final List<Prepare.Materialization> list =
+        new ArrayList<Prepare.Materialization>();
+    for (MaterializationActor.Materialization materialization : found) {
+      list.add(toPrepare(materialization));
+    }
+    return list;
+  }
+
+  /** Creates the planner's description of a materialization. */
+  private static Prepare.Materialization toPrepare(
+      MaterializationActor.Materialization materialization) {
+    return new Prepare.Materialization(materialization.materializedTable,
+        materialization.sql, materialization.tables,
+        materialization.aggregate);
+  }
+
+  /** How a materialization is brought up to date when the data in the
+   * tables it reads change. */
+  public enum RefreshPolicy {
+    /** Executes the query again, and replaces the table's content. */
+    FULL,
+
+    /** If the query is an aggregate over filters and projects over a table
+     * to which rows are only appended, applies the new rows to the existing
+     * content; otherwise as {@link #FULL}. */
+    INCREMENTAL
+  }
+
   /** De-registers all materialized tables in the system. */
   public void clear() {
     actor.keyMap.clear();
+    actor.tableMap.clear();
   }
 
   /** Used by tests, to ensure that they see their own service. */
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.prepare;
+
+import net.hydromatic.optiq.runtime.*;
+
+import com.google.common.cache.*;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.CompilerFactoryFactory;
+import org.codehaus.commons.compiler.IClassBodyEvaluator;
+import org.codehaus.commons.compiler.ICompilerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of classes compiled from generated Java code.
+ *
+ * <p>The key is the generated source (plus the name of the class and the
+ * parent class loader), so two statements that generate byte-for-byte
+ * identical code share one compiled class, and Janino runs only once.</p>
+ *
+ * <p>The cache holds classes, not instances. A generated {@link Bindable}
+ * assigns its {@link net.hydromatic.optiq.DataContext} to a member
+ * variable when it is bound, so each statement gets its own instance.</p>
+ *
+ * <p>The number of entries is bounded by the system property
+ * "optiq.bindable.cache.maxSize" (default 1,000); set it to 0 to disable
+ * caching. Each lookup runs {@link Hook#BINDABLE_CACHE} with a
+ * {@link Stats} snapshot.</p>
+ */
+public class BindableCache {
+  public static final int MAX_SIZE =
+      Integer.parseInt(
+          System.getProperties().getProperty(
+              "optiq.bindable.cache.maxSize", "1000"));
+
+  private static final BindableCache INSTANCE = new BindableCache(MAX_SIZE);
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final Cache<Key, Class> cache;
+
+  public BindableCache(int maxSize) {
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .removalListener(
+                new RemovalListener<Key, Class>() {
+                  public void onRemoval(
+                      RemovalNotification<Key, Class> notification) {
+                    if (notification.wasEvicted()) {
+                      evictionCount.incrementAndGet();
+                    }
+                  }
+                })
+            .build();
+  }
+
+  /** Returns the cache shared by all statements in this JVM. */
+  public static BindableCache instance() {
+    return INSTANCE;
+  }
+
+  /** Returns a new instance of the class generated from the given source
+   * code, compiling the class if it is not in the cache. */
+  public Bindable get(final String className, final String source,
+      final ClassLoader parentClassLoader)
+      throws CompileException, IOException {
+    final Key key = new Key(className, source, parentClassLoader);
+    final boolean[] compiled = {false};
+    final Class clazz;
+    try {
+      clazz = cache.get(key,
+          new Callable<Class>() {
+            public Class call() throws Exception {
+              compiled[0] = true;
+              return compile(className, source, parentClassLoader);
+            }
+          });
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof CompileException) {
+        throw (CompileException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    (compiled[0] ? missCount : hitCount).incrementAndGet();
+    Hook.BINDABLE_CACHE.run(stats());
+    try {
+      return (Bindable) clazz.newInstance();
+    } catch (InstantiationException e) {
+      throw new RuntimeException(e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Compiles the class body with Janino. */
+  static Class compile(String className, String source,
+      ClassLoader parentClassLoader) throws CompileException, IOException {
+    ICompilerFactory compilerFactory;
+    try {
+      compilerFactory = CompilerFactoryFactory.getDefaultCompilerFactory();
+    } catch (Exception e) {
+      throw new IllegalStateException(
+          "Unable to instantiate java compiler", e);
+    }
+    IClassBodyEvaluator cbe = compilerFactory.newClassBodyEvaluator();
+    cbe.setClassName(className);
+    cbe.setExtendedClass(Utilities.class);
+    cbe.setImplementedInterfaces(new Class[]{Bindable.class, Typed.class});
+    cbe.setParentClassLoader(parentClassLoader);
+    if (OptiqPrepareImpl.DEBUG) {
+      // Add line numbers to the generated janino class
+      cbe.setDebuggingInformation(true, true, true);
+    }
+    cbe.cook(new StringReader(source));
+    return cbe.getClazz();
+  }
+
+  /** Returns a snapshot of the hit, miss and eviction counts. */
+  public Stats stats() {
+    return new Stats(hitCount.get(), missCount.get(), evictionCount.get(),
+        cache.size());
+  }
+
+  /** Removes all entries. Does not reset the counters. */
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /** Key of an entry in the cache. */
+  private static class Key {
+    final String className;
+    final String source;
+    final ClassLoader parentClassLoader;
+    final int hashCode;
+
+    Key(String className, String source, ClassLoader parentClassLoader) {
+      this.className = className;
+      this.source = source;
+      this.parentClassLoader = parentClassLoader;
+      this.hashCode =
+          (className.hashCode() * 31 + source.hashCode()) * 31
+          + System.identityHashCode(parentClassLoader);
+    }
+
+    @Override public int hashCode() {
+      return hashCode;
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj == this
+          || obj instanceof Key
+          && ((Key) obj).hashCode == hashCode
+          && ((Key) obj).parentClassLoader == parentClassLoader
+          && ((Key) obj).className.equals(className)
+          && ((Key) obj).source.equals(source);
+    }
+  }
+
+  /** Statistics of a {@link BindableCache} at a point in time. */
+  public static class Stats {
+    public final long hitCount;
+    public final long missCount;
+    public final long evictionCount;
+    public final long size;
+
+    public Stats(long hitCount, long missCount, long evictionCount,
+        long size) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.size = size;
+    }
+
+    @Override public String toString() {
+      return "hits=" + hitCount + ", misses=" + missCount
+          + ", evictions=" + evictionCount + ", size=" + size;
+    }
+  }
+}
+
+// End BindableCache.java
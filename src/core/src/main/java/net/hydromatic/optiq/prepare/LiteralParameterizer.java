@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.prepare;
+
+import org.eigenbase.sql.*;
+import org.eigenbase.sql.util.SqlBasicVisitor;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a parse tree, replacing literals by dynamic parameters, so that
+ * queries that differ only in the values of their literals have the same
+ * normalized form and can share a plan.
+ *
+ * <p>Only numeric and character literals that are an operand of a
+ * comparison ({@code =}, {@code <>}, {@code <}, {@code <=}, {@code >},
+ * {@code >=}) whose other operand is not a literal or parameter are
+ * replaced. The type of such a parameter is inferred from the other operand,
+ * and its value does not affect the plan. Other literals, such as those in
+ * the SELECT clause or in LIMIT, OFFSET and FETCH, are left in place.</p>
+ *
+ * <p>The tree is modified in place. The new parameters are numbered after
+ * any parameters that were in the original statement.</p>
+ */
+class LiteralParameterizer extends SqlBasicVisitor<Void> {
+  /** Index of the first new parameter; equals the number of parameters in
+   * the original statement. */
+  final int firstIndex;
+
+  /** Values of the replaced literals; element {@code i} is the value of
+   * parameter {@code firstIndex + i}. Each value is a {@link BigDecimal} or
+   * a {@link String}. */
+  final List<Object> values = new ArrayList<Object>();
+
+  private LiteralParameterizer(int firstIndex) {
+    this.firstIndex = firstIndex;
+  }
+
+  /** Replaces literals in a parse tree by dynamic parameters. */
+  public static LiteralParameterizer parameterize(SqlNode node) {
+    final int[] paramCount = {0};
+    node.accept(
+        new SqlBasicVisitor<Void>() {
+          @Override public Void visit(SqlDynamicParam param) {
+            paramCount[0] = Math.max(paramCount[0], param.getIndex() + 1);
+            return null;
+          }
+        });
+    final LiteralParameterizer parameterizer =
+        new LiteralParameterizer(paramCount[0]);
+    node.accept(parameterizer);
+    return parameterizer;
+  }
+
+  @Override public Void visit(SqlCall call) {
+    if (call.getKind().belongsTo(SqlKind.COMPARISON)
+        && call.getKind() != SqlKind.IN
+        && call.operandCount() == 2) {
+      for (int i = 0; i < 2; i++) {
+        final SqlNode operand = call.operand(i);
+        final SqlNode other = call.operand(1 - i);
+        if (isParameterizable(operand)
+            && !(other instanceof SqlLiteral)
+            && !(other instanceof SqlDynamicParam)) {
+          call.setOperand(i,
+              new SqlDynamicParam(firstIndex + values.size(),
+                  operand.getParserPosition()));
+          values.add(value((SqlLiteral) operand));
+        }
+      }
+    }
+    return super.visit(call);
+  }
+
+  private static boolean isParameterizable(SqlNode node) {
+    return node instanceof SqlNumericLiteral
+        || node instanceof SqlCharStringLiteral;
+  }
+
+  private static Object value(SqlLiteral literal) {
+    if (literal instanceof SqlNumericLiteral) {
+      return literal.bigDecimalValue();
+    }
+    return literal.getStringValue();
+  }
+
+  /** Converts the value of a replaced literal to the Java type that
+   * generated code expects for a parameter of the given JDBC type, or
+   * returns null if the value cannot be converted without loss. */
+  static Object convert(Object value, int jdbcType) {
+    if (value instanceof String) {
+      switch (jdbcType) {
+      case Types.CHAR:
+      case Types.VARCHAR:
+        return value;
+      default:
+        return null;
+      }
+    }
+    final BigDecimal bd = (BigDecimal) value;
+    try {
+      switch (jdbcType) {
+      case Types.TINYINT:
+        return bd.byteValueExact();
+      case Types.SMALLINT:
+        return bd.shortValueExact();
+      case Types.INTEGER:
+        return bd.intValueExact();
+      case Types.BIGINT:
+        return bd.longValueExact();
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return bd;
+      case Types.REAL:
+      case Types.FLOAT:
+        return bd.floatValue();
+      case Types.DOUBLE:
+        return bd.doubleValue();
+      default:
+        return null;
+      }
+    } catch (ArithmeticException e) {
+      // Value has a fractional part, or is out of range.
+      return null;
+    }
+  }
+}
+
+// End LiteralParameterizer.java
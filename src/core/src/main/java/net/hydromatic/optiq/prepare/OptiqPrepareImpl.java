@@ -54,17 +54,17 @@
 import org.eigenbase.sql2rel.StandardConvertletTable;
 import org.eigenbase.util.Util;
 
+import com.google.common.base.Function;
+import com.google.common.cache.*;
 import com.google.common.collect.*;
 
 import org.codehaus.commons.compiler.CompileException;
-import org.codehaus.commons.compiler.CompilerFactoryFactory;
-import org.codehaus.commons.compiler.IClassBodyEvaluator;
-import org.codehaus.commons.compiler.ICompilerFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.sql.DatabaseMetaData;
@@ -134,6 +134,49 @@ public class OptiqPrepareImpl implements OptiqPrepare {
           PushJoinThroughJoinRule.LEFT,
           PushSortPastProjectRule.INSTANCE);
 
+  /** Maximum number of parameterized plans cached per root schema. */
+  private static final int PARAMETERIZED_PLAN_CACHE_SIZE = 1000;
+
+  /** Plans of statements whose literals have been replaced by parameters,
+   * by root schema and normalized SQL. Root schemas are weakly referenced,
+   * so that a schema's plans are released when its connections are
+   * closed. */
+  private static final LoadingCache<OptiqSchema,
+      Cache<List<Object>, ParameterizedPlan>> PARAMETERIZED_PLANS =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(
+              new CacheLoader<OptiqSchema,
+                  Cache<List<Object>, ParameterizedPlan>>() {
+                public Cache<List<Object>, ParameterizedPlan> load(
+                    OptiqSchema key) {
+                  return CacheBuilder.newBuilder()
+                      .maximumSize(PARAMETERIZED_PLAN_CACHE_SIZE)
+                      .build();
+                }
+              });
+
+  /** Maximum number of optimized plans cached per root schema. */
+  private static final int PLAN_CACHE_SIZE = 1000;
+
+  /** Optimized plans, by root schema and logical plan. Used if the
+   * "planCache" connection property is set. Root schemas are weakly
+   * referenced, so that a schema's plans are released when its connections
+   * are closed. */
+  private static final LoadingCache<OptiqSchema,
+      Cache<List<Object>, CachedPlan>> PLANS =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(
+              new CacheLoader<OptiqSchema, Cache<List<Object>, CachedPlan>>() {
+                public Cache<List<Object>, CachedPlan> load(
+                    OptiqSchema key) {
+                  return CacheBuilder.newBuilder()
+                      .maximumSize(PLAN_CACHE_SIZE)
+                      .build();
+                }
+              });
+
   private static final List<RelOptRule> CONSTANT_REDUCTION_RULES =
       ImmutableList.of(
           ReduceExpressionsRule.PROJECT_INSTANCE,
@@ -149,6 +192,18 @@ public OptiqPrepareImpl() {
 
   public ParseResult parse(
       Context context, String sql) {
+    return parse_(context, sql, false);
+  }
+
+  /** Parses, validates and converts a SQL query to a relational
+   * expression. Not part of {@link OptiqPrepare}; for use within Optiq
+   * only. */
+  public ConvertResult convert(Context context, String sql) {
+    return (ConvertResult) parse_(context, sql, true);
+  }
+
+  /** Shared implementation for {@link #parse} and {@link #convert}. */
+  private ParseResult parse_(Context context, String sql, boolean convert) {
     final JavaTypeFactory typeFactory = context.getTypeFactory();
     OptiqCatalogReader catalogReader =
         new OptiqCatalogReader(
@@ -167,8 +222,36 @@ public ParseResult parse(
         new OptiqSqlValidator(
             SqlStdOperatorTable.instance(), catalogReader, typeFactory);
     SqlNode sqlNode1 = validator.validate(sqlNode);
-    return new ParseResult(this, validator, sql, sqlNode1,
-        validator.getValidatedNodeType(sqlNode1));
+    if (!convert) {
+      return new ParseResult(this, validator, sql, sqlNode1,
+          validator.getValidatedNodeType(sqlNode1));
+    }
+    final OptiqPreparingStmt preparingStmt =
+        new OptiqPreparingStmt(
+            context,
+            catalogReader,
+            typeFactory,
+            context.getRootSchema(),
+            EnumerableRel.Prefer.ANY,
+            createPlanner(context),
+            EnumerableConvention.INSTANCE);
+    final SqlToRelConverter converter =
+        preparingStmt.getSqlToRelConverter(validator, catalogReader);
+    final RelNode relNode = converter.convertQuery(sqlNode1, false, true);
+    return new ConvertResult(this, validator, sql, sqlNode1,
+        validator.getValidatedNodeType(sqlNode1), relNode);
+  }
+
+  /** The result of parsing, validating and converting a SQL query to a
+   * relational expression. */
+  public static class ConvertResult extends ParseResult {
+    public final RelNode relNode;
+
+    public ConvertResult(OptiqPrepareImpl prepare, SqlValidator validator,
+        String sql, SqlNode sqlNode, RelDataType rowType, RelNode relNode) {
+      super(prepare, validator, sql, sqlNode, rowType);
+      this.relNode = relNode;
+    }
   }
 
   /** Creates a collection of planner factories.
@@ -206,6 +289,9 @@ protected RelOptPlanner createPlanner(OptiqPrepare.Context prepareContext,
       RelOptCostFactory costFactory) {
     final VolcanoPlanner planner =
         new VolcanoPlanner(costFactory, externalContext);
+    final OptiqConnectionConfig config = prepareContext.config();
+    planner.setTimeBudget(config.plannerTimeBudget());
+    planner.setRuleFiringBudget(config.plannerRuleBudget());
     planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
     if (ENABLE_COLLATION_TRAIT) {
       planner.addRelTraitDef(RelCollationTraitDef.INSTANCE);
@@ -216,8 +302,9 @@ protected RelOptPlanner createPlanner(OptiqPrepare.Context prepareContext,
       planner.addRule(rule);
     }
 
-    // Change the below to enable constant-reduction.
-    if (false) {
+    // Most constant expressions are evaluated by
+    // org.eigenbase.rex.RexInterpreter, which is cheap; others are compiled.
+    if (config.reduceConstants()) {
       for (RelOptRule rule : CONSTANT_REDUCTION_RULES) {
         planner.addRule(rule);
       }
@@ -263,6 +350,32 @@ <T> PrepareResult<T> prepare_(
     if (SIMPLE_SQLS.contains(sql)) {
       return simplePrepare(context, sql);
     }
+    if (sql != null
+        && context.config().parameterizeLiterals()
+        && !context.spark().enabled()) {
+      final PrepareResult<T> result =
+          prepareParameterized(context, sql, elementType, maxRowCount);
+      if (result != null) {
+        return result;
+      }
+    }
+    return prepare_(context, sql, queryable, elementType, maxRowCount, null);
+  }
+
+  /** Prepares a statement.
+   *
+   * <p>If {@code schemaVersions} is not null, replaces the literals of the
+   * statement by parameters, and adds to the list the versions of the
+   * schemas that the plan reads. If the plan reads a table that is not
+   * under the root schema, adds null, meaning that the plan cannot be
+   * validated later.</p> */
+  <T> PrepareResult<T> prepare_(
+      Context context,
+      String sql,
+      Queryable<T> queryable,
+      Type elementType,
+      int maxRowCount,
+      List<SchemaVersion> schemaVersions) {
     final JavaTypeFactory typeFactory = context.getTypeFactory();
     OptiqCatalogReader catalogReader =
         new OptiqCatalogReader(
@@ -283,7 +396,7 @@ <T> PrepareResult<T> prepare_(
       }
       try {
         return prepare2_(
-            context, sql, queryable, elementType, maxRowCount,
+            context, sql, queryable, elementType, maxRowCount, schemaVersions,
             catalogReader, planner);
       } catch (RelOptPlanner.CannotPlanException e) {
         exception = e;
@@ -292,6 +405,111 @@ <T> PrepareResult<T> prepare_(
     throw exception;
   }
 
+  /** Prepares a statement whose literals have been replaced by parameters,
+   * re-using a plan if a statement with the same normalized SQL has been
+   * prepared before and none of the schemas that the plan reads has changed
+   * since. Returns null if the statement has no literals that can be
+   * replaced, if the parameterized statement cannot be prepared, or if the
+   * values of its literals cannot be bound to the parameters of the plan;
+   * the caller should then prepare it as usual.
+   *
+   * <p>If the parameterized statement cannot be prepared, the failure is
+   * cached too, so that later executions go straight to the usual path.
+   * Since a failure may be transient (say a table did not exist yet), it is
+   * cached with the versions of the root schema, of the schemas on the
+   * default schema path, and of any schemas that the plan had read; when one
+   * of them changes, parameterization is tried again.</p> */
+  private <T> PrepareResult<T> prepareParameterized(final Context context,
+      final String sql, final Type elementType, final int maxRowCount) {
+    final SqlNode sqlNode = parse_(context.config(), sql);
+    if (!sqlNode.getKind().belongsTo(SqlKind.QUERY)) {
+      return null;
+    }
+    final LiteralParameterizer parameterizer =
+        LiteralParameterizer.parameterize(sqlNode);
+    if (parameterizer.values.isEmpty()) {
+      return null;
+    }
+    final OptiqConnectionConfig config = context.config();
+    final List<Object> key =
+        Arrays.<Object>asList(sqlNode.toString(),
+            context.getDefaultSchemaPath(), elementType, maxRowCount,
+            config.caseSensitive(), config.materializationsEnabled(),
+            config.columnarScan(), config.reduceConstants(),
+            config.joinMemoryBudget() >= 0,
+            config.sortMemoryBudget() >= 0,
+            config.aggregateMemoryBudget() >= 0);
+    final OptiqSchema rootSchema = context.getRootSchema();
+    final Cache<List<Object>, ParameterizedPlan> cache =
+        PARAMETERIZED_PLANS.getUnchecked(rootSchema);
+    ParameterizedPlan plan = cache.getIfPresent(key);
+    final long now = System.currentTimeMillis();
+    if (plan == null
+        || !SchemaVersion.isCurrent(plan.versions, rootSchema, now)) {
+      // Record the versions of the schemas that names are resolved in
+      // before preparing, in case the statement fails.
+      final List<SchemaVersion> pathVersions =
+          SchemaVersion.ofPath(rootSchema, context.getDefaultSchemaPath(),
+              now);
+      final List<SchemaVersion> versions = new ArrayList<SchemaVersion>();
+      PrepareResult<?> prepareResult;
+      try {
+        prepareResult =
+            prepare_(context, sql, null, elementType, maxRowCount, versions);
+      } catch (RuntimeException e) {
+        // For example, the statement uses a parameter where the validator
+        // cannot deduce its type, or an adapter cannot push down a
+        // parameter.
+        prepareResult = null;
+        versions.addAll(pathVersions);
+      }
+      plan = new ParameterizedPlan(prepareResult, parameterizer.firstIndex,
+          versions);
+      if (versions.contains(null)) {
+        cache.invalidate(key);
+      } else {
+        cache.put(key, plan);
+      }
+    }
+    if (plan.prepareResult == null) {
+      return null;
+    }
+    final List<Object> values = new ArrayList<Object>();
+    for (Ord<Object> value : Ord.zip(parameterizer.values)) {
+      final AvaticaParameter parameter =
+          plan.prepareResult.parameterList.get(plan.firstIndex + value.i);
+      final Object o =
+          LiteralParameterizer.convert(value.e, parameter.parameterType);
+      if (o == null) {
+        return null;
+      }
+      values.add(o);
+    }
+    //noinspection unchecked
+    final PrepareResult<T> prepareResult =
+        (PrepareResult<T>) plan.prepareResult;
+    return new PrepareResult<T>(
+        sql,
+        prepareResult.parameterList.subList(0, plan.firstIndex),
+        prepareResult.rowType,
+        prepareResult.structType,
+        maxRowCount,
+        new LiteralBindable<T>(plan.<T>newBindable(), plan.firstIndex,
+            values),
+        prepareResult.resultClazz);
+  }
+
+  private static SqlNode parse_(OptiqConnectionConfig config, String sql) {
+    SqlParser parser = SqlParser.create(SqlParserImpl.FACTORY, sql,
+        config.quoting(), config.unquotedCasing(), config.quotedCasing());
+    try {
+      return parser.parseStmt();
+    } catch (SqlParseException e) {
+      throw new RuntimeException(
+          "parse failed: " + e.getMessage(), e);
+    }
+  }
+
   /** Quickly prepares a simple SQL statement, circumventing the usual
    * preparation process. */
   private <T> PrepareResult<T> simplePrepare(Context context, String sql) {
@@ -323,6 +541,7 @@ <T> PrepareResult<T> prepare2_(
       Queryable<T> queryable,
       Type elementType,
       int maxRowCount,
+      List<SchemaVersion> schemaVersions,
       OptiqCatalogReader catalogReader,
       RelOptPlanner planner) {
     final JavaTypeFactory typeFactory = context.getTypeFactory();
@@ -341,24 +560,21 @@ <T> PrepareResult<T> prepare2_(
             prefer,
             planner,
             EnumerableConvention.INSTANCE);
+    preparingStmt.schemaVersions = schemaVersions;
 
     final RelDataType x;
     final Prepare.PreparedResult preparedResult;
     if (sql != null) {
       assert queryable == null;
       final OptiqConnectionConfig config = context.config();
-      SqlParser parser = SqlParser.create(SqlParserImpl.FACTORY, sql,
-          config.quoting(), config.unquotedCasing(), config.quotedCasing());
-      SqlNode sqlNode;
-      try {
-        sqlNode = parser.parseStmt();
-      } catch (SqlParseException e) {
-        throw new RuntimeException(
-            "parse failed: " + e.getMessage(), e);
-      }
+      final SqlNode sqlNode = parse_(config, sql);
 
       Hook.PARSE_TREE.run(new Object[] {sql, sqlNode});
 
+      if (schemaVersions != null) {
+        LiteralParameterizer.parameterize(sqlNode);
+      }
+
       final OptiqSchema rootSchema = context.getRootSchema();
       final ChainedSqlOperatorTable opTab =
           new ChainedSqlOperatorTable(
@@ -367,15 +583,13 @@ <T> PrepareResult<T> prepare2_(
           new OptiqSqlValidator(opTab, catalogReader, typeFactory);
       validator.setIdentifierExpansion(true);
 
-      final List<Prepare.Materialization> materializations =
-          config.materializationsEnabled()
-              ? MaterializationService.instance().query(rootSchema)
-              : ImmutableList.<Prepare.Materialization>of();
-      for (Prepare.Materialization materialization : materializations) {
-        populateMaterializations(context, planner, materialization);
-      }
+      // Materializations are looked up, by the tables that the query uses,
+      // when the query has been converted to relational algebra.
+      preparingStmt.materializationsEnabled =
+          config.materializationsEnabled();
       preparedResult = preparingStmt.prepareSql(
-          sqlNode, Object.class, validator, true, materializations);
+          sqlNode, Object.class, validator, true,
+          ImmutableList.<Prepare.Materialization>of());
       switch (sqlNode.getKind()) {
       case INSERT:
       case EXPLAIN:
@@ -527,27 +741,6 @@ private static String getTypeName(RelDataType type) {
     }
   }
 
-  protected void populateMaterializations(Context context,
-      RelOptPlanner planner, Prepare.Materialization materialization) {
-    // REVIEW: initialize queryRel and tableRel inside MaterializationService,
-    // not here?
-    try {
-      final OptiqSchema schema = materialization.materializedTable.schema;
-      OptiqCatalogReader catalogReader =
-          new OptiqCatalogReader(
-              schema.root(),
-              context.config().caseSensitive(),
-              Util.skipLast(materialization.materializedTable.path()),
-              context.getTypeFactory());
-      final OptiqMaterializer materializer =
-          new OptiqMaterializer(context, catalogReader, schema, planner);
-      materializer.populate(materialization);
-    } catch (Exception e) {
-      throw new RuntimeException("While populating materialization "
-          + materialization.materializedTable.path(), e);
-    }
-  }
-
   private static RelDataType makeStruct(
       RelDataTypeFactory typeFactory,
       RelDataType type) {
@@ -591,6 +784,14 @@ static class OptiqPreparingStmt extends Prepare
     private int expansionDepth;
     private SqlValidator sqlValidator;
 
+    /** If not null, list to which {@link #optimizeAndImplement} adds the
+     * versions of the schemas that the plan reads. */
+    List<SchemaVersion> schemaVersions;
+
+    /** Whether to look for materializations, in
+     * {@link MaterializationService}, that might answer the query. */
+    boolean materializationsEnabled;
+
     public OptiqPreparingStmt(Context context,
         CatalogReader catalogReader,
         RelDataTypeFactory typeFactory,
@@ -667,10 +868,36 @@ protected SqlToRelConverter getSqlToRelConverter(
       return sqlToRelConverter;
     }
 
+    /** {@inheritDoc}
+     *
+     * <p>If materializations are enabled, also returns the materializations
+     * that {@link MaterializationService} finds, via its index, for the
+     * tables that the query uses.</p> */
+    @Override protected List<Materialization> getApplicableMaterializations(
+        RelNode rootRel, List<Materialization> materializations) {
+      if (!materializationsEnabled) {
+        return materializations;
+      }
+      final Set<List<String>> tables = new HashSet<List<String>>();
+      for (RelOptTable table : RelOptUtil.findTables(rootRel)) {
+        tables.add(table.getQualifiedName());
+      }
+      final List<Materialization> found =
+          MaterializationService.instance().query(schema, tables,
+              RelOptUtil.containsAggregate(rootRel));
+      if (materializations.isEmpty()) {
+        return found;
+      }
+      final List<Materialization> list =
+          new ArrayList<Materialization>(materializations);
+      list.addAll(found);
+      return list;
+    }
+
     @Override
     protected EnumerableRelImplementor getRelImplementor(
         RexBuilder rexBuilder) {
-      return new EnumerableRelImplementor(rexBuilder);
+      return new EnumerableRelImplementor(rexBuilder, context.config());
     }
 
     @Override
@@ -747,6 +974,90 @@ protected PreparedResult createPreparedExplanation(
           resultType, parameterRowType, rootRel, explainAsXml, detailLevel);
     }
 
+    /** {@inheritDoc}
+     *
+     * <p>If the "planCache" connection property is set, looks for a plan
+     * prepared earlier from the same logical plan, and if there is none,
+     * caches the plan that it prepares. A cached plan is used only if none
+     * of the schemas that contain the tables it reads, or their ancestors,
+     * have changed since it was cached. A plan is not cached if the planner
+     * ran out of its time or rule-firing budget.</p> */
+    @Override protected PreparedResult optimizeAndImplement(
+        RelDataType resultType, RelNode rootRel, SqlKind sqlKind,
+        List<Materialization> materializations) {
+      final OptiqConnectionConfig config = context.config();
+      final long now = System.currentTimeMillis();
+      if (schemaVersions != null) {
+        final List<SchemaVersion> versions =
+            SchemaVersion.of(schema, rootRel, now);
+        if (versions == null) {
+          schemaVersions.add(null);
+        } else {
+          schemaVersions.addAll(versions);
+        }
+      }
+      if (!config.planCache()
+          || context.spark().enabled()
+          || !getApplicableMaterializations(rootRel, materializations)
+              .isEmpty()) {
+        return super.optimizeAndImplement(resultType, rootRel, sqlKind,
+            materializations);
+      }
+      final List<Object> key =
+          Arrays.<Object>asList(
+              RelOptUtil.toString(rootRel, SqlExplainLevel.DIGEST_ATTRIBUTES),
+              rootRel.getRowType().getFullTypeString(),
+              resultType.getFullTypeString(),
+              parameterRowType.getFullTypeString(),
+              sqlKind, prefer, config.columnarScan(),
+              config.reduceConstants(),
+              config.joinMemoryBudget() >= 0,
+              config.sortMemoryBudget() >= 0,
+              config.aggregateMemoryBudget() >= 0,
+              config.plannerTimeBudget(),
+              config.plannerRuleBudget());
+      final Cache<List<Object>, CachedPlan> cache =
+          PLANS.getUnchecked(schema);
+      final CachedPlan plan = cache.getIfPresent(key);
+      if (plan != null && plan.isValid(schema, now)) {
+        return createPreparedResult(plan.rowType, rootRel, plan.tableModOp,
+            plan.isDml, newBindable(plan.bindableClass));
+      }
+      // Record the schema versions before planning. If a schema changes
+      // while we are planning, the plan will be out of date the first time
+      // it is used.
+      final List<SchemaVersion> versions =
+          SchemaVersion.of(schema, rootRel, now);
+      // A plan found before the planner ran out of budget depends on how
+      // far it got, so it is not worth reusing.
+      final boolean[] budgetExceeded = {false};
+      final Hook.Closeable closeable =
+          Hook.PLANNER_BUDGET_EXCEEDED.addThread(
+              new Function<Object, Object>() {
+                public Object apply(Object o) {
+                  budgetExceeded[0] = true;
+                  return null;
+                }
+              });
+      final PreparedResult result;
+      try {
+        result = super.optimizeAndImplement(resultType, rootRel, sqlKind,
+            materializations);
+      } finally {
+        closeable.close();
+      }
+      if (versions != null
+          && !budgetExceeded[0]
+          && result instanceof PreparedResultImpl) {
+        final PreparedResultImpl resultImpl = (PreparedResultImpl) result;
+        cache.put(key,
+            new CachedPlan(resultImpl.getBindable().getClass(),
+                resultImpl.getPhysicalRowType(), resultImpl.getTableModOp(),
+                resultImpl.isDml(), versions));
+      }
+      return result;
+    }
+
     @Override
     protected PreparedResult implement(
         RelDataType rowType,
@@ -784,12 +1095,23 @@ protected PreparedResult implement(
         timingTracer.traceTime("end compilation");
       }
 
+      return createPreparedResult(rootRel.getRowType(), rootRel,
+          mapTableModOp(isDml, sqlKind), isDml, bindable);
+    }
+
+    /** Creates the result of preparing a statement, given the bindable that
+     * implements it. The parameters and field origins are those of the
+     * current statement. If the plan came from the cache, {@code rootRel} is
+     * the statement's logical plan, not the physical plan. */
+    private PreparedResult createPreparedResult(RelDataType rowType,
+        RelNode rootRel, TableModificationRel.Operation tableModOp,
+        boolean isDml, final Bindable bindable) {
       return new PreparedResultImpl(
-          resultType,
+          rowType,
           parameterRowType,
           fieldOrigins,
           rootRel,
-          mapTableModOp(isDml, sqlKind),
+          tableModOp,
           isDml) {
         public String getCode() {
           throw new UnsupportedOperationException();
@@ -834,23 +1156,220 @@ private Bindable getBindable(ClassDeclaration expr,
       if (context.spark().enabled()) {
         return context.spark().compile(expr, s);
       }
-      ICompilerFactory compilerFactory;
-      try {
-        compilerFactory = CompilerFactoryFactory.getDefaultCompilerFactory();
-      } catch (Exception e) {
-        throw new IllegalStateException(
-            "Unable to instantiate java compiler", e);
+      return BindableCache.instance().get(expr.name, s,
+          getClass().getClassLoader());
+    }
+  }
+
+  /** Plan of a statement whose literals have been replaced by parameters,
+   * and the versions of the schemas that it reads. Parameters
+   * {@code firstIndex} onwards were created from literals. If the statement
+   * could not be prepared, {@code prepareResult} is null. */
+  private static class ParameterizedPlan {
+    final PrepareResult<?> prepareResult;
+    final int firstIndex;
+    final List<SchemaVersion> versions;
+
+    ParameterizedPlan(PrepareResult<?> prepareResult, int firstIndex,
+        List<SchemaVersion> versions) {
+      this.prepareResult = prepareResult;
+      this.firstIndex = firstIndex;
+      this.versions = versions;
+    }
+
+    <T> Bindable<T> newBindable() {
+      //noinspection unchecked
+      return OptiqPrepareImpl.newBindable(prepareResult.getBindable());
+    }
+  }
+
+  /** Creates a new instance of the class of a generated {@link Bindable}.
+   * Instances cannot be shared between statements, because an instance
+   * stores its {@link DataContext} when it is bound. */
+  private static Bindable newBindable(Bindable bindable) {
+    return newBindable(bindable.getClass());
+  }
+
+  private static Bindable newBindable(Class<? extends Bindable> clazz) {
+    try {
+      return clazz.newInstance();
+    } catch (InstantiationException e) {
+      throw new RuntimeException(e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Plan in the cache of optimized plans, and the versions of the schemas
+   * that it depends upon.
+   *
+   * <p>Holds only what is needed to execute the plan again: the generated
+   * class, not an instance bound to a statement, and not the physical plan,
+   * which references the planner that produced it.</p> */
+  private static class CachedPlan {
+    final Class<? extends Bindable> bindableClass;
+    final RelDataType rowType;
+    final TableModificationRel.Operation tableModOp;
+    final boolean isDml;
+    final List<SchemaVersion> versions;
+
+    CachedPlan(Class<? extends Bindable> bindableClass, RelDataType rowType,
+        TableModificationRel.Operation tableModOp, boolean isDml,
+        List<SchemaVersion> versions) {
+      this.bindableClass = bindableClass;
+      this.rowType = rowType;
+      this.tableModOp = tableModOp;
+      this.isDml = isDml;
+      this.versions = versions;
+    }
+
+    /** Returns whether none of the schemas that this plan depends upon
+     * have changed. */
+    boolean isValid(OptiqSchema rootSchema, long now) {
+      return SchemaVersion.isCurrent(versions, rootSchema, now);
+    }
+  }
+
+  /** Version of a schema at the time that a plan was cached.
+   *
+   * <p>The schema is weakly referenced. Every schema references its root,
+   * and the caches of plans are weakly keyed by root schema; a strong
+   * reference would prevent a root schema's plans from being released.</p> */
+  private static class SchemaVersion {
+    final List<String> path;
+    final WeakReference<OptiqSchema> schema;
+    final int version;
+    final long timestamp;
+
+    SchemaVersion(List<String> path, OptiqSchema schema, long timestamp) {
+      this.path = path;
+      this.schema = new WeakReference<OptiqSchema>(schema);
+      this.version = schema.getVersion();
+      this.timestamp = timestamp;
+    }
+
+    /** Returns the versions of the schemas that contain the tables read by
+     * a plan, and of their ancestors; or null if a table is not in a
+     * schema under the given root. */
+    static List<SchemaVersion> of(final OptiqSchema rootSchema, RelNode rel,
+        final long now) {
+      final Map<List<String>, SchemaVersion> map =
+          new LinkedHashMap<List<String>, SchemaVersion>();
+      map.put(ImmutableList.<String>of(),
+          new SchemaVersion(ImmutableList.<String>of(), rootSchema, now));
+      final boolean[] ok = {true};
+      new RelVisitor() {
+        @Override public void visit(RelNode node, int ordinal,
+            RelNode parent) {
+          final RelOptTable table = node.getTable();
+          if (table != null) {
+            final List<String> names = table.getQualifiedName();
+            OptiqSchema schema = rootSchema;
+            for (int i = 1; i < names.size(); i++) {
+              final List<String> path = names.subList(0, i);
+              schema = schema.getSubSchema(names.get(i - 1), true);
+              if (schema == null) {
+                ok[0] = false;
+                break;
+              }
+              if (!map.containsKey(path)) {
+                final ImmutableList<String> path2 =
+                    ImmutableList.copyOf(path);
+                map.put(path2, new SchemaVersion(path2, schema, now));
+              }
+            }
+          }
+          super.visit(node, ordinal, parent);
+        }
+      }.go(rel);
+      return ok[0] ? ImmutableList.copyOf(map.values()) : null;
+    }
+
+    /** Returns whether none of the schemas in a list have changed. */
+    /** Returns the versions of the root schema and of each schema on a
+     * path below it, stopping at the first schema that does not exist. */
+    static List<SchemaVersion> ofPath(OptiqSchema rootSchema,
+        List<String> path, long now) {
+      final List<SchemaVersion> list = new ArrayList<SchemaVersion>();
+      OptiqSchema schema = rootSchema;
+      list.add(new SchemaVersion(ImmutableList.<String>of(), schema, now));
+      for (int i = 0; i < path.size(); i++) {
+        schema = schema.getSubSchema(path.get(i), true);
+        if (schema == null) {
+          break;
+        }
+        list.add(
+            new SchemaVersion(ImmutableList.copyOf(path.subList(0, i + 1)),
+                schema, now));
       }
-      IClassBodyEvaluator cbe = compilerFactory.newClassBodyEvaluator();
-      cbe.setClassName(expr.name);
-      cbe.setExtendedClass(Utilities.class);
-      cbe.setImplementedInterfaces(new Class[]{Bindable.class, Typed.class});
-      cbe.setParentClassLoader(getClass().getClassLoader());
-      if (DEBUG) {
-        // Add line numbers to the generated janino class
-        cbe.setDebuggingInformation(true, true, true);
+      return list;
+    }
+
+    static boolean isCurrent(List<SchemaVersion> versions,
+        OptiqSchema rootSchema, long now) {
+      for (SchemaVersion version : versions) {
+        if (!version.isCurrent(rootSchema, now)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Returns whether the schema at this path is still the same schema,
+     * and has not changed. */
+    boolean isCurrent(OptiqSchema rootSchema, long now) {
+      OptiqSchema s = rootSchema;
+      for (String name : path) {
+        s = s.getSubSchema(name, true);
+        if (s == null) {
+          return false;
+        }
       }
-      return (Bindable) cbe.createInstance(new StringReader(s));
+      return s == schema.get()
+          && s.getVersion() == version
+          && !s.schema.contentsHaveChangedSince(timestamp, now);
+    }
+  }
+
+  /** Bindable that supplies the values of literals that were replaced by
+   * parameters. */
+  private static class LiteralBindable<T> implements Bindable<T> {
+    private final Bindable<T> bindable;
+    private final int firstIndex;
+    private final List<Object> values;
+
+    LiteralBindable(Bindable<T> bindable, int firstIndex,
+        List<Object> values) {
+      this.bindable = bindable;
+      this.firstIndex = firstIndex;
+      this.values = values;
+    }
+
+    public Enumerable<T> bind(final DataContext dataContext) {
+      return bindable.bind(
+          new DataContext() {
+            public SchemaPlus getRootSchema() {
+              return dataContext.getRootSchema();
+            }
+
+            public JavaTypeFactory getTypeFactory() {
+              return dataContext.getTypeFactory();
+            }
+
+            public QueryProvider getQueryProvider() {
+              return dataContext.getQueryProvider();
+            }
+
+            public Object get(String name) {
+              if (name.startsWith("?")) {
+                final int i = Integer.parseInt(name.substring(1));
+                if (i >= firstIndex) {
+                  return values.get(i - firstIndex);
+                }
+              }
+              return dataContext.get(name);
+            }
+          });
     }
   }
 
@@ -38,6 +38,7 @@
 import org.eigenbase.trace.EigenbaseTrace;
 import org.eigenbase.util.Holder;
 import org.eigenbase.util.Pair;
+import org.eigenbase.util.Util;
 
 import com.google.common.collect.ImmutableList;
 
@@ -101,6 +102,14 @@ protected RelNode optimize(RelDataType logicalRowType, final RelNode rootRel,
       final List<Materialization> materializations) {
     final RelOptPlanner planner = rootRel.getCluster().getPlanner();
 
+    final List<Materialization> applicableMaterializations =
+        getApplicableMaterializations(rootRel, materializations);
+    for (Materialization materialization : applicableMaterializations) {
+      if (materialization.queryRel == null) {
+        populateMaterialization(planner, materialization);
+      }
+    }
+
     planner.setRoot(rootRel);
 
     final RelTraitSet desiredTraits = getDesiredRootTraitSet(rootRel);
@@ -109,7 +118,7 @@ protected RelNode optimize(RelDataType logicalRowType, final RelNode rootRel,
     final DataContext dataContext = context.getDataContext();
     planner.setExecutor(new RexExecutorImpl(dataContext));
 
-    for (Materialization materialization : materializations) {
+    for (Materialization materialization : applicableMaterializations) {
       planner.addMaterialization(
           new RelOptMaterialization(materialization.tableRel,
               materialization.queryRel,
@@ -126,6 +135,41 @@ protected RelNode optimize(RelDataType logicalRowType, final RelNode rootRel,
     return rootRel4;
   }
 
+  /** Returns the materializations that might be used to answer a query.
+   *
+   * <p>This implementation returns the materializations that were given to
+   * {@link #prepareSql}. A sub-class may also look up materializations by
+   * the tables that the query uses, which avoids populating and matching
+   * materializations that are obviously of no use.</p> */
+  protected List<Materialization> getApplicableMaterializations(
+      RelNode rootRel, List<Materialization> materializations) {
+    return materializations;
+  }
+
+  /** Populates a materialization, setting its
+   * {@link Materialization#tableRel} and {@link Materialization#queryRel}
+   * in terms of the current planner. */
+  protected void populateMaterialization(RelOptPlanner planner,
+      Materialization materialization) {
+    // REVIEW: initialize queryRel and tableRel inside MaterializationService,
+    // not here?
+    try {
+      final OptiqSchema schema = materialization.materializedTable.schema;
+      OptiqCatalogReader catalogReader =
+          new OptiqCatalogReader(
+              schema.root(),
+              context.config().caseSensitive(),
+              Util.skipLast(materialization.materializedTable.path()),
+              context.getTypeFactory());
+      final OptiqMaterializer materializer =
+          new OptiqMaterializer(context, catalogReader, schema, planner);
+      materializer.populate(materialization);
+    } catch (Exception e) {
+      throw new RuntimeException("While populating materialization "
+          + materialization.materializedTable.path(), e);
+    }
+  }
+
   private Program getProgram() {
     // Allow a test to override the planner.
     final List<Materialization> materializations = ImmutableList.of();
@@ -135,7 +179,11 @@ private Program getProgram() {
       return holder.get();
     }
 
-    return Programs.standard();
+    final Program program = Programs.standard();
+    if (context.config().columnarScan()) {
+      return Programs.sequence(program, Programs.COLUMNAR_PROGRAM);
+    }
+    return program;
   }
 
   protected RelTraitSet getDesiredRootTraitSet(RelNode rootRel) {
@@ -249,12 +297,6 @@ public PreparedResult prepareSql(
       }
     }
 
-    rootRel = optimize(resultType, rootRel, materializations);
-
-    if (timingTracer != null) {
-      timingTracer.traceTime("end optimization");
-    }
-
     // For transformation from DML -> DML, use result of rewrite
     // (e.g. UPDATE -> MERGE).  For anything else (e.g. CALL -> SELECT),
     // use original kind.
@@ -262,10 +304,35 @@ public PreparedResult prepareSql(
     if (!kind.belongsTo(SqlKind.DML)) {
       kind = sqlNodeOriginal.getKind();
     }
+    return optimizeAndImplement(resultType, rootRel, kind, materializations);
+  }
+
+  /**
+   * Optimizes a logical plan and implements the resulting physical plan.
+   *
+   * <p>A sub-class may override this method; for example, to re-use the
+   * result of a previous statement that had the same logical plan.</p>
+   *
+   * @param resultType Row type returned by query validator
+   * @param rootRel Logical plan, after flattening, decorrelation and
+   *                trimming
+   * @param sqlKind SqlKind of the statement
+   * @param materializations Tables known to be populated with a given query
+   * @return an executable plan
+   */
+  protected PreparedResult optimizeAndImplement(RelDataType resultType,
+      RelNode rootRel, SqlKind sqlKind,
+      List<Materialization> materializations) {
+    rootRel = optimize(resultType, rootRel, materializations);
+
+    if (timingTracer != null) {
+      timingTracer.traceTime("end optimization");
+    }
+
     return implement(
         resultType,
         rootRel,
-        kind);
+        sqlKind);
   }
 
   protected TableModificationRel.Operation mapTableModOp(
@@ -549,13 +616,25 @@ public static class Materialization {
     RelNode queryRel;
     /** Star table identified. */
     private RelOptTable starRelOptTable;
+    /** Qualified names of the tables used by the query, or null if not
+     * known. */
+    final Set<List<String>> tables;
+    /** Whether the query contains an aggregate. */
+    final boolean aggregate;
 
     public Materialization(OptiqSchema.TableEntry materializedTable,
         String sql) {
+      this(materializedTable, sql, null, false);
+    }
+
+    public Materialization(OptiqSchema.TableEntry materializedTable,
+        String sql, Set<List<String>> tables, boolean aggregate) {
       assert materializedTable != null;
       assert sql != null;
       this.materializedTable = materializedTable;
       this.sql = sql;
+      this.tables = tables;
+      this.aggregate = aggregate;
     }
 
     public void materialize(RelNode queryRel,
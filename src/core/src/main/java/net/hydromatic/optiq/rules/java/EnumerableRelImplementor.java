@@ -22,6 +22,7 @@
 
 import net.hydromatic.optiq.BuiltinMethod;
 import net.hydromatic.optiq.DataContext;
+import net.hydromatic.optiq.config.OptiqConnectionConfig;
 import net.hydromatic.optiq.jdbc.JavaTypeFactoryImpl;
 import net.hydromatic.optiq.runtime.*;
 
@@ -43,8 +44,39 @@ public class EnumerableRelImplementor extends JavaRelImplementor {
   public final Map<String, Queryable> map =
       new LinkedHashMap<String, Queryable>();
 
+  /** Configuration of the connection that is preparing the statement, or
+   * null if not known. */
+  public final OptiqConnectionConfig config;
+
   public EnumerableRelImplementor(RexBuilder rexBuilder) {
+    this(rexBuilder, null);
+  }
+
+  public EnumerableRelImplementor(RexBuilder rexBuilder,
+      OptiqConnectionConfig config) {
     super(rexBuilder);
+    this.config = config;
+  }
+
+  /** Returns whether hash joins may spill to disk. If so, they use a
+   * {@link HybridHashJoin}, which reads the memory budget from the data
+   * context at run time. */
+  public boolean spillJoins() {
+    return config != null && config.joinMemoryBudget() >= 0;
+  }
+
+  /** Returns whether sorts may spill to disk. If so, they use an
+   * {@link ExternalSort}, which reads the memory budget from the data
+   * context at run time. */
+  public boolean spillSorts() {
+    return config != null && config.sortMemoryBudget() >= 0;
+  }
+
+  /** Returns whether aggregations may spill to disk. If so, they use a
+   * {@link HashAggregate}, which reads the memory budget from the data
+   * context at run time. */
+  public boolean spillAggregates() {
+    return config != null && config.aggregateMemoryBudget() >= 0;
   }
 
   public EnumerableRel.Result visitChild(
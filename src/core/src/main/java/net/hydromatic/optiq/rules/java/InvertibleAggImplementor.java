@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.rules.java;
+
+/**
+ * Implements an aggregate function that can also remove a value from its
+ * accumulator.
+ *
+ * <p>When the frame of a window moves forward, for example
+ * {@code ROWS BETWEEN 10 PRECEDING AND CURRENT ROW}, a window aggregate
+ * whose implementors are all invertible removes the rows that leave the
+ * frame and adds the rows that enter it, rather than resetting its state and
+ * adding every row in the frame again.</p>
+ *
+ * @see net.hydromatic.optiq.rules.java.StrictInvertibleAggImplementor
+ * @see net.hydromatic.optiq.rules.java.RexImpTable.MinMaxWinImplementor
+ */
+public interface InvertibleAggImplementor extends AggImplementor {
+  /**
+   * Returns whether this aggregate can remove values in the given context.
+   * Optiq calls this method after
+   * {@link #getStateType(AggContext)}.
+   * @param info aggregate context
+   * @return whether {@link #implementRemove} may be called
+   */
+  boolean isInvertible(AggContext info);
+
+  /**
+   * Updates intermediate values to account for a value that is no longer
+   * in the frame. The value was previously added by
+   * {@link #implementAdd(AggContext, AggAddContext)}; values are removed
+   * in the order that they were added.
+   * @param info aggregate context
+   * @param remove context whose current position is the row being removed
+   */
+  void implementRemove(AggContext info, AggAddContext remove);
+}
+
+// End InvertibleAggImplementor.java
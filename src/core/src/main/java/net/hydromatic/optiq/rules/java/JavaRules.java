@@ -252,27 +252,41 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
       final PhysType keyPhysType =
           leftResult.physType.project(
               leftKeys, JavaRowFormat.LIST);
+      final Expressions.FluentList<Expression> arguments =
+          Expressions.list(
+              rightExpression,
+              leftResult.physType.generateAccessor(leftKeys),
+              rightResult.physType.generateAccessor(rightKeys),
+              generateSelector(
+                  physType,
+                  ImmutableList.of(
+                      leftResult.physType, rightResult.physType)))
+              .append(
+                  Util.first(keyPhysType.comparer(),
+                      Expressions.constant(null)))
+              .append(Expressions.constant(
+                  joinType.generatesNullsOnLeft()))
+              .append(Expressions.constant(
+                  joinType.generatesNullsOnRight()));
+      final Expression join;
+      if (implementor.spillJoins()) {
+        // The join may spill to disk if the right input is too large.
+        final List<Expression> list = new ArrayList<Expression>();
+        list.add(leftExpression);
+        list.addAll(arguments);
+        list.add(DataContext.ROOT);
+        join = Expressions.call(
+            BuiltinMethod.HYBRID_HASH_JOIN.method,
+            list.toArray(new Expression[list.size()]));
+      } else {
+        join = Expressions.call(
+            leftExpression,
+            BuiltinMethod.JOIN.method,
+            arguments);
+      }
       return implementor.result(
           physType,
-          builder.append(
-              Expressions.call(
-                  leftExpression,
-                  BuiltinMethod.JOIN.method,
-                  Expressions.list(
-                      rightExpression,
-                      leftResult.physType.generateAccessor(leftKeys),
-                      rightResult.physType.generateAccessor(rightKeys),
-                      generateSelector(
-                          physType,
-                          ImmutableList.of(
-                              leftResult.physType, rightResult.physType)))
-                      .append(
-                          Util.first(keyPhysType.comparer(),
-                              Expressions.constant(null)))
-                      .append(Expressions.constant(
-                          joinType.generatesNullsOnLeft()))
-                      .append(Expressions.constant(
-                          joinType.generatesNullsOnRight())))).toBlock());
+          builder.append(join).toBlock());
     }
 
     Expression generateSelector(PhysType physType,
@@ -1071,7 +1085,29 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
       // return child
       //     .distinct(equalityComparer);
 
-      final PhysType inputPhysType = result.physType;
+      final PhysType inputPhysType;
+      if (implementor.spillAggregates()
+          && groupSet.cardinality() > 0
+          && !aggCalls.isEmpty()
+          && result.physType.getFormat() == JavaRowFormat.CUSTOM) {
+        // HashAggregate can spill rows that are arrays, but not rows of a
+        // generated or user-defined class. Convert the rows to arrays.
+        final List<Integer> fields =
+            Util.range(0, inputRowType.getFieldCount());
+        final ParameterExpression row =
+            Expressions.parameter(result.physType.getJavaRowType(), "row");
+        childExp =
+            builder.append(
+                "child",
+                Expressions.call(
+                    childExp,
+                    BuiltinMethod.SELECT.method,
+                    result.physType.generateSelector(row, fields,
+                        JavaRowFormat.ARRAY)));
+        inputPhysType = result.physType.project(fields, JavaRowFormat.ARRAY);
+      } else {
+        inputPhysType = result.physType;
+      }
 
       ParameterExpression parameter =
           Expressions.parameter(inputPhysType.getJavaRowType(), "a0");
@@ -1304,6 +1340,25 @@ public RexToLixTranslator rowTranslator() {
                     resultBlock.toBlock(),
                     key_,
                     acc_));
+        if (implementor.spillAggregates()) {
+          final Expression comparer = keyPhysType.comparer();
+          builder.add(
+              Expressions.return_(
+                  null,
+                  Expressions.call(
+                      BuiltinMethod.HASH_AGGREGATE.method,
+                      childExp,
+                      keySelector,
+                      accumulatorInitializer,
+                      accumulatorAdder,
+                      resultSelector,
+                      comparer != null
+                          ? comparer
+                          : Expressions.constant(null,
+                              EqualityComparer.class),
+                      DataContext.ROOT)));
+          return implementor.result(physType, builder.toBlock());
+        }
         builder.add(
             Expressions.return_(
                 null,
@@ -1406,16 +1461,31 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
           inputPhysType.generateCollationKey(
               collation.getFieldCollations());
 
+      final Expression keySelector = builder.append("keySelector", pair.left);
+      final Expression comparator =
+          builder.appendIfNotNull("comparator", pair.right);
+      if (implementor.spillSorts()) {
+        builder.add(
+            Expressions.return_(
+                null,
+                Expressions.call(
+                    BuiltinMethod.EXTERNAL_SORT.method,
+                    childExp,
+                    keySelector,
+                    comparator != null
+                        ? comparator
+                        : Expressions.constant(null, Comparator.class),
+                    DataContext.ROOT)));
+        return implementor.result(physType, builder.toBlock());
+      }
       builder.add(
           Expressions.return_(
               null,
               Expressions.call(
                   childExp,
                   BuiltinMethod.ORDER_BY.method,
-                  Expressions.list(
-                      builder.append("keySelector", pair.left))
-                  .appendIfNotNull(builder.appendIfNotNull("comparator",
-                      pair.right)))));
+                  Expressions.list(keySelector)
+                  .appendIfNotNull(comparator))));
       return implementor.result(physType, builder.toBlock());
     }
   }
@@ -2223,6 +2293,14 @@ private void sampleOfTheGeneratedWindowedAggregate() {
           } else { // must be start == prevStart && end > prevEnd
             actualStart = prevEnd + 1;
           }
+          // If every aggregate is invertible, the frame is recomputed only
+          // if it does not slide forward; otherwise (builder8) rows that
+          // leave the frame are removed:
+          //   for (int k = prevStart; k < start; k++) {
+          //     // builder9
+          //     // implementRemove
+          //   }
+          //   actualStart = prevEnd + 1;
           prevStart = start;
           prevEnd = end;
 
@@ -2455,6 +2533,37 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
         ParameterExpression actualStart = Expressions.parameter(
             0, int.class, builder5.newName("actualStart"));
 
+        final DeclarationStatement jDecl =
+            Expressions.declare(0, "j", actualStart);
+
+        final PhysType inputPhysTypeFinal = inputPhysType;
+        final Function<BlockBuilder, WinAggFrameResultContext>
+            resultContextBuilder =
+            getBlockBuilderWinAggFrameResultContextFunction(typeFactory, result,
+                translatedConstants, comparator_, rows_, i_, startX, endX,
+                minX, maxX,
+                hasRows, frameRowCount, partitionRowCount,
+                jDecl, inputPhysTypeFinal);
+
+        final Function<AggImpState, List<RexNode>> rexArguments =
+            new Function<AggImpState, List<RexNode>>() {
+              public List<RexNode> apply(AggImpState agg) {
+                List<Integer> argList = agg.call.getArgList();
+                List<RelDataType> inputTypes =
+                    EnumUtil.fieldRowTypes(
+                        result.physType.getRowType(),
+                        constants,
+                        argList);
+                List<RexNode> args = new ArrayList<RexNode>(
+                    inputTypes.size());
+                for (int i = 0; i < argList.size(); i++) {
+                  Integer idx = argList.get(i);
+                  args.add(new RexInputRef(idx, inputTypes.get(i)));
+                }
+                return args;
+              }
+            };
+
         final BlockBuilder builder6 = new BlockBuilder(true, builder5);
         builder6.add(Expressions.statement(
             Expressions.assign(actualStart, startX)));
@@ -2473,8 +2582,55 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
             lowerBoundCanChange,
             Expressions.lessThan(endX, prevEnd));
 
+        // If the frame slides forward and every aggregate can remove rows,
+        // remove the rows that leave the frame instead of recomputing it:
+        //
+        //   if (prevStart < 0 || start < prevStart || end < prevEnd
+        //       || start > prevEnd + 1) {
+        //     // recompute, as above
+        //   } else {
+        //     for (int k = prevStart; k < start; k++) {
+        //       // implementRemove
+        //     }
+        //     actualStart = prevEnd + 1;
+        //   }
+        final BlockBuilder builder8 = new BlockBuilder(true, builder5);
+        if (lowerBoundCanChange instanceof BinaryExpression
+            && isInvertible(aggs)) {
+          needRecomputeWindow = Expressions.foldOr(
+              ImmutableList.<Expression>of(
+                  Expressions.lessThan(prevStart, minX),
+                  Expressions.lessThan(startX, prevStart),
+                  Expressions.lessThan(endX, prevEnd),
+                  Expressions.greaterThan(startX,
+                      Expressions.add(prevEnd, Expressions.constant(1)))));
+          final DeclarationStatement kDecl =
+              Expressions.declare(0, "k", prevStart);
+          final BlockBuilder builder9 = new BlockBuilder(true, builder8);
+          implementRemove(aggs, builder9,
+              getBlockBuilderWinAggFrameResultContextFunction(typeFactory,
+                  result, translatedConstants, comparator_, rows_, i_,
+                  startX, endX, minX, maxX, hasRows, frameRowCount,
+                  partitionRowCount, kDecl, inputPhysTypeFinal),
+              rexArguments, kDecl);
+          final BlockStatement removeBlock = builder9.toBlock();
+          if (!removeBlock.statements.isEmpty()) {
+            builder8.add(
+                Expressions.for_(
+                    Arrays.asList(kDecl),
+                    Expressions.lessThan(kDecl.parameter, startX),
+                    Expressions.preIncrementAssign(kDecl.parameter),
+                    removeBlock));
+          }
+        }
+        builder8.add(Expressions.statement(
+            Expressions.assign(actualStart,
+                Expressions.add(prevEnd, Expressions.constant(1)))));
+
         BlockStatement resetWindowState = builder6.toBlock();
-        if (resetWindowState.statements.size() == 1) {
+        BlockStatement slideWindowState = builder8.toBlock();
+        if (resetWindowState.statements.size() == 1
+            && slideWindowState.statements.size() == 1) {
           builder5.add(Expressions.declare(0, actualStart,
               Expressions.condition(needRecomputeWindow,
                   startX, Expressions.add(prevEnd, Expressions.constant(1)))));
@@ -2483,8 +2639,7 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
               null));
           builder5.add(Expressions.ifThenElse(needRecomputeWindow,
               resetWindowState,
-              Expressions.statement(Expressions.assign(actualStart,
-                  Expressions.add(prevEnd, Expressions.constant(1))))));
+              slideWindowState));
         }
 
         if (lowerBoundCanChange instanceof BinaryExpression) {
@@ -2495,37 +2650,6 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
             Expressions.assign(prevEnd, endX)));
 
         final BlockBuilder builder7 = new BlockBuilder(true, builder5);
-        final DeclarationStatement jDecl =
-            Expressions.declare(0, "j", actualStart);
-
-        final PhysType inputPhysTypeFinal = inputPhysType;
-        final Function<BlockBuilder, WinAggFrameResultContext>
-            resultContextBuilder =
-            getBlockBuilderWinAggFrameResultContextFunction(typeFactory, result,
-                translatedConstants, comparator_, rows_, i_, startX, endX,
-                minX, maxX,
-                hasRows, frameRowCount, partitionRowCount,
-                jDecl, inputPhysTypeFinal);
-
-        final Function<AggImpState, List<RexNode>> rexArguments =
-            new Function<AggImpState, List<RexNode>>() {
-              public List<RexNode> apply(AggImpState agg) {
-                List<Integer> argList = agg.call.getArgList();
-                List<RelDataType> inputTypes =
-                    EnumUtil.fieldRowTypes(
-                        result.physType.getRowType(),
-                        constants,
-                        argList);
-                List<RexNode> args = new ArrayList<RexNode>(
-                    inputTypes.size());
-                for (int i = 0; i < argList.size(); i++) {
-                  Integer idx = argList.get(i);
-                  args.add(new RexInputRef(idx, inputTypes.get(i)));
-                }
-                return args;
-              }
-            };
-
         implementAdd(aggs, builder7, resultContextBuilder, rexArguments, jDecl);
 
         BlockStatement forBlock = builder7.toBlock();
@@ -2910,6 +3034,41 @@ public List<RexNode> rexArguments() {
       }
     }
 
+    /** Returns whether every aggregate can remove rows from its state,
+     * which allows a frame that slides forward to be maintained
+     * incrementally. */
+    private static boolean isInvertible(List<AggImpState> aggs) {
+      for (AggImpState agg : aggs) {
+        if (!(agg.implementor instanceof InvertibleAggImplementor)
+            || !((InvertibleAggImplementor) agg.implementor)
+                .isInvertible(agg.context)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void implementRemove(List<AggImpState> aggs,
+        final BlockBuilder builder9,
+        final Function<BlockBuilder, WinAggFrameResultContext> frame,
+        final Function<AggImpState, List<RexNode>> rexArguments,
+        final DeclarationStatement kDecl) {
+      for (final AggImpState agg : aggs) {
+        final WinAggAddContext removeContext =
+            new WinAggAddContextImpl(builder9, agg.state, frame) {
+              public Expression currentPosition() {
+                return kDecl.parameter;
+              }
+
+              public List<RexNode> rexArguments() {
+                return rexArguments.apply(agg);
+              }
+            };
+        ((InvertibleAggImplementor) agg.implementor).implementRemove(
+            agg.context, removeContext);
+      }
+    }
+
     private boolean implementResult(List<AggImpState> aggs,
         final BlockBuilder builder,
         final Function<BlockBuilder, WinAggFrameResultContext> frame,
@@ -143,6 +143,13 @@ Pair<Expression, Expression> generateCollationKey(
   Expression generateComparator(
       RelCollation collation);
 
+  /** Returns a comparator, as an anonymous sub-class of a given class,
+   * which must implement {@link java.util.Comparator}. For example, the
+   * class may be serializable, so that the comparator can be sent to other
+   * processes. */
+  Expression generateComparator(
+      RelCollation collation, Class comparatorClass);
+
   /** Returns a expression that yields a comparer, or null if this type
    * is comparable. */
   Expression comparer();
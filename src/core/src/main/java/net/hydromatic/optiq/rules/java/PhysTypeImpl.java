@@ -303,6 +303,13 @@ public Pair<Expression, Expression> generateCollationKey(
   }
 
   public Expression generateComparator(RelCollation collation) {
+    return generateComparator(collation, Comparator.class);
+  }
+
+  public Expression generateComparator(RelCollation collation,
+      Class comparatorClass) {
+    assert Comparator.class.isAssignableFrom(comparatorClass)
+        : comparatorClass;
     // int c;
     // c = Utilities.compare(v0, v1);
     // if (c != 0) return c; // or -c if descending
@@ -395,7 +402,7 @@ public Expression generateComparator(RelCollation collation) {
               bridgeBody.toBlock()));
     }
     return Expressions.new_(
-        Comparator.class,
+        comparatorClass,
         Collections.<Expression>emptyList(),
         memberDeclarations);
   }
@@ -22,6 +22,7 @@
 import net.hydromatic.optiq.*;
 import net.hydromatic.optiq.Function;
 import net.hydromatic.optiq.impl.AggregateFunctionImpl;
+import net.hydromatic.optiq.runtime.MinMaxQueue;
 import net.hydromatic.optiq.runtime.SqlFunctions;
 
 import org.eigenbase.rel.Aggregation;
@@ -136,13 +137,13 @@ public class RexImpTable {
     map.put(IS_NOT_FALSE, new IsXxxImplementor(false, true));
 
     // LIKE and SIMILAR
-    final MethodImplementor likeImplementor =
-        new MethodImplementor(BuiltinMethod.LIKE.method);
+    final MatcherImplementor likeImplementor =
+        new MatcherImplementor(BuiltinMethod.LIKE_MATCHER.method);
     defineImplementor(LIKE, NullPolicy.STRICT, likeImplementor, false);
     defineImplementor(NOT_LIKE, NullPolicy.STRICT,
         NotImplementor.of(likeImplementor), false);
-    final MethodImplementor similarImplementor =
-        new MethodImplementor(BuiltinMethod.SIMILAR.method);
+    final MatcherImplementor similarImplementor =
+        new MatcherImplementor(BuiltinMethod.SIMILAR_MATCHER.method);
     defineImplementor(SIMILAR_TO, NullPolicy.STRICT, similarImplementor, false);
     defineImplementor(NOT_SIMILAR_TO, NullPolicy.STRICT,
         NotImplementor.of(similarImplementor), false);
@@ -200,6 +201,10 @@ public class RexImpTable {
     winAggMap.put(LAG, constructorSupplier(LagImplementor.class));
     winAggMap.put(NTILE, constructorSupplier(NtileImplementor.class));
     winAggMap.put(COUNT, constructorSupplier(CountWinImplementor.class));
+    Supplier<MinMaxWinImplementor> minMaxWin =
+        constructorSupplier(MinMaxWinImplementor.class);
+    winAggMap.put(MIN, minMaxWin);
+    winAggMap.put(MAX, minMaxWin);
   }
 
   private <T> Supplier<T> constructorSupplier(Class<T> klass) {
@@ -770,19 +775,27 @@ static Expression getDefaultValue(Type type) {
     return Expressions.constant(null, type);
   }
 
-  static class CountImplementor extends StrictAggImplementor {
+  static class CountImplementor extends StrictInvertibleAggImplementor {
     @Override
     public void implementNotNullAdd(AggContext info, AggAddContext add) {
       add.currentBlock().add(Expressions.statement(
           Expressions.postIncrementAssign(add.accumulator().get(0))));
     }
+
+    @Override
+    protected void implementNotNullRemove(AggContext info,
+        AggAddContext remove) {
+      remove.currentBlock().add(Expressions.statement(
+          Expressions.postDecrementAssign(remove.accumulator().get(0))));
+    }
   }
 
-  static class CountWinImplementor extends StrictWinAggImplementor {
+  static class CountWinImplementor extends StrictInvertibleAggImplementor
+      implements WinAggImplementor {
     boolean justFrameRowCount;
 
     @Override
-    public List<Type> getNotNullState(WinAggContext info) {
+    public List<Type> getNotNullState(AggContext info) {
       boolean hasNullable = false;
       for (RelDataType type : info.parameterRelTypes()) {
         if (type.isNullable()) {
@@ -798,7 +811,7 @@ public List<Type> getNotNullState(WinAggContext info) {
     }
 
     @Override
-    public void implementNotNullAdd(WinAggContext info, WinAggAddContext add) {
+    public void implementNotNullAdd(AggContext info, AggAddContext add) {
       if (justFrameRowCount) {
         return;
       }
@@ -807,16 +820,30 @@ public void implementNotNullAdd(WinAggContext info, WinAggAddContext add) {
     }
 
     @Override
-    protected Expression implementNotNullResult(WinAggContext info,
-        WinAggResultContext result) {
+    protected void implementNotNullRemove(AggContext info,
+        AggAddContext remove) {
       if (justFrameRowCount) {
-        return result.getFrameRowCount();
+        return;
+      }
+      remove.currentBlock().add(Expressions.statement(
+          Expressions.postDecrementAssign(remove.accumulator().get(0))));
+    }
+
+    @Override
+    protected Expression implementNotNullResult(AggContext info,
+        AggResultContext result) {
+      if (justFrameRowCount) {
+        return ((WinAggResultContext) result).getFrameRowCount();
       }
       return super.implementNotNullResult(info, result);
     }
+
+    public boolean needCacheWhenFrameIntact() {
+      return true;
+    }
   }
 
-  static class SumImplementor extends StrictAggImplementor {
+  static class SumImplementor extends StrictInvertibleAggImplementor {
     @Override
     protected void implementNotNullReset(AggContext info,
         AggResetContext reset) {
@@ -841,6 +868,36 @@ public void implementNotNullAdd(AggContext info, AggAddContext add) {
       accAdvance(add, acc, next);
     }
 
+    /** Returns true if the sum is exact. Removing a floating-point value
+     * does not exactly undo adding it, so such a sum is recomputed when its
+     * frame moves. */
+    @Override
+    protected boolean isNotNullInvertible(AggContext info) {
+      if (info.returnType() == BigDecimal.class) {
+        return true;
+      }
+      final Primitive primitive =
+          Primitive.of(Primitive.unbox(info.returnType()));
+      return primitive == Primitive.BYTE
+          || primitive == Primitive.SHORT
+          || primitive == Primitive.INT
+          || primitive == Primitive.LONG;
+    }
+
+    @Override
+    protected void implementNotNullRemove(AggContext info,
+        AggAddContext remove) {
+      Expression acc = remove.accumulator().get(0);
+      Expression next;
+      if (info.returnType() == BigDecimal.class) {
+        next = Expressions.call(acc, "subtract", remove.arguments().get(0));
+      } else {
+        next = Expressions.subtract(acc,
+            Types.castIfNecessary(acc.type, remove.arguments().get(0)));
+      }
+      accAdvance(remove, acc, next);
+    }
+
     @Override
     public Expression implementNotNullResult(AggContext info,
         AggResultContext result) {
@@ -874,6 +931,87 @@ public void implementNotNullAdd(AggContext info, AggAddContext add) {
     }
   }
 
+  /** Implementor for windowed {@code MIN} and {@code MAX}.
+   *
+   * <p>The state is a {@link MinMaxQueue}, so that rows can be removed as
+   * the frame slides forward.</p> */
+  static class MinMaxWinImplementor
+      implements WinAggImplementor, InvertibleAggImplementor {
+    public List<Type> getStateType(AggContext info) {
+      return Collections.<Type>singletonList(MinMaxQueue.class);
+    }
+
+    public void implementReset(AggContext info, AggResetContext reset) {
+      // The first reset, where the state is declared, has no row index;
+      // allocate the queue there, once. Later resets, at the start of each
+      // partition and whenever the frame is recomputed, empty it.
+      final Expression acc = reset.accumulator().get(0);
+      if (((WinAggResetContext) reset).index() == null) {
+        reset.currentBlock().add(Expressions.statement(Expressions.assign(
+            acc,
+            Expressions.new_(MinMaxQueue.class,
+                Expressions.constant(MAX == info.aggregation())))));
+      } else {
+        reset.currentBlock().add(Expressions.statement(
+            Expressions.call(acc, BuiltinMethod.MIN_MAX_QUEUE_CLEAR.method)));
+      }
+    }
+
+    public void implementAdd(AggContext info, AggAddContext add) {
+      final RexNode rexArg = add.rexArguments().get(0);
+      final RexToLixTranslator translator = add.rowTranslator();
+      // As in MinMaxImplementor, convert a value that cannot be null to the
+      // return type; box it only to add it to the queue.
+      final boolean nullable = translator.isNullable(rexArg);
+      final Expression value = add.currentBlock().append("v",
+          translator.translate(rexArg,
+              nullable
+                  ? Primitive.box(info.returnType())
+                  : info.returnType()));
+      Statement statement = Expressions.statement(
+          Expressions.call(add.accumulator().get(0),
+              BuiltinMethod.MIN_MAX_QUEUE_ADD.method,
+              ((WinAggAddContext) add).currentPosition(),
+              nullable ? value : Expressions.box(value)));
+      if (nullable) {
+        statement = Expressions.ifThen(
+            Expressions.notEqual(value, Expressions.constant(null)),
+            statement);
+      }
+      add.currentBlock().add(statement);
+    }
+
+    public boolean isInvertible(AggContext info) {
+      return true;
+    }
+
+    public void implementRemove(AggContext info, AggAddContext remove) {
+      remove.currentBlock().add(Expressions.statement(
+          Expressions.call(remove.accumulator().get(0),
+              BuiltinMethod.MIN_MAX_QUEUE_REMOVE.method,
+              ((WinAggAddContext) remove).currentPosition())));
+    }
+
+    public boolean needCacheWhenFrameIntact() {
+      return true;
+    }
+
+    public Expression implementResult(AggContext info,
+        AggResultContext result) {
+      final Expression acc = result.accumulator().get(0);
+      final Expression peek = Expressions.convert_(
+          Expressions.call(acc, BuiltinMethod.MIN_MAX_QUEUE_PEEK.method),
+          Primitive.box(info.returnType()));
+      if (!Primitive.is(info.returnType())) {
+        return peek;
+      }
+      return Expressions.condition(
+          Expressions.call(acc, BuiltinMethod.MIN_MAX_QUEUE_IS_EMPTY.method),
+          getDefaultValue(info.returnType()),
+          Expressions.unbox(peek));
+    }
+  }
+
   static class SingleValueImplementor implements AggImplementor {
     public List<Type> getStateType(AggContext info) {
       return Arrays.asList(boolean.class, info.returnType());
@@ -1020,7 +1158,8 @@ protected Expression computeNewRank(Expression acc, WinAggAddContext add) {
     }
   }
 
-  static class FirstLastValueImplementor implements WinAggImplementor {
+  static class FirstLastValueImplementor
+      implements WinAggImplementor, InvertibleAggImplementor {
     private final SeekType seekType;
 
     protected FirstLastValueImplementor(SeekType seekType) {
@@ -1039,6 +1178,14 @@ public void implementAdd(AggContext info, AggAddContext add) {
       // no op
     }
 
+    public boolean isInvertible(AggContext info) {
+      return true;
+    }
+
+    public void implementRemove(AggContext info, AggAddContext remove) {
+      // no op
+    }
+
     public boolean needCacheWhenFrameIntact() {
       return true;
     }
@@ -1067,7 +1214,8 @@ protected LastValueImplementor() {
     }
   }
 
-  static class LeadLagImplementor implements WinAggImplementor {
+  static class LeadLagImplementor
+      implements WinAggImplementor, InvertibleAggImplementor {
     private final boolean isLead;
 
     protected LeadLagImplementor(boolean isLead) {
@@ -1086,6 +1234,14 @@ public void implementAdd(AggContext info, AggAddContext add) {
       // no op
     }
 
+    public boolean isInvertible(AggContext info) {
+      return true;
+    }
+
+    public void implementRemove(AggContext info, AggAddContext remove) {
+      // no op
+    }
+
     public boolean needCacheWhenFrameIntact() {
       return false;
     }
@@ -1147,7 +1303,8 @@ protected LagImplementor() {
     }
   }
 
-  static class NtileImplementor implements WinAggImplementor {
+  static class NtileImplementor
+      implements WinAggImplementor, InvertibleAggImplementor {
     public List<Type> getStateType(AggContext info) {
       return Collections.emptyList();
     }
@@ -1160,6 +1317,14 @@ public void implementAdd(AggContext info, AggAddContext add) {
       // no op
     }
 
+    public boolean isInvertible(AggContext info) {
+      return true;
+    }
+
+    public void implementRemove(AggContext info, AggAddContext remove) {
+      // no op
+    }
+
     public boolean needCacheWhenFrameIntact() {
       return false;
     }
@@ -1247,6 +1412,31 @@ public Expression implement(
     }
   }
 
+  /** Implementor for the {@code LIKE} and {@code SIMILAR TO} operators.
+   *
+   * <p>Generates {@code SqlFunctions.likeMatcher(pattern).matches(s)}. If
+   * the pattern is a literal, the code optimizer moves the creation of the
+   * matcher into a static field, so that the pattern is compiled once rather
+   * than once per row.</p> */
+  private static class MatcherImplementor implements NotNullImplementor {
+    private final Method method;
+
+    MatcherImplementor(Method method) {
+      this.method = method;
+    }
+
+    public Expression implement(
+        RexToLixTranslator translator,
+        RexCall call,
+        List<Expression> translatedOperands) {
+      final Expression matcher =
+          Expressions.call(method.getDeclaringClass(), method.getName(),
+              Util.skip(translatedOperands, 1));
+      return Expressions.call(matcher, BuiltinMethod.MATCHER_MATCHES.method,
+          translatedOperands.get(0));
+    }
+  }
+
   private static class MethodNameImplementor implements NotNullImplementor {
     private final String methodName;
 
@@ -100,6 +100,20 @@ protected void implementNotNullReset(AggContext info,
   }
 
   public final void implementAdd(AggContext info, final AggAddContext add) {
+    implementAddOrRemove(info, add, false);
+  }
+
+  /** Returns whether the state records, per row, whether a non-null value
+   * has been seen. */
+  final boolean tracksNullsPerRow() {
+    return trackNullsPerRow;
+  }
+
+  /** Generates code that adds a value to, or removes a value from, the
+   * state, skipping the value if it is null. Only a
+   * {@link StrictInvertibleAggImplementor} removes values. */
+  final void implementAddOrRemove(AggContext info, AggAddContext add,
+      boolean remove) {
     List<RexNode> args = add.rexArguments();
     RexToLixTranslator translator = add.rowTranslator();
     List<Expression> conditions =
@@ -120,7 +134,7 @@ public final void implementAdd(AggContext info, final AggAddContext add) {
           acc.get(acc.size() - 1), Expressions.constant(true))));
     }
     if (argsNotNull) {
-      implementNotNullAdd(info, add);
+      implementNotNullAddOrRemove(info, add, remove);
       return;
     }
 
@@ -131,11 +145,17 @@ public final void implementAdd(AggContext info, final AggAddContext add) {
       }
     }
     add.nestBlock(thenBlock, nullables);
-    implementNotNullAdd(info, add);
+    implementNotNullAddOrRemove(info, add, remove);
     add.exitBlock();
     add.currentBlock().add(Expressions.ifThen(condition, thenBlock.toBlock()));
   }
 
+  void implementNotNullAddOrRemove(AggContext info, AggAddContext add,
+      boolean remove) {
+    assert !remove;
+    implementNotNullAdd(info, add);
+  }
+
   protected abstract void implementNotNullAdd(AggContext info,
       AggAddContext add);
 
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.rules.java;
+
+/**
+ * The base implementation of strict aggregate function that can remove a
+ * value from its state.
+ * @see net.hydromatic.optiq.rules.java.RexImpTable.CountImplementor
+ * @see net.hydromatic.optiq.rules.java.RexImpTable.SumImplementor
+ */
+public abstract class StrictInvertibleAggImplementor
+    extends StrictAggImplementor implements InvertibleAggImplementor {
+  public final boolean isInvertible(AggContext info) {
+    // The flag that records whether a non-null value has been seen cannot be
+    // unset when a value is removed.
+    return !tracksNullsPerRow() && isNotNullInvertible(info);
+  }
+
+  public final void implementRemove(AggContext info, AggAddContext remove) {
+    assert isInvertible(info);
+    implementAddOrRemove(info, remove, true);
+  }
+
+  @Override void implementNotNullAddOrRemove(AggContext info,
+      AggAddContext add, boolean remove) {
+    if (remove) {
+      implementNotNullRemove(info, add);
+    } else {
+      implementNotNullAdd(info, add);
+    }
+  }
+
+  /** Returns whether {@link #implementNotNullRemove} exactly undoes
+   * {@link #implementNotNullAdd} for the given context. */
+  protected boolean isNotNullInvertible(AggContext info) {
+    return true;
+  }
+
+  protected abstract void implementNotNullRemove(AggContext info,
+      AggAddContext remove);
+}
+
+// End StrictInvertibleAggImplementor.java
@@ -0,0 +1,410 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.*;
+import net.hydromatic.linq4j.function.Function1;
+
+import net.hydromatic.optiq.DataContext;
+
+import com.google.common.collect.Lists;
+
+import java.util.*;
+
+/**
+ * Sort that keeps sorted runs in memory up to a budget, writes runs that
+ * do not fit to temporary files, and merges the runs lazily as the result
+ * is consumed.
+ *
+ * <p>Runs are written to {@link SpillFile}s, whose compact binary format
+ * holds scalars, arrays and lists of numbers, strings, booleans, decimals,
+ * byte strings and {@link java.sql} date-time values. Each row is checked
+ * as it is read; once a row of any other type is seen, no more runs are
+ * written, and the remaining rows are sorted in memory and merged with the
+ * runs already written.</p>
+ *
+ * <p>The sort is stable: rows with equal keys are returned in the order
+ * they were read, as in
+ * {@link net.hydromatic.linq4j.ExtendedEnumerable#orderBy}.</p>
+ *
+ * @param <TSource> Row type
+ * @param <TKey> Sort key type
+ */
+public class ExternalSort<TSource, TKey> {
+  /** Maximum number of runs merged at once. If there are more runs, they
+   * are merged in several passes. */
+  static final int MERGE_FACTOR = 64;
+
+  private final Enumerable<TSource> source;
+  private final Function1<TSource, TKey> keySelector;
+  private final Comparator<TKey> comparator;
+  private final long memoryBudget;
+
+  private ExternalSort(Enumerable<TSource> source,
+      Function1<TSource, TKey> keySelector, Comparator<TKey> comparator,
+      long memoryBudget) {
+    this.source = source;
+    this.keySelector = keySelector;
+    //noinspection unchecked
+    this.comparator = comparator != null
+        ? comparator
+        : (Comparator<TKey>) NATURAL;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /** Sorts an input. If the data context specifies a
+   * {@link DataContext.Variable#SORT_MEMORY_BUDGET}, the sort spills to disk
+   * when the rows exceed it; otherwise the input is sorted in memory.
+   *
+   * <p>Called from generated code.</p> */
+  public static <TSource, TKey> Enumerable<TSource> orderBy(
+      Enumerable<TSource> source, Function1<TSource, TKey> keySelector,
+      Comparator<TKey> comparator, DataContext root) {
+    final Long memoryBudget =
+        DataContext.Variable.SORT_MEMORY_BUDGET.get(root);
+    if (memoryBudget == null || memoryBudget < 0) {
+      return comparator == null
+          ? source.orderBy((Function1) keySelector)
+          : source.orderBy(keySelector, comparator);
+    }
+    return orderBy(source, keySelector, comparator, memoryBudget);
+  }
+
+  /** Sorts an input, spilling sorted runs to disk whenever the estimated
+   * size of the rows held in memory exceeds {@code memoryBudget} bytes. A
+   * null comparator means the natural order of the keys. */
+  public static <TSource, TKey> Enumerable<TSource> orderBy(
+      final Enumerable<TSource> source,
+      final Function1<TSource, TKey> keySelector,
+      final Comparator<TKey> comparator, final long memoryBudget) {
+    return new AbstractEnumerable<TSource>() {
+      public Enumerator<TSource> enumerator() {
+        return new ExternalSort<TSource, TKey>(source, keySelector,
+            comparator, memoryBudget).enumerator();
+      }
+    };
+  }
+
+  private Enumerator<TSource> enumerator() {
+    return new SortEnumerator();
+  }
+
+  private static final Comparator<Comparable> NATURAL =
+      new Comparator<Comparable>() {
+        public int compare(Comparable o1, Comparable o2) {
+          //noinspection unchecked
+          return o1.compareTo(o2);
+        }
+      };
+
+  /** Sorts a buffer of rows in place, stably. */
+  private void sort(List<TSource> rows) {
+    Collections.sort(rows,
+        new Comparator<TSource>() {
+          public int compare(TSource o1, TSource o2) {
+            return comparator.compare(keySelector.apply(o1),
+                keySelector.apply(o2));
+          }
+        });
+  }
+
+  /** Merges runs into a single run file. */
+  private Run mergeToFile(List<Run> runs) {
+    final Run run = new Run();
+    boolean succeeded = false;
+    final Enumerator<TSource> merged = merge(runs);
+    try {
+      while (merged.moveNext()) {
+        run.write(merged.current());
+      }
+      run.finish();
+      succeeded = true;
+    } finally {
+      merged.close();
+      if (!succeeded) {
+        run.close();
+      }
+    }
+    return run;
+  }
+
+  /** Returns an enumerator that merges sorted runs. Among rows with equal
+   * keys, those from earlier runs are returned first. */
+  private Enumerator<TSource> merge(List<Run> runs) {
+    return new MergeEnumerator(runs);
+  }
+
+  /** Enumerator that merges sorted runs using a priority queue of
+   * cursors, one per run. Closing it deletes the runs. */
+  private class MergeEnumerator implements Enumerator<TSource> {
+    private final List<Run> runs;
+    private final PriorityQueue<Cursor> queue;
+    private TSource current;
+
+    MergeEnumerator(List<Run> runs) {
+      this.runs = runs;
+      this.queue = new PriorityQueue<Cursor>(Math.max(1, runs.size()));
+      open();
+    }
+
+    private void open() {
+      for (int i = 0; i < runs.size(); i++) {
+        final Cursor cursor = new Cursor(i, runs.get(i).enumerator());
+        if (cursor.advance()) {
+          queue.add(cursor);
+        } else {
+          cursor.close();
+        }
+      }
+    }
+
+    public TSource current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      final Cursor cursor = queue.poll();
+      if (cursor == null) {
+        return false;
+      }
+      current = cursor.row;
+      if (cursor.advance()) {
+        queue.add(cursor);
+      } else {
+        cursor.close();
+      }
+      return true;
+    }
+
+    public void reset() {
+      closeCursors();
+      open();
+    }
+
+    private void closeCursors() {
+      for (Cursor cursor : queue) {
+        cursor.close();
+      }
+      queue.clear();
+    }
+
+    public void close() {
+      closeCursors();
+      for (Run run : runs) {
+        run.close();
+      }
+    }
+  }
+
+  /** Enumerator that reads and sorts its input on its first call to
+   * {@link #moveNext()}, then merges the runs as rows are requested. */
+  private class SortEnumerator implements Enumerator<TSource> {
+    private Enumerator<TSource> merged;
+
+    public TSource current() {
+      return merged.current();
+    }
+
+    public boolean moveNext() {
+      // Delete the spill files if this enumerator fails; a consumer that
+      // sees an exception may not close it.
+      boolean succeeded = false;
+      try {
+        final boolean b = moveNext_();
+        succeeded = true;
+        return b;
+      } finally {
+        if (!succeeded) {
+          close();
+        }
+      }
+    }
+
+    private boolean moveNext_() {
+      if (merged == null) {
+        merged = sortRuns();
+      }
+      return merged.moveNext();
+    }
+
+    /** Reads the input, writing sorted runs to disk as memory fills, and
+     * returns an enumerator over the merged runs. */
+    private Enumerator<TSource> sortRuns() {
+      // levels.get(i) holds runs that are the result of i merge passes.
+      // When a level has MERGE_FACTOR runs, they are merged into one run on
+      // the next level, so each row is written O(log n) times.
+      final List<List<Run>> levels = new ArrayList<List<Run>>();
+      List<TSource> buffer = new ArrayList<TSource>();
+      long size = 0;
+      boolean canSpill = memoryBudget < Long.MAX_VALUE;
+      boolean succeeded = false;
+      final Enumerator<TSource> enumerator = source.enumerator();
+      try {
+        while (enumerator.moveNext()) {
+          final TSource row = enumerator.current();
+          if (canSpill && !SpillFile.canWrite(row)) {
+            // This row cannot be written to a run, so keep it and all
+            // later rows in memory. The runs already written are merged
+            // with them as usual.
+            canSpill = false;
+          }
+          buffer.add(row);
+          size += SpillFile.estimateSize(row) + 8;
+          if (canSpill && size > memoryBudget) {
+            sort(buffer);
+            final Run run = new Run();
+            for (TSource r : buffer) {
+              run.write(r);
+            }
+            run.finish();
+            addRun(levels, 0, run);
+            buffer = new ArrayList<TSource>();
+            size = 0;
+          }
+        }
+        succeeded = true;
+      } finally {
+        enumerator.close();
+        if (!succeeded) {
+          // Runs written so far are not yet owned by a merge enumerator.
+          for (List<Run> level : levels) {
+            for (Run run : level) {
+              run.close();
+            }
+          }
+        }
+      }
+      sort(buffer);
+      if (levels.isEmpty()) {
+        return Linq4j.enumerator(buffer);
+      }
+      // Higher levels hold earlier rows, so merge them first. The rows
+      // still in memory are the last run; no need to write them.
+      final List<Run> runs = new ArrayList<Run>();
+      for (List<Run> level : Lists.reverse(levels)) {
+        runs.addAll(level);
+      }
+      runs.add(new Run(buffer));
+      return merge(runs);
+    }
+
+    private void addRun(List<List<Run>> levels, int i, Run run) {
+      if (levels.size() == i) {
+        levels.add(new ArrayList<Run>());
+      }
+      final List<Run> level = levels.get(i);
+      level.add(run);
+      if (level.size() >= MERGE_FACTOR) {
+        final List<Run> merging = new ArrayList<Run>(level);
+        level.clear();
+        addRun(levels, i + 1, mergeToFile(merging));
+      }
+    }
+
+    public void reset() {
+      // Read the runs again; no need to read and sort the input again.
+      if (merged != null) {
+        merged.reset();
+      }
+    }
+
+    public void close() {
+      if (merged != null) {
+        merged.close();
+        merged = null;
+      }
+    }
+  }
+
+  /** Current position in a run, as an element of the merge queue. */
+  private class Cursor implements Comparable<Cursor> {
+    final int ordinal;
+    final Enumerator<TSource> enumerator;
+    TSource row;
+    TKey key;
+
+    Cursor(int ordinal, Enumerator<TSource> enumerator) {
+      this.ordinal = ordinal;
+      this.enumerator = enumerator;
+    }
+
+    boolean advance() {
+      if (enumerator.moveNext()) {
+        row = enumerator.current();
+        key = keySelector.apply(row);
+        return true;
+      }
+      row = null;
+      key = null;
+      return false;
+    }
+
+    void close() {
+      enumerator.close();
+    }
+
+    public int compareTo(Cursor o) {
+      final int c = comparator.compare(key, o.key);
+      if (c != 0) {
+        return c;
+      }
+      return ordinal < o.ordinal ? -1 : ordinal == o.ordinal ? 0 : 1;
+    }
+  }
+
+  /** Sorted run of rows, either in a temporary file or in memory. */
+  private class Run {
+    private final SpillFile spill;
+    private final List<TSource> rows;
+
+    /** Creates a run that will be written to a file. */
+    Run() {
+      this.spill = new SpillFile("sort");
+      this.rows = null;
+    }
+
+    /** Creates a run that is held in memory. */
+    Run(List<TSource> rows) {
+      this.spill = null;
+      this.rows = rows;
+    }
+
+    void write(TSource row) {
+      spill.write(row);
+    }
+
+    void finish() {
+      spill.finish();
+    }
+
+    Enumerator<TSource> enumerator() {
+      if (rows != null) {
+        return Linq4j.enumerator(rows);
+      }
+      return spill.<TSource>enumerator();
+    }
+
+    /** Deletes the file, if any. */
+    void close() {
+      if (spill != null) {
+        spill.close();
+      }
+    }
+  }
+}
+
+// End ExternalSort.java
@@ -0,0 +1,537 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.function.*;
+
+import net.hydromatic.optiq.DataContext;
+
+import java.util.*;
+
+/**
+ * Hash aggregation that spills to disk when the groups exceed a memory
+ * budget.
+ *
+ * <p>Groups are held in an open-addressing hash table. If the key is a
+ * single column of type {@code TINYINT}, {@code SMALLINT}, {@code INTEGER}
+ * or {@code BIGINT}, keys are stored in a {@code long[]} and are not retained
+ * as objects; otherwise they are stored in an {@code Object[]}.</p>
+ *
+ * <p>Accumulators are not stored in primitive arrays. Each group's
+ * accumulator is an object created by the generated
+ * {@code accumulatorInitializer}, and updated by the generated
+ * {@code accumulatorAdder}; this class sees neither the number nor the
+ * types of the aggregate functions, so it holds one reference per group.
+ * Where the aggregates' state allows, the fields of the generated
+ * accumulator are primitive.</p>
+ *
+ * <p>When the estimated size of the table exceeds the budget, the table
+ * stops admitting new groups. Rows of groups already in the table continue
+ * to be aggregated in memory; other rows are written to one of
+ * {@link SpillFile#PARTITION_COUNT} {@link SpillFile}s according to the hash
+ * of their key. After the groups in memory have been returned, each file is
+ * aggregated in the same way, using a different hash function.</p>
+ *
+ * <p>Each row is checked before it is written. If a row cannot be written,
+ * the rows spilled so far are read back and aggregated, and the table admits
+ * all groups from then on.</p>
+ *
+ * @param <TSource> Input row type
+ * @param <TKey> Key type
+ * @param <TAccumulate> Accumulator type
+ * @param <TResult> Result row type
+ */
+public class HashAggregate<TSource, TKey, TAccumulate, TResult> {
+  /** Estimated bytes per slot of the hash table, excluding the key object
+   * and the accumulator. */
+  private static final int SLOT_SIZE = 16;
+
+  private final Enumerable<TSource> source;
+  private final Function1<TSource, TKey> keySelector;
+  private final Function0<TAccumulate> accumulatorInitializer;
+  private final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder;
+  private final Function2<TKey, TAccumulate, TResult> resultSelector;
+  private final EqualityComparer<TKey> comparer;
+  private final long memoryBudget;
+  private final int depth;
+
+  private HashAggregate(Enumerable<TSource> source,
+      Function1<TSource, TKey> keySelector,
+      Function0<TAccumulate> accumulatorInitializer,
+      Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      Function2<TKey, TAccumulate, TResult> resultSelector,
+      EqualityComparer<TKey> comparer, long memoryBudget, int depth) {
+    this.source = source;
+    this.keySelector = keySelector;
+    this.accumulatorInitializer = accumulatorInitializer;
+    this.accumulatorAdder = accumulatorAdder;
+    this.resultSelector = resultSelector;
+    this.comparer = comparer;
+    this.memoryBudget =
+        depth >= SpillFile.MAX_DEPTH ? Long.MAX_VALUE : memoryBudget;
+    this.depth = depth;
+  }
+
+  /** Groups an input and aggregates each group. If the data context
+   * specifies a {@link DataContext.Variable#AGGREGATE_MEMORY_BUDGET}, uses a
+   * hash aggregation that spills to disk; otherwise uses linq4j's in-memory
+   * {@link Enumerable#groupBy}.
+   *
+   * <p>Called from generated code.</p> */
+  public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult>
+  groupBy(Enumerable<TSource> source,
+      Function1<TSource, TKey> keySelector,
+      Function0<TAccumulate> accumulatorInitializer,
+      Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      Function2<TKey, TAccumulate, TResult> resultSelector,
+      EqualityComparer<TKey> comparer, DataContext root) {
+    final Long memoryBudget =
+        DataContext.Variable.AGGREGATE_MEMORY_BUDGET.get(root);
+    if (memoryBudget == null || memoryBudget < 0) {
+      return comparer == null
+          ? source.groupBy(keySelector, accumulatorInitializer,
+              accumulatorAdder, resultSelector)
+          : source.groupBy(keySelector, accumulatorInitializer,
+              accumulatorAdder, resultSelector, comparer);
+    }
+    return groupBy(source, keySelector, accumulatorInitializer,
+        accumulatorAdder, resultSelector, comparer, memoryBudget);
+  }
+
+  /** Groups an input and aggregates each group, spilling rows to disk if
+   * the estimated size of the groups exceeds {@code memoryBudget} bytes.
+   * Groups are returned in no particular order. */
+  public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult>
+  groupBy(final Enumerable<TSource> source,
+      final Function1<TSource, TKey> keySelector,
+      final Function0<TAccumulate> accumulatorInitializer,
+      final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      final Function2<TKey, TAccumulate, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer, final long memoryBudget) {
+    return new AbstractEnumerable<TResult>() {
+      public Enumerator<TResult> enumerator() {
+        return new HashAggregate<TSource, TKey, TAccumulate, TResult>(source,
+            keySelector, accumulatorInitializer, accumulatorAdder,
+            resultSelector, comparer, memoryBudget, 0).enumerator();
+      }
+    };
+  }
+
+  private Enumerator<TResult> enumerator() {
+    return new AggregateEnumerator();
+  }
+
+  /** Assigns a key to a spill partition. Each level of recursion uses a
+   * different hash function. */
+  private int partition(TKey key) {
+    return SpillFile.partition(
+        key == null ? 0
+            : comparer != null ? comparer.hashCode(key)
+            : key.hashCode(),
+        depth);
+  }
+
+  /** Returns whether a key can be stored in a {@code long[]}. */
+  private static boolean isIntegral(Object key) {
+    return key instanceof Integer
+        || key instanceof Long
+        || key instanceof Short
+        || key instanceof Byte;
+  }
+
+  /** Open-addressing hash table from keys to accumulators, with linear
+   * probing. A slot is empty if its accumulator is null. */
+  private class Table {
+    /** Class of the keys, if they are stored in {@link #longKeys}. */
+    private Class keyClass;
+    private long[] longKeys;
+    private Object[] keys;
+    private Object[] accumulators;
+    private int mask;
+    private int size;
+    private boolean hasNullKey;
+    private TAccumulate nullKeyAccumulator;
+
+    Table() {
+      allocate(64);
+    }
+
+    private void allocate(int capacity) {
+      accumulators = new Object[capacity];
+      if (keyClass != null) {
+        longKeys = new long[capacity];
+      } else {
+        keys = new Object[capacity];
+      }
+      mask = capacity - 1;
+    }
+
+    /** Decides how to store keys, based on the first key; called while
+     * the table is empty. */
+    private void chooseRepresentation(TKey key) {
+      if (comparer == null && isIntegral(key)) {
+        keyClass = key.getClass();
+        keys = null;
+        longKeys = new long[accumulators.length];
+      }
+    }
+
+    /** Finds the slot of a key, or returns {@code -1 - slot} where slot is
+     * the empty slot where it would be inserted. */
+    private int find(TKey key) {
+      if (keyClass != null) {
+        final long k = ((Number) key).longValue();
+        int i = hash(k) & mask;
+        while (accumulators[i] != null) {
+          if (longKeys[i] == k) {
+            return i;
+          }
+          i = (i + 1) & mask;
+        }
+        return -1 - i;
+      }
+      int i = hash(key) & mask;
+      while (accumulators[i] != null) {
+        if (equal(key, keys[i])) {
+          return i;
+        }
+        i = (i + 1) & mask;
+      }
+      return -1 - i;
+    }
+
+    private int hash(long k) {
+      k *= 0x9E3779B97F4A7C15L;
+      return (int) (k ^ (k >>> 32));
+    }
+
+    private int hash(Object key) {
+      //noinspection unchecked
+      int h = comparer != null ? comparer.hashCode((TKey) key)
+          : key.hashCode();
+      h *= 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+
+    private boolean equal(TKey key, Object key2) {
+      //noinspection unchecked
+      return comparer != null ? comparer.equal(key, (TKey) key2)
+          : key.equals(key2);
+    }
+
+    /** Adds a row to its group. Returns the estimated number of bytes by
+     * which the table grew, or -1 if the key is not in the table and
+     * {@code admit} is false. */
+    long add(TKey key, TSource row, boolean admit) {
+      if (key == null) {
+        if (hasNullKey) {
+          nullKeyAccumulator =
+              accumulatorAdder.apply(nullKeyAccumulator, row);
+          return 0;
+        }
+        if (!admit) {
+          return -1;
+        }
+        hasNullKey = true;
+        nullKeyAccumulator =
+            accumulatorAdder.apply(accumulatorInitializer.apply(), row);
+        return SLOT_SIZE + SpillFile.estimateSize(nullKeyAccumulator);
+      }
+      if (keyClass == null && keys != null && size == 0) {
+        chooseRepresentation(key);
+      } else if (keyClass != null && key.getClass() != keyClass) {
+        toObjectKeys();
+      }
+      int slot = find(key);
+      if (slot >= 0) {
+        //noinspection unchecked
+        accumulators[slot] =
+            accumulatorAdder.apply((TAccumulate) accumulators[slot], row);
+        return 0;
+      }
+      if (!admit) {
+        return -1;
+      }
+      if ((size + 1) * 2 > accumulators.length) {
+        resize(accumulators.length * 2);
+        slot = find(key);
+      }
+      slot = -1 - slot;
+      final TAccumulate accumulator =
+          accumulatorAdder.apply(accumulatorInitializer.apply(), row);
+      assert accumulator != null;
+      accumulators[slot] = accumulator;
+      ++size;
+      if (keyClass != null) {
+        longKeys[slot] = ((Number) key).longValue();
+        return SLOT_SIZE + SpillFile.estimateSize(accumulator);
+      }
+      keys[slot] = key;
+      return SLOT_SIZE + SpillFile.estimateSize(accumulator)
+          + SpillFile.estimateSize(key);
+    }
+
+    private void resize(int capacity) {
+      final long[] oldLongKeys = longKeys;
+      final Object[] oldKeys = keys;
+      final Object[] oldAccumulators = accumulators;
+      allocate(capacity);
+      for (int i = 0; i < oldAccumulators.length; i++) {
+        if (oldAccumulators[i] != null) {
+          final TKey key = oldLongKeys != null
+              ? box(oldLongKeys[i])
+              : (TKey) oldKeys[i];
+          final int slot = -1 - find(key);
+          accumulators[slot] = oldAccumulators[i];
+          if (longKeys != null) {
+            longKeys[slot] = oldLongKeys[i];
+          } else {
+            keys[slot] = key;
+          }
+        }
+      }
+    }
+
+    /** Switches from storing keys in a {@code long[]} to storing them as
+     * objects; needed only if keys are of mixed types. */
+    private void toObjectKeys() {
+      final long[] oldLongKeys = longKeys;
+      final Object[] oldAccumulators = accumulators;
+      final Class oldKeyClass = keyClass;
+      keyClass = null;
+      longKeys = null;
+      allocate(oldAccumulators.length);
+      for (int i = 0; i < oldAccumulators.length; i++) {
+        if (oldAccumulators[i] != null) {
+          final TKey key = box(oldKeyClass, oldLongKeys[i]);
+          final int slot = -1 - find(key);
+          accumulators[slot] = oldAccumulators[i];
+          keys[slot] = key;
+        }
+      }
+    }
+
+    private TKey box(long k) {
+      return box(keyClass, k);
+    }
+
+    private TKey box(Class keyClass, long k) {
+      final Object o;
+      if (keyClass == Integer.class) {
+        o = (int) k;
+      } else if (keyClass == Long.class) {
+        o = k;
+      } else if (keyClass == Short.class) {
+        o = (short) k;
+      } else {
+        o = (byte) k;
+      }
+      //noinspection unchecked
+      return (TKey) o;
+    }
+
+    /** Returns the result for the group in a given slot, or null if the slot
+     * is empty. Slot -1 is the group whose key is null. */
+    TResult result(int slot) {
+      if (slot < 0) {
+        return hasNullKey
+            ? resultSelector.apply(null, nullKeyAccumulator)
+            : null;
+      }
+      if (accumulators[slot] == null) {
+        return null;
+      }
+      final TKey key = keyClass != null
+          ? box(longKeys[slot])
+          : (TKey) keys[slot];
+      //noinspection unchecked
+      return resultSelector.apply(key, (TAccumulate) accumulators[slot]);
+    }
+
+    int capacity() {
+      return accumulators.length;
+    }
+
+    /** Frees the memory used by the table, after its groups have been
+     * returned. */
+    void release() {
+      accumulators = new Object[0];
+      keys = null;
+      longKeys = null;
+      nullKeyAccumulator = null;
+      hasNullKey = false;
+      size = 0;
+    }
+  }
+
+  /** Enumerator that aggregates its input on its first call to
+   * {@link #moveNext()}, then returns the groups in memory, then
+   * aggregates and returns the groups in each spilled partition. */
+  private class AggregateEnumerator implements Enumerator<TResult> {
+    private Table table;
+    private List<SpillFile> spills;
+    private int slot = -1;
+    private int spillIndex;
+    private Enumerator<TResult> nested;
+    private TResult current;
+
+    public TResult current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      // Delete the spill files if this enumerator fails; a consumer that
+      // sees an exception may not close it.
+      boolean succeeded = false;
+      try {
+        final boolean b = moveNext_();
+        succeeded = true;
+        return b;
+      } finally {
+        if (!succeeded) {
+          close();
+        }
+      }
+    }
+
+    private boolean moveNext_() {
+      if (table == null) {
+        aggregate();
+      }
+      while (slot < table.capacity()) {
+        final TResult result = table.result(slot++);
+        if (result != null) {
+          current = result;
+          return true;
+        }
+      }
+      table.release();
+      for (;;) {
+        if (nested != null) {
+          if (nested.moveNext()) {
+            current = nested.current();
+            return true;
+          }
+          nested.close();
+          nested = null;
+          spills.get(spillIndex - 1).close();
+        }
+        if (spills == null || spillIndex >= spills.size()) {
+          return false;
+        }
+        final SpillFile spill = spills.get(spillIndex++);
+        spill.finish();
+        if (spill.count() > 0) {
+          nested = new HashAggregate<TSource, TKey, TAccumulate, TResult>(
+              spill.<TSource>asEnumerable(), keySelector,
+              accumulatorInitializer, accumulatorAdder, resultSelector,
+              comparer, memoryBudget, depth + 1).enumerator();
+        }
+      }
+    }
+
+    private void aggregate() {
+      table = new Table();
+      long size = 0;
+      boolean admit = true;
+      boolean canSpill = memoryBudget < Long.MAX_VALUE;
+      final Enumerator<TSource> enumerator = source.enumerator();
+      try {
+        while (enumerator.moveNext()) {
+          final TSource row = enumerator.current();
+          if (canSpill && !SpillFile.canWrite(row)) {
+            // This row may belong to a group that is not in the table, and
+            // cannot be spilled. Aggregate the rows spilled so far, and
+            // admit all groups from now on.
+            canSpill = false;
+            admit = true;
+            unspill();
+          }
+          final TKey key = keySelector.apply(row);
+          final long delta = table.add(key, row, admit);
+          if (delta >= 0) {
+            size += delta;
+            if (canSpill && size > memoryBudget) {
+              // Stop admitting new groups.
+              admit = false;
+            }
+            continue;
+          }
+          if (spills == null) {
+            spills = new ArrayList<SpillFile>();
+            for (int i = 0; i < SpillFile.PARTITION_COUNT; i++) {
+              spills.add(new SpillFile("aggregate"));
+            }
+          }
+          spills.get(partition(key)).write(row);
+        }
+      } finally {
+        enumerator.close();
+      }
+    }
+
+    /** Reads back the rows spilled so far and adds them to the table. */
+    private void unspill() {
+      if (spills == null) {
+        return;
+      }
+      for (SpillFile spill : spills) {
+        spill.finish();
+        final Enumerator<TSource> enumerator = spill.<TSource>enumerator();
+        try {
+          while (enumerator.moveNext()) {
+            final TSource row = enumerator.current();
+            table.add(keySelector.apply(row), row, true);
+          }
+        } finally {
+          enumerator.close();
+        }
+        spill.close();
+      }
+      spills = null;
+    }
+
+    private void closeSpills() {
+      if (spills != null) {
+        for (SpillFile spill : spills) {
+          spill.close();
+        }
+      }
+    }
+
+    public void reset() {
+      close();
+      spills = null;
+      slot = -1;
+      spillIndex = 0;
+    }
+
+    public void close() {
+      if (nested != null) {
+        nested.close();
+        nested = null;
+      }
+      closeSpills();
+      table = null;
+    }
+  }
+}
+
+// End HashAggregate.java
@@ -40,6 +40,11 @@ public enum Hook {
    * Janino. */
   JAVA_PLAN,
 
+  /** Called with a {@link net.hydromatic.optiq.prepare.BindableCache.Stats}
+   * after the compiled class for a generated Java plan has been looked up in
+   * the cache. */
+  BINDABLE_CACHE,
+
   /** Called with the output of sql-to-rel-converter. */
   CONVERTED,
 
@@ -53,6 +58,16 @@ public enum Hook {
   /** Called to create a Program to optimize the statement. */
   PROGRAM,
 
+  /** Called when the Volcano planner has exhausted its time or rule-firing
+   * budget and returns the best plan found so far. The argument is a
+   * {@link org.eigenbase.relopt.volcano.VolcanoPlanner.BudgetExceeded}. */
+  PLANNER_BUDGET_EXCEEDED,
+
+  /** Called with a {@link org.eigenbase.util.Holder} containing the largest
+   * estimated number of rows for which the Spark adapter broadcasts the
+   * right input of a join. Use this to force a shuffle join in tests. */
+  SPARK_BROADCAST_THRESHOLD,
+
   /** Called with a query that has been generated to send to a back-end system.
    * The query might be a SQL string (for the JDBC adapter), a list of Mongo
    * pipeline expressions (for the MongoDB adapter), et cetera. */
@@ -0,0 +1,604 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.function.EqualityComparer;
+import net.hydromatic.linq4j.function.Function1;
+import net.hydromatic.linq4j.function.Function2;
+
+import net.hydromatic.optiq.DataContext;
+
+import java.util.*;
+
+/**
+ * Hash join that stays within a memory budget by partitioning its inputs
+ * to temporary files.
+ *
+ * <p>The inner (right) input is the build side. Rows are assigned to one of
+ * {@link SpillFile#PARTITION_COUNT} partitions by the hash of their key.
+ * While the estimated size of the build side is within the budget, all
+ * partitions are held in memory, and the join behaves like
+ * {@link Enumerable#join}. When the budget is exceeded, the largest
+ * partitions are written to disk until the rest fit. Outer rows whose
+ * partition is in memory are joined immediately; the others are written to
+ * the partition's outer file. Each pair of spilled files is then joined in
+ * the same way, partitioning again with a different hash function if
+ * necessary.</p>
+ *
+ * <p>Spilled rows are written to {@link SpillFile}s. Each row is checked
+ * before it is written. If a row of the build side cannot be written, the
+ * partitions spilled so far are read back and the join continues in memory;
+ * if a row of the probe side cannot be written, its partition is read back
+ * into memory.</p>
+ *
+ * <p>As in SQL, a null key, or a composite key with a null component,
+ * matches no row.</p>
+ *
+ * <p>The order of the output rows is unspecified.</p>
+ *
+ * @param <TSource> Outer row type
+ * @param <TInner> Inner row type
+ * @param <TKey> Key type
+ * @param <TResult> Result row type
+ */
+public class HybridHashJoin<TSource, TInner, TKey, TResult> {
+  private final Enumerable<TSource> outer;
+  private final Enumerable<TInner> inner;
+  private final Function1<TSource, TKey> outerKeySelector;
+  private final Function1<TInner, TKey> innerKeySelector;
+  private final Function2<TSource, TInner, TResult> resultSelector;
+  private final EqualityComparer<TKey> comparer;
+  private final boolean generateNullsOnLeft;
+  private final boolean generateNullsOnRight;
+  private final long memoryBudget;
+  private final int depth;
+
+  private HybridHashJoin(Enumerable<TSource> outer, Enumerable<TInner> inner,
+      Function1<TSource, TKey> outerKeySelector,
+      Function1<TInner, TKey> innerKeySelector,
+      Function2<TSource, TInner, TResult> resultSelector,
+      EqualityComparer<TKey> comparer, boolean generateNullsOnLeft,
+      boolean generateNullsOnRight, long memoryBudget, int depth) {
+    this.outer = outer;
+    this.inner = inner;
+    this.outerKeySelector = outerKeySelector;
+    this.innerKeySelector = innerKeySelector;
+    this.resultSelector = resultSelector;
+    this.comparer = comparer;
+    this.generateNullsOnLeft = generateNullsOnLeft;
+    this.generateNullsOnRight = generateNullsOnRight;
+    this.memoryBudget =
+        depth >= SpillFile.MAX_DEPTH ? Long.MAX_VALUE : memoryBudget;
+    this.depth = depth;
+  }
+
+  /** Joins two inputs. If the data context specifies a
+   * {@link DataContext.Variable#JOIN_MEMORY_BUDGET}, the join spills to disk
+   * when the build side exceeds it; otherwise it is a regular in-memory
+   * hash join.
+   *
+   * <p>Called from generated code.</p> */
+  public static <TSource, TInner, TKey, TResult> Enumerable<TResult> join(
+      final Enumerable<TSource> outer, final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final Function2<TSource, TInner, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer,
+      final boolean generateNullsOnLeft, final boolean generateNullsOnRight,
+      DataContext root) {
+    final Long memoryBudget =
+        DataContext.Variable.JOIN_MEMORY_BUDGET.get(root);
+    if (memoryBudget == null || memoryBudget < 0) {
+      return outer.join(inner, outerKeySelector, innerKeySelector,
+          resultSelector, comparer, generateNullsOnLeft,
+          generateNullsOnRight);
+    }
+    return join(outer, inner, outerKeySelector, innerKeySelector,
+        resultSelector, comparer, generateNullsOnLeft, generateNullsOnRight,
+        memoryBudget);
+  }
+
+  /** Joins two inputs, spilling to disk if the estimated size of the build
+   * side exceeds {@code memoryBudget} bytes. */
+  public static <TSource, TInner, TKey, TResult> Enumerable<TResult> join(
+      final Enumerable<TSource> outer, final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final Function2<TSource, TInner, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer,
+      final boolean generateNullsOnLeft, final boolean generateNullsOnRight,
+      final long memoryBudget) {
+    return new AbstractEnumerable<TResult>() {
+      public Enumerator<TResult> enumerator() {
+        return new HybridHashJoin<TSource, TInner, TKey, TResult>(outer,
+            inner, outerKeySelector, innerKeySelector, resultSelector,
+            comparer, generateNullsOnLeft, generateNullsOnRight, memoryBudget,
+            0).enumerator();
+      }
+    };
+  }
+
+  private Enumerator<TResult> enumerator() {
+    return new JoinEnumerator();
+  }
+
+  /** Converts a key into an object whose {@link Object#equals} and
+   * {@link Object#hashCode} methods use the comparer, if there is one. */
+  private Object wrap(TKey key) {
+    return comparer == null ? key : new Wrapped<TKey>(comparer, key);
+  }
+
+  /** Returns whether a key matches no row: it is null, or is a composite
+   * key with a null component. */
+  static boolean isNullKey(Object key) {
+    if (key instanceof List) {
+      return ((List) key).contains(null);
+    } else if (key instanceof Object[]) {
+      return Arrays.asList((Object[]) key).contains(null);
+    }
+    return key == null;
+  }
+
+  /** Returns the hash table key of an inner row. A row with a null key
+   * matches nothing, but right and full joins must still return it, so it
+   * gets a key equal to no other; for other joins, returns null, and the row
+   * is discarded. */
+  private Object innerKey(TInner row) {
+    final TKey key = innerKeySelector.apply(row);
+    if (isNullKey(key)) {
+      return generateNullsOnLeft ? new Object() : null;
+    }
+    return wrap(key);
+  }
+
+  /** Assigns a key to a partition. Each level of recursion uses a different
+   * hash function. */
+  private int partition(Object key) {
+    return SpillFile.partition(key == null ? 0 : key.hashCode(), depth);
+  }
+
+  /** Key that uses an {@link EqualityComparer}. */
+  private static class Wrapped<T> {
+    final EqualityComparer<T> comparer;
+    final T key;
+
+    Wrapped(EqualityComparer<T> comparer, T key) {
+      this.comparer = comparer;
+      this.key = key;
+    }
+
+    @Override public int hashCode() {
+      return key == null ? 0 : comparer.hashCode(key);
+    }
+
+    @Override public boolean equals(Object obj) {
+      //noinspection unchecked
+      return obj == this
+          || obj instanceof Wrapped
+          && comparer.equal(key, ((Wrapped<T>) obj).key);
+    }
+  }
+
+  /** One of the partitions of a join. Its inner rows are either in memory,
+   * or in a temporary file. */
+  private class Partition {
+    Map<Object, List<TInner>> map = new HashMap<Object, List<TInner>>();
+    /** Keys that have matched an outer row; used only for right and full
+     * joins. */
+    final Set<Object> matchedKeys = new HashSet<Object>();
+    long size;
+    final SpillFile innerSpill = new SpillFile("join");
+    final SpillFile outerSpill = new SpillFile("join");
+
+    boolean isSpilled() {
+      return map == null;
+    }
+
+    void add(Object key, TInner row, long rowSize) {
+      List<TInner> list = map.get(key);
+      if (list == null) {
+        list = new ArrayList<TInner>(1);
+        map.put(key, list);
+      }
+      list.add(row);
+      size += rowSize;
+    }
+
+    /** Writes the inner rows to disk, and frees the memory. */
+    void spill() {
+      for (List<TInner> list : map.values()) {
+        for (TInner row : list) {
+          innerSpill.write(row);
+        }
+      }
+      map = null;
+      size = 0;
+    }
+
+    /** Reads the inner rows back into memory, and deletes the file. Called
+     * when a row that belongs to this partition cannot be spilled. */
+    void unspill() {
+      innerSpill.finish();
+      map = new HashMap<Object, List<TInner>>();
+      final Enumerator<TInner> enumerator = innerSpill.<TInner>enumerator();
+      try {
+        while (enumerator.moveNext()) {
+          final TInner row = enumerator.current();
+          add(innerKey(row), row, 0);
+        }
+      } finally {
+        enumerator.close();
+      }
+      innerSpill.close();
+    }
+
+    /** Frees the memory used by the inner rows, after they have been
+     * joined. */
+    void release() {
+      if (map != null) {
+        map = Collections.emptyMap();
+        matchedKeys.clear();
+      }
+    }
+
+    void close() {
+      innerSpill.close();
+      outerSpill.close();
+    }
+  }
+
+  /** Enumerator that builds the hash table on its first call to
+   * {@link #moveNext()}, then probes it with the outer rows, then joins
+   * the spilled partitions.
+   *
+   * <p>The inner rows that match an outer row are returned one at a time,
+   * by iterating over the list in the hash table, so that a key with many
+   * matches does not need a buffer. */
+  private class JoinEnumerator implements Enumerator<TResult> {
+    private final List<Partition> partitions = new ArrayList<Partition>();
+    private State state = State.BUILD;
+    private boolean canSpill;
+    private Enumerator<TSource> outerEnumerator;
+    /** Outer rows, spilled to a partition that has since been read back into
+     * memory, that must be probed before any more rows of the outer
+     * input. */
+    private Enumerator<TSource> replay;
+    private Partition replayPartition;
+    /** Outer row whose partition was read back; probed after
+     * {@link #replay}. */
+    private TSource deferred;
+    /** Outer row being joined, or null while returning inner rows that
+     * matched nothing. */
+    private TSource outerRow;
+    /** Inner rows, matching {@link #outerRow}, not yet returned. */
+    private Iterator<TInner> matches;
+    private Iterator<Map.Entry<Object, List<TInner>>> unmatched;
+    private Partition unmatchedPartition;
+    private Enumerator<TResult> nested;
+    private int partitionIndex;
+    private TResult current;
+
+    JoinEnumerator() {
+      init();
+    }
+
+    private void init() {
+      partitions.clear();
+      for (int i = 0; i < SpillFile.PARTITION_COUNT; i++) {
+        partitions.add(new Partition());
+      }
+      canSpill = memoryBudget < Long.MAX_VALUE;
+      partitionIndex = 0;
+      state = State.BUILD;
+    }
+
+    public TResult current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      // Delete the spill files if this enumerator fails; a consumer that
+      // sees an exception may not close it.
+      boolean succeeded = false;
+      try {
+        final boolean b = moveNext_();
+        succeeded = true;
+        return b;
+      } finally {
+        if (!succeeded) {
+          close();
+        }
+      }
+    }
+
+    private boolean moveNext_() {
+      for (;;) {
+        if (matches != null) {
+          if (matches.hasNext()) {
+            current = resultSelector.apply(outerRow, matches.next());
+            return true;
+          }
+          matches = null;
+        }
+        switch (state) {
+        case BUILD:
+          build();
+          outerEnumerator = outer.enumerator();
+          state = State.PROBE;
+          break;
+        case PROBE:
+          if (nextOuter()) {
+            if (probe()) {
+              return true;
+            }
+            break;
+          }
+          outerEnumerator.close();
+          outerEnumerator = null;
+          if (generateNullsOnLeft) {
+            state = State.UNMATCHED;
+          } else {
+            for (Partition partition : partitions) {
+              partition.release();
+            }
+            state = State.SPILLED;
+          }
+          break;
+        case UNMATCHED:
+          if (!nextUnmatched()) {
+            state = State.SPILLED;
+          }
+          break;
+        case SPILLED:
+          if (nested != null) {
+            if (nested.moveNext()) {
+              current = nested.current();
+              return true;
+            }
+            nested.close();
+            nested = null;
+            partitions.get(partitionIndex - 1).close();
+          }
+          if (!nextSpilled()) {
+            state = State.DONE;
+            return false;
+          }
+          break;
+        default:
+          return false;
+        }
+      }
+    }
+
+    private void build() {
+      long size = 0;
+      final Enumerator<TInner> enumerator = inner.enumerator();
+      try {
+        while (enumerator.moveNext()) {
+          final TInner row = enumerator.current();
+          final Object key = innerKey(row);
+          if (key == null) {
+            continue;
+          }
+          if (canSpill && !SpillFile.canWrite(row)) {
+            // Neither this row nor the build side can be spilled. Read back
+            // the partitions spilled so far, and join in memory.
+            canSpill = false;
+            for (Partition partition : partitions) {
+              if (partition.isSpilled()) {
+                partition.unspill();
+              }
+            }
+          }
+          final Partition partition = partitions.get(partition(key));
+          if (partition.isSpilled()) {
+            partition.innerSpill.write(row);
+            continue;
+          }
+          final long rowSize = SpillFile.estimateSize(row) + 48;
+          partition.add(key, row, rowSize);
+          size += rowSize;
+          while (canSpill && size > memoryBudget) {
+            final Partition largest = largestInMemory();
+            if (largest == null) {
+              break;
+            }
+            size -= largest.size;
+            largest.spill();
+          }
+        }
+      } finally {
+        enumerator.close();
+      }
+    }
+
+    private Partition largestInMemory() {
+      Partition largest = null;
+      for (Partition partition : partitions) {
+        if (!partition.isSpilled()
+            && partition.size > 0
+            && (largest == null || partition.size > largest.size)) {
+          largest = partition;
+        }
+      }
+      return largest;
+    }
+
+    /** Reads the next outer row into {@link #outerRow}. Returns false if
+     * there are no more. */
+    private boolean nextOuter() {
+      if (replay != null) {
+        if (replay.moveNext()) {
+          outerRow = replay.current();
+          return true;
+        }
+        replay.close();
+        replay = null;
+        replayPartition.outerSpill.close();
+        replayPartition = null;
+        outerRow = deferred;
+        deferred = null;
+        return true;
+      }
+      if (outerEnumerator.moveNext()) {
+        outerRow = outerEnumerator.current();
+        return true;
+      }
+      return false;
+    }
+
+    /** Probes the hash table with {@link #outerRow}. If it has matches,
+     * sets {@link #matches}; if it has none and is to be returned with
+     * nulls, sets {@link #current} and returns true. */
+    private boolean probe() {
+      final TKey key0 = outerKeySelector.apply(outerRow);
+      if (!isNullKey(key0)) {
+        final Object key = wrap(key0);
+        final Partition partition = partitions.get(partition(key));
+        if (partition.isSpilled()) {
+          if (SpillFile.canWrite(outerRow)) {
+            partition.outerSpill.write(outerRow);
+          } else {
+            // The row cannot be spilled, so join its partition in memory:
+            // read back the inner rows, then probe with the outer rows
+            // already spilled, then with this row.
+            partition.unspill();
+            partition.outerSpill.finish();
+            replay = partition.outerSpill.<TSource>enumerator();
+            replayPartition = partition;
+            deferred = outerRow;
+          }
+          return false;
+        }
+        final List<TInner> list = partition.map.get(key);
+        if (list != null) {
+          if (generateNullsOnLeft) {
+            partition.matchedKeys.add(key);
+          }
+          matches = list.iterator();
+          return false;
+        }
+      }
+      if (generateNullsOnRight) {
+        current = resultSelector.apply(outerRow, null);
+        return true;
+      }
+      return false;
+    }
+
+    /** Sets {@link #matches} to the next list of inner rows, in a partition
+     * held in memory, whose key matched no outer row. Returns false if there
+     * are no more. */
+    private boolean nextUnmatched() {
+      for (;;) {
+        if (unmatched != null) {
+          while (unmatched.hasNext()) {
+            final Map.Entry<Object, List<TInner>> entry = unmatched.next();
+            if (!unmatchedPartition.matchedKeys.contains(entry.getKey())) {
+              outerRow = null;
+              matches = entry.getValue().iterator();
+              return true;
+            }
+          }
+          unmatched = null;
+          unmatchedPartition.release();
+        }
+        if (partitionIndex >= partitions.size()) {
+          partitionIndex = 0;
+          return false;
+        }
+        final Partition partition = partitions.get(partitionIndex++);
+        if (!partition.isSpilled()) {
+          unmatchedPartition = partition;
+          unmatched = partition.map.entrySet().iterator();
+        }
+      }
+    }
+
+    /** Sets {@link #nested} to the join of the next spilled partition.
+     * Returns false if there are no more. */
+    private boolean nextSpilled() {
+      while (partitionIndex < partitions.size()) {
+        final Partition partition = partitions.get(partitionIndex++);
+        if (partition.isSpilled()) {
+          nested = joinSpilled(partition);
+          if (nested != null) {
+            return true;
+          }
+          partition.close();
+        }
+      }
+      return false;
+    }
+
+    /** Returns an enumerator that joins the two files of a spilled
+     * partition, or null if the join is certain to be empty. */
+    private Enumerator<TResult> joinSpilled(Partition partition) {
+      partition.innerSpill.finish();
+      partition.outerSpill.finish();
+      if (partition.innerSpill.count() == 0 && !generateNullsOnRight
+          || partition.outerSpill.count() == 0 && !generateNullsOnLeft) {
+        return null;
+      }
+      return new HybridHashJoin<TSource, TInner, TKey, TResult>(
+          partition.outerSpill.<TSource>asEnumerable(),
+          partition.innerSpill.<TInner>asEnumerable(), outerKeySelector,
+          innerKeySelector, resultSelector, comparer, generateNullsOnLeft,
+          generateNullsOnRight, memoryBudget, depth + 1).enumerator();
+    }
+
+    public void reset() {
+      close();
+      init();
+    }
+
+    public void close() {
+      if (outerEnumerator != null) {
+        outerEnumerator.close();
+        outerEnumerator = null;
+      }
+      if (replay != null) {
+        replay.close();
+        replay = null;
+      }
+      if (nested != null) {
+        nested.close();
+        nested = null;
+      }
+      for (Partition partition : partitions) {
+        partition.close();
+      }
+      matches = null;
+      unmatched = null;
+      unmatchedPartition = null;
+      replayPartition = null;
+      outerRow = null;
+      deferred = null;
+      state = State.DONE;
+    }
+  }
+
+  /** State of a {@link JoinEnumerator}. */
+  private enum State {
+    BUILD, PROBE, UNMATCHED, SPILLED, DONE
+  }
+}
+
+// End HybridHashJoin.java
@@ -16,6 +16,10 @@
  */
 package net.hydromatic.optiq.runtime;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
 /**
  * Utilities for converting SQL {@code LIKE} and {@code SIMILAR} operators
  * to regular expressions.
@@ -43,6 +47,73 @@ public class Like {
   private Like() {
   }
 
+  /**
+   * Creates a matcher for a SQL LIKE pattern, with optional escape string.
+   *
+   * <p>If the pattern has no {@code _} wildcards, the matcher compares the
+   * literal segments between the {@code %} wildcards using
+   * {@link String#startsWith}, {@link String#endsWith} and
+   * {@link String#indexOf}; otherwise it uses a compiled regular expression.
+   * In both cases {@code %} and {@code _} match any character, including
+   * line terminators.</p>
+   */
+  static Matcher likeMatcher(String sqlPattern, CharSequence escapeStr) {
+    final char escapeChar = escapeChar(escapeStr);
+    final List<String> segments = new ArrayList<String>();
+    final StringBuilder buf = new StringBuilder();
+    final int len = sqlPattern.length();
+    for (int i = 0; i < len; i++) {
+      char c = sqlPattern.charAt(i);
+      if (c == escapeChar) {
+        if (i == (len - 1)) {
+          throw invalidEscapeSequence(sqlPattern, i);
+        }
+        char nextChar = sqlPattern.charAt(i + 1);
+        if ((nextChar == '_')
+            || (nextChar == '%')
+            || (nextChar == escapeChar)) {
+          buf.append(nextChar);
+          i++;
+        } else {
+          throw invalidEscapeSequence(sqlPattern, i);
+        }
+      } else if (c == '_') {
+        return new RegexMatcher(
+            Pattern.compile(sqlToRegexLike(sqlPattern, escapeChar),
+                Pattern.DOTALL));
+      } else if (c == '%') {
+        segments.add(buf.toString());
+        buf.setLength(0);
+      } else {
+        buf.append(c);
+      }
+    }
+    segments.add(buf.toString());
+    if (segments.size() == 1) {
+      return new EqualsMatcher(segments.get(0));
+    }
+    return new SegmentMatcher(segments);
+  }
+
+  /**
+   * Creates a matcher for a SQL SIMILAR pattern, with optional escape
+   * string.
+   */
+  static Matcher similarMatcher(String sqlPattern, CharSequence escapeStr) {
+    return new RegexMatcher(
+        Pattern.compile(sqlToRegexSimilar(sqlPattern, escapeStr)));
+  }
+
+  private static char escapeChar(CharSequence escapeStr) {
+    if (escapeStr == null) {
+      return 0;
+    }
+    if (escapeStr.length() != 1) {
+      throw invalidEscapeCharacter(escapeStr.toString());
+    }
+    return escapeStr.charAt(0);
+  }
+
   /**
    * Translates a SQL LIKE pattern to Java regex pattern, with optional
    * escape string.
@@ -303,6 +374,82 @@ static String sqlToRegexSimilar(
 
     return javaPattern.toString();
   }
+
+  /** Compiled form of a {@code LIKE} or {@code SIMILAR} pattern. Generated
+   * code creates one per pattern and calls {@link #matches} for each row. */
+  public abstract static class Matcher {
+    /** Returns whether a string matches the whole of this pattern. */
+    public abstract boolean matches(String s);
+  }
+
+  /** Matcher for a pattern without wildcards. */
+  private static class EqualsMatcher extends Matcher {
+    private final String literal;
+
+    EqualsMatcher(String literal) {
+      this.literal = literal;
+    }
+
+    @Override public boolean matches(String s) {
+      return s.equals(literal);
+    }
+  }
+
+  /** Matcher for a pattern that consists of literal segments separated by
+   * {@code %} wildcards, such as {@code 'abc%'}, {@code '%abc'} and
+   * {@code '%a%b%'}. */
+  private static class SegmentMatcher extends Matcher {
+    private final String first;
+    private final String[] middle;
+    private final String last;
+    private final int minLength;
+
+    SegmentMatcher(List<String> segments) {
+      assert segments.size() >= 2;
+      this.first = segments.get(0);
+      this.last = segments.get(segments.size() - 1);
+      this.middle =
+          segments.subList(1, segments.size() - 1).toArray(new String[0]);
+      int n = 0;
+      for (String segment : segments) {
+        n += segment.length();
+      }
+      this.minLength = n;
+    }
+
+    @Override public boolean matches(String s) {
+      if (s.length() < minLength
+          || !s.startsWith(first)
+          || !s.endsWith(last)) {
+        return false;
+      }
+      // Find each middle segment as far left as possible; if it does not
+      // fit before the last segment, no later occurrence will either.
+      final int end = s.length() - last.length();
+      int pos = first.length();
+      for (String segment : middle) {
+        final int i = s.indexOf(segment, pos);
+        if (i < 0 || i + segment.length() > end) {
+          return false;
+        }
+        pos = i + segment.length();
+      }
+      return true;
+    }
+  }
+
+  /** Matcher that uses a compiled regular expression. */
+  private static class RegexMatcher extends Matcher {
+    private final Pattern pattern;
+
+    RegexMatcher(Pattern pattern) {
+      this.pattern = pattern;
+    }
+
+    @Override public boolean matches(String s) {
+      return pattern.matcher(s).matches();
+    }
+  }
 }
 
 // End Like.java
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Queue of the values in a sliding window frame that may yet become its
+ * minimum (or maximum).
+ *
+ * <p>Values are added and removed in order of their row index. When a value
+ * is added, the values before it that are no smaller (for {@code MIN}) are
+ * discarded, because they leave the frame before it does; so the head of the
+ * queue is always the extreme value of the frame. Each value is added and
+ * discarded at most once, so maintaining the queue as the frame slides costs
+ * constant amortized time per row.</p>
+ *
+ * <p>Used in generated code to implement windowed {@code MIN} and
+ * {@code MAX}.</p>
+ */
+public class MinMaxQueue {
+  private final boolean max;
+  private int[] indexes = new int[16];
+  private Comparable[] values = new Comparable[16];
+  private int head;
+  private int tail;
+
+  /** Creates a MinMaxQueue.
+   *
+   * @param max Whether the head of the queue is the maximum (otherwise the
+   *   minimum) */
+  public MinMaxQueue(boolean max) {
+    this.max = max;
+  }
+
+  /** Removes all values. */
+  public void clear() {
+    Arrays.fill(values, head, tail, null);
+    head = tail = 0;
+  }
+
+  /** Adds the value of the row with a given index. Rows must be added in
+   * increasing order of index. */
+  @SuppressWarnings("unchecked")
+  public void add(int index, Comparable value) {
+    while (tail > head) {
+      final int c = values[tail - 1].compareTo(value);
+      if (max ? c > 0 : c < 0) {
+        break;
+      }
+      values[--tail] = null;
+    }
+    if (tail == values.length) {
+      final int size = tail - head;
+      if (size * 2 > values.length) {
+        indexes = Arrays.copyOf(indexes, values.length * 2);
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      System.arraycopy(indexes, head, indexes, 0, size);
+      System.arraycopy(values, head, values, 0, size);
+      Arrays.fill(values, size, tail, null);
+      head = 0;
+      tail = size;
+    }
+    indexes[tail] = index;
+    values[tail++] = value;
+  }
+
+  /** Removes the row with a given index, and any rows before it. */
+  public void remove(int index) {
+    while (tail > head && indexes[head] <= index) {
+      values[head++] = null;
+    }
+  }
+
+  /** Returns whether the queue is empty. */
+  public boolean isEmpty() {
+    return tail == head;
+  }
+
+  /** Returns the minimum (or maximum) value, or null if the queue is
+   * empty. */
+  public Comparable peek() {
+    return tail > head ? values[head] : null;
+  }
+}
+
+// End MinMaxQueue.java
@@ -0,0 +1,518 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
+import net.hydromatic.linq4j.function.Function0;
+import net.hydromatic.linq4j.function.Function1;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.sql.DataSource;
+
+/**
+ * Executes a SQL statement as several concurrent statements, each over a
+ * range of values of a key column, and returns the combined result as an
+ * {@link Enumerable}.
+ *
+ * <p>The bounds of the key are read by a statement that returns its minimum
+ * and maximum values. The range between them is cut into
+ * {@code partitionCount} sub-ranges of equal width, and the partition
+ * statement is executed once per sub-range, each on its own connection from
+ * the data source. The partition statement has three parameters, and must
+ * select the rows whose key {@code k} satisfies
+ * {@code k >= ? AND (k < ? OR k = ?)}; the third parameter is the maximum for
+ * the last sub-range, so that the maximum itself is included.</p>
+ *
+ * <p>Splitting is possible for keys of numeric and date-time types. For other
+ * types, or if the minimum and maximum are equal, there is one partition. Rows
+ * whose key lies outside the bounds at the time they were read (for example,
+ * rows inserted later) are not returned.</p>
+ *
+ * <p>If a comparator is given, each partition statement must return rows in
+ * that order, and the partitions are merged so that the combined result is in
+ * that order too. Otherwise rows are returned in the order that they arrive.
+ * </p>
+ *
+ * @param <T> Element type
+ */
+public class PartitionedResultSetEnumerable<T> extends AbstractEnumerable<T> {
+  /** Maximum number of rows that a partition reads ahead of the consumer. */
+  private static final int QUEUE_SIZE = 1024;
+
+  /** Placeholder for a null row, because a queue cannot hold null. */
+  private static final Object NULL = new Object();
+
+  /** Marks the end of a partition's rows. */
+  private static final Object END = new Object();
+
+  private final DataSource dataSource;
+  private final String boundsSql;
+  private final String partitionSql;
+  private final int partitionCount;
+  private final Function1<ResultSet, Function0<T>> rowBuilderFactory;
+  private final Comparator<T> comparator;
+  private final int fetchSize;
+
+  private PartitionedResultSetEnumerable(DataSource dataSource,
+      String boundsSql, String partitionSql, int partitionCount,
+      Function1<ResultSet, Function0<T>> rowBuilderFactory,
+      Comparator<T> comparator, int fetchSize) {
+    this.dataSource = dataSource;
+    this.boundsSql = boundsSql;
+    this.partitionSql = partitionSql;
+    this.partitionCount = partitionCount;
+    this.rowBuilderFactory = rowBuilderFactory;
+    this.comparator = comparator;
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Creates a PartitionedResultSetEnumerable.
+   *
+   * @param dataSource Data source; must be able to supply
+   *                   {@code partitionCount} connections at a time
+   * @param boundsSql Statement that returns one row with the minimum and
+   *                  maximum values of the key
+   * @param partitionSql Statement that returns the rows in a range of the key
+   * @param partitionCount Maximum number of partitions
+   * @param rowBuilderFactory Creates an object for each row
+   * @param comparator Order in which each partition returns its rows, or null
+   * @param fetchSize Number of rows to fetch at a time, or 0 for the driver's
+   *                  default
+   * @param <T> Element type
+   * @return Enumerable
+   */
+  public static <T> Enumerable<T> of(DataSource dataSource, String boundsSql,
+      String partitionSql, int partitionCount,
+      Function1<ResultSet, Function0<T>> rowBuilderFactory,
+      Comparator<T> comparator, int fetchSize) {
+    return new PartitionedResultSetEnumerable<T>(dataSource, boundsSql,
+        partitionSql, partitionCount, rowBuilderFactory, comparator,
+        fetchSize);
+  }
+
+  public Enumerator<T> enumerator() {
+    final List<Object> bounds;
+    try {
+      bounds = bounds();
+    } catch (SQLException e) {
+      throw new RuntimeException("while executing SQL [" + boundsSql + "]",
+          e);
+    }
+    if (bounds.isEmpty()) {
+      return Linq4j.emptyEnumerator();
+    }
+    final List<Object[]> parametersList = new ArrayList<Object[]>();
+    final int last = bounds.size() - 2;
+    for (int i = 0; i <= last; i++) {
+      parametersList.add(
+          new Object[] {
+            bounds.get(i), bounds.get(i + 1), bounds.get(i == last ? i + 1 : i)
+          });
+    }
+    return new PartitionEnumerator(parametersList);
+  }
+
+  /** Reads the minimum and maximum of the key and returns the boundaries of
+   * the partitions; empty if there are no rows. */
+  private List<Object> bounds() throws SQLException {
+    Connection connection = null;
+    Statement statement = null;
+    ResultSet resultSet = null;
+    try {
+      connection = dataSource.getConnection();
+      statement = connection.createStatement();
+      resultSet = statement.executeQuery(boundsSql);
+      if (!resultSet.next()) {
+        return Collections.emptyList();
+      }
+      final Object min = resultSet.getObject(1);
+      final Object max = resultSet.getObject(2);
+      if (min == null || max == null) {
+        return Collections.emptyList();
+      }
+      return split(min, max, partitionCount);
+    } finally {
+      close(connection, statement, resultSet);
+    }
+  }
+
+  /** Cuts the range between two values into at most {@code n} sub-ranges of
+   * equal width. Returns a strictly increasing list of boundaries, starting
+   * with {@code min} and ending with {@code max}. */
+  static List<Object> split(Object min, Object max, int n) {
+    final List<Object> bounds = new ArrayList<Object>();
+    bounds.add(min);
+    if (n > 1 && !min.equals(max)) {
+      if (min instanceof java.util.Date) {
+        final long lo = ((java.util.Date) min).getTime();
+        final long hi = ((java.util.Date) max).getTime();
+        for (int i = 1; i < n; i++) {
+          final long v = lo + Math.round((double) (hi - lo) * i / n);
+          if (v > lo && v < hi) {
+            addIfGreater(bounds, date(min, v));
+          }
+        }
+      } else if (isIntegral(min)) {
+        final long lo = ((Number) min).longValue();
+        final long hi = ((Number) max).longValue();
+        for (int i = 1; i < n; i++) {
+          final long v = lo + Math.round(((double) hi - lo) * i / n);
+          if (v > lo && v < hi) {
+            addIfGreater(bounds, integral(min, v));
+          }
+        }
+      } else if (min instanceof Number) {
+        final double lo = ((Number) min).doubleValue();
+        final double hi = ((Number) max).doubleValue();
+        for (int i = 1; i < n; i++) {
+          final double v = lo + (hi - lo) * i / n;
+          if (v > lo && v < hi) {
+            addIfGreater(bounds, fractional(min, v));
+          }
+        }
+      }
+    }
+    bounds.add(max);
+    return bounds;
+  }
+
+  private static void addIfGreater(List<Object> bounds, Comparable value) {
+    //noinspection unchecked
+    if (value.compareTo(bounds.get(bounds.size() - 1)) > 0) {
+      bounds.add(value);
+    }
+  }
+
+  private static boolean isIntegral(Object o) {
+    return o instanceof Integer
+        || o instanceof Long
+        || o instanceof Short
+        || o instanceof Byte
+        || o instanceof BigInteger
+        || o instanceof BigDecimal && ((BigDecimal) o).scale() <= 0;
+  }
+
+  /** Converts a long to the same type as {@code o}. */
+  private static Comparable integral(Object o, long v) {
+    if (o instanceof Integer) {
+      return (int) v;
+    } else if (o instanceof Short) {
+      return (short) v;
+    } else if (o instanceof Byte) {
+      return (byte) v;
+    } else if (o instanceof BigInteger) {
+      return BigInteger.valueOf(v);
+    } else if (o instanceof BigDecimal) {
+      return BigDecimal.valueOf(v);
+    } else {
+      return v;
+    }
+  }
+
+  /** Converts a double to the same type as {@code o}. */
+  private static Comparable fractional(Object o, double v) {
+    if (o instanceof Float) {
+      return (float) v;
+    } else if (o instanceof BigDecimal) {
+      return BigDecimal.valueOf(v);
+    } else {
+      return v;
+    }
+  }
+
+  /** Converts milliseconds to the same type as {@code o}. */
+  private static Comparable date(Object o, long v) {
+    if (o instanceof Timestamp) {
+      return new Timestamp(v);
+    } else if (o instanceof Time) {
+      return new Time(v);
+    } else if (o instanceof java.sql.Date) {
+      return new java.sql.Date(v);
+    } else {
+      return new java.util.Date(v);
+    }
+  }
+
+  private static void close(
+      Connection connection, Statement statement, ResultSet resultSet) {
+    if (resultSet != null) {
+      try {
+        resultSet.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+    if (statement != null) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+  }
+
+  /** Failure of a partition, passed to the consumer in place of a row. */
+  private static class Failure {
+    final Throwable e;
+
+    Failure(Throwable e) {
+      this.e = e;
+    }
+  }
+
+  /** Task that executes the statement for one range of the key, and puts the
+   * rows into a queue. */
+  private class Partition implements Runnable {
+    private final Object[] parameters;
+    private final BlockingQueue<Object> queue;
+
+    Partition(Object[] parameters, BlockingQueue<Object> queue) {
+      this.parameters = parameters;
+      this.queue = queue;
+    }
+
+    public void run() {
+      Connection connection = null;
+      PreparedStatement statement = null;
+      ResultSet resultSet = null;
+      boolean autoCommit = false;
+      try {
+        try {
+          connection = dataSource.getConnection();
+          statement = connection.prepareStatement(partitionSql);
+          if (fetchSize != 0) {
+            // Some drivers (for example PostgreSQL) honor the fetch size only
+            // within a transaction; otherwise they read all rows at once.
+            autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+              connection.setAutoCommit(false);
+            }
+            statement.setFetchSize(fetchSize);
+          }
+          for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+          }
+          resultSet = statement.executeQuery();
+          final Function0<T> rowBuilder = rowBuilderFactory.apply(resultSet);
+          while (resultSet.next()) {
+            final T row = rowBuilder.apply();
+            queue.put(row == null ? NULL : row);
+          }
+          queue.put(END);
+        } catch (InterruptedException e) {
+          // The consumer has closed the enumerator.
+          Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+          queue.put(
+              new Failure(
+                  new RuntimeException("while executing SQL [" + partitionSql
+                      + "] with parameters " + Arrays.toString(parameters),
+                      e)));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        close(null, statement, resultSet);
+        if (autoCommit) {
+          // Restore the connection's state before returning it to the pool.
+          try {
+            connection.setAutoCommit(true);
+          } catch (SQLException e) {
+            // ignore
+          }
+        }
+        close(connection, null, null);
+      }
+    }
+  }
+
+  /** Enumerator that executes the partitions concurrently and combines their
+   * rows.
+   *
+   * <p>If there is no comparator, all partitions put their rows into one
+   * queue. Otherwise each partition has its own queue, and the enumerator
+   * returns the least of the rows at the heads of the queues.</p>
+   *
+   * <p>The threads are released when all partitions have finished, or when
+   * the enumerator is closed or reset.</p> */
+  private class PartitionEnumerator implements Enumerator<T> {
+    private final List<Object[]> parametersList;
+    private ExecutorService executor;
+    private final List<BlockingQueue<Object>> queues =
+        new ArrayList<BlockingQueue<Object>>();
+    /** Queues whose head row is known, ordered by that row; used only if
+     * there is a comparator. */
+    private final PriorityQueue<Head> heads;
+    private int remaining;
+    private Object current;
+
+    PartitionEnumerator(List<Object[]> parametersList) {
+      this.parametersList = parametersList;
+      this.heads = comparator == null
+          ? null
+          : new PriorityQueue<Head>(parametersList.size());
+      start();
+    }
+
+    /** Starts a task for each partition. */
+    private void start() {
+      executor =
+          Executors.newFixedThreadPool(parametersList.size(),
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("jdbc-partition-%d")
+                  .build());
+      remaining = parametersList.size();
+      current = null;
+      queues.clear();
+      if (comparator == null) {
+        final BlockingQueue<Object> queue =
+            new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+        queues.add(queue);
+        for (Object[] parameters : parametersList) {
+          executor.execute(new Partition(parameters, queue));
+        }
+      } else {
+        heads.clear();
+        for (Object[] parameters : parametersList) {
+          final BlockingQueue<Object> queue =
+              new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+          queues.add(queue);
+          executor.execute(new Partition(parameters, queue));
+        }
+      }
+    }
+
+    /** Records that a partition has returned all of its rows. When the last
+     * partition finishes, shuts down the executor, so that its threads do not
+     * wait for the enumerator to be closed. */
+    private void finish() {
+      if (--remaining == 0) {
+        executor.shutdown();
+      }
+    }
+
+    public T current() {
+      //noinspection unchecked
+      return current == NULL ? null : (T) current;
+    }
+
+    public boolean moveNext() {
+      if (comparator == null) {
+        while (remaining > 0) {
+          final Object o = take(queues.get(0));
+          if (o == END) {
+            finish();
+          } else {
+            current = o;
+            return true;
+          }
+        }
+        return false;
+      }
+      if (heads.isEmpty() && remaining > 0) {
+        // First call. Wait for the first row of each partition.
+        for (BlockingQueue<Object> queue : queues) {
+          advance(queue);
+        }
+      }
+      if (heads.isEmpty()) {
+        return false;
+      }
+      final Head head = heads.poll();
+      current = head.row;
+      advance(head.queue);
+      return true;
+    }
+
+    /** Reads the next row from a partition's queue, and if there is one,
+     * adds it to the heads. */
+    private void advance(BlockingQueue<Object> queue) {
+      final Object o = take(queue);
+      if (o == END) {
+        finish();
+      } else {
+        heads.add(new Head(o, queue));
+      }
+    }
+
+    private Object take(BlockingQueue<Object> queue) {
+      final Object o;
+      try {
+        o = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        throw new RuntimeException(e);
+      }
+      if (o instanceof Failure) {
+        close();
+        throw (RuntimeException) ((Failure) o).e;
+      }
+      return o;
+    }
+
+    /** Abandons the current execution and executes the partition
+     * statements again, over the same ranges of the key. */
+    public void reset() {
+      close();
+      start();
+    }
+
+    public void close() {
+      // Interrupts partitions that are waiting for space in their queue;
+      // each closes its statement and returns its connection to the pool.
+      executor.shutdownNow();
+    }
+
+    /** Row at the head of a partition's queue. */
+    private class Head implements Comparable<Head> {
+      final Object row;
+      final BlockingQueue<Object> queue;
+
+      Head(Object row, BlockingQueue<Object> queue) {
+        this.row = row;
+        this.queue = queue;
+      }
+
+      public int compareTo(Head o) {
+        //noinspection unchecked
+        return comparator.compare(row == NULL ? null : (T) row,
+            o.row == NULL ? null : (T) o.row);
+      }
+    }
+  }
+}
+
+// End PartitionedResultSetEnumerable.java
@@ -24,8 +24,6 @@
 import net.hydromatic.linq4j.function.Function1;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -39,6 +37,7 @@
   private final DataSource dataSource;
   private final String sql;
   private final Function1<ResultSet, Function0<T>> rowBuilderFactory;
+  private final int fetchSize;
   private static final Logger LOGGER = Logger.getLogger(
       ResultSetEnumerable.class.getName());
 
@@ -46,11 +45,15 @@
   AUTO_ROW_BUILDER_FACTORY =
       new Function1<ResultSet, Function0<Object>>() {
         public Function0<Object> apply(final ResultSet resultSet) {
-          final ResultSetMetaData metaData;
           final int columnCount;
+          final int[] types;
           try {
-            metaData = resultSet.getMetaData();
+            final ResultSetMetaData metaData = resultSet.getMetaData();
             columnCount = metaData.getColumnCount();
+            types = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+              types[i] = metaData.getColumnType(i + 1);
+            }
           } catch (SQLException e) {
             throw new RuntimeException(e);
           }
@@ -69,20 +72,18 @@ public Object apply() {
             return (Function0) new Function0<Object[]>() {
               public Object[] apply() {
                 try {
-                  final List<Object> list = new ArrayList<Object>();
+                  final Object[] values = new Object[columnCount];
                   for (int i = 0; i < columnCount; i++) {
-                    if (metaData.getColumnType(i + 1) == Types.TIMESTAMP) {
+                    if (types[i] == Types.TIMESTAMP) {
                       long v = resultSet.getLong(i + 1);
-                      if (v == 0 && resultSet.wasNull()) {
-                        list.add(null);
-                      } else {
-                        list.add(v);
+                      if (v != 0 || !resultSet.wasNull()) {
+                        values[i] = v;
                       }
                     } else {
-                      list.add(resultSet.getObject(i + 1));
+                      values[i] = resultSet.getObject(i + 1);
                     }
                   }
-                  return list.toArray();
+                  return values;
                 } catch (SQLException e) {
                   throw new RuntimeException(e);
                 }
@@ -95,10 +96,12 @@ public Object[] apply() {
   private ResultSetEnumerable(
       DataSource dataSource,
       String sql,
-      Function1<ResultSet, Function0<T>> rowBuilderFactory) {
+      Function1<ResultSet, Function0<T>> rowBuilderFactory,
+      int fetchSize) {
     this.dataSource = dataSource;
     this.sql = sql;
     this.rowBuilderFactory = rowBuilderFactory;
+    this.fetchSize = fetchSize;
   }
 
   /** Creates an ResultSetEnumerable. */
@@ -119,15 +122,52 @@ public static <T> Enumerable<T> of(
       DataSource dataSource,
       String sql,
       Function1<ResultSet, Function0<T>> rowBuilderFactory) {
-    return new ResultSetEnumerable<T>(dataSource, sql, rowBuilderFactory);
+    return of(dataSource, sql, rowBuilderFactory, 0);
+  }
+
+  /** Executes a SQL query and returns the results as an enumerator, using a
+   * row builder to convert JDBC column values into rows, and asking the
+   * driver to fetch a given number of rows at a time.
+   *
+   * <p>If {@code fetchSize} is 0, uses the driver's default, which for some
+   * drivers (e.g. PostgreSQL, MySQL) is to read the whole result into
+   * memory. Otherwise the statement is forward-only and read-only,
+   * auto-commit is switched off while the result is read (PostgreSQL only
+   * uses a cursor inside a transaction), and the value is passed to
+   * {@link Statement#setFetchSize(int)}. For MySQL, use
+   * {@link Integer#MIN_VALUE} to stream rows one at a time.</p> */
+  public static <T> Enumerable<T> of(
+      DataSource dataSource,
+      String sql,
+      Function1<ResultSet, Function0<T>> rowBuilderFactory,
+      int fetchSize) {
+    return new ResultSetEnumerable<T>(dataSource, sql, rowBuilderFactory,
+        fetchSize);
   }
 
   public Enumerator<T> enumerator() {
     Connection connection = null;
     Statement statement = null;
+    boolean restoreAutoCommit = false;
     try {
       connection = dataSource.getConnection();
-      statement = connection.createStatement();
+      if (fetchSize == 0) {
+        statement = connection.createStatement();
+      } else {
+        if (connection.getAutoCommit()) {
+          connection.setAutoCommit(false);
+          restoreAutoCommit = true;
+        }
+        statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+            ResultSet.CONCUR_READ_ONLY);
+        try {
+          statement.setFetchSize(fetchSize);
+        } catch (SQLException e) {
+          if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Failed to set fetch size " + fetchSize + ".");
+          }
+        }
+      }
       try {
         statement.setQueryTimeout(10);
       } catch (SQLFeatureNotSupportedException e) {
@@ -138,7 +178,8 @@ public Enumerator<T> enumerator() {
       final ResultSet resultSet = statement.executeQuery(sql);
       statement = null;
       connection = null;
-      return new ResultSetEnumerator<T>(resultSet, rowBuilderFactory);
+      return new ResultSetEnumerator<T>(resultSet, rowBuilderFactory,
+          restoreAutoCommit);
     } catch (SQLException e) {
       throw new RuntimeException("while executing SQL [" + sql + "]", e);
     } finally {
@@ -151,6 +192,9 @@ public Enumerator<T> enumerator() {
       }
       if (connection != null) {
         try {
+          if (restoreAutoCommit) {
+            connection.setAutoCommit(true);
+          }
           connection.close();
         } catch (SQLException e) {
           // ignore
@@ -163,13 +207,16 @@ public Enumerator<T> enumerator() {
    * {@link ResultSet}. */
   private static class ResultSetEnumerator<T> implements Enumerator<T> {
     private final Function0<T> rowBuilder;
+    private final boolean restoreAutoCommit;
     private ResultSet resultSet;
 
     public ResultSetEnumerator(
         ResultSet resultSet,
-        Function1<ResultSet, Function0<T>> rowBuilderFactory) {
+        Function1<ResultSet, Function0<T>> rowBuilderFactory,
+        boolean restoreAutoCommit) {
       this.resultSet = resultSet;
       this.rowBuilder = rowBuilderFactory.apply(resultSet);
+      this.restoreAutoCommit = restoreAutoCommit;
     }
 
     public T current() {
@@ -195,19 +242,35 @@ public void reset() {
     public void close() {
       ResultSet savedResultSet = resultSet;
       if (savedResultSet != null) {
+        resultSet = null;
+        Connection connection = null;
         try {
-          resultSet = null;
           final Statement statement = savedResultSet.getStatement();
+          if (statement != null) {
+            connection = statement.getConnection();
+          }
           savedResultSet.close();
           if (statement != null) {
-            final Connection connection = statement.getConnection();
             statement.close();
-            if (connection != null) {
-              connection.close();
-            }
+          }
+          if (connection != null && restoreAutoCommit) {
+            // Ends the transaction that we started in order to read the
+            // result incrementally.
+            connection.setAutoCommit(true);
           }
         } catch (SQLException e) {
           // ignore
+        } finally {
+          // Close the connection even if closing the statement or ending
+          // the transaction failed; otherwise a pooled connection would
+          // never be returned.
+          if (connection != null) {
+            try {
+              connection.close();
+            } catch (SQLException e) {
+              // ignore
+            }
+          }
         }
       }
     }
@@ -217,11 +280,9 @@ public void close() {
   primitiveRowBuilderFactory(final Primitive[] primitives) {
     return new Function1<ResultSet, Function0<Object>>() {
       public Function0<Object> apply(final ResultSet resultSet) {
-        final ResultSetMetaData metaData;
         final int columnCount;
         try {
-          metaData = resultSet.getMetaData();
-          columnCount = metaData.getColumnCount();
+          columnCount = resultSet.getMetaData().getColumnCount();
         } catch (SQLException e) {
           throw new RuntimeException(e);
         }
@@ -241,11 +302,11 @@ public Object apply() {
         return (Function0) new Function0<Object[]>() {
           public Object[] apply() {
             try {
-              final List<Object> list = new ArrayList<Object>();
+              final Object[] values = new Object[columnCount];
               for (int i = 0; i < columnCount; i++) {
-                list.add(primitives[i].jdbcGet(resultSet, i + 1));
+                values[i] = primitives[i].jdbcGet(resultSet, i + 1);
               }
-              return list.toArray();
+              return values;
             } catch (SQLException e) {
               throw new RuntimeException(e);
             }
@@ -0,0 +1,473 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.avatica.ByteString;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Temporary file to which an operator writes rows that do not fit in
+ * memory, and from which it later reads them back.
+ *
+ * <p>Rows are written in a compact, tagged binary format (see
+ * {@link RowWriter}), not Java serialization. Before writing a row, call
+ * {@link #canWrite(Object)}; operators that meet a row that cannot be
+ * written must fall back to processing it in memory.</p>
+ *
+ * <p>Also holds the constants and utilities shared by the operators that
+ * spill: {@link HybridHashJoin}, {@link ExternalSort} and
+ * {@link HashAggregate}.</p>
+ */
+final class SpillFile {
+  /** Number of partitions into which the hash-based operators divide their
+   * input. Must be a power of 2. */
+  static final int PARTITION_COUNT = 16;
+
+  /** After partitioning this many times, a hash-based operator processes a
+   * partition in memory regardless of its size. This limits the damage from
+   * a key that occurs very many times. */
+  static final int MAX_DEPTH = 4;
+
+  /** Name of the operator, for temporary file names and error messages. */
+  private final String operator;
+  private File file;
+  private RowWriter writer;
+  private int count;
+
+  /** Creates a spill file. The file is not created until the first row is
+   * written. */
+  SpillFile(String operator) {
+    this.operator = operator;
+  }
+
+  /** Returns whether a row consists only of values that can be written to
+   * a spill file. */
+  static boolean canWrite(Object row) {
+    return RowWriter.canWrite(row);
+  }
+
+  /** Assigns a hash code to one of {@link #PARTITION_COUNT} partitions.
+   * Each level of recursion uses a different hash function. */
+  static int partition(int hash, int depth) {
+    int h = hash;
+    h ^= depth * 0x9E3779B9;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    return h & (PARTITION_COUNT - 1);
+  }
+
+  /** Estimates the number of bytes of heap occupied by a row. */
+  static long estimateSize(Object o) {
+    if (o == null) {
+      return 0;
+    } else if (o instanceof Object[]) {
+      final Object[] objects = (Object[]) o;
+      long size = 16 + 8 * objects.length;
+      for (Object object : objects) {
+        size += estimateSize(object);
+      }
+      return size;
+    } else if (o instanceof List) {
+      final List<?> list = (List<?>) o;
+      long size = 40 + 8 * list.size();
+      for (Object object : list) {
+        size += estimateSize(object);
+      }
+      return size;
+    } else if (o instanceof String) {
+      return 40 + 2 * ((String) o).length();
+    } else if (o instanceof BigDecimal) {
+      return 64;
+    } else if (o instanceof Number
+        || o instanceof Boolean
+        || o instanceof Character) {
+      return 16;
+    } else {
+      return 32;
+    }
+  }
+
+  /** Returns the number of rows written. */
+  int count() {
+    return count;
+  }
+
+  /** Writes a row. */
+  void write(Object row) {
+    try {
+      if (writer == null) {
+        file = File.createTempFile("optiq-" + operator, ".bin");
+        writer = new RowWriter(
+            new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file))));
+      }
+      writer.write(row);
+      ++count;
+    } catch (IOException e) {
+      throw new RuntimeException("Error while spilling " + operator
+          + " to disk", e);
+    }
+  }
+
+  /** Finishes writing. */
+  void finish() {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      writer = null;
+    }
+  }
+
+  /** Returns an enumerator over the rows written. Call {@link #finish()}
+   * first. */
+  <E> Enumerator<E> enumerator() {
+    return new RunEnumerator<E>(file, count);
+  }
+
+  /** Returns an enumerable over the rows written. It remains valid until
+   * the file is closed. Call {@link #finish()} first. */
+  <E> Enumerable<E> asEnumerable() {
+    final File file = this.file;
+    final int count = this.count;
+    return new AbstractEnumerable<E>() {
+      public Enumerator<E> enumerator() {
+        return new RunEnumerator<E>(file, count);
+      }
+    };
+  }
+
+  /** Closes the stream, if open, and deletes the file. */
+  void close() {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        // ignore
+      }
+      writer = null;
+    }
+    if (file != null) {
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+      file = null;
+    }
+    count = 0;
+  }
+
+  /** Enumerator that reads rows from a spill file.
+   *
+   * @param <E> Row type */
+  static class RunEnumerator<E> implements Enumerator<E> {
+    private final File file;
+    private final int count;
+    private RowReader reader;
+    private int i;
+    private E current;
+
+    RunEnumerator(File file, int count) {
+      this.file = file;
+      this.count = count;
+    }
+
+    public E current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      if (i >= count) {
+        close();
+        return false;
+      }
+      try {
+        if (reader == null) {
+          reader = new RowReader(
+              new DataInputStream(
+                  new BufferedInputStream(new FileInputStream(file))));
+        }
+        //noinspection unchecked
+        current = (E) reader.read();
+        ++i;
+        return true;
+      } catch (IOException e) {
+        throw new RuntimeException("Error while reading spilled rows", e);
+      }
+    }
+
+    public void reset() {
+      close();
+      i = 0;
+    }
+
+    public void close() {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          // ignore
+        }
+        reader = null;
+      }
+    }
+  }
+
+  /** Type tags of the binary row format. */
+  private static final byte NULL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte BYTE = 3;
+  private static final byte SHORT = 4;
+  private static final byte INT = 5;
+  private static final byte LONG = 6;
+  private static final byte FLOAT = 7;
+  private static final byte DOUBLE = 8;
+  private static final byte CHAR = 9;
+  private static final byte STRING = 10;
+  private static final byte DECIMAL = 11;
+  private static final byte BYTES = 12;
+  private static final byte DATE = 13;
+  private static final byte TIME = 14;
+  private static final byte TIMESTAMP = 15;
+  private static final byte ARRAY = 16;
+  private static final byte LIST = 17;
+
+  /** Writes rows in a compact binary format. Each value is a one-byte tag
+   * followed by its representation; arrays and lists are a tag, a length,
+   * and their elements. */
+  static class RowWriter {
+    private final DataOutputStream out;
+
+    RowWriter(DataOutputStream out) {
+      this.out = out;
+    }
+
+    /** Returns whether a row consists only of values that
+     * {@link #write(Object)} can handle. */
+    static boolean canWrite(Object o) {
+      if (o instanceof Object[]) {
+        for (Object e : (Object[]) o) {
+          if (!canWrite(e)) {
+            return false;
+          }
+        }
+        return true;
+      }
+      if (o instanceof List) {
+        for (Object e : (List) o) {
+          if (!canWrite(e)) {
+            return false;
+          }
+        }
+        return true;
+      }
+      return o == null
+          || o instanceof Boolean
+          || o instanceof Byte
+          || o instanceof Short
+          || o instanceof Integer
+          || o instanceof Long
+          || o instanceof Float
+          || o instanceof Double
+          || o instanceof Character
+          || o instanceof String
+          || o instanceof BigDecimal
+          || o instanceof ByteString
+          || o instanceof java.sql.Date
+          || o instanceof java.sql.Time
+          || o instanceof java.sql.Timestamp;
+    }
+
+    void write(Object o) throws IOException {
+      if (o == null) {
+        out.writeByte(NULL);
+      } else if (o instanceof Integer) {
+        out.writeByte(INT);
+        out.writeInt((Integer) o);
+      } else if (o instanceof String) {
+        writeString((String) o);
+      } else if (o instanceof Object[]) {
+        final Object[] objects = (Object[]) o;
+        out.writeByte(ARRAY);
+        out.writeInt(objects.length);
+        for (Object object : objects) {
+          write(object);
+        }
+      } else if (o instanceof List) {
+        final List list = (List) o;
+        out.writeByte(LIST);
+        out.writeInt(list.size());
+        for (Object object : list) {
+          write(object);
+        }
+      } else if (o instanceof Long) {
+        out.writeByte(LONG);
+        out.writeLong((Long) o);
+      } else if (o instanceof Double) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) o);
+      } else if (o instanceof Boolean) {
+        out.writeByte((Boolean) o ? TRUE : FALSE);
+      } else if (o instanceof Byte) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) o);
+      } else if (o instanceof Short) {
+        out.writeByte(SHORT);
+        out.writeShort((Short) o);
+      } else if (o instanceof Float) {
+        out.writeByte(FLOAT);
+        out.writeFloat((Float) o);
+      } else if (o instanceof Character) {
+        out.writeByte(CHAR);
+        out.writeChar((Character) o);
+      } else if (o instanceof BigDecimal) {
+        final BigDecimal bd = (BigDecimal) o;
+        out.writeByte(DECIMAL);
+        out.writeInt(bd.scale());
+        writeBytes(bd.unscaledValue().toByteArray());
+      } else if (o instanceof ByteString) {
+        out.writeByte(BYTES);
+        writeBytes(((ByteString) o).getBytes());
+      } else if (o instanceof java.sql.Date) {
+        out.writeByte(DATE);
+        out.writeLong(((java.sql.Date) o).getTime());
+      } else if (o instanceof java.sql.Time) {
+        out.writeByte(TIME);
+        out.writeLong(((java.sql.Time) o).getTime());
+      } else if (o instanceof java.sql.Timestamp) {
+        final java.sql.Timestamp timestamp = (java.sql.Timestamp) o;
+        out.writeByte(TIMESTAMP);
+        out.writeLong(timestamp.getTime());
+        out.writeInt(timestamp.getNanos());
+      } else {
+        throw new RuntimeException("Cannot spill row containing "
+            + o.getClass() + " to disk");
+      }
+    }
+
+    private void writeString(String s) throws IOException {
+      out.writeByte(STRING);
+      // DataOutputStream.writeUTF is limited to 64KB, so write the length
+      // and chars ourselves.
+      out.writeInt(s.length());
+      out.writeChars(s);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /** Reads rows written by a {@link RowWriter}. */
+  static class RowReader {
+    private final DataInputStream in;
+
+    RowReader(DataInputStream in) {
+      this.in = in;
+    }
+
+    Object read() throws IOException {
+      final byte tag = in.readByte();
+      switch (tag) {
+      case NULL:
+        return null;
+      case FALSE:
+        return Boolean.FALSE;
+      case TRUE:
+        return Boolean.TRUE;
+      case BYTE:
+        return in.readByte();
+      case SHORT:
+        return in.readShort();
+      case INT:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case FLOAT:
+        return in.readFloat();
+      case DOUBLE:
+        return in.readDouble();
+      case CHAR:
+        return in.readChar();
+      case STRING:
+        final int length = in.readInt();
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+          chars[i] = in.readChar();
+        }
+        return new String(chars);
+      case DECIMAL:
+        final int scale = in.readInt();
+        return new BigDecimal(new BigInteger(readBytes()), scale);
+      case BYTES:
+        return new ByteString(readBytes());
+      case DATE:
+        return new java.sql.Date(in.readLong());
+      case TIME:
+        return new java.sql.Time(in.readLong());
+      case TIMESTAMP:
+        final java.sql.Timestamp timestamp =
+            new java.sql.Timestamp(in.readLong());
+        timestamp.setNanos(in.readInt());
+        return timestamp;
+      case ARRAY:
+        final Object[] objects = new Object[in.readInt()];
+        for (int i = 0; i < objects.length; i++) {
+          objects[i] = read();
+        }
+        return objects;
+      case LIST:
+        // Rows of format JavaRowFormat.LIST are created by FlatLists.of;
+        // create the same kind of list, so that it is comparable.
+        final Object[] elements = new Object[in.readInt()];
+        for (int i = 0; i < elements.length; i++) {
+          elements[i] = read();
+        }
+        return FlatLists.of(elements);
+      default:
+        throw new IllegalStateException("unknown tag " + tag);
+      }
+    }
+
+    private byte[] readBytes() throws IOException {
+      final byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return bytes;
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+  }
+}
+
+// End SpillFile.java
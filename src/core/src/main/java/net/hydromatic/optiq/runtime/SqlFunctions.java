@@ -27,14 +27,19 @@
 
 import net.hydromatic.optiq.DataContext;
 
+import org.eigenbase.util.Pair;
 import org.eigenbase.util14.DateTimeUtil;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 import java.math.*;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.DecimalFormat;
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * Helper methods to implement SQL functions in generated code.
@@ -66,6 +71,32 @@ public Enumerable<Object> apply(List<Object> list) {
         }
       };
 
+  /** Matchers for recently used {@code LIKE} patterns, keyed by pattern and
+   * escape. Constant patterns do not need it, because generated code
+   * creates their matcher once. */
+  private static final LoadingCache<Pair<String, String>, Like.Matcher>
+  LIKE_MATCHERS =
+      CacheBuilder.newBuilder()
+          .maximumSize(256)
+          .build(
+              new CacheLoader<Pair<String, String>, Like.Matcher>() {
+                public Like.Matcher load(Pair<String, String> key) {
+                  return Like.likeMatcher(key.left, key.right);
+                }
+              });
+
+  /** Matchers for recently used {@code SIMILAR TO} patterns. */
+  private static final LoadingCache<Pair<String, String>, Like.Matcher>
+  SIMILAR_MATCHERS =
+      CacheBuilder.newBuilder()
+          .maximumSize(256)
+          .build(
+              new CacheLoader<Pair<String, String>, Like.Matcher>() {
+                public Like.Matcher load(Pair<String, String> key) {
+                  return Like.similarMatcher(key.left, key.right);
+                }
+              });
+
   private SqlFunctions() {
   }
 
@@ -268,26 +299,59 @@ public static ByteString overlay(ByteString s, ByteString r, int start,
 
   /** SQL {@code LIKE} function. */
   public static boolean like(String s, String pattern) {
-    final String regex = Like.sqlToRegexLike(pattern, null);
-    return Pattern.matches(regex, s);
+    return likeMatcher(pattern).matches(s);
   }
 
   /** SQL {@code LIKE} function with escape. */
   public static boolean like(String s, String pattern, String escape) {
-    final String regex = Like.sqlToRegexLike(pattern, escape);
-    return Pattern.matches(regex, s);
+    return likeMatcher(pattern, escape).matches(s);
   }
 
   /** SQL {@code SIMILAR} function. */
   public static boolean similar(String s, String pattern) {
-    final String regex = Like.sqlToRegexSimilar(pattern, null);
-    return Pattern.matches(regex, s);
+    return similarMatcher(pattern).matches(s);
   }
 
   /** SQL {@code SIMILAR} function with escape. */
   public static boolean similar(String s, String pattern, String escape) {
-    final String regex = Like.sqlToRegexSimilar(pattern, escape);
-    return Pattern.matches(regex, s);
+    return similarMatcher(pattern, escape).matches(s);
+  }
+
+  /** Returns a matcher for a SQL {@code LIKE} pattern.
+   *
+   * <p>If the pattern is constant, generated code calls this method once,
+   * not once per row.</p> */
+  public static Like.Matcher likeMatcher(String pattern) {
+    return matcher(LIKE_MATCHERS, pattern, null);
+  }
+
+  /** Returns a matcher for a SQL {@code LIKE} pattern with escape. */
+  public static Like.Matcher likeMatcher(String pattern, String escape) {
+    return matcher(LIKE_MATCHERS, pattern, escape);
+  }
+
+  /** Returns a matcher for a SQL {@code SIMILAR} pattern. */
+  public static Like.Matcher similarMatcher(String pattern) {
+    return matcher(SIMILAR_MATCHERS, pattern, null);
+  }
+
+  /** Returns a matcher for a SQL {@code SIMILAR} pattern with escape. */
+  public static Like.Matcher similarMatcher(String pattern, String escape) {
+    return matcher(SIMILAR_MATCHERS, pattern, escape);
+  }
+
+  private static Like.Matcher matcher(
+      LoadingCache<Pair<String, String>, Like.Matcher> cache,
+      String pattern, String escape) {
+    try {
+      return cache.getUnchecked(Pair.of(pattern, escape));
+    } catch (UncheckedExecutionException e) {
+      // Rethrow the original error, such as an invalid escape sequence.
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
   }
 
   // =
@@ -16,6 +16,7 @@
  */
 package net.hydromatic.optiq.tools;
 
+import net.hydromatic.optiq.impl.clone.ArrayTableScanRule;
 import net.hydromatic.optiq.prepare.OptiqPrepareImpl;
 import net.hydromatic.optiq.rules.java.JavaRules;
 
@@ -67,6 +68,12 @@ public Program apply(RuleSet ruleSet) {
   public static final Program CALC_PROGRAM =
       hep(CALC_RULES, true, new DefaultRelMetadataProvider());
 
+  /** Program that converts calcs on in-memory tables to columnar scans.
+   * Runs after {@link #CALC_PROGRAM}. */
+  public static final Program COLUMNAR_PROGRAM =
+      hep(ImmutableList.<RelOptRule>of(ArrayTableScanRule.INSTANCE), true,
+          new DefaultRelMetadataProvider());
+
   public static final ImmutableSet<RelOptRule> RULE_SET =
       ImmutableSet.of(
           JavaRules.ENUMERABLE_JOIN_RULE,
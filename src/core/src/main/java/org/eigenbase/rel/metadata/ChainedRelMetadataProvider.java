@@ -87,6 +87,11 @@ public Metadata apply(RelNode input) {
     }
   }
 
+  /** Returns the underlying providers, in order of precedence. */
+  ImmutableList<RelMetadataProvider> providers() {
+    return providers;
+  }
+
   /** Creates a chain. */
   public static RelMetadataProvider of(List<RelMetadataProvider> list) {
     return new ChainedRelMetadataProvider(ImmutableList.copyOf(list));
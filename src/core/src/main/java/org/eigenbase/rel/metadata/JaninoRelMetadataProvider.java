@@ -0,0 +1,744 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigenbase.rel.metadata;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eigenbase.rel.RelNode;
+import org.eigenbase.relopt.RelOptPlanner;
+import org.eigenbase.trace.EigenbaseTrace;
+import org.eigenbase.util.Pair;
+
+import net.hydromatic.linq4j.expressions.Primitive;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.codehaus.janino.ClassBodyEvaluator;
+
+/**
+ * Implementation of the {@link RelMetadataProvider} interface that dispatches
+ * metadata methods to handlers via generated code.
+ *
+ * <p>For each kind of metadata, generates a class that implements the
+ * metadata interface. Each method of that class calls, in order of
+ * precedence, the handlers of the underlying providers. A handler supplied
+ * by a {@link ReflectiveRelMetadataProvider} is called directly, via a
+ * switch on an ordinal that identifies the handler for the class of the
+ * relational expression; other providers are called via
+ * {@link RelMetadataProvider#apply}, as before. Thus a metadata request
+ * creates one small object, rather than a {@link java.lang.reflect.Proxy},
+ * and invokes no methods by reflection.</p>
+ *
+ * <p>Generated classes depend only on the structure of the providers, so
+ * they are shared between instances, and are compiled once per JVM.</p>
+ *
+ * <p>If created with a {@link Memo}, the generated code caches values; see
+ * {@link CachingRelMetadataProvider}.</p>
+ */
+public class JaninoRelMetadataProvider implements RelMetadataProvider {
+  private static final Logger LOGGER = EigenbaseTrace.getPlannerTracer();
+
+  /** Stands, in the key of a generated class, for a provider that is called
+   * via {@link RelMetadataProvider#apply}. */
+  private static final Object OPAQUE = "opaque";
+
+  /** Stands, in the map of generated classes, for a kind of metadata for
+   * which code cannot be generated. */
+  private static final Object FAILED = "failed";
+
+  /** Generated classes, keyed by metadata class and the structure of the
+   * providers. A key holds the handler methods of each provider, not the
+   * provider itself, so the cache does not keep providers (or the planners
+   * and statistics that they reference) alive. Values are soft, so that a
+   * class that is no longer used, and its key, can be collected. */
+  private static final Cache<List<Object>, Object> CLASSES =
+      CacheBuilder.newBuilder().softValues().build();
+
+  /** Number of classes generated; used to make class names unique. */
+  private static int classCount;
+
+  /** Identifiers of metadata methods, used as keys in {@link Memo}. */
+  private static final Map<Method, Integer> METHOD_IDS =
+      new HashMap<Method, Integer>();
+
+  /** Provider that wraps the default provider. It has no memo, and so can
+   * be shared by all clusters. */
+  public static final JaninoRelMetadataProvider DEFAULT =
+      of(new DefaultRelMetadataProvider());
+
+  //~ Instance fields --------------------------------------------------------
+
+  private final RelMetadataProvider provider;
+  private final ImmutableList<RelMetadataProvider> leaves;
+  private final Memo memo;
+  private final LoadingCache<
+      Pair<Class<? extends RelNode>, Class<? extends Metadata>>,
+      Function<RelNode, Metadata>> functions;
+
+  //~ Constructors -----------------------------------------------------------
+
+  /**
+   * Creates a JaninoRelMetadataProvider.
+   *
+   * @param provider Underlying provider
+   * @param memo Cache of metadata values, or null
+   */
+  protected JaninoRelMetadataProvider(RelMetadataProvider provider,
+      Memo memo) {
+    this.provider = provider;
+    this.memo = memo;
+    final List<RelMetadataProvider> list =
+        new ArrayList<RelMetadataProvider>();
+    flatten(provider, list);
+    this.leaves = ImmutableList.copyOf(list);
+    this.functions = CacheBuilder.newBuilder().build(
+        new CacheLoader<
+            Pair<Class<? extends RelNode>, Class<? extends Metadata>>,
+            Function<RelNode, Metadata>>() {
+          @Override
+          public Function<RelNode, Metadata> load(
+              Pair<Class<? extends RelNode>, Class<? extends Metadata>> key) {
+            final Function<RelNode, Metadata> function =
+                create(key.left, key.right);
+            // Return DUMMY, not null, so the cache knows to not ask again.
+            return function != null ? function : MetadataFactoryImpl.DUMMY;
+          }
+        });
+  }
+
+  //~ Methods ----------------------------------------------------------------
+
+  /** Returns a provider that dispatches to {@code provider} via generated
+   * code. */
+  public static JaninoRelMetadataProvider of(RelMetadataProvider provider) {
+    if (provider instanceof JaninoRelMetadataProvider) {
+      return (JaninoRelMetadataProvider) provider;
+    }
+    return new JaninoRelMetadataProvider(provider, null);
+  }
+
+  /** Expands chains into the list of providers that they consult. A
+   * provider that has a memo is kept whole, so that its values are
+   * cached. */
+  private static void flatten(RelMetadataProvider provider,
+      List<RelMetadataProvider> list) {
+    if (provider instanceof ChainedRelMetadataProvider) {
+      for (RelMetadataProvider p
+          : ((ChainedRelMetadataProvider) provider).providers()) {
+        flatten(p, list);
+      }
+    } else if (provider instanceof JaninoRelMetadataProvider
+        && ((JaninoRelMetadataProvider) provider).memo == null) {
+      flatten(((JaninoRelMetadataProvider) provider).provider, list);
+    } else {
+      list.add(provider);
+    }
+  }
+
+  public Function<RelNode, Metadata> apply(Class<? extends RelNode> relClass,
+      Class<? extends Metadata> metadataClass) {
+    try {
+      final Function<RelNode, Metadata> function =
+          functions.get(
+              Pair.<Class<? extends RelNode>, Class<? extends Metadata>>of(
+                  relClass, metadataClass));
+      return function == MetadataFactoryImpl.DUMMY ? null : function;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw (Error) e.getCause();
+      }
+    }
+  }
+
+  /** Creates a function that yields metadata of a given kind for
+   * relational expressions of a given class. */
+  private Function<RelNode, Metadata> create(
+      Class<? extends RelNode> relClass,
+      Class<? extends Metadata> metadataClass) {
+    final List<Object> key = new ArrayList<Object>();
+    key.add(metadataClass);
+    final List<Object> targets = new ArrayList<Object>();
+    final List<Integer> dispatch = new ArrayList<Integer>();
+    final List<Function<RelNode, Metadata>> functionList =
+        new ArrayList<Function<RelNode, Metadata>>();
+    boolean found = false;
+    for (RelMetadataProvider leaf : leaves) {
+      final ReflectiveRelMetadataProvider reflective =
+          leaf instanceof ReflectiveRelMetadataProvider
+              ? (ReflectiveRelMetadataProvider) leaf
+              : null;
+      if (reflective != null
+          && reflective.metadataClass() != metadataClass) {
+        // Provides a different kind of metadata; will always return null.
+        continue;
+      }
+      final Function<RelNode, Metadata> function =
+          leaf.apply(relClass, metadataClass);
+      found |= function != null;
+      functionList.add(function);
+      if (reflective != null && canCall(reflective)) {
+        key.add(Pair.of(reflective.method, reflective.handlers));
+        targets.add(reflective.target);
+        dispatch.add(reflective.handlerIndex(relClass));
+      } else {
+        key.add(OPAQUE);
+        targets.add(null);
+        dispatch.add(-1);
+      }
+    }
+    if (!found) {
+      return null;
+    }
+    final Class clazz = generatedClass(key);
+    if (clazz == null) {
+      // Cannot generate code. Call the providers the old way, but cache
+      // values in the memo, as generated code would.
+      final Function<RelNode, Metadata> function =
+          provider.apply(relClass, metadataClass);
+      return function == null || memo == null
+          ? function
+          : memoize(function, metadataClass, memo);
+    }
+    final GeneratedMetadata prototype;
+    try {
+      prototype = (GeneratedMetadata) clazz.newInstance();
+    } catch (InstantiationException e) {
+      throw new RuntimeException(e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+    prototype.metadataClass = metadataClass;
+    prototype.targets = targets.toArray();
+    prototype.dispatch = new int[dispatch.size()];
+    for (int i = 0; i < prototype.dispatch.length; i++) {
+      prototype.dispatch[i] = dispatch.get(i);
+    }
+    prototype.functions =
+        functionList.toArray(new Function[functionList.size()]);
+    prototype.memo = memo;
+    return new Function<RelNode, Metadata>() {
+      public Metadata apply(RelNode rel) {
+        return prototype.bind(rel);
+      }
+    };
+  }
+
+  /** Wraps a function so that the metadata objects it returns consult a
+   * memo before calling the underlying metadata. */
+  private static Function<RelNode, Metadata> memoize(
+      final Function<RelNode, Metadata> function,
+      final Class<? extends Metadata> metadataClass, final Memo memo) {
+    final Map<Method, Integer> methodIds = methodIds(metadataClass);
+    return new Function<RelNode, Metadata>() {
+      public Metadata apply(RelNode rel) {
+        final Metadata metadata = function.apply(rel);
+        if (metadata == null) {
+          return null;
+        }
+        return (Metadata) Proxy.newProxyInstance(
+            metadataClass.getClassLoader(),
+            new Class[] {metadataClass},
+            new MemoInvocationHandler(metadata, methodIds, memo));
+      }
+    };
+  }
+
+  /** Returns whether generated code can call the handlers of a reflective
+   * provider directly. */
+  private static boolean canCall(ReflectiveRelMetadataProvider provider) {
+    if (provider.target == null || provider.handlers.isEmpty()) {
+      return false;
+    }
+    for (Method handler : provider.handlers) {
+      if (!isPublic(handler.getDeclaringClass())
+          || handler.getExceptionTypes().length > 0) {
+        return false;
+      }
+      for (Class<?> parameterType : handler.getParameterTypes()) {
+        if (!isPublic(parameterType)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Returns whether a class can be named in generated code. */
+  private static boolean isPublic(Class<?> clazz) {
+    while (clazz.isArray()) {
+      clazz = clazz.getComponentType();
+    }
+    for (Class<?> c = clazz; c != null; c = c.getEnclosingClass()) {
+      if (!c.isPrimitive() && !Modifier.isPublic(c.getModifiers())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the generated class for a given metadata class and list of
+   * providers, generating it if necessary; or null if code cannot be
+   * generated. */
+  private static synchronized Class generatedClass(List<Object> key) {
+    Object o = CLASSES.getIfPresent(key);
+    if (o == null) {
+      try {
+        o = compile(key);
+      } catch (Exception e) {
+        LOGGER.log(Level.FINE, "Cannot generate metadata handler for "
+            + key, e);
+        o = FAILED;
+      }
+      CLASSES.put(ImmutableList.copyOf(key), o);
+    }
+    return o == FAILED ? null : (Class) o;
+  }
+
+  private static Class compile(List<Object> key) throws Exception {
+    @SuppressWarnings("unchecked")
+    final Class<? extends Metadata> metadataClass =
+        (Class<? extends Metadata>) key.get(0);
+    if (!isPublic(metadataClass)) {
+      throw new IllegalArgumentException("not public: " + metadataClass);
+    }
+    final String className =
+        "GeneratedMetadata_" + metadataClass.getSimpleName() + "_"
+        + classCount++;
+    final StringBuilder buf = new StringBuilder();
+    buf.append("public ")
+        .append(GeneratedMetadata.class.getCanonicalName())
+        .append(" create() {\n")
+        .append("  return new ").append(className).append("();\n")
+        .append("}\n");
+    int k = 0;
+    for (Method method : metadataClass.getMethods()) {
+      if (method.getDeclaringClass() == Metadata.class) {
+        continue;
+      }
+      generateMethod(buf, metadataClass, method, k++,
+          key.subList(1, key.size()));
+    }
+    final ClassBodyEvaluator cbe = new ClassBodyEvaluator();
+    cbe.setClassName(className);
+    cbe.setExtendedClass(GeneratedMetadata.class);
+    cbe.setImplementedInterfaces(new Class[] {metadataClass});
+    cbe.setParentClassLoader(metadataClass.getClassLoader());
+    cbe.cook(buf.toString());
+    return cbe.getClazz();
+  }
+
+  /** Generates a metadata method, which consults the memo, and a private
+   * method that calls the handlers. */
+  private static void generateMethod(StringBuilder buf,
+      Class<? extends Metadata> metadataClass, Method method, int k,
+      List<Object> leaves) {
+    final Class<?> returnType = method.getReturnType();
+    if (returnType.isPrimitive()) {
+      // Handlers signal "don't know" by returning null.
+      throw new IllegalArgumentException("primitive return: " + method);
+    }
+    final String returnName = returnType.getCanonicalName();
+    final Class<?>[] parameterTypes = method.getParameterTypes();
+    final StringBuilder params = new StringBuilder();
+    final StringBuilder args = new StringBuilder();
+    final List<String> boxedArgs = new ArrayList<String>();
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (i > 0) {
+        params.append(", ");
+        args.append(", ");
+      }
+      params.append(parameterTypes[i].getCanonicalName())
+          .append(" a").append(i);
+      args.append("a").append(i);
+      boxedArgs.add(parameterTypes[i].isPrimitive()
+          ? Primitive.of(parameterTypes[i]).boxClass.getName()
+            + ".valueOf(a" + i + ")"
+          : "a" + i);
+    }
+    final String arg0;
+    final String arg1;
+    switch (boxedArgs.size()) {
+    case 0:
+      arg0 = "null";
+      arg1 = "null";
+      break;
+    case 1:
+      arg0 = boxedArgs.get(0);
+      arg1 = "null";
+      break;
+    case 2:
+      arg0 = boxedArgs.get(0);
+      arg1 = boxedArgs.get(1);
+      break;
+    default:
+      arg0 = "java.util.Arrays.asList(new Object[] {"
+          + join(boxedArgs) + "})";
+      arg1 = "null";
+    }
+    final String impl = "m" + k + "_";
+    buf.append("public ").append(returnName).append(" ")
+        .append(method.getName()).append("(").append(params).append(") {\n")
+        .append("  if (memo == null) {\n")
+        .append("    return ").append(impl).append("(").append(args)
+        .append(");\n")
+        .append("  }\n")
+        .append("  final long ts = memo.timestamp(rel);\n")
+        .append("  final Object o = memo.get(").append(methodId(method))
+        .append(", rel, ").append(arg0).append(", ").append(arg1)
+        .append(", ts);\n")
+        .append("  if (o != null) {\n")
+        .append("    return (").append(returnName).append(") o;\n")
+        .append("  }\n")
+        .append("  final ").append(returnName).append(" v = ").append(impl)
+        .append("(").append(args).append(");\n")
+        .append("  memo.put(").append(methodId(method)).append(", rel, ")
+        .append(arg0).append(", ").append(arg1).append(", ts, v);\n")
+        .append("  return v;\n")
+        .append("}\n");
+
+    buf.append("private ").append(returnName).append(" ").append(impl)
+        .append("(").append(params).append(") {\n")
+        .append("  ").append(returnName).append(" v;\n");
+    for (int i = 0; i < leaves.size(); i++) {
+      final Object leaf = leaves.get(i);
+      if (leaf instanceof Pair && method.equals(((Pair) leaf).left)) {
+        @SuppressWarnings("unchecked")
+        final List<Method> handlers = (List<Method>) ((Pair) leaf).right;
+        buf.append("  switch (dispatch[").append(i).append("]) {\n");
+        for (int j = 0; j < handlers.size(); j++) {
+          final Method handler = handlers.get(j);
+          buf.append("  case ").append(j).append(":\n")
+              .append("    v = ((")
+              .append(handler.getDeclaringClass().getCanonicalName())
+              .append(") targets[").append(i).append("]).")
+              .append(handler.getName()).append("((")
+              .append(handler.getParameterTypes()[0].getCanonicalName())
+              .append(") rel");
+          if (args.length() > 0) {
+            buf.append(", ").append(args);
+          }
+          buf.append(");\n")
+              .append("    if (v != null) {\n")
+              .append("      return v;\n")
+              .append("    }\n")
+              .append("    break;\n");
+        }
+        buf.append("  }\n");
+      } else {
+        // Provider is opaque, or is reflective but does not implement this
+        // method; call it via its function.
+        final String md = "md" + i;
+        buf.append("  if (functions[").append(i).append("] != null) {\n")
+            .append("    final ").append(Metadata.class.getCanonicalName())
+            .append(" ").append(md).append(" = (")
+            .append(Metadata.class.getCanonicalName())
+            .append(") functions[").append(i).append("].apply(rel);\n")
+            .append("    if (").append(md).append(" != null) {\n")
+            .append("      v = ((").append(metadataClass.getCanonicalName())
+            .append(") ").append(md).append(").").append(method.getName())
+            .append("(").append(args).append(");\n")
+            .append("      if (v != null) {\n")
+            .append("        return v;\n")
+            .append("      }\n")
+            .append("    }\n")
+            .append("  }\n");
+      }
+    }
+    buf.append("  return null;\n")
+        .append("}\n");
+  }
+
+  private static String join(List<String> list) {
+    final StringBuilder buf = new StringBuilder();
+    for (String s : list) {
+      if (buf.length() > 0) {
+        buf.append(", ");
+      }
+      buf.append(s);
+    }
+    return buf.toString();
+  }
+
+  /** Returns the identifier of a metadata method. Called while holding the
+   * lock on this class. */
+  private static int methodId(Method method) {
+    Integer id = METHOD_IDS.get(method);
+    if (id == null) {
+      id = METHOD_IDS.size();
+      METHOD_IDS.put(method, id);
+    }
+    return id;
+  }
+
+  /** Returns the identifiers of the methods of a kind of metadata. */
+  private static synchronized Map<Method, Integer> methodIds(
+      Class<? extends Metadata> metadataClass) {
+    final ImmutableMap.Builder<Method, Integer> builder =
+        ImmutableMap.builder();
+    for (Method method : metadataClass.getMethods()) {
+      if (method.getDeclaringClass() != Metadata.class) {
+        builder.put(method, methodId(method));
+      }
+    }
+    return builder.build();
+  }
+
+  //~ Inner Classes ----------------------------------------------------------
+
+  /** Base class for generated metadata classes.
+   *
+   * <p>A prototype instance, created when a provider is asked for a
+   * particular kind of metadata for a particular class of relational
+   * expression, holds the handlers to call; each request for metadata copies
+   * the prototype and binds it to a relational expression.</p> */
+  public abstract static class GeneratedMetadata implements Metadata {
+    protected Class<? extends Metadata> metadataClass;
+    protected RelNode rel;
+    /** Objects whose methods implement the metadata, per provider. */
+    protected Object[] targets;
+    /** Ordinal of the handler to call, per provider, or -1. */
+    protected int[] dispatch;
+    /** Function to call, per provider that has no {@link #targets target};
+     * null if the provider does not supply this metadata. */
+    protected Function[] functions;
+    protected Memo memo;
+
+    /** Creates an empty instance of the generated class. */
+    protected abstract GeneratedMetadata create();
+
+    GeneratedMetadata bind(RelNode rel) {
+      final GeneratedMetadata metadata = create();
+      metadata.metadataClass = metadataClass;
+      metadata.rel = rel;
+      metadata.targets = targets;
+      metadata.dispatch = dispatch;
+      metadata.functions = functions;
+      metadata.memo = memo;
+      return metadata;
+    }
+
+    public RelNode rel() {
+      return rel;
+    }
+
+    @Override
+    public String toString() {
+      return metadataClass.getSimpleName() + "(" + rel + ")";
+    }
+  }
+
+  /** Invocation handler for metadata that could not be generated. Caches
+   * values in a {@link Memo}, under the same keys as generated code. */
+  private static class MemoInvocationHandler implements InvocationHandler {
+    private final Metadata metadata;
+    private final Map<Method, Integer> methodIds;
+    private final Memo memo;
+
+    MemoInvocationHandler(Metadata metadata, Map<Method, Integer> methodIds,
+        Memo memo) {
+      this.metadata = metadata;
+      this.methodIds = methodIds;
+      this.memo = memo;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      final Integer methodId = methodIds.get(method);
+      if (methodId == null) {
+        // Not a metadata method; for example, rel() or toString().
+        return call(method, args);
+      }
+      final Object arg0;
+      final Object arg1;
+      switch (args == null ? 0 : args.length) {
+      case 0:
+        arg0 = null;
+        arg1 = null;
+        break;
+      case 1:
+        arg0 = args[0];
+        arg1 = null;
+        break;
+      case 2:
+        arg0 = args[0];
+        arg1 = args[1];
+        break;
+      default:
+        arg0 = Arrays.asList(args);
+        arg1 = null;
+      }
+      final RelNode rel = metadata.rel();
+      final long ts = memo.timestamp(rel);
+      final Object o = memo.get(methodId, rel, arg0, arg1, ts);
+      if (o != null) {
+        return o;
+      }
+      final Object v = call(method, args);
+      memo.put(methodId, rel, arg0, arg1, ts, v);
+      return v;
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(metadata, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  /** Cache of metadata values, belonging to a planner.
+   *
+   * <p>A value is keyed by the metadata method, the id of the relational
+   * expression, and up to two arguments, and is valid while the planner's
+   * {@link RelOptPlanner#getRelMetadataTimestamp timestamp} for the
+   * relational expression is unchanged. Keys are held in parallel arrays of
+   * an open-addressing hash table, so a lookup allocates no objects. Null
+   * values are not cached.</p>
+   *
+   * <p>Not thread-safe.</p> */
+  public static class Memo {
+    private final RelOptPlanner planner;
+    private int[] methodIds;
+    private int[] relIds;
+    private Object[] args0;
+    private Object[] args1;
+    private long[] timestamps;
+    private Object[] values;
+    private int size;
+
+    public Memo(RelOptPlanner planner) {
+      this.planner = planner;
+      allocate(64);
+    }
+
+    private void allocate(int capacity) {
+      methodIds = new int[capacity];
+      relIds = new int[capacity];
+      args0 = new Object[capacity];
+      args1 = new Object[capacity];
+      timestamps = new long[capacity];
+      values = new Object[capacity];
+    }
+
+    /** Returns the timestamp of a relational expression. */
+    public long timestamp(RelNode rel) {
+      return planner.getRelMetadataTimestamp(rel);
+    }
+
+    /** Returns a cached value, or null if there is no value or it was
+     * computed at a different timestamp. */
+    public Object get(int methodId, RelNode rel, Object arg0, Object arg1,
+        long timestamp) {
+      final int slot = find(methodId, rel.getId(), arg0, arg1);
+      return slot >= 0 && timestamps[slot] == timestamp
+          ? values[slot]
+          : null;
+    }
+
+    /** Caches a value. Does nothing if the value is null. */
+    public void put(int methodId, RelNode rel, Object arg0, Object arg1,
+        long timestamp, Object value) {
+      if (value == null) {
+        return;
+      }
+      final int relId = rel.getId();
+      int slot = find(methodId, relId, arg0, arg1);
+      if (slot < 0) {
+        if ((size + 1) * 2 > values.length) {
+          resize(values.length * 2);
+          slot = find(methodId, relId, arg0, arg1);
+        }
+        slot = -1 - slot;
+        methodIds[slot] = methodId;
+        relIds[slot] = relId;
+        args0[slot] = arg0;
+        args1[slot] = arg1;
+        ++size;
+      }
+      timestamps[slot] = timestamp;
+      values[slot] = value;
+    }
+
+    /** Finds the slot of a key, or returns {@code -1 - slot} where slot is
+     * the empty slot where it would be inserted. */
+    private int find(int methodId, int relId, Object arg0, Object arg1) {
+      final int mask = values.length - 1;
+      int h = (methodId * 31 + relId) * 31;
+      if (arg0 != null) {
+        h += arg0.hashCode();
+      }
+      h *= 31;
+      if (arg1 != null) {
+        h += arg1.hashCode();
+      }
+      h *= 0x9E3779B9;
+      int i = (h ^ (h >>> 16)) & mask;
+      while (values[i] != null) {
+        if (relIds[i] == relId
+            && methodIds[i] == methodId
+            && Objects.equal(args0[i], arg0)
+            && Objects.equal(args1[i], arg1)) {
+          return i;
+        }
+        i = (i + 1) & mask;
+      }
+      return -1 - i;
+    }
+
+    private void resize(int capacity) {
+      final int[] oldMethodIds = methodIds;
+      final int[] oldRelIds = relIds;
+      final Object[] oldArgs0 = args0;
+      final Object[] oldArgs1 = args1;
+      final long[] oldTimestamps = timestamps;
+      final Object[] oldValues = values;
+      allocate(capacity);
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldValues[i] != null) {
+          final int slot = -1 - find(oldMethodIds[i], oldRelIds[i],
+              oldArgs0[i], oldArgs1[i]);
+          methodIds[slot] = oldMethodIds[i];
+          relIds[slot] = oldRelIds[i];
+          args0[slot] = oldArgs0[i];
+          args1[slot] = oldArgs1[i];
+          timestamps[slot] = oldTimestamps[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+  }
+}
+
+// End JaninoRelMetadataProvider.java
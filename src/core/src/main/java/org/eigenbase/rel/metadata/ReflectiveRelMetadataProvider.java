@@ -54,6 +54,16 @@ public int compare(Class<RelNode> c1, Class<RelNode> c2) {
   private final ImmutableMap<Class<RelNode>, Function<RelNode, Metadata>> map;
   private final Class<?> metadataClass0;
 
+  /** Object whose methods implement the metadata, or null if not known. */
+  final Object target;
+
+  /** Metadata method, or null if not known. */
+  final Method method;
+
+  /** Methods of {@link #target} that implement {@link #method}, in the same
+   * order as the keys of {@link #map}. */
+  final ImmutableList<Method> handlers;
+
   //~ Constructors -----------------------------------------------------------
 
   /**
@@ -65,9 +75,19 @@ public int compare(Class<RelNode> c1, Class<RelNode> c2) {
   protected ReflectiveRelMetadataProvider(
       ImmutableMap<Class<RelNode>, Function<RelNode, Metadata>> map,
       Class<?> metadataClass0) {
+    this(map, metadataClass0, null, null, ImmutableList.<Method>of());
+  }
+
+  private ReflectiveRelMetadataProvider(
+      ImmutableMap<Class<RelNode>, Function<RelNode, Metadata>> map,
+      Class<?> metadataClass0, Object target, Method method,
+      ImmutableList<Method> handlers) {
     assert !map.isEmpty() : "are your methods named wrong?";
     this.map = map;
     this.metadataClass0 = metadataClass0;
+    this.target = target;
+    this.method = method;
+    this.handlers = handlers;
   }
 
   /** Returns an implementation of {@link RelMetadataProvider} that scans for
@@ -90,9 +110,9 @@ public static RelMetadataProvider reflectiveSource(Method method,
       final Object target) {
     final Class<?> metadataClass0 = method.getDeclaringClass();
     assert Metadata.class.isAssignableFrom(metadataClass0);
-    final Map<Class<RelNode>, Function<RelNode, Metadata>> treeMap =
-        Maps.<Class<RelNode>, Class<RelNode>, Function<RelNode, Metadata>>
-            newTreeMap(SUPERCLASS_COMPARATOR);
+    final Map<Class<RelNode>, Method> treeMap =
+        Maps.<Class<RelNode>, Class<RelNode>, Method>newTreeMap(
+            SUPERCLASS_COMPARATOR);
     for (final Method method1 : target.getClass().getMethods()) {
       if (method1.getName().equals(method.getName())
           && (method1.getModifiers() & Modifier.STATIC) == 0
@@ -105,56 +125,90 @@ public static RelMetadataProvider reflectiveSource(Method method,
                 .equals(Arrays.asList(parameterTypes))) {
           //noinspection unchecked
           final Class<RelNode> key = (Class) parameterTypes1[0];
-          final Function<RelNode, Metadata> function =
-              new Function<RelNode, Metadata>() {
-                public Metadata apply(final RelNode rel) {
-                  return (Metadata) Proxy.newProxyInstance(
-                      metadataClass0.getClassLoader(),
-                      new Class[]{metadataClass0},
-                      new InvocationHandler() {
-                        public Object invoke(Object proxy, Method method,
-                            Object[] args) throws Throwable {
-                          // Suppose we are an implementation of Selectivity
-                          // that wraps "filter", a FilterRel, Then we implement
-                          //   Selectivity.selectivity(rex)
-                          // by calling method
-                          //   new SelectivityImpl().selectivity(filter, rex)
-                          if (method.equals(
-                              BuiltinMethod.METADATA_REL.method)) {
-                            return rel;
-                          }
-                          if (method.equals(
-                              BuiltinMethod.OBJECT_TO_STRING.method)) {
-                            return metadataClass0.getSimpleName() + "(" + rel
-                                + ")";
-                          }
-                          final Object[] args1;
-                          if (args == null) {
-                            args1 = new Object[]{rel};
-                          } else {
-                            args1 = new Object[args.length + 1];
-                            args1[0] = rel;
-                            System.arraycopy(args, 0, args1, 1, args.length);
-                          }
-                          return method1.invoke(target, args1);
-                        }
-                      });
-                }
-              };
-          treeMap.put(key, function);
+          treeMap.put(key, method1);
         }
       }
     }
     // Due to the comparator, the TreeMap is sorted such that any derived class
     // will occur before its base class. The immutable map is not a sorted map,
     // but it retains the traversal order, and that is sufficient.
-    final ImmutableMap<Class<RelNode>, Function<RelNode, Metadata>> map =
-        ImmutableMap.copyOf(treeMap);
-    return new ReflectiveRelMetadataProvider(map, metadataClass0);
+    final ImmutableMap.Builder<Class<RelNode>, Function<RelNode, Metadata>>
+        builder = ImmutableMap.builder();
+    for (Map.Entry<Class<RelNode>, Method> entry : treeMap.entrySet()) {
+      builder.put(entry.getKey(),
+          function(metadataClass0, entry.getValue(), target));
+    }
+    return new ReflectiveRelMetadataProvider(builder.build(), metadataClass0,
+        target, method, ImmutableList.copyOf(treeMap.values()));
+  }
+
+  /** Returns a function that creates a metadata object that implements
+   * {@code metadataClass0} by calling {@code method1} on {@code target}. */
+  private static Function<RelNode, Metadata> function(
+      final Class<?> metadataClass0, final Method method1,
+      final Object target) {
+    return new Function<RelNode, Metadata>() {
+      public Metadata apply(final RelNode rel) {
+        return (Metadata) Proxy.newProxyInstance(
+            metadataClass0.getClassLoader(),
+            new Class[]{metadataClass0},
+            new InvocationHandler() {
+              public Object invoke(Object proxy, Method method,
+                  Object[] args) throws Throwable {
+                // Suppose we are an implementation of Selectivity
+                // that wraps "filter", a FilterRel, Then we implement
+                //   Selectivity.selectivity(rex)
+                // by calling method
+                //   new SelectivityImpl().selectivity(filter, rex)
+                if (method.equals(
+                    BuiltinMethod.METADATA_REL.method)) {
+                  return rel;
+                }
+                if (method.equals(
+                    BuiltinMethod.OBJECT_TO_STRING.method)) {
+                  return metadataClass0.getSimpleName() + "(" + rel
+                      + ")";
+                }
+                final Object[] args1;
+                if (args == null) {
+                  args1 = new Object[]{rel};
+                } else {
+                  args1 = new Object[args.length + 1];
+                  args1[0] = rel;
+                  System.arraycopy(args, 0, args1, 1, args.length);
+                }
+                return method1.invoke(target, args1);
+              }
+            });
+      }
+    };
   }
 
   //~ Methods ----------------------------------------------------------------
 
+  /** Returns the metadata class that this provider implements. */
+  Class<?> metadataClass() {
+    return metadataClass0;
+  }
+
+  /** Returns the index of the entry that handles a given class of
+   * relational expression, or -1. Chooses the same entry as
+   * {@link #apply}. */
+  int handlerIndex(Class<? extends RelNode> relClass) {
+    final List<Class<RelNode>> keys = map.keySet().asList();
+    //noinspection SuspiciousMethodCalls
+    final int i = keys.indexOf(relClass);
+    if (i >= 0) {
+      return i;
+    }
+    for (int j = 0; j < keys.size(); j++) {
+      if (keys.get(j).isAssignableFrom(relClass)) {
+        return j;
+      }
+    }
+    return -1;
+  }
+
   public Function<RelNode, Metadata> apply(
       Class<? extends RelNode> relClass,
       Class<? extends Metadata> metadataClass) {
@@ -42,6 +42,15 @@ private RelMdColumnUniqueness() {}
 
   //~ Methods ----------------------------------------------------------------
 
+  public Boolean areColumnsUnique(
+      TableAccessRelBase rel,
+      BitSet columns,
+      boolean ignoreNulls) {
+    // The table's statistics know about keys, but not about non-unique
+    // columns.
+    return rel.getTable().isKey(columns) ? true : null;
+  }
+
   public Boolean areColumnsUnique(
       FilterRelBase rel,
       BitSet columns,
@@ -26,6 +26,7 @@
 import org.eigenbase.util14.*;
 
 import net.hydromatic.optiq.BuiltinMethod;
+import net.hydromatic.optiq.Table;
 import net.hydromatic.optiq.util.BitSets;
 
 /**
@@ -252,6 +253,23 @@ public Double getDistinctRowCount(
         RelMetadataQuery.getRowCount(rel));
   }
 
+  public Double getDistinctRowCount(
+      TableAccessRelBase rel,
+      BitSet groupKey,
+      RexNode predicate) {
+    final Table table = rel.getTable().unwrap(Table.class);
+    if (table != null) {
+      final Double distinctRowCount =
+          table.getStatistic().getDistinctRowCount(groupKey);
+      if (distinctRowCount != null) {
+        return NumberUtil.multiply(
+            distinctRowCount,
+            RelMetadataQuery.getSelectivity(rel, predicate));
+      }
+    }
+    return getDistinctRowCount((RelNode) rel, groupKey, predicate);
+  }
+
   // Catch-all rule when none of the others apply.
   public Double getDistinctRowCount(
       RelNode rel,
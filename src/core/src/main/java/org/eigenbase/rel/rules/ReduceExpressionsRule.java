@@ -328,6 +328,19 @@ static boolean reduceExpressions(RelNode rel, List<RexNode> expList) {
     List<RexNode> reducedValues = new ArrayList<RexNode>();
     executor.reduce(rexBuilder, constExps, reducedValues);
 
+    // The executor returns an expression unchanged if it cannot evaluate
+    // it; there is no point replacing it.
+    for (int i = constExps.size() - 1; i >= 0; i--) {
+      if (reducedValues.get(i) == constExps.get(i)) {
+        constExps.remove(i);
+        reducedValues.remove(i);
+        addCasts.remove(i);
+      }
+    }
+    if (constExps.isEmpty()) {
+      return !removableCasts.isEmpty();
+    }
+
     // For ProjectRel, we have to be sure to preserve the result
     // types, so always cast regardless of the expression type.
     // For other RelNodes like FilterRel, in general, this isn't necessary,
@@ -60,7 +60,7 @@ public class RelOptCluster {
 
     // set up a default rel metadata provider,
     // giving the planner first crack at everything
-    setMetadataProvider(new DefaultRelMetadataProvider());
+    setMetadataProvider(JaninoRelMetadataProvider.DEFAULT);
     this.emptyTraitSet = planner.emptyTraitSet();
   }
 
@@ -97,11 +97,14 @@ public RelMetadataProvider getMetadataProvider() {
   /**
    * Overrides the default metadata provider for this cluster.
    *
+   * <p>The provider is wrapped in a {@link JaninoRelMetadataProvider}, so
+   * that metadata requests are dispatched via generated code.</p>
+   *
    * @param metadataProvider custom provider
    */
   public void setMetadataProvider(RelMetadataProvider metadataProvider) {
-    this.metadataProvider = metadataProvider;
-    this.metadataFactory = new MetadataFactoryImpl(metadataProvider);
+    this.metadataProvider = JaninoRelMetadataProvider.of(metadataProvider);
+    this.metadataFactory = new MetadataFactoryImpl(this.metadataProvider);
   }
 
   public MetadataFactory getMetadataFactory() {
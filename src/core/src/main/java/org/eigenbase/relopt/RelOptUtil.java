@@ -108,6 +108,40 @@ public void visit(
     return vuv.variables;
   }
 
+  /**
+   * Returns the tables read by a relational expression or its descendants.
+   */
+  public static Set<RelOptTable> findTables(RelNode rel) {
+    final Set<RelOptTable> usedTables = new LinkedHashSet<RelOptTable>();
+    new RelVisitor() {
+      @Override
+      public void visit(RelNode node, int ordinal, RelNode parent) {
+        if (node instanceof TableAccessRelBase) {
+          usedTables.add(node.getTable());
+        }
+        super.visit(node, ordinal, parent);
+      }
+      // CHECKSTYLE: IGNORE 1
+    }.go(rel);
+    return usedTables;
+  }
+
+  /**
+   * Returns whether a relational expression or any of its descendants is an
+   * aggregate.
+   */
+  public static boolean containsAggregate(RelNode rel) {
+    if (rel instanceof AggregateRelBase) {
+      return true;
+    }
+    for (RelNode input : rel.getInputs()) {
+      if (containsAggregate(input)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Sets a {@link RelVisitor} going on a given relational expression, and
    * returns the result.
@@ -34,8 +34,8 @@
 import net.hydromatic.linq4j.expressions.Expressions;
 
 import net.hydromatic.optiq.prepare.OptiqPrepareImpl;
+import net.hydromatic.optiq.runtime.Hook;
 import net.hydromatic.optiq.runtime.Spaces;
-import net.hydromatic.optiq.util.graph.*;
 
 import com.google.common.collect.*;
 
@@ -79,6 +79,18 @@ public class VolcanoPlanner extends AbstractRelOptPlanner {
    */
   protected boolean impatient = false;
 
+  /**
+   * Maximum number of milliseconds that {@link #findBestExp()} may spend
+   * firing rules, or -1 if there is no limit.
+   */
+  private long timeBudget = -1;
+
+  /**
+   * Maximum number of rules that {@link #findBestExp()} may fire, or -1 if
+   * there is no limit.
+   */
+  private long ruleFiringBudget = -1;
+
   /**
    * Operands that apply to a given class of {@link RelNode}.
    *
@@ -236,6 +248,24 @@ public void initialize(
     };
   }
 
+  /**
+   * Sets the maximum number of milliseconds that {@link #findBestExp()} may
+   * spend firing rules. When the budget is exhausted, the planner returns the
+   * cheapest plan found so far. A negative value means no limit.
+   */
+  public void setTimeBudget(long millis) {
+    this.timeBudget = millis;
+  }
+
+  /**
+   * Sets the maximum number of rules that {@link #findBestExp()} may fire.
+   * When the budget is exhausted, the planner returns the cheapest plan found
+   * so far. A negative value means no limit.
+   */
+  public void setRuleFiringBudget(long ruleFirings) {
+    this.ruleFiringBudget = ruleFirings;
+  }
+
   // implement RelOptPlanner
   public boolean isRegistered(RelNode rel) {
     return mapRel2Subset.get(rel) != null;
@@ -261,12 +291,13 @@ public void addMaterialization(RelOptMaterialization materialization) {
     materializations.add(materialization);
   }
 
-  private void useMaterialization(RelOptMaterialization materialization) {
+  private void useMaterialization(RelOptMaterialization materialization,
+      RelNode normalizedRoot) {
     // Try to rewrite the original root query in terms of the materialized
     // query. If that is possible, register the remnant query as equivalent
     // to the root.
     //
-    RelNode sub = substitute(originalRoot, materialization);
+    RelNode sub = substitute(normalizedRoot, materialization);
     if (sub != null) {
       // TODO: try to substitute other materializations in the remnant.
       // Useful for big queries, e.g.
@@ -285,15 +316,15 @@ private void useMaterialization(RelOptMaterialization materialization) {
 
   private RelNode substitute(
       RelNode root, RelOptMaterialization materialization) {
-    // First, if the materialization is in terms of a star table, rewrite
-    // the query in terms of the star table.
-    if (materialization.starTable != null) {
-      root = RelOptMaterialization.tryUseStar(
-          root, materialization.starRelOptTable);
-    }
+    RelNode target = normalize(materialization.queryRel);
+    return new SubstitutionVisitor(target, root)
+        .go(materialization.tableRel);
+  }
 
-    // Push filters to the bottom, and combine projects on top.
-    RelNode target = materialization.queryRel;
+  /** Pushes filters to the bottom of a relational expression, and combines
+   * projects on top, so that a query and a materialization can be
+   * compared. */
+  private RelNode normalize(RelNode rel) {
     HepProgram program =
         new HepProgramBuilder()
             .addRuleInstance(PushFilterPastProjectRule.INSTANCE)
@@ -302,88 +333,37 @@ private RelNode substitute(
 
     final HepPlanner hepPlanner = new HepPlanner(program, //
         getContext());
-    hepPlanner.setRoot(target);
-    target = hepPlanner.findBestExp();
-
-    hepPlanner.setRoot(root);
-    root = hepPlanner.findBestExp();
-
-    return new SubstitutionVisitor(target, root)
-        .go(materialization.tableRel);
+    hepPlanner.setRoot(rel);
+    return hepPlanner.findBestExp();
   }
 
   private void useApplicableMaterializations() {
-    // Given materializations:
-    //   T = Emps Join Depts
-    //   T2 = T Group by C1
-    // graph will contain
-    //   (T, Emps), (T, Depts), (T2, T)
-    // and therefore we can deduce T2 uses Emps.
-    DirectedGraph<List<String>, DefaultEdge> usesGraph =
-        DefaultDirectedGraph.create();
+    // The caller registers only materializations that might be useful to
+    // this query (see Prepare), so we don't filter them again here.
+    //
+    // The query is normalized once and compared with each materialization.
+    // If a materialization is in terms of a star table, the query must first
+    // be rewritten in terms of the star table, so is normalized separately.
+    RelNode normalizedRoot = null;
     for (RelOptMaterialization materialization : materializations) {
-      if (materialization.table != null) {
-        for (RelOptTable usedTable
-            : findTables(materialization.queryRel)) {
-          usesGraph.addVertex(
-              materialization.table.getQualifiedName());
-          usesGraph.addVertex(
-              usedTable.getQualifiedName());
-          usesGraph.addEdge(
-              materialization.table.getQualifiedName(),
-              usedTable.getQualifiedName());
-        }
+      if (materialization.table == null) {
+        continue;
       }
-    }
-
-    // Use a materialization if uses at least one of the tables are used by
-    // the query. (Simple rule that includes some materializations we won't
-    // actually use.)
-    final Graphs.FrozenGraph<List<String>, DefaultEdge> frozenGraph =
-        Graphs.makeImmutable(usesGraph);
-    final Set<RelOptTable> queryTables = findTables(originalRoot);
-    for (RelOptMaterialization materialization : materializations) {
-      if (materialization.table != null) {
-        if (usesTable(materialization.table, queryTables, frozenGraph)) {
-          useMaterialization(materialization);
+      final RelNode root;
+      if (materialization.starTable != null) {
+        root = normalize(
+            RelOptMaterialization.tryUseStar(
+                originalRoot, materialization.starRelOptTable));
+      } else {
+        if (normalizedRoot == null) {
+          normalizedRoot = normalize(originalRoot);
         }
+        root = normalizedRoot;
       }
+      useMaterialization(materialization, root);
     }
   }
 
-  /**
-   * Returns whether {@code table} uses one or more of the tables in
-   * {@code usedTables}.
-   */
-  private boolean usesTable(
-      RelOptTable table,
-      Set<RelOptTable> usedTables,
-      Graphs.FrozenGraph<List<String>, DefaultEdge> usesGraph) {
-    for (RelOptTable queryTable : usedTables) {
-      if (usesGraph.getShortestPath(
-          table.getQualifiedName(),
-          queryTable.getQualifiedName()) != null) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  private static Set<RelOptTable> findTables(RelNode rel) {
-    final Set<RelOptTable> usedTables = new LinkedHashSet<RelOptTable>();
-    new RelVisitor() {
-      @Override
-      public void visit(RelNode node, int ordinal, RelNode parent) {
-        if (node instanceof TableAccessRelBase) {
-          usedTables.add(node.getTable());
-        }
-        super.visit(node, ordinal, parent);
-      }
-      // CHECKSTYLE: IGNORE 1
-    }.go(rel);
-    return usedTables;
-  }
-
   /**
    * Finds an expression's equivalence set. If the expression is not
    * registered, returns null.
@@ -582,6 +562,11 @@ public RelOptPlanner chooseDelegate() {
    * number of iterations necessary to first reach an implementable plan or 25
    * iterations whichever is larger).</li>
    * <li>For non-ambitious planners: When an implementable plan is found.</li>
+   * <li>If a time budget ({@link #setTimeBudget(long)}) or rule-firing budget
+   * ({@link #setRuleFiringBudget(long)}) has been exhausted and an
+   * implementable plan has been found. No further phases are run, and
+   * {@link Hook#PLANNER_BUDGET_EXCEEDED} is called with a
+   * {@link BudgetExceeded}.</li>
    * </ol>
    *
    * <p>Furthermore, after every 10 iterations without an implementable plan,
@@ -595,6 +580,9 @@ public RelOptPlanner chooseDelegate() {
    */
   public RelNode findBestExp() {
     useApplicableMaterializations();
+    final long startMillis = System.currentTimeMillis();
+    long ruleFirings = 0;
+    BudgetExceeded budgetExceeded = null;
     int cumulativeTicks = 0;
     for (VolcanoPlannerPhase phase : VolcanoPlannerPhase.values()) {
       setInitialImportance();
@@ -651,6 +639,20 @@ public RelNode findBestExp() {
               + "; COST = " + root.bestCost);
         }
 
+        // If we have run out of budget, settle for the best plan so far.
+        // Until there is an implementable plan, there is nothing to settle
+        // for, so keep going.
+        if ((ruleFiringBudget >= 0 || timeBudget >= 0)
+            && !root.bestCost.isInfinite()) {
+          final long elapsedMillis = System.currentTimeMillis() - startMillis;
+          if (ruleFiringBudget >= 0 && ruleFirings >= ruleFiringBudget
+              || timeBudget >= 0 && elapsedMillis >= timeBudget) {
+            budgetExceeded = new BudgetExceeded(phase, elapsedMillis,
+                ruleFirings, root.bestCost);
+            break;
+          }
+        }
+
         VolcanoRuleMatch match = ruleQueue.popMatch(phase);
         if (match == null) {
           break;
@@ -658,6 +660,7 @@ public RelNode findBestExp() {
 
         assert match.getRule().matches(match);
         match.onMatch();
+        ++ruleFirings;
 
         // The root may have been merged with another
         // subset. Find the new root subset.
@@ -665,6 +668,13 @@ public RelNode findBestExp() {
       }
 
       ruleQueue.phaseCompleted(phase);
+      if (budgetExceeded != null) {
+        break;
+      }
+    }
+    if (budgetExceeded != null) {
+      LOGGER.fine(budgetExceeded.toString());
+      Hook.PLANNER_BUDGET_EXCEEDED.run(budgetExceeded);
     }
     if (LOGGER.isLoggable(Level.FINER)) {
       StringWriter sw = new StringWriter();
@@ -1829,6 +1839,35 @@ static class RuleProvenance extends Provenance {
       this.callId = callId;
     }
   }
+
+  /**
+   * Describes why {@link #findBestExp()} stopped before the rule queue was
+   * empty. Passed to {@link Hook#PLANNER_BUDGET_EXCEEDED}.
+   */
+  public static class BudgetExceeded {
+    /** Phase in which the planner stopped. */
+    public final VolcanoPlannerPhase phase;
+    /** Milliseconds spent firing rules. */
+    public final long elapsedMillis;
+    /** Number of rules fired. */
+    public final long ruleFirings;
+    /** Cost of the plan that the planner returned. */
+    public final RelOptCost bestCost;
+
+    BudgetExceeded(VolcanoPlannerPhase phase, long elapsedMillis,
+        long ruleFirings, RelOptCost bestCost) {
+      this.phase = phase;
+      this.elapsedMillis = elapsedMillis;
+      this.ruleFirings = ruleFirings;
+      this.bestCost = bestCost;
+    }
+
+    @Override public String toString() {
+      return "Planner budget exceeded in phase " + phase + " after "
+          + elapsedMillis + " ms and " + ruleFirings
+          + " rule firings; best cost " + bestCost;
+    }
+  }
 }
 
 // End VolcanoPlanner.java
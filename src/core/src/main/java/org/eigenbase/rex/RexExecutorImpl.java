@@ -104,21 +104,58 @@ public RexExecutable getExecutable(RexBuilder rexBuilder, List<RexNode> exps,
   }
 
   /**
-   * Do constant reduction using generated code.
+   * Do constant reduction.
+   *
+   * <p>Expressions are evaluated by {@link RexInterpreter} if possible.
+   * Expressions that the interpreter does not handle are evaluated together
+   * using generated code. If evaluation fails (say because of division by
+   * zero, or because generated code cannot be compiled) the expression is
+   * returned unchanged, so that any error occurs when the query is
+   * executed.</p>
    */
   public void reduce(RexBuilder rexBuilder, List<RexNode> constExps,
       List<RexNode> reducedValues) {
-    final String code = compile(rexBuilder, constExps,
-        new RexToLixTranslator.InputGetter() {
-          public Expression field(BlockBuilder list, int index,
-              Type storageType) {
-            throw new UnsupportedOperationException();
-          }
-        });
-
-    final RexExecutable executable = new RexExecutable(code, constExps);
-    executable.setDataContext(dataContext);
-    executable.reduce(rexBuilder, constExps, reducedValues);
+    final List<RexNode> compileExps = new ArrayList<RexNode>();
+    final List<Integer> compileOrdinals = new ArrayList<Integer>();
+    for (RexNode constExp : constExps) {
+      RexNode reducedValue;
+      try {
+        final Object value = RexInterpreter.evaluate(constExp);
+        reducedValue =
+            rexBuilder.makeLiteral(value, constExp.getType(), true);
+      } catch (UnsupportedOperationException e) {
+        compileOrdinals.add(reducedValues.size());
+        compileExps.add(constExp);
+        reducedValue = constExp;
+      } catch (RuntimeException e) {
+        reducedValue = constExp;
+      }
+      reducedValues.add(reducedValue);
+    }
+    if (compileExps.isEmpty()) {
+      return;
+    }
+
+    final List<RexNode> compiledValues = new ArrayList<RexNode>();
+    try {
+      final String code = compile(rexBuilder, compileExps,
+          new RexToLixTranslator.InputGetter() {
+            public Expression field(BlockBuilder list, int index,
+                Type storageType) {
+              throw new UnsupportedOperationException();
+            }
+          });
+
+      final RexExecutable executable = new RexExecutable(code, compileExps);
+      executable.setDataContext(dataContext);
+      executable.reduce(rexBuilder, compileExps, compiledValues);
+    } catch (RuntimeException e) {
+      // Leave the expressions unreduced.
+      return;
+    }
+    for (int i = 0; i < compileOrdinals.size(); i++) {
+      reducedValues.set(compileOrdinals.get(i), compiledValues.get(i));
+    }
   }
 
   /**
@@ -0,0 +1,502 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eigenbase.rex;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.sql.SqlKind;
+import org.eigenbase.sql.SqlOperator;
+import org.eigenbase.sql.fun.SqlStdOperatorTable;
+import org.eigenbase.sql.type.SqlTypeName;
+import org.eigenbase.util14.DateTimeUtil;
+
+import net.hydromatic.optiq.runtime.SqlFunctions;
+
+/**
+ * Evaluates constant {@link RexNode} expressions without generating and
+ * compiling code.
+ *
+ * <p>Values have the same Java representation as in generated code: for
+ * example, a {@code DATE} is an {@link Integer} number of days since the
+ * epoch, and a {@code DECIMAL} is a {@link BigDecimal}. Operators are
+ * evaluated using the same methods of {@link SqlFunctions}, or the same
+ * Java arithmetic, as generated code, so the results are the same.</p>
+ *
+ * <p>Covers literals, arithmetic, comparisons, logical operators,
+ * {@code CASE}, simple casts, datetime-plus-interval, and the common string
+ * and numeric functions. For other expressions, {@link #evaluate} throws
+ * {@link UnsupportedOperationException}; the caller should fall back to
+ * generated code.</p>
+ */
+public class RexInterpreter implements RexVisitor<Object> {
+  private static final RexInterpreter INSTANCE = new RexInterpreter();
+
+  private RexInterpreter() {
+  }
+
+  /** Evaluates a constant expression.
+   *
+   * @throws UnsupportedOperationException if the expression contains an
+   *   operator or type that the interpreter does not handle
+   * @throws RuntimeException if evaluation fails, for example division by
+   *   zero */
+  public static Object evaluate(RexNode e) {
+    return e.accept(INSTANCE);
+  }
+
+  private static UnsupportedOperationException unsupported(Object o) {
+    return new UnsupportedOperationException("cannot interpret " + o);
+  }
+
+  public Object visitInputRef(RexInputRef inputRef) {
+    throw unsupported(inputRef);
+  }
+
+  public Object visitLocalRef(RexLocalRef localRef) {
+    throw unsupported(localRef);
+  }
+
+  public Object visitLiteral(RexLiteral literal) {
+    if (literal.isNull()) {
+      return null;
+    }
+    return convert(literal.getValue3(), literal.getType());
+  }
+
+  public Object visitOver(RexOver over) {
+    throw unsupported(over);
+  }
+
+  public Object visitCorrelVariable(RexCorrelVariable correlVariable) {
+    throw unsupported(correlVariable);
+  }
+
+  public Object visitDynamicParam(RexDynamicParam dynamicParam) {
+    throw unsupported(dynamicParam);
+  }
+
+  public Object visitRangeRef(RexRangeRef rangeRef) {
+    throw unsupported(rangeRef);
+  }
+
+  public Object visitFieldAccess(RexFieldAccess fieldAccess) {
+    throw unsupported(fieldAccess);
+  }
+
+  public Object visitCall(RexCall call) {
+    final List<RexNode> operands = call.getOperands();
+    switch (call.getKind()) {
+    case AND:
+      return and(operands);
+    case OR:
+      return or(operands);
+    case CASE:
+      for (int i = 0; i < operands.size() - 1; i += 2) {
+        if (Boolean.TRUE.equals(operands.get(i).accept(this))) {
+          return convert(operands.get(i + 1).accept(this), call.getType());
+        }
+      }
+      return convert(operands.get(operands.size() - 1).accept(this),
+          call.getType());
+    case IS_NULL:
+      return operands.get(0).accept(this) == null;
+    case IS_NOT_NULL:
+      return operands.get(0).accept(this) != null;
+    case IS_TRUE:
+      return Boolean.TRUE.equals(operands.get(0).accept(this));
+    case IS_NOT_TRUE:
+      return !Boolean.TRUE.equals(operands.get(0).accept(this));
+    case IS_FALSE:
+      return Boolean.FALSE.equals(operands.get(0).accept(this));
+    case IS_NOT_FALSE:
+      return !Boolean.FALSE.equals(operands.get(0).accept(this));
+    }
+
+    // The remaining operators are strict: if any argument is null, the
+    // result is null.
+    final List<Object> values = new ArrayList<Object>();
+    for (RexNode operand : operands) {
+      values.add(operand.accept(this));
+    }
+    if (values.contains(null)) {
+      return null;
+    }
+    final RelDataType type = call.getType();
+    switch (call.getKind()) {
+    case NOT:
+      return !(Boolean) values.get(0);
+    case EQUALS:
+      return compare(values.get(0), values.get(1)) == 0;
+    case NOT_EQUALS:
+      return compare(values.get(0), values.get(1)) != 0;
+    case LESS_THAN:
+      return compare(values.get(0), values.get(1)) < 0;
+    case LESS_THAN_OR_EQUAL:
+      return compare(values.get(0), values.get(1)) <= 0;
+    case GREATER_THAN:
+      return compare(values.get(0), values.get(1)) > 0;
+    case GREATER_THAN_OR_EQUAL:
+      return compare(values.get(0), values.get(1)) >= 0;
+    case PLUS_PREFIX:
+      return convert(values.get(0), type);
+    case MINUS_PREFIX:
+      return arithmetic(SqlKind.MINUS, call,
+          Arrays.<Object>asList(0, values.get(0)));
+    case PLUS:
+      if (isDatetime(type)) {
+        return datetimePlus(call, values);
+      }
+      return arithmetic(call.getKind(), call, values);
+    case MINUS:
+    case TIMES:
+    case DIVIDE:
+      if (call.getOperator() == SqlStdOperatorTable.MINUS_DATE) {
+        throw unsupported(call);
+      }
+      return arithmetic(call.getKind(), call, values);
+    case CAST:
+      return cast(call, values.get(0));
+    }
+    final SqlOperator op = call.getOperator();
+    if (op == SqlStdOperatorTable.CONCAT) {
+      return SqlFunctions.concat((String) values.get(0),
+          (String) values.get(1));
+    } else if (op == SqlStdOperatorTable.UPPER) {
+      return SqlFunctions.upper((String) values.get(0));
+    } else if (op == SqlStdOperatorTable.LOWER) {
+      return SqlFunctions.lower((String) values.get(0));
+    } else if (op == SqlStdOperatorTable.INITCAP) {
+      return SqlFunctions.initcap((String) values.get(0));
+    } else if (op == SqlStdOperatorTable.CHAR_LENGTH
+        || op == SqlStdOperatorTable.CHARACTER_LENGTH) {
+      return SqlFunctions.charLength((String) values.get(0));
+    } else if (op == SqlStdOperatorTable.SUBSTRING
+        && values.get(0) instanceof String) {
+      final String s = (String) values.get(0);
+      final int from = ((Number) values.get(1)).intValue();
+      return values.size() == 2
+          ? SqlFunctions.substring(s, from)
+          : SqlFunctions.substring(s, from,
+              ((Number) values.get(2)).intValue());
+    } else if (op == SqlStdOperatorTable.POSITION
+        && values.get(0) instanceof String) {
+      return SqlFunctions.position((String) values.get(0),
+          (String) values.get(1));
+    } else if (op == SqlStdOperatorTable.ABS) {
+      return abs(convert(values.get(0), type));
+    } else if (op == SqlStdOperatorTable.MOD && isIntegral(type)) {
+      return convert(
+          ((Number) values.get(0)).longValue()
+          % ((Number) values.get(1)).longValue(), type);
+    } else if (op == SqlStdOperatorTable.POWER) {
+      return SqlFunctions.power(((Number) values.get(0)).doubleValue(),
+          ((Number) values.get(1)).doubleValue());
+    } else if (op == SqlStdOperatorTable.LN) {
+      return SqlFunctions.ln(((Number) values.get(0)).doubleValue());
+    } else if (op == SqlStdOperatorTable.LOG10) {
+      return SqlFunctions.log10(((Number) values.get(0)).doubleValue());
+    } else if (op == SqlStdOperatorTable.EXP) {
+      return SqlFunctions.exp(((Number) values.get(0)).doubleValue());
+    }
+    throw unsupported(call);
+  }
+
+  /** Evaluates AND, using three-valued logic. */
+  private Object and(List<RexNode> operands) {
+    boolean unknown = false;
+    for (RexNode operand : operands) {
+      final Object value = operand.accept(this);
+      if (value == null) {
+        unknown = true;
+      } else if (!(Boolean) value) {
+        return false;
+      }
+    }
+    return unknown ? null : true;
+  }
+
+  /** Evaluates OR, using three-valued logic. */
+  private Object or(List<RexNode> operands) {
+    boolean unknown = false;
+    for (RexNode operand : operands) {
+      final Object value = operand.accept(this);
+      if (value == null) {
+        unknown = true;
+      } else if ((Boolean) value) {
+        return true;
+      }
+    }
+    return unknown ? null : false;
+  }
+
+  /** Evaluates +, -, * or / on numbers or intervals, in the Java type of
+   * the result. Integer arithmetic wraps on overflow, and integer division
+   * truncates, as in generated code. */
+  private static Object arithmetic(SqlKind op, RexCall call,
+      List<Object> values) {
+    final RelDataType type = call.getType();
+    final Object v0 = convert(values.get(0), type);
+    final Object v1 = convert(values.get(1), type);
+    if (v0 instanceof BigDecimal) {
+      final BigDecimal b0 = (BigDecimal) v0;
+      final BigDecimal b1 = (BigDecimal) v1;
+      switch (op) {
+      case PLUS:
+        return b0.add(b1);
+      case MINUS:
+        return b0.subtract(b1);
+      case TIMES:
+        return b0.multiply(b1);
+      default:
+        return SqlFunctions.divide(b0, b1);
+      }
+    } else if (v0 instanceof Double) {
+      final double d0 = (Double) v0;
+      final double d1 = (Double) v1;
+      switch (op) {
+      case PLUS:
+        return d0 + d1;
+      case MINUS:
+        return d0 - d1;
+      case TIMES:
+        return d0 * d1;
+      default:
+        return d0 / d1;
+      }
+    } else if (v0 instanceof Float) {
+      final float f0 = (Float) v0;
+      final float f1 = (Float) v1;
+      switch (op) {
+      case PLUS:
+        return f0 + f1;
+      case MINUS:
+        return f0 - f1;
+      case TIMES:
+        return f0 * f1;
+      default:
+        return f0 / f1;
+      }
+    } else if (isIntegral(type)) {
+      final long l0 = ((Number) v0).longValue();
+      final long l1 = ((Number) v1).longValue();
+      final long l;
+      switch (op) {
+      case PLUS:
+        l = l0 + l1;
+        break;
+      case MINUS:
+        l = l0 - l1;
+        break;
+      case TIMES:
+        l = l0 * l1;
+        break;
+      default:
+        if (type.getSqlTypeName() == SqlTypeName.INTERVAL_YEAR_MONTH
+            || type.getSqlTypeName() == SqlTypeName.INTERVAL_DAY_TIME) {
+          throw unsupported(call);
+        }
+        l = l0 / l1;
+      }
+      return convert(l, type);
+    }
+    throw unsupported(call);
+  }
+
+  /** Evaluates DATE, TIME or TIMESTAMP plus an interval. */
+  private static Object datetimePlus(RexCall call, List<Object> values) {
+    final RexNode operand1 = call.getOperands().get(1);
+    if (operand1.getType().getSqlTypeName()
+        != SqlTypeName.INTERVAL_DAY_TIME) {
+      throw unsupported(call);
+    }
+    final long millis = ((Number) values.get(1)).longValue();
+    switch (call.getOperands().get(0).getType().getSqlTypeName()) {
+    case DATE:
+      return (Integer) values.get(0)
+          + (int) (millis / DateTimeUtil.MILLIS_PER_DAY);
+    case TIME:
+      return (Integer) values.get(0) + (int) millis;
+    case TIMESTAMP:
+      return (Long) values.get(0) + millis;
+    default:
+      throw unsupported(call);
+    }
+  }
+
+  /** Evaluates CAST. Handles casts that do not change the value's
+   * representation, and casts between numeric types other than
+   * DECIMAL. */
+  private static Object cast(RexCall call, Object value) {
+    final RelDataType fromType = call.getOperands().get(0).getType();
+    final RelDataType toType = call.getType();
+    final SqlTypeName from = fromType.getSqlTypeName();
+    final SqlTypeName to = toType.getSqlTypeName();
+    if (from == to
+        && fromType.getPrecision() == toType.getPrecision()
+        && fromType.getScale() == toType.getScale()) {
+      return value;
+    }
+    if (SqlTypeName.NUMERIC_TYPES.contains(from)
+        && SqlTypeName.NUMERIC_TYPES.contains(to)
+        && to != SqlTypeName.DECIMAL) {
+      return convert(value, toType);
+    }
+    throw unsupported(call);
+  }
+
+  /** Compares two non-null values of compatible types. */
+  private static int compare(Object v0, Object v1) {
+    if (v0 instanceof Number && v1 instanceof Number) {
+      if (v0 instanceof BigDecimal || v1 instanceof BigDecimal) {
+        return toBigDecimal(v0).compareTo(toBigDecimal(v1));
+      }
+      if (v0 instanceof Double || v0 instanceof Float
+          || v1 instanceof Double || v1 instanceof Float) {
+        return Double.compare(((Number) v0).doubleValue(),
+            ((Number) v1).doubleValue());
+      }
+      final long l0 = ((Number) v0).longValue();
+      final long l1 = ((Number) v1).longValue();
+      return l0 < l1 ? -1 : l0 == l1 ? 0 : 1;
+    }
+    if (v0 instanceof String && v1 instanceof String
+        || v0 instanceof Boolean && v1 instanceof Boolean) {
+      //noinspection unchecked
+      return ((Comparable) v0).compareTo(v1);
+    }
+    throw unsupported(v0 + " and " + v1);
+  }
+
+  private static BigDecimal toBigDecimal(Object v) {
+    return v instanceof BigDecimal
+        ? (BigDecimal) v
+        : v instanceof Double || v instanceof Float
+        ? new BigDecimal(((Number) v).doubleValue())
+        : BigDecimal.valueOf(((Number) v).longValue());
+  }
+
+  private static Object abs(Object v) {
+    if (v instanceof BigDecimal) {
+      return ((BigDecimal) v).abs();
+    } else if (v instanceof Double) {
+      return Math.abs((Double) v);
+    } else if (v instanceof Float) {
+      return Math.abs((Float) v);
+    } else if (v instanceof Long) {
+      return Math.abs((Long) v);
+    } else if (v instanceof Integer) {
+      return Math.abs((Integer) v);
+    } else if (v instanceof Short) {
+      return (short) Math.abs((Short) v);
+    } else if (v instanceof Byte) {
+      return (byte) Math.abs((Byte) v);
+    }
+    throw unsupported(v);
+  }
+
+  private static boolean isIntegral(RelDataType type) {
+    switch (type.getSqlTypeName()) {
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+    case BIGINT:
+    case INTERVAL_YEAR_MONTH:
+    case INTERVAL_DAY_TIME:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isDatetime(RelDataType type) {
+    switch (type.getSqlTypeName()) {
+    case DATE:
+    case TIME:
+    case TIMESTAMP:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /** Converts a value to the Java representation of a SQL type, narrowing
+   * numbers as a Java cast would. */
+  private static Object convert(Object value, RelDataType type) {
+    if (value == null) {
+      return null;
+    }
+    switch (type.getSqlTypeName()) {
+    case BOOLEAN:
+      if (value instanceof Boolean) {
+        return value;
+      }
+      break;
+    case CHAR:
+    case VARCHAR:
+      if (value instanceof String) {
+        return value;
+      }
+      break;
+    case TINYINT:
+      if (value instanceof Number) {
+        return ((Number) value).byteValue();
+      }
+      break;
+    case SMALLINT:
+      if (value instanceof Number) {
+        return ((Number) value).shortValue();
+      }
+      break;
+    case INTEGER:
+    case DATE:
+    case TIME:
+    case INTERVAL_YEAR_MONTH:
+      if (value instanceof Number) {
+        return ((Number) value).intValue();
+      }
+      break;
+    case BIGINT:
+    case TIMESTAMP:
+    case INTERVAL_DAY_TIME:
+      if (value instanceof Number) {
+        return ((Number) value).longValue();
+      }
+      break;
+    case DOUBLE:
+      if (value instanceof Number) {
+        return ((Number) value).doubleValue();
+      }
+      break;
+    case REAL:
+    case FLOAT:
+      if (value instanceof Number) {
+        return ((Number) value).floatValue();
+      }
+      break;
+    case DECIMAL:
+      if (value instanceof Number) {
+        return toBigDecimal(value);
+      }
+      break;
+    }
+    throw unsupported(value + " as " + type);
+  }
+}
+
+// End RexInterpreter.java
@@ -16,9 +16,12 @@
  */
 package net.hydromatic.optiq.impl.clone;
 
+import net.hydromatic.avatica.ByteString;
+
 import net.hydromatic.linq4j.Enumerable;
 import net.hydromatic.linq4j.Linq4j;
 
+import net.hydromatic.optiq.Table;
 import net.hydromatic.optiq.jdbc.JavaTypeFactoryImpl;
 
 import org.eigenbase.reltype.RelDataType;
@@ -26,7 +29,16 @@
 
 import org.junit.Test;
 
+import com.google.common.base.Suppliers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.Buffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -225,6 +237,111 @@ public class ArrayTableTest {
     assertEquals(2, pair.cardinality);
   }
 
+  /** Large number of distinct strings. StringDictionary, with null, a
+   * common string and a very long string held as exceptions. */
+  @Test public void testStringDictionary() {
+    final char[] chars = new char[70000];
+    Arrays.fill(chars, 'x');
+    final String longString = new String(chars);
+    final ColumnLoader.ValueSet valueSet =
+        new ColumnLoader.ValueSet(String.class);
+    final List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 3000; i++) {
+      final String s = i % 13 == 0 ? null
+          : i % 10 == 0 ? "common"
+          : i == 2999 ? longString
+          : "s" + i;
+      valueSet.add(s);
+      expected.add(s);
+    }
+    final ArrayTable.Column pair = valueSet.freeze(0, null);
+    assertTrue(pair.representation instanceof ArrayTable.StringDictionary);
+    final ArrayTable.StringDictionary representation =
+        (ArrayTable.StringDictionary) pair.representation;
+    final ArrayTable.BlockData data = (ArrayTable.BlockData) pair.dataSet;
+    assertEquals(Arrays.<Comparable>asList("common", longString, null),
+        Arrays.asList(data.exceptions));
+    assertEquals(3000, representation.size(pair.dataSet));
+    assertEquals(expected, ArrayTable.Column.asList(representation,
+        pair.dataSet));
+    assertEquals(2495, pair.cardinality);
+    checkBounds(representation, data);
+    final int[] offsets = representation.offsets(data);
+    final int i1 = expected.indexOf("s1");
+    assertEquals("s1", representation.getObject(pair.dataSet, i1));
+    final int code1 = representation.getCode(pair.dataSet, i1);
+    final int next1 = offsets[Arrays.binarySearch(offsets, code1) + 1];
+    assertArrayEquals(new int[] {next1, next1},
+        representation.bounds(data, "s1!"));
+    assertArrayEquals(new int[] {0, 0}, representation.bounds(data, "a"));
+    assertArrayEquals(new int[] {data.blockLength, data.blockLength},
+        representation.bounds(data, "z"));
+
+    final int[] sources = new int[3000];
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = sources.length - 1 - i;
+    }
+    final ArrayTable.Column permuted = pair.permute(sources);
+    assertEquals(longString,
+        permuted.representation.getObject(permuted.dataSet, 0));
+    assertEquals("s2998",
+        permuted.representation.getObject(permuted.dataSet, 1));
+
+    // Values are strings, so there is no int value to return.
+    try {
+      final int i = representation.getInt(pair.dataSet, 1);
+      fail("expected error, got " + i);
+    } catch (UnsupportedOperationException e) {
+      assertEquals("getInt on a column of strings; use getObject or getCode",
+          e.getMessage());
+    }
+  }
+
+  @Test public void testByteStringDictionary() {
+    final ColumnLoader.ValueSet valueSet =
+        new ColumnLoader.ValueSet(ByteString.class);
+    final List<ByteString> expected = new ArrayList<ByteString>();
+    for (int i = 0; i < 3000; i++) {
+      final ByteString s = i % 13 == 0 ? null
+          : new ByteString(
+              new byte[] {(byte) i, (byte) (i >> 8), 1, 2, 3, 4, 5, 6});
+      valueSet.add(s);
+      expected.add(s);
+    }
+    final ArrayTable.Column pair = valueSet.freeze(0, null);
+    assertTrue(
+        pair.representation instanceof ArrayTable.ByteStringDictionary);
+    assertEquals(expected, ArrayTable.Column.asList(pair.representation,
+        pair.dataSet));
+    checkBounds((ArrayTable.BlockDictionary) pair.representation,
+        (ArrayTable.BlockData) pair.dataSet);
+  }
+
+  /** Checks that the bounds of each value in a block are its offset and
+   * the offset of the next value, and that values are in order. */
+  private void checkBounds(ArrayTable.BlockDictionary representation,
+      ArrayTable.BlockData data) {
+    final int[] offsets = representation.offsets(data);
+    for (int i = 0; i < offsets.length; i++) {
+      final Comparable value = representation.get(data.block, offsets[i]);
+      final int next =
+          i + 1 < offsets.length ? offsets[i + 1] : data.blockLength;
+      assertArrayEquals(new int[] {offsets[i], next},
+          representation.bounds(data, value));
+      if (i > 0) {
+        final Comparable previous =
+            representation.get(data.block, offsets[i - 1]);
+        //noinspection unchecked
+        assertTrue(previous.compareTo(value) < 0);
+        assertTrue(
+            representation.compare(data.block, offsets[i - 1], value) < 0);
+        assertTrue(
+            representation.compare(data.block, offsets[i], previous) > 0);
+      }
+      assertEquals(0, representation.compare(data.block, offsets[i], value));
+    }
+  }
+
   @Test public void testAllNull() {
     ArrayTable.Column pair;
 
@@ -349,6 +466,239 @@ public class ArrayTableTest {
         "Column(representation=ObjectArray(ordinal=2), value=[Bill, Sebastian, Theodore, Eric])");
   }
 
+  /** Writes content to a {@link ColumnFile}, reads it back, and checks
+   * that the columns have the same representations and values, and that
+   * primitive data sets are mapped rather than copied into heap. */
+  @Test public void testColumnFile() throws IOException {
+    final JavaTypeFactoryImpl typeFactory = new JavaTypeFactoryImpl();
+    final RelDataType rowType =
+        typeFactory.builder()
+            .add("id", typeFactory.createType(int.class))
+            .add("big", typeFactory.createType(long.class))
+            .add("half", typeFactory.createType(double.class))
+            .add("name", typeFactory.createType(String.class))
+            .add("color", typeFactory.createType(String.class))
+            .add("answer", typeFactory.createType(int.class))
+            .add("small", typeFactory.createType(short.class))
+            .add("price", typeFactory.createType(BigDecimal.class))
+            .build();
+    final String[] colors = {"red", "green", "blue", null};
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    for (int i = 0; i < 3000; i++) {
+      rows.add(
+          new Object[] {
+            i, i * -1000000000L, i / 2d, i % 7 == 0 ? null : "name" + i,
+            colors[i % 4], 42, (short) (i % 100 - 50),
+            BigDecimal.valueOf(i, 2)
+          });
+    }
+    final ColumnLoader<Object[]> loader =
+        new ColumnLoader<Object[]>(typeFactory, Linq4j.asEnumerable(rows),
+            RelDataTypeImpl.proto(rowType), null);
+    final ArrayTable.Content content =
+        new ArrayTable.Content(loader.representationValues, loader.size(),
+            loader.sortField);
+    final File file = File.createTempFile("optiq-test", ".optiq");
+    file.deleteOnExit();
+    ColumnFile.write(content, file);
+    final ArrayTable.Content content2 = ColumnFile.read(file);
+    assertEquals(content.size, content2.size);
+    assertEquals(content.sortField, content2.sortField);
+    assertEquals(content.columns.size(), content2.columns.size());
+    for (int i = 0; i < content.columns.size(); i++) {
+      final ArrayTable.Column column = content.columns.get(i);
+      final ArrayTable.Column column2 = content2.columns.get(i);
+      assertEquals(column.representation.toString(),
+          column2.representation.toString());
+      assertEquals(column.cardinality, column2.cardinality);
+      for (int j = 0; j < content.size; j++) {
+        assertEquals(column.representation.getObject(column.dataSet, j),
+            column2.representation.getObject(column2.dataSet, j));
+      }
+    }
+    assertEquals(ArrayTable.RepresentationType.PRIMITIVE_ARRAY,
+        content2.columns.get(1).representation.getType());
+    assertTrue(content2.columns.get(1).dataSet instanceof Buffer);
+    assertEquals(ArrayTable.RepresentationType.STRING_DICTIONARY,
+        content2.columns.get(3).representation.getType());
+    assertTrue(((ArrayTable.BlockData) content2.columns.get(3).dataSet).block
+        instanceof Buffer);
+    assertEquals(ArrayTable.RepresentationType.OBJECT_DICTIONARY,
+        content2.columns.get(4).representation.getType());
+    assertEquals(ArrayTable.RepresentationType.CONSTANT,
+        content2.columns.get(5).representation.getType());
+    assertEquals(42, content2.columns.get(5).representation.getObject(
+        content2.columns.get(5).dataSet, 17));
+
+    // Batch scan over mapped content.
+    final ArrayTable table =
+        new ArrayTable(Object[].class, RelDataTypeImpl.proto(rowType),
+            Suppliers.ofInstance(content2));
+    assertEquals(999,
+        table.scan(new int[] {0, 3},
+            new ArrayTable.Filter[] {
+              new ArrayTable.Filter(1, "LESS_THAN", -2000000000000L)
+            }).count());
+    assertEquals(499,
+        table.scan(new int[] {0},
+            new ArrayTable.Filter[] {
+              new ArrayTable.Filter(0, "GREATER_THAN", 2500)
+            }).count());
+  }
+
+  /** A clone table saved to a file is read from the file only if it was
+   * written for the same row type, and is reloaded if the file is
+   * corrupt. */
+  @Test public void testCloneTableFile() throws IOException {
+    final JavaTypeFactoryImpl typeFactory = new JavaTypeFactoryImpl();
+    final RelDataType rowType =
+        typeFactory.builder()
+            .add("empid", typeFactory.createType(int.class))
+            .add("name", typeFactory.createType(String.class))
+            .build();
+    final RelDataType rowType2 =
+        typeFactory.builder()
+            .add("deptno", typeFactory.createType(int.class))
+            .add("dname", typeFactory.createType(String.class))
+            .build();
+    final List<Object[]> emps = Arrays.asList(
+        new Object[] {100, "Bill"}, new Object[] {200, "Eric"});
+    final List<Object[]> depts = Arrays.asList(
+        new Object[] {10, "Sales"}, new Object[] {30, "Marketing"});
+    final File directory = File.createTempFile("optiq-test", "");
+    assertTrue(directory.delete());
+    final File file = new File(directory, "t.optiq");
+    try {
+      assertEquals("[[100, Bill], [200, Eric]]",
+          rows(
+              CloneSchema.createCloneTable(typeFactory,
+                  RelDataTypeImpl.proto(rowType), null,
+                  Linq4j.asEnumerable(emps), file)));
+      // The file has been written, and the temporary file removed.
+      assertEquals(Arrays.asList("t.optiq"),
+          Arrays.asList(directory.list()));
+      assertEquals("[[100, Bill], [200, Eric]]",
+          rows(
+              CloneSchema.createCloneTable(typeFactory,
+                  RelDataTypeImpl.proto(rowType), null,
+                  Linq4j.asEnumerable(new ArrayList<Object[]>()), file)));
+
+      // Same number of columns, but a different row type; reload.
+      assertEquals("[[10, Sales], [30, Marketing]]",
+          rows(
+              CloneSchema.createCloneTable(typeFactory,
+                  RelDataTypeImpl.proto(rowType2), null,
+                  Linq4j.asEnumerable(depts), file)));
+
+      // Corrupt the column count, which follows the fingerprint; reload.
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.seek(8);
+        final int fingerprintLength = raf.readInt();
+        raf.seek(20 + fingerprintLength);
+        raf.writeInt(-5);
+      } finally {
+        raf.close();
+      }
+      assertEquals("[[10, Sales], [30, Marketing]]",
+          rows(
+              CloneSchema.createCloneTable(typeFactory,
+                  RelDataTypeImpl.proto(rowType2), null,
+                  Linq4j.asEnumerable(depts), file)));
+    } finally {
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+      //noinspection ResultOfMethodCallIgnored
+      directory.delete();
+    }
+  }
+
+  /** Returns the rows of a two-column clone table as a string. */
+  private static String rows(Table table) {
+    final List<String> list = new ArrayList<String>();
+    for (Object row
+        : CloneSchema.scan(table, new int[] {0, 1}, new int[0],
+            new String[0], new Comparable[0][])) {
+      list.add(Arrays.toString((Object[]) row));
+    }
+    return list.toString();
+  }
+
+  /** Filters on dictionary-encoded columns are evaluated on codes, and
+   * return the same rows as evaluating them on values. */
+  @Test public void testCodeFilter() throws IOException {
+    final JavaTypeFactoryImpl typeFactory = new JavaTypeFactoryImpl();
+    final RelDataType rowType =
+        typeFactory.builder()
+            .add("color", typeFactory.createType(String.class))
+            .add("name", typeFactory.createType(String.class))
+            .build();
+    final String[] colors = {"blue", "green", "red", "yellow", null};
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    for (int i = 0; i < 5000; i++) {
+      rows.add(
+          new Object[] {
+            colors[i % 5],
+            i % 11 == 0 ? null : i % 10 == 0 ? "common" : "n" + (i % 3000)
+          });
+    }
+    final ColumnLoader<Object[]> loader =
+        new ColumnLoader<Object[]>(typeFactory, Linq4j.asEnumerable(rows),
+            RelDataTypeImpl.proto(rowType), null);
+    final ArrayTable.Content content =
+        new ArrayTable.Content(loader.representationValues, loader.size(),
+            loader.sortField);
+    assertEquals(ArrayTable.RepresentationType.OBJECT_DICTIONARY,
+        content.columns.get(0).representation.getType());
+    assertEquals(ArrayTable.RepresentationType.STRING_DICTIONARY,
+        content.columns.get(1).representation.getType());
+    final File file = File.createTempFile("optiq-test", ".optiq");
+    file.deleteOnExit();
+    ColumnFile.write(content, file);
+    final ArrayTable.Content mappedContent = ColumnFile.read(file);
+
+    final List<ArrayTable.Filter> filters =
+        new ArrayList<ArrayTable.Filter>();
+    for (int ordinal = 0; ordinal < 2; ordinal++) {
+      for (String value
+          : Arrays.asList("red", "n15", "common", "m", "n150x", "zzz")) {
+        for (ArrayTable.Op op : ArrayTable.Op.values()) {
+          switch (op) {
+          case IS_NULL:
+          case IS_NOT_NULL:
+            filters.add(new ArrayTable.Filter(ordinal, op.name(), null));
+            break;
+          case IN:
+            filters.add(
+                ArrayTable.Filter.in(ordinal,
+                    new Comparable[] {value, "blue", "n2999"}));
+            break;
+          default:
+            filters.add(new ArrayTable.Filter(ordinal, op.name(), value));
+          }
+        }
+      }
+    }
+    for (ArrayTable.Content c : Arrays.asList(content, mappedContent)) {
+      final ArrayTable table =
+          new ArrayTable(Object[].class, RelDataTypeImpl.proto(rowType),
+              Suppliers.ofInstance(c));
+      for (ArrayTable.Filter filter : filters) {
+        final ArrayTable.Column column = c.columns.get(filter.ordinal);
+        assertNotNull(filter.toCodeFilter(column));
+        int expected = 0;
+        for (int i = 0; i < c.size; i++) {
+          if (filter.test(column.representation.getObject(column.dataSet, i))) {
+            ++expected;
+          }
+        }
+        assertEquals(filter.toString(), expected,
+            table.scan(new int[] {0, 1}, new ArrayTable.Filter[] {filter})
+                .count());
+      }
+    }
+  }
+
   private void checkColumn(ArrayTable.Column x,
       ArrayTable.RepresentationType expectedRepresentationType,
       String expectedString) {
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
+import net.hydromatic.linq4j.function.Function1;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ExternalSort}.
+ */
+public class ExternalSortTest {
+  /** Selects the first field of a row as its sort key. */
+  private static final Function1<Object[], Integer> FIRST =
+      new Function1<Object[], Integer>() {
+        public Integer apply(Object[] a0) {
+          return (Integer) a0[0];
+        }
+      };
+
+  /** Rows {i % 97, i, "row i"}, so that many rows have the same key. */
+  private static Enumerable<Object[]> rows(int count) {
+    final List<Object[]> list = new ArrayList<Object[]>();
+    for (int i = 0; i < count; i++) {
+      list.add(new Object[] {i % 97, i, "row " + i});
+    }
+    return Linq4j.asEnumerable(list);
+  }
+
+  private static List<String> toStrings(Enumerable<Object[]> rows) {
+    final List<String> list = new ArrayList<String>();
+    for (Object[] row : rows) {
+      list.add(Arrays.toString(row));
+    }
+    return list;
+  }
+
+  private void checkSort(int count, long memoryBudget,
+      Comparator<Integer> comparator) {
+    final List<String> expected =
+        toStrings(comparator == null
+            ? rows(count).orderBy(FIRST)
+            : rows(count).orderBy(FIRST, comparator));
+    final List<String> actual =
+        toStrings(
+            ExternalSort.orderBy(rows(count), FIRST, comparator,
+                memoryBudget));
+    assertThat(actual.size(), equalTo(count));
+    assertThat(actual, equalTo(expected));
+  }
+
+  @Test public void testSortInMemory() {
+    checkSort(1000, Long.MAX_VALUE, null);
+  }
+
+  @Test public void testSortEmpty() {
+    checkSort(0, 0, null);
+  }
+
+  /** Small budget; many runs, which are merged in several passes. Rows with
+   * equal keys must stay in their original order. */
+  @Test public void testSortSpill() {
+    checkSort(1000, 0, null);
+    checkSort(10000, 2000, null);
+  }
+
+  @Test public void testSortSpillWithComparator() {
+    checkSort(5000, 2000, Collections.<Integer>reverseOrder());
+  }
+
+  /** Tests a sort whose input contains a row that cannot be written to a
+   * run file. Runs written before that row are merged with the rows sorted
+   * in memory. */
+  @Test public void testSortUnspillableRow() {
+    final List<Object[]> list = rows(1000).toList();
+    list.set(600, new Object[] {600 % 97, 600, new StringBuilder("x")});
+    final Enumerable<Object[]> rows = Linq4j.asEnumerable(list);
+    assertThat(
+        toStrings(ExternalSort.orderBy(rows, FIRST, null, 0)),
+        equalTo(toStrings(rows.orderBy(FIRST))));
+  }
+
+  /** Tests that a sort enumerator can be reset, and returns the same rows
+   * again without re-reading its input. */
+  @Test public void testReset() {
+    final int[] count = {0};
+    final Enumerable<Object[]> rows =
+        rows(1000).select(
+            new Function1<Object[], Object[]>() {
+              public Object[] apply(Object[] a0) {
+                ++count[0];
+                return a0;
+              }
+            });
+    final Enumerator<Object[]> enumerator =
+        ExternalSort.orderBy(rows, FIRST, null, 0).enumerator();
+    final List<String> expected = toStrings(rows(1000).orderBy(FIRST));
+    for (int i = 0; i < 2; i++) {
+      final List<String> actual = new ArrayList<String>();
+      while (enumerator.moveNext()) {
+        actual.add(Arrays.toString(enumerator.current()));
+      }
+      assertThat(actual, equalTo(expected));
+      enumerator.reset();
+    }
+    enumerator.close();
+    assertThat(count[0], equalTo(1000));
+  }
+
+  /** Tests that run files are deleted if the input fails part way through,
+   * even if the consumer does not close the enumerator. */
+  @Test public void testSpillFilesDeletedOnError() {
+    final Set<String> before = sortFiles();
+    final Enumerable<Object[]> rows =
+        rows(1000).select(
+            new Function1<Object[], Object[]>() {
+              public Object[] apply(Object[] a0) {
+                if ((Integer) a0[1] == 800) {
+                  throw new IllegalStateException("bad row");
+                }
+                return a0;
+              }
+            });
+    final Enumerator<Object[]> enumerator =
+        ExternalSort.orderBy(rows, FIRST, null, 0).enumerator();
+    try {
+      enumerator.moveNext();
+      fail("expected error");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage(), equalTo("bad row"));
+    }
+    final Set<String> after = sortFiles();
+    after.removeAll(before);
+    assertThat(after, equalTo(Collections.<String>emptySet()));
+  }
+
+  /** Returns the names of the sort run files in the temporary directory. */
+  private static Set<String> sortFiles() {
+    final Set<String> names = new HashSet<String>();
+    final File dir = new File(System.getProperty("java.io.tmpdir"));
+    final String[] list = dir.list();
+    if (list != null) {
+      for (String name : list) {
+        if (name.startsWith("optiq-sort")) {
+          names.add(name);
+        }
+      }
+    }
+    return names;
+  }
+}
+
+// End ExternalSortTest.java
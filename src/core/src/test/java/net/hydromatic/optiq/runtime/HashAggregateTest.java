@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
+import net.hydromatic.linq4j.function.*;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link HashAggregate}.
+ */
+public class HashAggregateTest {
+  /** Accumulator: {count, sum of the second field}. */
+  private static final Function0<long[]> INIT =
+      new Function0<long[]>() {
+        public long[] apply() {
+          return new long[2];
+        }
+      };
+
+  private static final Function2<long[], Object[], long[]> ADD =
+      new Function2<long[], Object[], long[]>() {
+        public long[] apply(long[] acc, Object[] row) {
+          ++acc[0];
+          acc[1] += (Integer) row[1];
+          return acc;
+        }
+      };
+
+  private static final Function2<Object, long[], String> RESULT =
+      new Function2<Object, long[], String>() {
+        public String apply(Object key, long[] acc) {
+          return key + ":" + acc[0] + ":" + acc[1];
+        }
+      };
+
+  /** Rows {key, i}, where key has {@code groupCount} distinct values
+   * (including null) of the class produced by {@code keyMaker}. */
+  private static Enumerable<Object[]> rows(int count, int groupCount,
+      Function1<Integer, Object> keyMaker) {
+    final List<Object[]> list = new ArrayList<Object[]>();
+    for (int i = 0; i < count; i++) {
+      final int g = (i * 7) % groupCount;
+      list.add(new Object[] {g == 0 ? null : keyMaker.apply(g), i});
+    }
+    return Linq4j.asEnumerable(list);
+  }
+
+  private static final Function1<Object[], Object> FIRST =
+      new Function1<Object[], Object>() {
+        public Object apply(Object[] a0) {
+          return a0[0];
+        }
+      };
+
+  private void checkAggregate(Function1<Integer, Object> keyMaker,
+      long memoryBudget) {
+    final List<String> expected =
+        rows(5000, 1000, keyMaker)
+            .groupBy(FIRST, INIT, ADD, RESULT)
+            .toList();
+    final List<String> actual =
+        HashAggregate.groupBy(rows(5000, 1000, keyMaker), FIRST, INIT, ADD,
+            RESULT, null, memoryBudget)
+            .toList();
+    assertThat(actual.size(), equalTo(1000));
+    Collections.sort(expected);
+    Collections.sort(actual);
+    assertThat(actual, equalTo(expected));
+  }
+
+  private static final Function1<Integer, Object> INT_KEY =
+      new Function1<Integer, Object>() {
+        public Object apply(Integer a0) {
+          return a0;
+        }
+      };
+
+  private static final Function1<Integer, Object> LONG_KEY =
+      new Function1<Integer, Object>() {
+        public Object apply(Integer a0) {
+          return (long) a0 * 1000000007L;
+        }
+      };
+
+  private static final Function1<Integer, Object> STRING_KEY =
+      new Function1<Integer, Object>() {
+        public Object apply(Integer a0) {
+          return "k" + a0;
+        }
+      };
+
+  @Test public void testIntKeyInMemory() {
+    checkAggregate(INT_KEY, Long.MAX_VALUE);
+  }
+
+  @Test public void testLongKeyInMemory() {
+    checkAggregate(LONG_KEY, Long.MAX_VALUE);
+  }
+
+  @Test public void testStringKeyInMemory() {
+    checkAggregate(STRING_KEY, Long.MAX_VALUE);
+  }
+
+  /** Budget so small that most groups are spilled, and spilled partitions
+   * spill again. */
+  @Test public void testSpill() {
+    checkAggregate(INT_KEY, 0);
+    checkAggregate(INT_KEY, 2000);
+    checkAggregate(STRING_KEY, 0);
+    checkAggregate(STRING_KEY, 2000);
+  }
+
+  /** Keys of mixed types cannot be stored in a {@code long[]}. */
+  @Test public void testMixedKeys() {
+    checkAggregate(
+        new Function1<Integer, Object>() {
+          public Object apply(Integer a0) {
+            return a0 % 2 == 0 ? (Object) a0 : (Object) (long) a0;
+          }
+        },
+        Long.MAX_VALUE);
+  }
+
+  /** Tests an input with a row that cannot be spilled, after many rows have
+   * been. The spilled rows are read back and aggregated in memory. */
+  @Test public void testUnspillableRow() {
+    final List<Object[]> list = rows(5000, 1000, STRING_KEY).toList();
+    final Object[] row = list.get(3000);
+    list.set(3000, new Object[] {row[0], row[1], new StringBuilder()});
+    final Enumerable<Object[]> rows = Linq4j.asEnumerable(list);
+    final List<String> expected =
+        rows.groupBy(FIRST, INIT, ADD, RESULT).toList();
+    final List<String> actual =
+        HashAggregate.groupBy(rows, FIRST, INIT, ADD, RESULT, null, 0)
+            .toList();
+    Collections.sort(expected);
+    Collections.sort(actual);
+    assertThat(actual, equalTo(expected));
+  }
+
+  /** Tests that an aggregate enumerator can be reset and read again. */
+  @Test public void testReset() {
+    final Enumerator<String> enumerator =
+        HashAggregate.groupBy(rows(5000, 1000, INT_KEY), FIRST, INIT, ADD,
+            RESULT, null, 0).enumerator();
+    for (int i = 0; i < 2; i++) {
+      int n = 0;
+      while (enumerator.moveNext()) {
+        ++n;
+      }
+      assertThat(n, equalTo(1000));
+      enumerator.reset();
+    }
+    enumerator.close();
+  }
+}
+
+// End HashAggregateTest.java
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
+import net.hydromatic.linq4j.function.Function1;
+import net.hydromatic.linq4j.function.Function2;
+import net.hydromatic.linq4j.function.Functions;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link HybridHashJoin}.
+ */
+public class HybridHashJoinTest {
+  private static final Function1<Integer, Integer> OUTER_KEY =
+      new Function1<Integer, Integer>() {
+        public Integer apply(Integer a0) {
+          return a0 % 50;
+        }
+      };
+
+  private static final Function1<Integer, Integer> INNER_KEY =
+      Functions.identitySelector();
+
+  private static final Function2<Integer, Integer, String> RESULT =
+      new Function2<Integer, Integer, String>() {
+        public String apply(Integer v0, Integer v1) {
+          return v0 + ":" + v1;
+        }
+      };
+
+  /** Outer rows 0 .. 999, whose keys are 0 .. 49. */
+  private static Enumerable<Integer> outer() {
+    return Linq4j.asEnumerable(range(0, 1000));
+  }
+
+  /** Inner rows 20 .. 79, some of which match no outer row; each value
+   * occurs twice. */
+  private static Enumerable<Integer> inner() {
+    final List<Integer> list = range(20, 80);
+    list.addAll(range(20, 80));
+    return Linq4j.asEnumerable(list);
+  }
+
+  private static List<Integer> range(int start, int end) {
+    final List<Integer> list = new ArrayList<Integer>();
+    for (int i = start; i < end; i++) {
+      list.add(i);
+    }
+    return list;
+  }
+
+  /** Joins using {@link HybridHashJoin} with a given budget and using
+   * linq4j's in-memory join, and checks that the results are the same. */
+  private void checkJoin(boolean generateNullsOnLeft,
+      boolean generateNullsOnRight, long memoryBudget, int expectedCount) {
+    final List<String> expected =
+        outer().join(inner(), OUTER_KEY, INNER_KEY, RESULT, null,
+            generateNullsOnLeft, generateNullsOnRight).toList();
+    final List<String> actual =
+        HybridHashJoin.join(outer(), inner(), OUTER_KEY, INNER_KEY, RESULT,
+            null, generateNullsOnLeft, generateNullsOnRight, memoryBudget)
+            .toList();
+    assertThat(actual.size(), equalTo(expectedCount));
+    Collections.sort(expected);
+    Collections.sort(actual);
+    assertThat(actual, equalTo(expected));
+  }
+
+  @Test public void testInnerJoinInMemory() {
+    checkJoin(false, false, Long.MAX_VALUE, 1200);
+  }
+
+  @Test public void testInnerJoinSpill() {
+    checkJoin(false, false, 0, 1200);
+    checkJoin(false, false, 1000, 1200);
+  }
+
+  @Test public void testLeftJoinSpill() {
+    checkJoin(false, true, 0, 1600);
+    checkJoin(false, true, 1000, 1600);
+  }
+
+  @Test public void testRightJoinSpill() {
+    checkJoin(true, false, 0, 1260);
+    checkJoin(true, false, 1000, 1260);
+  }
+
+  @Test public void testFullJoinSpill() {
+    checkJoin(true, true, 0, 1660);
+    checkJoin(true, true, 1000, 1660);
+  }
+
+  /** Tests that null keys match nothing, and that right and full joins
+   * still return the rows that have them. */
+  @Test public void testNullKeys() {
+    final Function1<Integer, Integer> nullableKey =
+        new Function1<Integer, Integer>() {
+          public Integer apply(Integer a0) {
+            return a0 % 10 == 0 ? null : a0;
+          }
+        };
+    for (long memoryBudget : new long[] {Long.MAX_VALUE, 0}) {
+      for (int i = 0; i < 4; i++) {
+        final boolean generateNullsOnLeft = i >= 2;
+        final boolean generateNullsOnRight = i % 2 == 1;
+        final List<String> list =
+            HybridHashJoin.join(Linq4j.asEnumerable(range(0, 100)),
+                Linq4j.asEnumerable(range(0, 100)), nullableKey,
+                nullableKey, RESULT, null, generateNullsOnLeft,
+                generateNullsOnRight, memoryBudget).toList();
+        assertThat(list.size(),
+            equalTo(90 + (generateNullsOnLeft ? 10 : 0)
+                + (generateNullsOnRight ? 10 : 0)));
+        assertFalse(list.contains("0:0"));
+        assertThat(list.contains("null:0"), equalTo(generateNullsOnLeft));
+        assertThat(list.contains("0:null"), equalTo(generateNullsOnRight));
+      }
+    }
+  }
+
+  /** Tests a join whose inputs contain rows that cannot be spilled. The
+   * join reads back the partitions it has spilled, and produces the same
+   * result as an in-memory join. */
+  @Test public void testUnspillableRows() {
+    final Function1<Object, Integer> key =
+        new Function1<Object, Integer>() {
+          public Integer apply(Object a0) {
+            return (a0 instanceof Holder ? ((Holder) a0).i : (Integer) a0)
+                % 50;
+          }
+        };
+    final Function2<Object, Object, String> result =
+        new Function2<Object, Object, String>() {
+          public String apply(Object v0, Object v1) {
+            return v0 + ":" + v1;
+          }
+        };
+    final List<Object> plain = new ArrayList<Object>(range(0, 200));
+    final List<Object> mixed = new ArrayList<Object>(range(0, 200));
+    mixed.set(150, new Holder(150));
+    mixed.set(199, new Holder(199));
+    for (int i = 0; i < 4; i++) {
+      // Case 0: unspillable rows on the probe side; case 1: on the build
+      // side; cases 2 and 3: on both sides, as right and full joins.
+      final Enumerable<Object> outer =
+          Linq4j.asEnumerable(i == 1 ? plain : mixed);
+      final Enumerable<Object> inner =
+          Linq4j.asEnumerable(i == 0 ? plain : mixed);
+      final boolean generateNullsOnLeft = i >= 2;
+      final boolean generateNullsOnRight = i == 3;
+      final List<String> expected =
+          outer.join(inner, key, key, result, null, generateNullsOnLeft,
+              generateNullsOnRight).toList();
+      final List<String> actual =
+          HybridHashJoin.join(outer, inner, key, key, result, null,
+              generateNullsOnLeft, generateNullsOnRight, 0).toList();
+      Collections.sort(expected);
+      Collections.sort(actual);
+      assertThat(actual, equalTo(expected));
+    }
+  }
+
+  /** Tests that a join enumerator can be reset and read again. */
+  @Test public void testReset() {
+    final Enumerator<String> enumerator =
+        HybridHashJoin.join(outer(), inner(), OUTER_KEY, INNER_KEY, RESULT,
+            null, true, true, 0).enumerator();
+    for (int i = 0; i < 2; i++) {
+      int n = 0;
+      while (enumerator.moveNext()) {
+        ++n;
+      }
+      assertThat(n, equalTo(1660));
+      enumerator.reset();
+    }
+    enumerator.close();
+    assertTrue(HybridHashJoin.isNullKey(Arrays.asList(1, null)));
+    assertFalse(HybridHashJoin.isNullKey(Arrays.asList(1, 2)));
+  }
+
+  /** Row that cannot be written to a {@link SpillFile}. */
+  private static class Holder {
+    final int i;
+
+    Holder(int i) {
+      this.i = i;
+    }
+
+    @Override public String toString() {
+      return String.valueOf(i);
+    }
+  }
+}
+
+// End HybridHashJoinTest.java
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.avatica.ByteString;
+
+import net.hydromatic.linq4j.Enumerator;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link SpillFile}.
+ */
+public class SpillFileTest {
+  /** Values of each type survive a round trip through the spill file
+   * format. */
+  @Test public void testRowFormat() throws IOException {
+    final Object[] row = {
+      null, true, false, (byte) 1, (short) -2, 3, 4L, 5.5f, 6.5d, 'x',
+      "", "abc", new BigDecimal("-123.4500"),
+      new ByteString(new byte[] {1, 2, 3}),
+      new java.sql.Date(86400000L), new java.sql.Time(3600000L),
+      new java.sql.Timestamp(1234567L),
+      new Object[] {1, "a"}, Arrays.asList(2, null, "b"),
+      Arrays.asList(1, 2, 3, 4, 5)
+    };
+    assertThat(SpillFile.RowWriter.canWrite(row), equalTo(true));
+    assertThat(SpillFile.RowWriter.canWrite(new Object[] {new Object()}),
+        equalTo(false));
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final SpillFile.RowWriter writer =
+        new SpillFile.RowWriter(new DataOutputStream(bytes));
+    writer.write(row);
+    writer.close();
+    final SpillFile.RowReader reader =
+        new SpillFile.RowReader(
+            new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+    final Object[] row2 = (Object[]) reader.read();
+    assertThat(Arrays.deepToString(row2), equalTo(Arrays.deepToString(row)));
+    assertThat(row2[4].getClass().getName(), equalTo("java.lang.Short"));
+    assertThat(row2[12], equalTo(row[12]));
+
+    // Lists come back as flat lists, which are comparable, as are the lists
+    // that generated code creates for rows of format JavaRowFormat.LIST.
+    assertThat(row2[18] instanceof FlatLists.ComparableList, equalTo(true));
+    assertThat(row2[19] instanceof FlatLists.ComparableList, equalTo(true));
+    assertThat(row2[19], equalTo(row[19]));
+  }
+
+  /** Rows written to a spill file can be read back, more than once, until
+   * the file is closed. */
+  @Test public void testWriteAndRead() {
+    final SpillFile spill = new SpillFile("test");
+    for (int i = 0; i < 100; i++) {
+      spill.write(new Object[] {i, "row " + i});
+    }
+    spill.finish();
+    assertThat(spill.count(), equalTo(100));
+    for (int j = 0; j < 2; j++) {
+      final Enumerator<Object[]> enumerator = spill.<Object[]>enumerator();
+      int i = 0;
+      while (enumerator.moveNext()) {
+        assertThat(Arrays.toString(enumerator.current()),
+            equalTo("[" + i + ", row " + i + "]"));
+        ++i;
+      }
+      enumerator.close();
+      assertThat(i, equalTo(100));
+    }
+    spill.close();
+    assertThat(spill.count(), equalTo(0));
+  }
+
+  /** Each level of recursion assigns keys to partitions differently. */
+  @Test public void testPartition() {
+    int same = 0;
+    for (int i = 0; i < 1000; i++) {
+      final int p0 = SpillFile.partition(i, 0);
+      final int p1 = SpillFile.partition(i, 1);
+      assertTrue(p0 >= 0 && p0 < SpillFile.PARTITION_COUNT);
+      if (p0 == p1) {
+        ++same;
+      }
+    }
+    assertTrue(same < 200);
+  }
+
+  @Test public void testEstimateSize() {
+    assertThat(SpillFile.estimateSize(null), equalTo(0L));
+    assertThat(SpillFile.estimateSize(1), equalTo(16L));
+    assertThat(SpillFile.estimateSize(new Object[] {1, "ab"}),
+        equalTo(16L + 16L + 16L + 44L));
+  }
+}
+
+// End SpillFileTest.java
@@ -16,8 +16,28 @@
  */
 package net.hydromatic.optiq.test;
 
+import net.hydromatic.linq4j.function.Function1;
+
+import net.hydromatic.optiq.SchemaPlus;
+import net.hydromatic.optiq.Statistic;
+import net.hydromatic.optiq.impl.jdbc.JdbcSchema;
+import net.hydromatic.optiq.jdbc.OptiqConnection;
+import net.hydromatic.optiq.runtime.Hook;
+import net.hydromatic.optiq.util.BitSets;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+
 import org.junit.Test;
 
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
 /**
  * Tests for the {@code net.hydromatic.optiq.impl.jdbc} package.
  */
@@ -87,6 +107,220 @@ public class JdbcAdapterTest {
             + "store_id=16; store_name=Store 16\n"
             + "store_id=24; store_name=Store 24\n");
   }
+
+  /** Tests that a JDBC table reports the number of rows in the underlying
+   * table, so that the planner does not use a default row count. The
+   * database does not report the row count of "days", so the schema must be
+   * allowed to count the rows. */
+  @Test public void testStatistic() {
+    OptiqAssert.that()
+        .withModel(
+            "{\n"
+            + "  version: '1.0',\n"
+            + "  defaultSchema: 'foodmart',\n"
+            + "  schemas: [\n"
+            + "    {\n"
+            + "      type: 'custom',\n"
+            + "      name: 'foodmart',\n"
+            + "      factory: '" + JdbcSchema.Factory.class.getName() + "',\n"
+            + "      operand: {\n"
+            + "        jdbcDriver: '" + OptiqAssert.CONNECTION_SPEC.driver
+            + "',\n"
+            + "        jdbcUser: '" + OptiqAssert.CONNECTION_SPEC.username
+            + "',\n"
+            + "        jdbcPassword: '" + OptiqAssert.CONNECTION_SPEC.password
+            + "',\n"
+            + "        jdbcUrl: '" + OptiqAssert.CONNECTION_SPEC.url + "',\n"
+            + "        jdbcSchema: 'foodmart',\n"
+            + "        statisticCount: true\n"
+            + "      }\n"
+            + "    }\n"
+            + "  ]\n"
+            + "}")
+        .doWithConnection(
+            new Function1<OptiqConnection, Void>() {
+              public Void apply(OptiqConnection connection) {
+                final SchemaPlus foodmart =
+                    connection.getRootSchema().getSubSchema("foodmart");
+                final Statistic statistic =
+                    foodmart.getTable("days").getStatistic();
+                assertThat(statistic.getRowCount(), equalTo(7d));
+                return null;
+              }
+            });
+  }
+
+  /** Tests the keys and distinct-value counts that a JDBC table reports, and
+   * that rows are counted only if the schema allows it. */
+  @Test public void testStatisticKeys() throws SQLException {
+    final String db = TempDb.INSTANCE.getUrl();
+    final Connection c = DriverManager.getConnection(db, "", "");
+    final Statement s = c.createStatement();
+    s.execute("create table keyed(id integer not null primary key, "
+        + "code varchar(10) not null, v integer)");
+    s.execute("create unique index keyed_code on keyed(code)");
+    for (int i = 0; i < 20; i++) {
+      s.execute("insert into keyed values(" + i + ", 'c" + i + "', "
+          + (i % 3) + ")");
+    }
+    c.close();
+
+    final Connection connection = DriverManager.getConnection("jdbc:optiq:");
+    try {
+      final SchemaPlus rootSchema =
+          connection.unwrap(OptiqConnection.class).getRootSchema();
+      rootSchema.add("DB",
+          JdbcSchema.create(rootSchema, "DB",
+              ImmutableMap.<String, Object>of("jdbcUrl", db,
+                  "jdbcDriver", "org.hsqldb.jdbcDriver",
+                  "jdbcUser", "",
+                  "jdbcPassword", "")));
+      rootSchema.add("DB2",
+          JdbcSchema.create(rootSchema, "DB2",
+              ImmutableMap.<String, Object>of("jdbcUrl", db,
+                  "jdbcDriver", "org.hsqldb.jdbcDriver",
+                  "jdbcUser", "",
+                  "jdbcPassword", "",
+                  "statisticCount", true)));
+      final BitSet id = BitSets.of(0);
+      final BitSet code = BitSets.of(1);
+      final BitSet v = BitSets.of(2);
+
+      // Without counting, keys are still known.
+      final Statistic statistic =
+          rootSchema.getSubSchema("DB").getTable("KEYED").getStatistic();
+      assertThat(statistic.isKey(id), is(true));
+      assertThat(statistic.isKey(code), is(true));
+      assertThat(statistic.isKey(BitSets.of(0, 2)), is(true));
+      assertThat(statistic.isKey(v), is(false));
+
+      // With counting, the row count is known, and is the number of distinct
+      // values of each key.
+      final Statistic statistic2 =
+          rootSchema.getSubSchema("DB2").getTable("KEYED").getStatistic();
+      assertThat(statistic2.getRowCount(), equalTo(20d));
+      assertThat(statistic2.isKey(id), is(true));
+      assertThat(statistic2.isKey(v), is(false));
+      assertThat(statistic2.getDistinctRowCount(id), equalTo(20d));
+      assertThat(statistic2.getDistinctRowCount(code), equalTo(20d));
+      assertThat(statistic2.getDistinctRowCount(v), nullValue());
+    } finally {
+      connection.close();
+    }
+  }
+
+  /** Tests a JDBC schema that fetches rows from the database a few at a
+   * time. The result must be the same as with the driver's default. */
+  @Test public void testFetchSize() {
+    OptiqAssert.that()
+        .withModel(
+            "{\n"
+            + "  version: '1.0',\n"
+            + "  defaultSchema: 'foodmart',\n"
+            + "  schemas: [\n"
+            + "    {\n"
+            + "      type: 'custom',\n"
+            + "      name: 'foodmart',\n"
+            + "      factory: '" + JdbcSchema.Factory.class.getName() + "',\n"
+            + "      operand: {\n"
+            + "        jdbcDriver: '" + OptiqAssert.CONNECTION_SPEC.driver
+            + "',\n"
+            + "        jdbcUser: '" + OptiqAssert.CONNECTION_SPEC.username
+            + "',\n"
+            + "        jdbcPassword: '" + OptiqAssert.CONNECTION_SPEC.password
+            + "',\n"
+            + "        jdbcUrl: '" + OptiqAssert.CONNECTION_SPEC.url + "',\n"
+            + "        jdbcSchema: 'foodmart',\n"
+            + "        fetchSize: 2\n"
+            + "      }\n"
+            + "    }\n"
+            + "  ]\n"
+            + "}")
+        .query(
+            "select \"day\", \"week_day\" from \"days\" where \"day\" < 4")
+        .returnsUnordered(
+            "day=1; week_day=Sunday",
+            "day=2; week_day=Monday",
+            "day=3; week_day=Tuesday");
+  }
+
+  /** Tests that a scan of a table with an integer primary key is split into
+   * several concurrent queries, and that a sort is merged in order, including
+   * a sort of a table with one column, whose rows are not arrays. */
+  @Test public void testPartitionedScan() throws SQLException {
+    final String db = TempDb.INSTANCE.getUrl();
+    final Connection c = DriverManager.getConnection(db, "", "");
+    final Statement s = c.createStatement();
+    s.execute("create table t(id integer not null primary key, "
+        + "v integer not null)");
+    for (int i = 0; i < 100; i++) {
+      s.execute("insert into t values(" + i + ", " + (i * 37 % 100) + ")");
+    }
+    s.execute("create table u(id integer not null primary key)");
+    for (int i = 0; i < 100; i++) {
+      s.execute("insert into u values(" + (i * 37 % 100) + ")");
+    }
+    c.close();
+
+    final Connection connection = DriverManager.getConnection("jdbc:optiq:");
+    final SchemaPlus rootSchema =
+        connection.unwrap(OptiqConnection.class).getRootSchema();
+    rootSchema.add("DB",
+        JdbcSchema.create(rootSchema, "DB",
+            ImmutableMap.<String, Object>of("jdbcUrl", db,
+                "jdbcDriver", "org.hsqldb.jdbcDriver",
+                "jdbcUser", "",
+                "jdbcPassword", "",
+                "scanParallelism", 4,
+                "fetchSize", 10)));
+    final List<String> sqls = new ArrayList<String>();
+    final Hook.Closeable hook = Hook.QUERY_PLAN.addThread(
+        new Function<Object, Void>() {
+          public Void apply(Object sql) {
+            sqls.add((String) sql);
+            return null;
+          }
+        });
+    try {
+      final Statement statement = connection.createStatement();
+      ResultSet resultSet = statement.executeQuery("select * from db.t");
+      final boolean[] seen = new boolean[100];
+      int n = 0;
+      while (resultSet.next()) {
+        seen[resultSet.getInt(1)] = true;
+        ++n;
+      }
+      resultSet.close();
+      assertThat(n, equalTo(100));
+      for (boolean b : seen) {
+        assertTrue(b);
+      }
+      assertThat(sqls.get(0), containsString(">= ?"));
+
+      resultSet =
+          statement.executeQuery("select * from db.t order by v desc");
+      n = 0;
+      while (resultSet.next()) {
+        assertThat(resultSet.getInt(2), equalTo(99 - n));
+        ++n;
+      }
+      resultSet.close();
+      assertThat(n, equalTo(100));
+
+      resultSet =
+          statement.executeQuery("select * from db.u order by id desc");
+      n = 0;
+      while (resultSet.next()) {
+        assertThat(resultSet.getInt(1), equalTo(99 - n));
+        ++n;
+      }
+      resultSet.close();
+      assertThat(n, equalTo(100));
+    } finally {
+      hook.close();
+      connection.close();
+    }
+  }
 }
 
 // End JdbcAdapterTest.java
@@ -34,6 +34,7 @@
 import net.hydromatic.optiq.impl.jdbc.JdbcSchema;
 import net.hydromatic.optiq.jdbc.*;
 import net.hydromatic.optiq.jdbc.Driver;
+import net.hydromatic.optiq.prepare.BindableCache;
 import net.hydromatic.optiq.prepare.OptiqPrepareImpl;
 import net.hydromatic.optiq.prepare.Prepare;
 import net.hydromatic.optiq.runtime.Hook;
@@ -42,6 +43,7 @@
 
 import org.eigenbase.rel.*;
 import org.eigenbase.relopt.*;
+import org.eigenbase.relopt.volcano.VolcanoPlanner;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeFactory;
 import org.eigenbase.reltype.RelProtoDataType;
@@ -983,6 +985,66 @@ public Object apply(OptiqConnection c) {
             + "the_year=1998; C=365; M=April\n");
   }
 
+  /** Tests that filters on a clone table are evaluated by a columnar scan
+   * if the "columnarScan" connection property is set. */
+  @Test public void testColumnarScan() {
+    final OptiqAssert.AssertThat with = OptiqAssert.that()
+        .with(
+            new OptiqAssert.ConnectionFactory() {
+              public OptiqConnection createConnection() throws Exception {
+                Class.forName("net.hydromatic.optiq.jdbc.Driver");
+                final Properties info = new Properties();
+                info.setProperty("columnarScan", "true");
+                final Connection connection =
+                    DriverManager.getConnection("jdbc:optiq:", info);
+                final OptiqConnection optiqConnection =
+                    connection.unwrap(OptiqConnection.class);
+                final SchemaPlus rootSchema = optiqConnection.getRootSchema();
+                OptiqAssert.addSchema(rootSchema,
+                    OptiqAssert.SchemaSpec.JDBC_FOODMART);
+                OptiqAssert.addSchema(rootSchema,
+                    OptiqAssert.SchemaSpec.CLONE_FOODMART);
+                optiqConnection.setSchema("foodmart2");
+                return optiqConnection;
+              }
+            });
+    final String sql = "select \"the_year\", count(*) as c,"
+        + " min(\"the_month\") as m\n"
+        + "from \"foodmart2\".\"time_by_day\"\n"
+        + "where \"the_month\" = 'April'\n"
+        + "group by \"the_year\"\n"
+        + "order by 1, 2";
+    with.query(sql)
+        .explainContains("ArrayTableScan(table=[[foodmart2, time_by_day]]");
+    with.query(sql)
+        .returns(""
+            + "the_year=1997; C=30; M=April\n"
+            + "the_year=1998; C=30; M=April\n");
+
+    // No columns are needed after the filter.
+    with.query("select count(*) as c from \"foodmart2\".\"time_by_day\"\n"
+        + "where 'April' = \"the_month\" and \"the_month\" is not null")
+        .returns("C=60\n");
+
+    // Part of the condition cannot be evaluated by the scan.
+    with.query("select count(*) as c from \"foodmart2\".\"time_by_day\"\n"
+        + "where \"the_month\" = 'April'\n"
+        + "and upper(\"the_month\") = 'APRIL'")
+        .returns("C=60\n");
+
+    // IN, and several comparisons on the same column.
+    final String sql2 = "select count(*) as c\n"
+        + "from \"foodmart2\".\"time_by_day\"\n"
+        + "where \"the_month\" in ('April', 'May')";
+    with.query(sql2)
+        .explainContains("IN($");
+    with.query(sql2)
+        .returns("C=122\n");
+    with.query("select count(*) as c from \"foodmart2\".\"time_by_day\"\n"
+        + "where \"the_month\" < 'B' and \"the_month\" <> 'August'")
+        .returns("C=60\n");
+  }
+
   @Ignore
   @Test public void testCloneGroupBy2() {
     OptiqAssert.that()
@@ -3159,6 +3221,33 @@ private static ImmutableMultimap<Class, Integer> x() {
             "deptno=10; empid=150; S=18760.0; FIVE=5; M=7000.0; C=2; C2=3; C11=3; C11DEPT=2");
   }
 
+  /** Tests window aggregates over frames that slide forward; rows that leave
+   * the frame are removed from the aggregates rather than the frame being
+   * recomputed. The queue behind MIN and MAX is allocated once and cleared
+   * when the frame is recomputed. */
+  @Test public void testWinAggSliding() {
+    OptiqAssert.that()
+        .with(OptiqAssert.Config.REGULAR)
+        .query(
+            "select \"empid\",\n"
+            + " sum(\"empid\") over w as s,\n"
+            + " count(\"commission\") over w as c,\n"
+            + " min(\"commission\") over w as mi,\n"
+            + " max(\"commission\") over w as ma,\n"
+            + " max(\"salary\") over w2 as m2\n"
+            + "from \"hr\".\"emps\"\n"
+            + "window w as (order by \"empid\" rows 1 preceding),\n"
+            + " w2 as (partition by \"deptno\" order by \"empid\"\n"
+            + "   rows between 1 preceding and 1 following)")
+        .planContains("s0w0.remove(k);")
+        .planContains("s0w0.clear();")
+        .returnsUnordered(
+            "empid=100; S=100; C=1; MI=1000; MA=1000; M2=11500.0",
+            "empid=110; S=210; C=2; MI=250; MA=1000; M2=11500.0",
+            "empid=150; S=260; C=1; MI=250; MA=250; M2=11500.0",
+            "empid=200; S=350; C=1; MI=500; MA=500; M2=8000.0");
+  }
+
   /**
    * Tests that window aggregates work when computed over non-nullable
    * {@link net.hydromatic.optiq.rules.java.JavaRowFormat#SCALAR} inputs.
@@ -3166,10 +3255,12 @@ private static ImmutableMultimap<Class, Integer> x() {
    * primitives are properly boxed and un-boxed.
    */
   @Test public void testWinAggScalarNonNullPhysType() {
-    String planLine =
-        "a0s0w0 = net.hydromatic.optiq.runtime.SqlFunctions.lesser(a0s0w0, net.hydromatic.optiq.runtime.SqlFunctions.toFloat(_rows[j]));";
+    final String planLine =
+        "net.hydromatic.optiq.runtime.SqlFunctions.toFloat(_rows[j])";
+    String removeLine =
+        "a0s0w0.remove(k);";
     if (OptiqPrepareImpl.DEBUG) {
-      planLine = planLine.replaceAll("a0s0w0", "MINa0s0w0");
+      removeLine = removeLine.replaceAll("a0s0w0", "MINa0s0w0");
     }
     OptiqAssert.that()
         .with(OptiqAssert.Config.REGULAR)
@@ -3180,6 +3271,7 @@ private static ImmutableMultimap<Class, Integer> x() {
         .typeIs(
             "[M REAL]")
         .planContains(planLine)
+        .planContains(removeLine)
         .returnsUnordered(
             "M=7001.0",
             "M=7001.0",
@@ -3192,10 +3284,12 @@ private static ImmutableMultimap<Class, Integer> x() {
    * when input is {@link org.eigenbase.rel.WindowRel} and literal.
    */
   @Test public void testWinAggScalarNonNullPhysTypePlusOne() {
-    String planLine =
-        "a0s0w0 = net.hydromatic.optiq.runtime.SqlFunctions.lesser(a0s0w0, net.hydromatic.optiq.runtime.SqlFunctions.toFloat(_rows[j]));";
+    final String planLine =
+        "net.hydromatic.optiq.runtime.SqlFunctions.toFloat(_rows[j])";
+    String removeLine =
+        "a0s0w0.remove(k);";
     if (OptiqPrepareImpl.DEBUG) {
-      planLine = planLine.replaceAll("a0s0w0", "MINa0s0w0");
+      removeLine = removeLine.replaceAll("a0s0w0", "MINa0s0w0");
     }
     OptiqAssert.that()
         .with(OptiqAssert.Config.REGULAR)
@@ -3206,6 +3300,7 @@ private static ImmutableMultimap<Class, Integer> x() {
         .typeIs(
             "[M REAL]")
         .planContains(planLine)
+        .planContains(removeLine)
         .returnsUnordered(
             "M=7002.0",
             "M=7002.0",
@@ -3964,13 +4059,19 @@ private void startOfGroupStep3(String startOfGroup) {
             "empid=100; deptno=10; name=Bill; salary=10000.0; commission=1000\n");
   }
 
-  /** Tests the LIKE operator. */
+  /** Tests the LIKE operator. The matcher for a literal pattern is
+   * created once, in a static field, rather than for each row. */
   @Test public void testLike() {
     OptiqAssert.that()
         .with(OptiqAssert.Config.REGULAR)
         .query(
             "select * from \"hr\".\"emps\"\n"
             + "where \"name\" like '%i__'")
+        .planContains(
+            "static final net.hydromatic.optiq.runtime.Like.Matcher $L4J$C$")
+        .planContains(
+            " = net.hydromatic.optiq.runtime.SqlFunctions.likeMatcher("
+            + "\"%i__\");")
         .returns(
             "empid=100; deptno=10; name=Bill; salary=10000.0; commission=1000\n"
             + "empid=150; deptno=10; name=Sebastian; salary=7000.0; commission=null\n");
@@ -5705,6 +5806,401 @@ public Void apply(Object[] args) {
     }
   }
 
+  /** Tests that a statement that generates the same Java code as a previous
+   * statement re-uses the compiled class from {@link BindableCache}. */
+  @Test public void testBindableCache() {
+    final List<BindableCache.Stats> statsList =
+        new ArrayList<BindableCache.Stats>();
+    final Hook.Closeable hook = Hook.BINDABLE_CACHE.addThread(
+        new Function<BindableCache.Stats, Void>() {
+          public Void apply(BindableCache.Stats stats) {
+            statsList.add(stats);
+            return null;
+          }
+        });
+    try {
+      testGroupByNull();
+      testGroupByNull();
+      assertThat(statsList.size(), equalTo(2));
+      final BindableCache.Stats stats0 = statsList.get(0);
+      final BindableCache.Stats stats1 = statsList.get(1);
+      assertThat(stats1.hitCount, equalTo(stats0.hitCount + 1));
+      assertThat(stats1.missCount, equalTo(stats0.missCount));
+    } finally {
+      hook.close();
+    }
+  }
+
+  /** Tests that with "parameterizeLiterals", queries that differ only in the
+   * values of their literals are planned and compiled once. */
+  @Test public void testParameterizeLiterals() throws Exception {
+    final OptiqAssert.AssertThat with =
+        withHr("parameterizeLiterals", "true");
+    final List<String> results = new ArrayList<String>();
+    assertThat(
+        countPlans(with, results,
+            "select \"name\" from \"emps\" where \"empid\" = 100",
+            "select \"name\" from \"emps\" where \"empid\" = 200"),
+        equalTo(1));
+    assertThat(results, equalTo(Arrays.asList("name=Bill\n", "name=Eric\n")));
+
+    // Character literals are replaced too.
+    results.clear();
+    assertThat(
+        countPlans(with, results,
+            "select \"empid\" from \"emps\" where \"name\" = 'Eric'",
+            "select \"empid\" from \"emps\" where \"name\" = 'Theodore'"),
+        equalTo(1));
+    assertThat(results, equalTo(Arrays.asList("empid=200\n", "empid=110\n")));
+
+    // User parameters and literals can be mixed.
+    with.doWithConnection(
+        new Function1<OptiqConnection, Void>() {
+          public Void apply(OptiqConnection connection) {
+            try {
+              final PreparedStatement preparedStatement =
+                  connection.prepareStatement(
+                      "select \"name\" from \"emps\"\n"
+                      + "where \"deptno\" = ? and \"empid\" > 140");
+              assertThat(
+                  preparedStatement.getParameterMetaData()
+                      .getParameterCount(),
+                  equalTo(1));
+              preparedStatement.setInt(1, 10);
+              assertThat(
+                  OptiqAssert.toString(preparedStatement.executeQuery()),
+                  equalTo("name=Sebastian\n"));
+              preparedStatement.close();
+              return null;
+            } catch (SQLException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+  }
+
+  /** Tests that with "parameterizeLiterals", a statement that failed to
+   * prepare is not parameterized again until a schema changes, that it is
+   * parameterized once it succeeds, and that a parameterized plan is
+   * discarded when a schema changes. */
+  @Test public void testParameterizeLiteralsSchemaChange() throws Exception {
+    final Properties info = new Properties();
+    info.setProperty("parameterizeLiterals", "true");
+    final OptiqConnection connection = (OptiqConnection)
+        DriverManager.getConnection("jdbc:optiq:", info);
+    final SchemaPlus rootSchema = connection.getRootSchema();
+    final int[] planCount = {0};
+    final Hook.Closeable hook = Hook.JAVA_PLAN.addThread(
+        new Function<String, Void>() {
+          public Void apply(String code) {
+            ++planCount[0];
+            return null;
+          }
+        });
+    final int[] parseCount = {0};
+    final Hook.Closeable parseHook = Hook.PARSE_TREE.addThread(
+        new Function<Object[], Void>() {
+          public Void apply(Object[] args) {
+            ++parseCount[0];
+            return null;
+          }
+        });
+    try {
+      final Statement statement = connection.createStatement();
+      for (int i = 0; i < 2; i++) {
+        try {
+          statement.executeQuery(
+              "select \"name\" from \"hr\".\"emps\" where \"empid\" = 100");
+          fail("expected error");
+        } catch (SQLException e) {
+          // Table does not exist yet.
+        }
+      }
+      // The first execution tried the parameterized statement, then the
+      // original; the second remembered the failure and went straight to
+      // the original.
+      assertThat(parseCount[0], equalTo(3));
+
+      rootSchema.add("hr", new ReflectiveSchema(new HrSchema()));
+      planCount[0] = 0;
+      ResultSet resultSet = statement.executeQuery(
+          "select \"name\" from \"hr\".\"emps\" where \"empid\" = 100");
+      assertThat(OptiqAssert.toString(resultSet), equalTo("name=Bill\n"));
+      resultSet = statement.executeQuery(
+          "select \"name\" from \"hr\".\"emps\" where \"empid\" = 200");
+      assertThat(OptiqAssert.toString(resultSet), equalTo("name=Eric\n"));
+      assertThat(planCount[0], equalTo(1));
+
+      // Adding a schema changes the root schema; the plan is discarded.
+      rootSchema.add("hr2", new ReflectiveSchema(new HrSchema()));
+      resultSet = statement.executeQuery(
+          "select \"name\" from \"hr\".\"emps\" where \"empid\" = 100");
+      assertThat(OptiqAssert.toString(resultSet), equalTo("name=Bill\n"));
+      assertThat(planCount[0], equalTo(2));
+      statement.close();
+    } finally {
+      parseHook.close();
+      hook.close();
+      connection.close();
+    }
+  }
+
+  /** Tests that with "planCache", statements that differ in their SQL but
+   * have the same logical plan are optimized and compiled once, and that a
+   * cached plan is discarded when a schema changes. */
+  @Test public void testPlanCache() throws Exception {
+    final OptiqAssert.AssertThat with = withHr("planCache", "true");
+    final String sql =
+        "select e.\"name\" from \"emps\" as e where e.\"deptno\" = 20";
+    final List<String> results = new ArrayList<String>();
+    assertThat(
+        countPlans(with, results, sql,
+            // Different alias and white space; same logical plan.
+            "select  x.\"name\"\nfrom \"hr\".\"emps\" x\n"
+            + "where x.\"deptno\" = 20"),
+        equalTo(1));
+    assertThat(results, equalTo(Arrays.asList("name=Eric\n", "name=Eric\n")));
+
+    // Adding a schema changes the root schema; the plan is discarded.
+    assertThat(
+        countPlans(with,
+            new Function1<OptiqConnection, Void>() {
+              public Void apply(OptiqConnection connection) {
+                assertThat(executeQuery(connection, sql),
+                    equalTo("name=Eric\n"));
+                connection.getRootSchema()
+                    .add("hr2", new ReflectiveSchema(new HrSchema()));
+                assertThat(executeQuery(connection, sql),
+                    equalTo("name=Eric\n"));
+                return null;
+              }
+            }),
+        equalTo(2));
+  }
+
+  /** Tests that with "planCache", a plan that the planner settled for when
+   * it ran out of budget is not cached. */
+  @Test public void testPlanCacheBudgetExceeded() throws Exception {
+    final String sql = "select d.\"name\", count(*) as c\n"
+        + "from \"emps\" as e\n"
+        + "join \"depts\" as d on e.\"deptno\" = d.\"deptno\"\n"
+        + "group by d.\"name\"";
+    assertThat(
+        countPlans(
+            withHr(
+                ImmutableMap.of("planCache", "true",
+                    "plannerRuleBudget", "1")),
+            null, sql, sql),
+        equalTo(2));
+    assertThat(countPlans(withHr("planCache", "true"), null, sql, sql),
+        equalTo(1));
+  }
+
+  /** Executes a list of queries on one connection, and returns the number of
+   * Java plans that were generated. If {@code results} is not null, adds the
+   * result of each query to it. */
+  private static int countPlans(OptiqAssert.AssertThat with,
+      final List<String> results, final String... sqls) throws Exception {
+    return countPlans(with,
+        new Function1<OptiqConnection, Void>() {
+          public Void apply(OptiqConnection connection) {
+            for (String sql : sqls) {
+              final String result = executeQuery(connection, sql);
+              if (results != null) {
+                results.add(result);
+              }
+            }
+            return null;
+          }
+        });
+  }
+
+  /** Calls a function with a connection, and returns the number of Java
+   * plans that were generated. */
+  private static int countPlans(OptiqAssert.AssertThat with,
+      Function1<OptiqConnection, Void> fn) throws Exception {
+    final int[] planCount = {0};
+    final Hook.Closeable hook = Hook.JAVA_PLAN.addThread(
+        new Function<String, Void>() {
+          public Void apply(String code) {
+            ++planCount[0];
+            return null;
+          }
+        });
+    try {
+      with.doWithConnection(fn);
+    } finally {
+      hook.close();
+    }
+    return planCount[0];
+  }
+
+  /** Executes a query and returns its result as a string. */
+  private static String executeQuery(Connection connection, String sql) {
+    try {
+      final Statement statement = connection.createStatement();
+      try {
+        return OptiqAssert.toString(statement.executeQuery(sql));
+      } finally {
+        statement.close();
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Returns a connection with "hr" as its default schema and a given
+   * connection property set. */
+  private static OptiqAssert.AssertThat withHr(String name, String value) {
+    return withHr(ImmutableMap.of(name, value));
+  }
+
+  /** Returns a connection with "hr" as its default schema and given
+   * connection properties set. */
+  private static OptiqAssert.AssertThat withHr(
+      final Map<String, String> properties) {
+    return OptiqAssert.that()
+        .with(
+            new OptiqAssert.ConnectionFactory() {
+              public OptiqConnection createConnection() throws Exception {
+                Class.forName("net.hydromatic.optiq.jdbc.Driver");
+                final Properties info = new Properties();
+                info.putAll(properties);
+                final OptiqConnection connection = (OptiqConnection)
+                    DriverManager.getConnection("jdbc:optiq:", info);
+                connection.getRootSchema()
+                    .add("hr", new ReflectiveSchema(new HrSchema()));
+                connection.setSchema("hr");
+                return connection;
+              }
+            });
+  }
+
+  /** Tests joins with a "joinMemoryBudget" so small that the build side
+   * spills to disk. Rows of VALUES can be spilled; rows of a reflective
+   * schema cannot, so that join reads them back and runs in memory. */
+  @Test public void testJoinMemoryBudget() {
+    final OptiqAssert.AssertThat with = withHr("joinMemoryBudget", "0");
+    with.query(
+        "select t.x, t.y, u.z\n"
+        + "from (values (1, 'a'), (2, 'b'), (3, 'c'),\n"
+        + "  (cast(null as integer), 'd')) as t(x, y)\n"
+        + "left join (values (1, 'p'), (1, 'q'), (3, 'r'),\n"
+        + "  (cast(null as integer), 's')) as u(x, z)\n"
+        + "on t.x = u.x")
+        .explainContains("EnumerableJoinRel")
+        .returnsUnordered(
+            "X=1; Y=a; Z=p",
+            "X=1; Y=a; Z=q",
+            "X=2; Y=b; Z=null",
+            "X=3; Y=c; Z=r",
+            "X=null; Y=d; Z=null");
+    with.query(
+        "select e.\"name\", d.\"name\" as dname\n"
+        + "from \"emps\" as e\n"
+        + "join \"depts\" as d on e.\"deptno\" = d.\"deptno\"")
+        .returnsUnordered(
+            "name=Bill; DNAME=Sales",
+            "name=Sebastian; DNAME=Sales",
+            "name=Theodore; DNAME=Sales");
+  }
+
+  /** Tests sorts with a "sortMemoryBudget" so small that every row is
+   * written to a run file, and the runs are merged. */
+  @Test public void testSortMemoryBudget() {
+    final OptiqAssert.AssertThat with = withHr("sortMemoryBudget", "0");
+    with.query(
+        "select * from (values (3, 'c'), (1, 'z'), (2, 'b'), (1, 'a'))\n"
+        + "  as t(x, y)\n"
+        + "order by x desc, y")
+        .explainContains("EnumerableSortRel")
+        .returns("X=3; Y=c\n"
+            + "X=2; Y=b\n"
+            + "X=1; Y=a\n"
+            + "X=1; Y=z\n");
+    with.query(
+        "select \"name\", \"empid\" from \"emps\"\n"
+        + "order by \"deptno\", \"empid\" desc")
+        .returns("name=Sebastian; empid=150\n"
+            + "name=Theodore; empid=110\n"
+            + "name=Bill; empid=100\n"
+            + "name=Eric; empid=200\n");
+  }
+
+  /** Tests GROUP BY with an "aggregateMemoryBudget" so small that all but
+   * the first group are spilled to disk. Rows of the reflective schema are
+   * converted to arrays so that they can be spilled. */
+  @Test public void testAggregateMemoryBudget() {
+    final OptiqAssert.AssertThat with =
+        withHr("aggregateMemoryBudget", "0");
+    with.query(
+        "select x, count(*) as c\n"
+        + "from (values (1), (2), (1), (3), (1), (2)) as t(x)\n"
+        + "group by x")
+        .planContains("net.hydromatic.optiq.runtime.HashAggregate.groupBy(")
+        .returnsUnordered(
+            "X=1; C=3",
+            "X=2; C=2",
+            "X=3; C=1");
+    with.query(
+        "select \"deptno\", count(*) as c, min(\"empid\") as m\n"
+        + "from \"emps\"\n"
+        + "group by \"deptno\"")
+        .planContains("net.hydromatic.optiq.runtime.HashAggregate.groupBy(")
+        .returnsUnordered(
+            "deptno=10; C=3; M=100",
+            "deptno=20; C=1; M=200");
+  }
+
+  /** Tests that with "reduceConstants", constant expressions are reduced to
+   * literals during planning, and a filter that is always false becomes an
+   * empty relation. Without the property, plans are unchanged. */
+  @Test public void testReduceConstants() {
+    final OptiqAssert.AssertThat with = withHr("reduceConstants", "true");
+    with.query("select \"name\" from \"emps\" where \"empid\" > 100 + 40")
+        .explainContains("140")
+        .explainMatches("", OptiqAssert.checkResultNotContains("+("))
+        .returns("name=Eric\nname=Sebastian\n");
+    with.query("select \"name\" from \"emps\" where 1 + 1 = 3")
+        .explainContains("EnumerableValuesRel")
+        .explainMatches("",
+            OptiqAssert.checkResultNotContains("EnumerableTableAccessRel"))
+        .returns("");
+
+    // Off by default.
+    OptiqAssert.that()
+        .with(OptiqAssert.Config.REGULAR)
+        .query(
+            "select \"name\" from \"hr\".\"emps\"\n"
+            + "where \"empid\" > 100 + 40")
+        .explainContains("+(");
+  }
+
+  /** Tests that with "plannerRuleBudget", the planner stops early, reports
+   * via {@link Hook#PLANNER_BUDGET_EXCEEDED}, and the plan it settles for
+   * still gives the right answer. */
+  @Test public void testPlannerRuleBudget() {
+    final List<VolcanoPlanner.BudgetExceeded> list =
+        new ArrayList<VolcanoPlanner.BudgetExceeded>();
+    withHr("plannerRuleBudget", "1")
+        .query(
+            "select d.\"name\", count(*) as c\n"
+            + "from \"emps\" as e\n"
+            + "join \"depts\" as d on e.\"deptno\" = d.\"deptno\"\n"
+            + "group by d.\"name\"")
+        .withHook(Hook.PLANNER_BUDGET_EXCEEDED,
+            new Function<VolcanoPlanner.BudgetExceeded, Void>() {
+              public Void apply(VolcanoPlanner.BudgetExceeded budgetExceeded) {
+                list.add(budgetExceeded);
+                return null;
+              }
+            })
+        .returns("name=Sales; C=3\n");
+    assertThat(list.size(), equalTo(1));
+    assertThat(list.get(0).ruleFirings >= 1, is(true));
+    assertThat(list.get(0).bestCost.isInfinite(), is(false));
+  }
+
   /** Tests {@link SqlDialect}. */
   @Test public void testDialect() {
     final String[] sqls = {null};
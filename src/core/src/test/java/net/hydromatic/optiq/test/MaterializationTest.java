@@ -16,22 +16,36 @@
  */
 package net.hydromatic.optiq.test;
 
+import net.hydromatic.linq4j.*;
+import net.hydromatic.linq4j.expressions.Expression;
 import net.hydromatic.linq4j.function.Function1;
 
+import net.hydromatic.optiq.SchemaPlus;
+import net.hydromatic.optiq.Schemas;
+import net.hydromatic.optiq.impl.AbstractSchema;
+import net.hydromatic.optiq.impl.AbstractTableQueryable;
+import net.hydromatic.optiq.impl.java.ReflectiveSchema;
+import net.hydromatic.optiq.impl.java.JavaTypeFactory;
 import net.hydromatic.optiq.jdbc.JavaTypeFactoryImpl;
+import net.hydromatic.optiq.jdbc.OptiqConnection;
+import net.hydromatic.optiq.jdbc.OptiqSchema;
+import net.hydromatic.optiq.materialize.MaterializationKey;
 import net.hydromatic.optiq.materialize.MaterializationService;
 import net.hydromatic.optiq.prepare.Prepare;
 
 import org.eigenbase.relopt.SubstitutionVisitor;
 import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeFactory;
 import org.eigenbase.rex.*;
 import org.eigenbase.sql.fun.SqlStdOperatorTable;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.lang.reflect.Type;
 import java.math.BigDecimal;
-import java.sql.ResultSet;
+import java.sql.*;
+import java.util.*;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -248,6 +262,23 @@ private void checkNoMaterialize(String materialize, String query,
             + "    EnumerableTableAccessRel(table=[[hr, m0]])"));
   }
 
+  /** Aggregation materialization, and a query without aggregation. The
+   * materialization is discarded before it is populated. */
+  @Test public void testAggregateMaterializationNoAggregateQuery() {
+    checkNoMaterialize(
+        "select \"deptno\", count(*) as c from \"emps\" group by \"deptno\"",
+        "select \"empid\", \"deptno\" from \"emps\" where \"deptno\" = 10",
+        JdbcTest.HR_MODEL);
+  }
+
+  /** Materialization that uses a table that the query does not use. */
+  @Test public void testMaterializationOfOtherTable() {
+    checkNoMaterialize(
+        "select \"deptno\", \"name\" from \"depts\"",
+        "select \"empid\", \"deptno\" from \"emps\" where \"deptno\" = 10",
+        JdbcTest.HR_MODEL);
+  }
+
   /** Aggregation materialization with a project. */
   @Ignore("work in progress")
   @Test public void testAggregateProject() {
@@ -607,6 +638,250 @@ private void checkSatisfiable(RexNode e, String s) {
         + "join \"depts\" using (\"deptno\")";
     checkNoMaterialize(q, q, JdbcTest.HR_MODEL);
   }
+
+  /** Defines a materialization that is refreshed incrementally, appends
+   * rows to the table it reads, and checks that refresh applies them. */
+  @Test public void testIncrementalRefresh() throws Exception {
+    final List<JdbcTest.Employee> employees =
+        new ArrayList<JdbcTest.Employee>();
+    employees.add(new JdbcTest.Employee(100, 10, "Bill", 10000f, 1000));
+    employees.add(new JdbcTest.Employee(150, 10, "Sebastian", 7000f, null));
+    employees.add(new JdbcTest.Employee(200, 20, "Eric", 8000f, 500));
+    final Connection connection = DriverManager.getConnection("jdbc:optiq:");
+    try {
+      final SchemaPlus rootSchema =
+          connection.unwrap(OptiqConnection.class).getRootSchema();
+      final SchemaPlus schema = addEmps(rootSchema, employees);
+      MaterializationService.setThreadLocal();
+      final MaterializationService service = MaterializationService.instance();
+      final MaterializationKey key =
+          service.defineMaterialization(OptiqSchema.from(schema),
+              "select \"deptno\", count(*) as c, sum(\"empid\") as s,\n"
+              + " min(\"commission\") as m\n"
+              + "from \"emps\" where \"salary\" > 7500\n"
+              + "group by \"deptno\"",
+              null, "m0", MaterializationService.RefreshPolicy.INCREMENTAL);
+      final Statement statement = connection.createStatement();
+      final String sql = "select * from \"foo\".\"m0\" order by \"deptno\"";
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("deptno=10; C=1; S=100; M=1000\n"
+              + "deptno=20; C=1; S=200; M=500\n"));
+
+      employees.add(new JdbcTest.Employee(110, 10, "Theodore", 11500f, 250));
+      employees.add(new JdbcTest.Employee(120, 10, "Theo", 6000f, 100));
+      employees.add(new JdbcTest.Employee(300, 30, "Hector", 9000f, null));
+      service.refresh(key);
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("deptno=10; C=2; S=210; M=250\n"
+              + "deptno=20; C=1; S=200; M=500\n"
+              + "deptno=30; C=1; S=300; M=null\n"));
+    } finally {
+      connection.close();
+    }
+  }
+
+  /** Tests that the materialization service finds, via its index, only the
+   * materializations over the tables that a query uses, and only aggregate
+   * materializations if the query contains an aggregate. */
+  @Test public void testQueryMaterializationsByTable() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:optiq:");
+    try {
+      final SchemaPlus rootSchema =
+          connection.unwrap(OptiqConnection.class).getRootSchema();
+      final SchemaPlus hr =
+          rootSchema.add("hr", new ReflectiveSchema(new JdbcTest.HrSchema()));
+      MaterializationService.setThreadLocal();
+      final MaterializationService service = MaterializationService.instance();
+      final OptiqSchema schema = OptiqSchema.from(hr);
+      service.defineMaterialization(schema,
+          "select * from \"emps\" where \"deptno\" = 10", null, "m0");
+      service.defineMaterialization(schema,
+          "select \"deptno\", count(*) as c from \"emps\"\n"
+          + "group by \"deptno\"", null, "m1");
+      service.defineMaterialization(schema,
+          "select * from \"depts\"", null, "m2");
+      final OptiqSchema root = OptiqSchema.from(rootSchema);
+      final List<String> emps = Arrays.asList("hr", "emps");
+      final List<String> depts = Arrays.asList("hr", "depts");
+      final List<String> locations = Arrays.asList("hr", "locations");
+      assertThat(
+          service.query(root, Collections.singleton(emps), false).size(),
+          equalTo(1));
+      assertThat(
+          service.query(root, Collections.singleton(emps), true).size(),
+          equalTo(2));
+      assertThat(
+          service.query(root, Collections.singleton(depts), false).size(),
+          equalTo(1));
+      assertThat(service.query(root, Arrays.asList(emps, depts), true).size(),
+          equalTo(3));
+      assertThat(
+          service.query(root, Collections.singleton(locations), true).size(),
+          equalTo(0));
+    } finally {
+      connection.close();
+    }
+  }
+
+  /** Tests that if rows are removed from the source of an incrementally
+   * refreshed materialization, or replaced, refresh computes the content
+   * again rather than merging. */
+  @Test public void testIncrementalRefreshSourceShrinks() throws Exception {
+    final List<JdbcTest.Employee> employees =
+        new ArrayList<JdbcTest.Employee>();
+    employees.add(new JdbcTest.Employee(100, 10, "Bill", 10000f, 1000));
+    employees.add(new JdbcTest.Employee(150, 10, "Sebastian", 7000f, null));
+    employees.add(new JdbcTest.Employee(200, 20, "Eric", 8000f, 500));
+    final Connection connection = DriverManager.getConnection("jdbc:optiq:");
+    try {
+      final SchemaPlus rootSchema =
+          connection.unwrap(OptiqConnection.class).getRootSchema();
+      final SchemaPlus schema = addEmps(rootSchema, employees);
+      MaterializationService.setThreadLocal();
+      final MaterializationService service = MaterializationService.instance();
+      final MaterializationKey key =
+          service.defineMaterialization(OptiqSchema.from(schema),
+              "select \"deptno\", count(*) as c, sum(\"empid\") as s\n"
+              + "from \"emps\" where \"salary\" > 7500\n"
+              + "group by \"deptno\"",
+              null, "m0", MaterializationService.RefreshPolicy.INCREMENTAL);
+      final Statement statement = connection.createStatement();
+      final String sql = "select * from \"foo\".\"m0\" order by \"deptno\"";
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("deptno=10; C=1; S=100\n"
+              + "deptno=20; C=1; S=200\n"));
+
+      // Same number of rows, but the first has been replaced.
+      employees.remove(0);
+      employees.add(new JdbcTest.Employee(110, 10, "Theodore", 11500f, 250));
+      service.refresh(key);
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("deptno=10; C=1; S=110\n"
+              + "deptno=20; C=1; S=200\n"));
+
+      // Fewer rows than at the previous refresh.
+      employees.remove(2);
+      service.refresh(key);
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("deptno=20; C=1; S=200\n"));
+
+      employees.clear();
+      service.refresh(key);
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo(""));
+    } finally {
+      connection.close();
+    }
+  }
+
+  /** Tests that an aggregate without GROUP BY is refreshed by executing its
+   * query, because it returns one row even if no rows pass its filter. */
+  @Test public void testIncrementalRefreshNoGroupBy() throws Exception {
+    final List<JdbcTest.Employee> employees =
+        new ArrayList<JdbcTest.Employee>();
+    employees.add(new JdbcTest.Employee(150, 10, "Sebastian", 7000f, null));
+    final Connection connection = DriverManager.getConnection("jdbc:optiq:");
+    try {
+      final SchemaPlus rootSchema =
+          connection.unwrap(OptiqConnection.class).getRootSchema();
+      final SchemaPlus schema = addEmps(rootSchema, employees);
+      MaterializationService.setThreadLocal();
+      final MaterializationService service = MaterializationService.instance();
+      final MaterializationKey key =
+          service.defineMaterialization(OptiqSchema.from(schema),
+              "select count(*) as c, sum(\"empid\") as s\n"
+              + "from \"emps\" where \"salary\" > 7500",
+              null, "m0", MaterializationService.RefreshPolicy.INCREMENTAL);
+      final Statement statement = connection.createStatement();
+      final String sql = "select * from \"foo\".\"m0\"";
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("C=0; S=null\n"));
+
+      employees.add(new JdbcTest.Employee(200, 20, "Eric", 8000f, 500));
+      service.refresh(key);
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("C=1; S=200\n"));
+    } finally {
+      connection.close();
+    }
+  }
+
+  /** Tests that an incrementally refreshed $SUM0 returns 0, not null, for a
+   * group whose values are all null, both when the group is created and when
+   * rows are merged into it. */
+  @Test public void testIncrementalRefreshSum0AllNull() throws Exception {
+    final List<JdbcTest.Employee> employees =
+        new ArrayList<JdbcTest.Employee>();
+    employees.add(new JdbcTest.Employee(150, 10, "Sebastian", 7000f, null));
+    employees.add(new JdbcTest.Employee(200, 20, "Eric", 8000f, 500));
+    final Connection connection = DriverManager.getConnection("jdbc:optiq:");
+    try {
+      final SchemaPlus rootSchema =
+          connection.unwrap(OptiqConnection.class).getRootSchema();
+      final SchemaPlus schema = addEmps(rootSchema, employees);
+      MaterializationService.setThreadLocal();
+      final MaterializationService service = MaterializationService.instance();
+      final MaterializationKey key =
+          service.defineMaterialization(OptiqSchema.from(schema),
+              "select \"deptno\", $sum0(\"commission\") as s\n"
+              + "from \"emps\" group by \"deptno\"",
+              null, "m0", MaterializationService.RefreshPolicy.INCREMENTAL);
+      final Statement statement = connection.createStatement();
+      final String sql = "select * from \"foo\".\"m0\" order by \"deptno\"";
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("deptno=10; S=0\n"
+              + "deptno=20; S=500\n"));
+
+      employees.add(new JdbcTest.Employee(160, 10, "Theo", 6000f, null));
+      employees.add(new JdbcTest.Employee(300, 30, "Hector", 9000f, null));
+      service.refresh(key);
+      assertThat(OptiqAssert.toString(statement.executeQuery(sql)),
+          equalTo("deptno=10; S=0\n"
+              + "deptno=20; S=500\n"
+              + "deptno=30; S=0\n"));
+    } finally {
+      connection.close();
+    }
+  }
+
+  /** Adds a schema "foo" containing a modifiable table "emps" whose rows are
+   * the elements of a list. */
+  private static SchemaPlus addEmps(SchemaPlus rootSchema,
+      final List<JdbcTest.Employee> employees) {
+    final SchemaPlus schema = rootSchema.add("foo", new AbstractSchema());
+    schema.add("emps", new JdbcTest.AbstractModifiableTable("emps") {
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return ((JavaTypeFactory) typeFactory)
+            .createType(JdbcTest.Employee.class);
+      }
+
+      public <T> Queryable<T> asQueryable(QueryProvider queryProvider,
+          SchemaPlus schema, String tableName) {
+        return new AbstractTableQueryable<T>(queryProvider, schema, this,
+            tableName) {
+          public Enumerator<T> enumerator() {
+            //noinspection unchecked
+            return (Enumerator<T>) Linq4j.enumerator(employees);
+          }
+        };
+      }
+
+      public Type getElementType() {
+        return JdbcTest.Employee.class;
+      }
+
+      public Expression getExpression(SchemaPlus schema, String tableName,
+          Class clazz) {
+        return Schemas.tableExpression(schema, getElementType(), tableName,
+            clazz);
+      }
+
+      public Collection getModifiableCollection() {
+        return employees;
+      }
+    });
+    return schema;
+  }
 }
 
 // End MaterializationTest.java
@@ -293,6 +293,22 @@ public Void apply(ResultSet s) {
     };
   }
 
+  public static Function1<ResultSet, Void> checkResultNotContains(
+      final String unexpected) {
+    return new Function1<ResultSet, Void>() {
+      public Void apply(ResultSet s) {
+        try {
+          final String actual = Util.toLinux(OptiqAssert.toString(s));
+          assertFalse("[" + actual + "] contains [" + unexpected + "]",
+              actual.contains(unexpected));
+          return null;
+        } catch (SQLException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+  }
+
   public static Function1<ResultSet, Void> checkMaskedResultContains(
       final String expected) {
     return new Function1<ResultSet, Void>() {
@@ -19,6 +19,10 @@
 import net.hydromatic.optiq.impl.clone.ArrayTableTest;
 import net.hydromatic.optiq.runtime.BinarySearchTest;
 import net.hydromatic.optiq.runtime.EnumerablesTest;
+import net.hydromatic.optiq.runtime.ExternalSortTest;
+import net.hydromatic.optiq.runtime.HashAggregateTest;
+import net.hydromatic.optiq.runtime.HybridHashJoinTest;
+import net.hydromatic.optiq.runtime.SpillFileTest;
 import net.hydromatic.optiq.tools.FrameworksTest;
 import net.hydromatic.optiq.tools.PlannerTest;
 import net.hydromatic.optiq.tools.SqlRunTest;
@@ -74,6 +78,10 @@
     RexProgramTest.class,
     BinarySearchTest.class,
     EnumerablesTest.class,
+    ExternalSortTest.class,
+    HashAggregateTest.class,
+    HybridHashJoinTest.class,
+    SpillFileTest.class,
 
     // medium tests (above 0.1s)
     SqlParserTest.class,
@@ -66,6 +66,43 @@ public class SqlFunctionsTest {
     assertEquals(" B0123b", initcap(" b0123B"));
   }
 
+  /** Tests {@code LIKE}, including patterns that are matched without a
+   * regular expression. */
+  @Test public void testLike() {
+    assertTrue(like("abc", "abc"));
+    assertFalse(like("abcd", "abc"));
+    assertTrue(like("abc", "ab%"));
+    assertFalse(like("xabc", "ab%"));
+    assertTrue(like("abc", "%bc"));
+    assertTrue(like("abc", "%b%"));
+    assertTrue(like("", "%"));
+    assertTrue(like("abcabc", "a%c%c"));
+    assertFalse(like("abc", "a%bc%c"));
+    assertFalse(like("aba", "ab%ba"));
+    assertTrue(like("abba", "ab%ba"));
+    assertTrue(like("abc", "a_c"));
+    assertFalse(like("ac", "a_c"));
+    assertTrue(like("a\nc", "a%"));
+    assertTrue(like("a\nc", "a_c"));
+    assertTrue(like("a%c", "a\\%c", "\\"));
+    assertFalse(like("abc", "a\\%c", "\\"));
+    assertTrue(like("a.*c", "a.*c"));
+    try {
+      final boolean b = like("abc", "a\\", "\\");
+      fail("expected error, got " + b);
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage(),
+          equalTo("Invalid escape sequence 'a\\', 1"));
+    }
+    assertSame(likeMatcher("ab%"), likeMatcher("ab%"));
+  }
+
+  @Test public void testSimilar() {
+    assertTrue(similar("abc", "a(b|x)c"));
+    assertFalse(similar("axxc", "a(b|x)c"));
+    assertTrue(similar("a$", "a$"));
+  }
+
   @Test public void testLesser() {
     assertEquals("a", lesser("a", "bc"));
     assertEquals("ac", lesser("bc", "ac"));
@@ -23,9 +23,12 @@
 import org.eigenbase.relopt.RelOptSchema;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeFactory;
+import org.eigenbase.sql.SqlIntervalQualifier;
 import org.eigenbase.sql.fun.SqlStdOperatorTable;
+import org.eigenbase.sql.parser.SqlParserPos;
 import org.eigenbase.sql.type.SqlTypeName;
 import org.eigenbase.util.NlsString;
+import org.eigenbase.util14.DateTimeUtil;
 
 import net.hydromatic.linq4j.QueryProvider;
 
@@ -33,9 +36,11 @@
 import net.hydromatic.optiq.SchemaPlus;
 import net.hydromatic.optiq.Schemas;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.runtime.Hook;
 import net.hydromatic.optiq.server.OptiqServerStatement;
 import net.hydromatic.optiq.tools.Frameworks;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 
 import org.junit.Assert;
@@ -43,6 +48,7 @@
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -152,6 +158,67 @@ public void check(RexBuilder rexBuilder, RexExecutorImpl executor) {
     });
   }
 
+  /** Tests that a date plus an interval is reduced by
+   * {@link RexInterpreter}, without generating code. */
+  @Test public void testDatePlusInterval() throws Exception {
+    check(new Action() {
+      public void check(RexBuilder rexBuilder, RexExecutorImpl executor) {
+        final List<RexNode> reducedValues = new ArrayList<RexNode>();
+        final Calendar calendar =
+            Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        calendar.clear();
+        calendar.set(2014, Calendar.JANUARY, 1);
+        final RexLiteral date = rexBuilder.makeDateLiteral(calendar);
+        final RexLiteral oneDay =
+            rexBuilder.makeIntervalLiteral(
+                BigDecimal.valueOf(DateTimeUtil.MILLIS_PER_DAY),
+                new SqlIntervalQualifier(SqlIntervalQualifier.TimeUnit.DAY,
+                    null, SqlParserPos.ZERO));
+        final RexNode plus =
+            rexBuilder.makeCall(date.getType(),
+                SqlStdOperatorTable.DATETIME_PLUS,
+                ImmutableList.<RexNode>of(date, oneDay));
+        final int[] reducerCount = {0};
+        final Hook.Closeable closeable =
+            Hook.EXPRESSION_REDUCER.addThread(
+                new Function<Object, Object>() {
+                  public Object apply(Object a0) {
+                    ++reducerCount[0];
+                    return null;
+                  }
+                });
+        try {
+          executor.reduce(rexBuilder, ImmutableList.of(plus), reducedValues);
+        } finally {
+          closeable.close();
+        }
+        assertThat(reducerCount[0], equalTo(0));
+        assertThat(reducedValues.size(), equalTo(1));
+        assertThat(reducedValues.get(0), instanceOf(RexLiteral.class));
+        // 2014-01-02 is 16,072 days after the epoch
+        assertThat(((RexLiteral) reducedValues.get(0)).getValue2(),
+            equalTo((Object) 16072));
+      }
+    });
+  }
+
+  /** Tests that an expression that fails is not reduced, so that the error
+   * occurs when the query is executed. */
+  @Test public void testDivideByZero() throws Exception {
+    check(new Action() {
+      public void check(RexBuilder rexBuilder, RexExecutorImpl executor) {
+        final List<RexNode> reducedValues = new ArrayList<RexNode>();
+        final RexNode divide =
+            rexBuilder.makeCall(SqlStdOperatorTable.DIVIDE,
+                rexBuilder.makeExactLiteral(BigDecimal.ONE),
+                rexBuilder.makeExactLiteral(BigDecimal.ZERO));
+        executor.reduce(rexBuilder, ImmutableList.of(divide), reducedValues);
+        assertThat(reducedValues.size(), equalTo(1));
+        assertThat(reducedValues.get(0), sameInstance(divide));
+      }
+    });
+  }
+
   /** Callback for {@link #check}. Test code will typically use {@code builder}
    * to create some expressions, call
    * {@link org.eigenbase.rex.RexExecutorImpl#reduce} to evaluate them into
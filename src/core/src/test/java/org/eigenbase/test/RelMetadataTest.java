@@ -16,7 +16,9 @@
  */
 package org.eigenbase.test;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.*;
 
 import org.eigenbase.rel.*;
@@ -600,6 +602,64 @@ private void checkRelSelectivity(
     assertThat(buf.size(), equalTo(7));
   }
 
+  /** Metadata is dispatched via generated code, not via
+   * {@link java.lang.reflect.Proxy}, and has the same value as if it were
+   * obtained via reflection. */
+  @Test public void testGeneratedMetadata() {
+    final RelNode rel = convertSql("select * from emp where deptno = 10");
+    final BuiltInMetadata.Selectivity selectivity =
+        rel.metadata(BuiltInMetadata.Selectivity.class);
+    assertThat(selectivity,
+        instanceOf(JaninoRelMetadataProvider.GeneratedMetadata.class));
+    assertThat(Proxy.isProxyClass(selectivity.getClass()), is(false));
+    assertThat(selectivity.rel(), sameInstance(rel));
+    assertThat(selectivity.toString(), equalTo("Selectivity(" + rel + ")"));
+    final BuiltInMetadata.Selectivity reflective =
+        (BuiltInMetadata.Selectivity) RelMdSelectivity.SOURCE
+            .apply(rel.getClass(), BuiltInMetadata.Selectivity.class)
+            .apply(rel);
+    assertThat(Proxy.isProxyClass(reflective.getClass()), is(true));
+    assertThat(selectivity.getSelectivity(null),
+        equalTo(reflective.getSelectivity(null)));
+
+    // Handlers that declare checked exceptions cannot be called from
+    // generated code, so are called via reflection.
+    final List<String> buf = new ArrayList<String>();
+    ColTypeImpl.THREAD_LIST.set(buf);
+    rel.getCluster().setMetadataProvider(
+        ChainedRelMetadataProvider.of(
+            ImmutableList.of(CheckedColTypeImpl.SOURCE,
+                rel.getCluster().getMetadataProvider())));
+    assertThat(rel.metadata(ColType.class).getColType(0),
+        equalTo("EMPNO-checked"));
+    assertThat(buf.toString(), equalTo("[EMPNO-checked]"));
+  }
+
+  /** Metadata for which code cannot be generated, because its interface is
+   * not public, is obtained via reflection; a
+   * {@link CachingRelMetadataProvider} nevertheless caches its values. */
+  @Test public void testCachedMetadataNotGenerated() {
+    final RelNode rel = convertSql("select * from emp where deptno = 10");
+    final List<String> buf = new ArrayList<String>();
+    ColTypeImpl.THREAD_LIST.set(buf);
+    rel.getCluster().setMetadataProvider(
+        new CachingRelMetadataProvider(
+            ChainedRelMetadataProvider.of(
+                ImmutableList.of(HiddenColTypeImpl.SOURCE,
+                    rel.getCluster().getMetadataProvider())),
+            rel.getCluster().getPlanner()));
+    final HiddenColType colType = rel.metadata(HiddenColType.class);
+    assertThat(Proxy.isProxyClass(colType.getClass()), is(true));
+    assertThat(colType.rel(), sameInstance(rel));
+    assertThat(colType.getColType(0), equalTo("EMPNO-hidden"));
+    assertThat(buf.toString(), equalTo("[EMPNO-hidden]"));
+    assertThat(rel.metadata(HiddenColType.class).getColType(0),
+        equalTo("EMPNO-hidden"));
+    assertThat(buf.toString(), equalTo("[EMPNO-hidden]"));
+    assertThat(colType.getColType(1), equalTo("ENAME-hidden"));
+    assertThat(buf.toString(), equalTo("[EMPNO-hidden, ENAME-hidden]"));
+  }
+
   /** Custom metadata interface. */
   public interface ColType extends Metadata {
     String getColType(int column);
@@ -643,6 +703,51 @@ public String getColType(RelNode rel, int column) {
       return name;
     }
   }
+
+  /** A provider for {@link org.eigenbase.test.RelMetadataTest.ColType} via
+   * reflection, whose handler declares a checked exception. */
+  public static class CheckedColTypeImpl {
+    static final RelMetadataProvider SOURCE =
+        ReflectiveRelMetadataProvider.reflectiveSource(
+            ColTypeImpl.METHOD, new CheckedColTypeImpl());
+
+    @SuppressWarnings("UnusedDeclaration")
+    public String getColType(RelNode rel, int column) throws IOException {
+      final String name =
+          rel.getRowType().getFieldList().get(column).getName()
+          + "-checked";
+      ColTypeImpl.THREAD_LIST.get().add(name);
+      return name;
+    }
+  }
+
+  /** Custom metadata interface that is not public, so code that calls it
+   * cannot be generated. */
+  interface HiddenColType extends Metadata {
+    String getColType(int column);
+  }
+
+  /** A provider for {@link HiddenColType} via reflection. */
+  public static class HiddenColTypeImpl {
+    static final RelMetadataProvider SOURCE;
+    static {
+      try {
+        SOURCE = ReflectiveRelMetadataProvider.reflectiveSource(
+            HiddenColType.class.getMethod("getColType", int.class),
+            new HiddenColTypeImpl());
+      } catch (NoSuchMethodException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    public String getColType(RelNode rel, int column) {
+      final String name =
+          rel.getRowType().getFieldList().get(column).getName() + "-hidden";
+      ColTypeImpl.THREAD_LIST.get().add(name);
+      return name;
+    }
+  }
 }
 
 // End RelMetadataTest.java
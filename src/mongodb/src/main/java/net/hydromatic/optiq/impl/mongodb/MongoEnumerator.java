@@ -85,6 +85,10 @@ static Function1<DBObject, Object> singletonGetter(final String fieldName,
       final Class fieldClass) {
     return new Function1<DBObject, Object>() {
       public Object apply(DBObject a0) {
+        if (a0 instanceof MongoRowDecoder.Row) {
+          // Already decoded and converted.
+          return ((MongoRowDecoder.Row) a0).values[0];
+        }
         return convert(a0.get(fieldName), fieldClass);
       }
     };
@@ -97,6 +101,10 @@ static Function1<DBObject, Object[]> listGetter(
       final List<Map.Entry<String, Class>> fields) {
     return new Function1<DBObject, Object[]>() {
       public Object[] apply(DBObject a0) {
+        if (a0 instanceof MongoRowDecoder.Row) {
+          // Already decoded and converted.
+          return ((MongoRowDecoder.Row) a0).values;
+        }
         Object[] objects = new Object[fields.size()];
         for (int i = 0; i < fields.size(); i++) {
           final Map.Entry<String, Class> field = fields.get(i);
@@ -118,7 +126,7 @@ static Function1<DBObject, Object> getter(
             : listGetter(fields);
   }
 
-  private static Object convert(Object o, Class clazz) {
+  static Object convert(Object o, Class clazz) {
     if (o == null || clazz.isInstance(o)) {
       return o;
     }
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.impl.mongodb;
+
+import org.eigenbase.rel.*;
+import org.eigenbase.rel.rules.EquiJoinRel;
+import org.eigenbase.relopt.*;
+import org.eigenbase.rex.RexNode;
+import org.eigenbase.util.ImmutableIntList;
+import org.eigenbase.util.Util;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.*;
+
+/**
+ * Implementation of an inner equi-join in MongoDB.
+ *
+ * <p>The left input is implemented as a pipeline in the usual way. Matching
+ * documents of the right input, which must read fields from a collection, are
+ * found by a "$lookup" stage, and one row is produced for each match by an
+ * "$unwind" stage. The "$lookup" stage requires MongoDB 3.2 or later.</p>
+ */
+public class MongoJoinRel extends EquiJoinRel implements MongoRel {
+  /** Name of the field that holds the matching documents of the right
+   * input, between the "$lookup" and the final "$project". */
+  static final String JOINED = "_join";
+
+  /** Name of the collection that the right input reads. */
+  final String from;
+
+  /** For each field of the right input, the name of the document field that
+   * it reads. */
+  final ImmutableList<String> rightItems;
+
+  public MongoJoinRel(RelOptCluster cluster, RelTraitSet traitSet,
+      RelNode left, RelNode right, RexNode condition,
+      ImmutableIntList leftKeys, ImmutableIntList rightKeys, String from,
+      List<String> rightItems) {
+    super(cluster, traitSet, left, right, condition, leftKeys, rightKeys,
+        JoinRelType.INNER, Collections.<String>emptySet());
+    this.from = from;
+    this.rightItems = ImmutableList.copyOf(rightItems);
+    assert getConvention() == MongoRel.CONVENTION;
+    assert leftKeys.size() == 1 && rightKeys.size() == 1;
+    assert rightItems.size() == right.getRowType().getFieldCount();
+  }
+
+  @Override public MongoJoinRel copy(RelTraitSet traitSet,
+      RexNode conditionExpr, RelNode left, RelNode right,
+      JoinRelType joinType, boolean semiJoinDone) {
+    assert joinType == JoinRelType.INNER;
+    final JoinInfo joinInfo = JoinInfo.of(left, right, conditionExpr);
+    return new MongoJoinRel(getCluster(), traitSet, left, right,
+        conditionExpr, joinInfo.leftKeys, joinInfo.rightKeys, from,
+        rightItems);
+  }
+
+  @Override public RelWriter explainTerms(RelWriter pw) {
+    return super.explainTerms(pw)
+        .item("from", from);
+  }
+
+  @Override public RelOptCost computeSelfCost(RelOptPlanner planner) {
+    return super.computeSelfCost(planner).multiplyBy(.1);
+  }
+
+  public void implement(Implementor implementor) {
+    implementor.visitChild(0, getLeft());
+    final List<String> leftNames =
+        MongoRules.mongoFieldNames(getLeft().getRowType());
+    final List<String> names = MongoRules.mongoFieldNames(getRowType());
+    final String localField = leftNames.get(leftKeys.get(0));
+    final String foreignField = rightItems.get(rightKeys.get(0));
+
+    // "$lookup" considers null equal to null and to a missing field, but SQL
+    // does not, so discard rows whose key is null before looking them up.
+    implementor.add(null,
+        "{$match: {" + MongoRules.maybeQuote(localField) + ": {$ne: null}}}");
+    implementor.add(null,
+        "{$lookup: {from: " + MongoRules.quote(from)
+        + ", localField: " + MongoRules.quote(localField)
+        + ", foreignField: " + MongoRules.quote(foreignField)
+        + ", as: " + MongoRules.quote(JOINED) + "}}");
+    implementor.add(null,
+        "{$unwind: " + MongoRules.quote("$" + JOINED) + "}");
+
+    final List<String> items = new ArrayList<String>();
+    for (int i = 0; i < names.size(); i++) {
+      final String name = names.get(i);
+      final String source =
+          i < leftNames.size()
+              ? leftNames.get(i)
+              : JOINED + "." + rightItems.get(i - leftNames.size());
+      items.add(source.equals(name)
+          ? MongoRules.maybeQuote(name) + ": 1"
+          : MongoRules.maybeQuote(name) + ": "
+              + MongoRules.quote("$" + source));
+    }
+    implementor.add(null,
+        "{$project: " + Util.toString(items, "{", ", ", "}") + "}");
+  }
+}
+
+// End MongoJoinRel.java
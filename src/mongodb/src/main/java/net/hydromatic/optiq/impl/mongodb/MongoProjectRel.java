@@ -57,16 +57,22 @@ public void implement(Implementor implementor) {
             (JavaTypeFactory) getCluster().getTypeFactory(),
             MongoRules.mongoFieldNames(getChild().getRowType()));
     final List<String> items = new ArrayList<String>();
+    boolean identity = true;
     for (Pair<RexNode, String> pair : getNamedProjects()) {
       final String name = pair.right;
       final String expr = pair.left.accept(translator);
-      items.add(expr.equals("'$" + name + "'")
-          ? MongoRules.maybeQuote(name) + ": 1"
-          : MongoRules.maybeQuote(name) + ": " + expr);
+      if (expr.equals("'$" + name + "'")) {
+        items.add(MongoRules.maybeQuote(name) + ": 1");
+      } else {
+        items.add(MongoRules.maybeQuote(name) + ": " + expr);
+        identity = false;
+      }
     }
     final String findString = Util.toString(items, "{", ", ", "}");
     final String aggregateString = "{$project: " + findString + "}";
-    final Pair<String, String> op = Pair.of(findString, aggregateString);
+    // A "find" can only include fields, not rename or compute them.
+    final Pair<String, String> op =
+        Pair.of(identity ? findString : null, aggregateString);
     implementor.add(op.left, op.right);
   }
 }
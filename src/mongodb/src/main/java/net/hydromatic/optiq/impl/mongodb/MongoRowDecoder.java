@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.impl.mongodb;
+
+import org.bson.BSONObject;
+import org.bson.types.ObjectId;
+
+import com.mongodb.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Decoder that reads the fields of a row directly from a BSON document.
+ *
+ * <p>The default decoder builds a {@link BasicDBObject} containing every
+ * field of the document, recursively, which {@link MongoEnumerator} then
+ * copies into a row. This decoder instead scans the document's bytes, decodes
+ * only the fields of the row, skipping the others without allocating, and
+ * returns a {@link Row} that wraps an array of the values.</p>
+ *
+ * <p>Fields of scalar types are decoded directly. If a field of the row is a
+ * document, an array, or of another type that is rarely projected, the whole
+ * document is decoded in the usual way. So is an error reply from the
+ * server, which has a "$err" or "errmsg" field, so that the driver sees the
+ * error rather than a row of nulls.</p>
+ */
+class MongoRowDecoder extends DefaultDBDecoder {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Names of the fields that mark a document as an error reply. */
+  private static final byte[][] ERROR_NAMES = {
+    "$err".getBytes(UTF8), "errmsg".getBytes(UTF8)
+  };
+
+  private final List<String> names;
+  private final byte[][] nameBytes;
+  private final Class[] classes;
+
+  private MongoRowDecoder(List<Map.Entry<String, Class>> fields) {
+    final int n = fields.size();
+    this.names = new ArrayList<String>(n);
+    this.nameBytes = new byte[n][];
+    this.classes = new Class[n];
+    for (int i = 0; i < n; i++) {
+      final Map.Entry<String, Class> field = fields.get(i);
+      names.add(field.getKey());
+      nameBytes[i] = field.getKey().getBytes(UTF8);
+      classes[i] = field.getValue();
+    }
+  }
+
+  /** Returns a factory for decoders that read the given fields. */
+  static DBDecoderFactory factory(
+      final List<Map.Entry<String, Class>> fields) {
+    return new DBDecoderFactory() {
+      public DBDecoder create() {
+        return new MongoRowDecoder(fields);
+      }
+    };
+  }
+
+  @Override public DBObject decode(InputStream in, DBCollection collection)
+      throws IOException {
+    final byte[] header = new byte[4];
+    readFully(in, header, 0, 4);
+    final int length = readInt(header, 0);
+    final byte[] b = new byte[length];
+    System.arraycopy(header, 0, b, 0, 4);
+    readFully(in, b, 4, length - 4);
+    return decode(b, collection);
+  }
+
+  @Override public DBObject decode(byte[] b, DBCollection collection) {
+    final Object[] values = new Object[names.size()];
+    final int end = readInt(b, 0) - 1;
+    int pos = 4;
+    while (pos < end) {
+      final byte type = b[pos++];
+      final int nameStart = pos;
+      while (b[pos] != 0) {
+        ++pos;
+      }
+      if (isError(b, nameStart, pos - nameStart)) {
+        return super.decode(b, collection);
+      }
+      final int field = field(b, nameStart, pos - nameStart);
+      ++pos;
+      if (field >= 0) {
+        final Object value;
+        switch (type) {
+        case 0x01: // double
+          value = Double.longBitsToDouble(readLong(b, pos));
+          break;
+        case 0x02: // string
+        case 0x0D: // JavaScript code
+        case 0x0E: // symbol
+          value = new String(b, pos + 4, readInt(b, pos) - 1, UTF8);
+          break;
+        case 0x07: // ObjectId
+          final byte[] id = new byte[12];
+          System.arraycopy(b, pos, id, 0, 12);
+          value = new ObjectId(id);
+          break;
+        case 0x08: // boolean
+          value = b[pos] != 0;
+          break;
+        case 0x09: // UTC datetime
+          value = new Date(readLong(b, pos));
+          break;
+        case 0x06: // undefined
+        case 0x0A: // null
+          value = null;
+          break;
+        case 0x10: // int32
+          value = readInt(b, pos);
+          break;
+        case 0x12: // int64
+          value = readLong(b, pos);
+          break;
+        default:
+          // Documents, arrays and exotic types; decode as usual.
+          return super.decode(b, collection);
+        }
+        values[field] = MongoEnumerator.convert(value, classes[field]);
+      }
+      pos += valueLength(b, type, pos);
+    }
+    return new Row(names, values);
+  }
+
+  /** Returns the ordinal of the row field whose name is the given UTF-8
+   * bytes, or -1. */
+  private int field(byte[] b, int start, int length) {
+    for (int i = 0; i < nameBytes.length; i++) {
+      final byte[] name = nameBytes[i];
+      if (name.length == length && equal(name, b, start)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns whether the field whose name is the given UTF-8 bytes marks
+   * the document as an error reply. */
+  private static boolean isError(byte[] b, int start, int length) {
+    for (byte[] name : ERROR_NAMES) {
+      if (name.length == length && equal(name, b, start)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean equal(byte[] name, byte[] b, int start) {
+    for (int i = 0; i < name.length; i++) {
+      if (name[i] != b[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the number of bytes occupied by a value of a given type. */
+  private static int valueLength(byte[] b, byte type, int pos) {
+    switch (type) {
+    case 0x01: // double
+    case 0x09: // UTC datetime
+    case 0x11: // timestamp
+    case 0x12: // int64
+      return 8;
+    case 0x02: // string
+    case 0x0D: // JavaScript code
+    case 0x0E: // symbol
+      return 4 + readInt(b, pos);
+    case 0x03: // document
+    case 0x04: // array
+    case 0x0F: // JavaScript code with scope
+      return readInt(b, pos);
+    case 0x05: // binary
+      return 5 + readInt(b, pos);
+    case 0x06: // undefined
+    case 0x0A: // null
+    case (byte) 0xFF: // min key
+    case 0x7F: // max key
+      return 0;
+    case 0x07: // ObjectId
+      return 12;
+    case 0x08: // boolean
+      return 1;
+    case 0x0B: // regular expression; two C strings
+      int p = pos;
+      while (b[p] != 0) {
+        ++p;
+      }
+      ++p;
+      while (b[p] != 0) {
+        ++p;
+      }
+      return p + 1 - pos;
+    case 0x0C: // DBPointer
+      return 4 + readInt(b, pos) + 12;
+    case 0x10: // int32
+      return 4;
+    case 0x13: // decimal128
+      return 16;
+    default:
+      throw new IllegalArgumentException("unknown BSON type " + type);
+    }
+  }
+
+  private static int readInt(byte[] b, int pos) {
+    return (b[pos] & 0xFF)
+        | (b[pos + 1] & 0xFF) << 8
+        | (b[pos + 2] & 0xFF) << 16
+        | (b[pos + 3] & 0xFF) << 24;
+  }
+
+  private static long readLong(byte[] b, int pos) {
+    return (readInt(b, pos) & 0xFFFFFFFFL)
+        | (long) readInt(b, pos + 4) << 32;
+  }
+
+  private static void readFully(InputStream in, byte[] b, int off, int len)
+      throws IOException {
+    while (len > 0) {
+      final int n = in.read(b, off, len);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      off += n;
+      len -= n;
+    }
+  }
+
+  /** Document that holds only the fields of a row, in an array.
+   *
+   * <p>It is read-only; {@link MongoEnumerator} uses the array as the
+   * row.</p> */
+  static class Row implements DBObject {
+    private final List<String> names;
+    final Object[] values;
+    private boolean partial;
+
+    Row(List<String> names, Object[] values) {
+      this.names = names;
+      this.values = values;
+    }
+
+    public void markAsPartialObject() {
+      partial = true;
+    }
+
+    public boolean isPartialObject() {
+      return partial;
+    }
+
+    public Object put(String key, Object v) {
+      throw readOnly("put");
+    }
+
+    public void putAll(BSONObject o) {
+      throw readOnly("putAll");
+    }
+
+    public void putAll(Map m) {
+      throw readOnly("putAll");
+    }
+
+    public Object get(String key) {
+      final int i = names.indexOf(key);
+      return i < 0 ? null : values[i];
+    }
+
+    public Map toMap() {
+      final Map<String, Object> map = new LinkedHashMap<String, Object>();
+      for (int i = 0; i < values.length; i++) {
+        map.put(names.get(i), values[i]);
+      }
+      return map;
+    }
+
+    public Object removeField(String key) {
+      throw readOnly("removeField");
+    }
+
+    private static UnsupportedOperationException readOnly(String operation) {
+      return new UnsupportedOperationException(
+          operation + ": row decoded by MongoRowDecoder is read-only");
+    }
+
+    @SuppressWarnings("deprecation")
+    public boolean containsKey(String s) {
+      return containsField(s);
+    }
+
+    public boolean containsField(String s) {
+      return names.contains(s);
+    }
+
+    public Set<String> keySet() {
+      return new LinkedHashSet<String>(names);
+    }
+
+    public String toString() {
+      return toMap().toString();
+    }
+  }
+}
+
+// End MongoRowDecoder.java
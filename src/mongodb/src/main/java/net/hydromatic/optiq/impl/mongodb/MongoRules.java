@@ -22,8 +22,10 @@
 
 import org.eigenbase.rel.*;
 import org.eigenbase.rel.convert.ConverterRule;
+import org.eigenbase.rel.metadata.RelMetadataQuery;
 import org.eigenbase.relopt.*;
 import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeFactory;
 import org.eigenbase.rex.*;
 import org.eigenbase.sql.SqlKind;
 import org.eigenbase.sql.fun.SqlStdOperatorTable;
@@ -31,6 +33,7 @@
 import org.eigenbase.sql.validate.SqlValidatorUtil;
 import org.eigenbase.trace.EigenbaseTrace;
 import org.eigenbase.util.Bug;
+import org.eigenbase.util.Util;
 
 import java.util.*;
 import java.util.logging.Logger;
@@ -50,6 +53,8 @@ private MongoRules() {}
     MongoFilterRule.INSTANCE,
     MongoProjectRule.INSTANCE,
     MongoAggregateRule.INSTANCE,
+    MongoProjectTrimRule.INSTANCE,
+    MongoJoinRule.INSTANCE,
   };
 
   /** Returns 'string' if it is a call to item['string'], null otherwise. */
@@ -68,6 +73,43 @@ static String isItem(RexCall call) {
     return null;
   }
 
+  /** Returns the name of the document field that an expression reads, if it
+   * is of the form item['string'], perhaps within a cast; null otherwise. */
+  static String itemName(RexNode node) {
+    if (node.getKind() == SqlKind.CAST) {
+      node = ((RexCall) node).operands.get(0);
+    }
+    return node instanceof RexCall ? isItem((RexCall) node) : null;
+  }
+
+  /** Returns whether every expression of a projection is one that
+   * {@link RexToMongoTranslator} can translate: a literal, a field reference,
+   * a call to item, or a cast of one of these. */
+  static boolean isSimple(ProjectRelBase project) {
+    for (RexNode node : project.getProjects()) {
+      if (!isSimple(node)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSimple(RexNode node) {
+    if (node instanceof RexLiteral || node instanceof RexInputRef) {
+      return true;
+    }
+    if (node instanceof RexCall) {
+      final RexCall call = (RexCall) node;
+      if (call.getKind() == SqlKind.CAST) {
+        return isSimple(call.operands.get(0));
+      }
+      return call.getOperator() == SqlStdOperatorTable.ITEM
+          && isSimple(call.operands.get(0))
+          && call.operands.get(1) instanceof RexLiteral;
+    }
+    return false;
+  }
+
   static List<String> mongoFieldNames(final RelDataType rowType) {
     return SqlValidatorUtil.uniquify(
         new AbstractList<String>() {
@@ -244,6 +286,11 @@ private MongoProjectRule() {
 
     public RelNode convert(RelNode rel) {
       final ProjectRel project = (ProjectRel) rel;
+      if (!isSimple(project)) {
+        // Cannot be translated; MongoProjectTrimRule may push down the
+        // fields that it reads.
+        return null;
+      }
       final RelTraitSet traitSet = project.getTraitSet().replace(out);
       return new MongoProjectRel(project.getCluster(), traitSet,
           convert(project.getChild(), traitSet), project.getProjects(),
@@ -251,6 +298,152 @@ public RelNode convert(RelNode rel) {
     }
   }
 
+  /**
+   * Rule that pushes into MongoDB the fields that a {@link ProjectRel} reads
+   * from a collection, if the projection cannot be translated as a whole.
+   *
+   * <p>The remaining expressions are evaluated by a {@link ProjectRel} above
+   * a {@link MongoProjectRel}, so that documents are not fetched in full.</p>
+   */
+  private static class MongoProjectTrimRule extends RelOptRule {
+    private static final MongoProjectTrimRule INSTANCE =
+        new MongoProjectTrimRule();
+
+    private MongoProjectTrimRule() {
+      super(
+          operand(ProjectRel.class,
+              operand(MongoTableScan.class, none())),
+          "MongoProjectTrimRule");
+    }
+
+    public void onMatch(RelOptRuleCall call) {
+      final ProjectRel project = call.rel(0);
+      final MongoTableScan scan = call.rel(1);
+      if (isSimple(project)) {
+        return; // MongoProjectRule pushes the whole projection
+      }
+      final Map<String, Integer> itemOrdinals =
+          new LinkedHashMap<String, Integer>();
+      final List<RexNode> items = new ArrayList<RexNode>();
+      final boolean[] whole = {false};
+      final List<RexNode> exprs =
+          new RexShuttle() {
+            @Override public RexNode visitCall(RexCall call) {
+              final String name = isItem(call);
+              if (name == null) {
+                return super.visitCall(call);
+              }
+              Integer ordinal = itemOrdinals.get(name);
+              if (ordinal == null) {
+                ordinal = items.size();
+                itemOrdinals.put(name, ordinal);
+                items.add(call);
+              }
+              return new RexInputRef(ordinal, call.getType());
+            }
+
+            @Override public RexNode visitInputRef(RexInputRef inputRef) {
+              // The whole document is needed.
+              whole[0] = true;
+              return inputRef;
+            }
+          }.apply(project.getProjects());
+      if (whole[0] || items.isEmpty()) {
+        return;
+      }
+      final RelDataTypeFactory.FieldInfoBuilder builder =
+          project.getCluster().getTypeFactory().builder();
+      for (Map.Entry<String, Integer> entry : itemOrdinals.entrySet()) {
+        builder.add(entry.getKey(), items.get(entry.getValue()).getType());
+      }
+      final MongoProjectRel mongoProject =
+          new MongoProjectRel(project.getCluster(), scan.getTraitSet(), scan,
+              items, builder.build(), ProjectRel.Flags.BOXED);
+      call.transformTo(
+          CalcRel.createProject(mongoProject, exprs,
+              project.getRowType().getFieldNames()));
+    }
+  }
+
+  /**
+   * Rule to convert an inner {@link JoinRel} to a {@link MongoJoinRel}.
+   *
+   * <p>The join condition must be an equality between one field of each
+   * input, and the right input must be a projection of fields of a
+   * collection, such as a view over a raw MongoDB table; the left input can
+   * be anything that MongoDB can implement.</p>
+   */
+  private static class MongoJoinRule extends RelOptRule {
+    private static final MongoJoinRule INSTANCE = new MongoJoinRule();
+
+    private MongoJoinRule() {
+      super(
+          operand(JoinRel.class,
+              operand(RelNode.class, any()),
+              operand(ProjectRel.class,
+                  operand(MongoTableScan.class, none()))),
+          "MongoJoinRule");
+    }
+
+    public void onMatch(RelOptRuleCall call) {
+      final JoinRel join = call.rel(0);
+      final ProjectRel project = call.rel(2);
+      final MongoTableScan scan = call.rel(3);
+      if (join.getJoinType() != JoinRelType.INNER) {
+        return;
+      }
+      final JoinInfo joinInfo = join.analyzeCondition();
+      if (!joinInfo.isEqui() || joinInfo.leftKeys.size() != 1) {
+        return;
+      }
+      // "$lookup" finds the collection in the database of the left input's
+      // pipeline, so both inputs must read from the same schema.
+      final RelOptTable leftTable =
+          RelMetadataQuery.getTableOrigin(join.getLeft());
+      if (leftTable == null
+          || leftTable.unwrap(MongoTable.class) == null
+          || !Util.skipLast(leftTable.getQualifiedName()).equals(
+              Util.skipLast(scan.getTable().getQualifiedName()))) {
+        return;
+      }
+      // "$lookup" compares the raw values of the keys. If either key is
+      // converted to another type, SQL would compare the converted values,
+      // which may match where the raw values do not; so don't convert.
+      final RexNode rightKey =
+          project.getProjects().get(joinInfo.rightKeys.get(0));
+      if (rightKey.getKind() == SqlKind.CAST
+          || !isAny(join.getLeft(), joinInfo.leftKeys.get(0))
+          || !isAny(join.getRight(), joinInfo.rightKeys.get(0))) {
+        return;
+      }
+      final List<String> rightItems = new ArrayList<String>();
+      for (RexNode node : project.getProjects()) {
+        final String name = itemName(node);
+        if (name == null) {
+          return;
+        }
+        rightItems.add(name);
+      }
+      final RelTraitSet traitSet =
+          join.getTraitSet().replace(MongoRel.CONVENTION);
+      call.transformTo(
+          new MongoJoinRel(join.getCluster(), traitSet,
+              convert(join.getLeft(),
+                  join.getLeft().getTraitSet().replace(MongoRel.CONVENTION)),
+              convert(join.getRight(),
+                  join.getRight().getTraitSet().replace(MongoRel.CONVENTION)),
+              join.getCondition(), joinInfo.leftKeys, joinInfo.rightKeys,
+              scan.mongoTable.collectionName, rightItems));
+    }
+
+    /** Returns whether a field has type ANY, which is the type of a value
+     * read from a document without conversion. */
+    private static boolean isAny(RelNode rel, int field) {
+      return rel.getRowType().getFieldList().get(field).getType()
+          .getSqlTypeName() == SqlTypeName.ANY;
+    }
+  }
+
 /*
 
   /**
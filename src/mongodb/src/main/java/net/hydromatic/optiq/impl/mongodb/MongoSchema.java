@@ -32,6 +32,7 @@
  */
 public class MongoSchema extends AbstractSchema {
   final DB mongoDb;
+  final int batchSize;
 
   /**
    * Creates a MongoDB schema.
@@ -40,7 +41,20 @@ public class MongoSchema extends AbstractSchema {
    * @param database Mongo database name, e.g. "foodmart"
    */
   public MongoSchema(String host, String database) {
+    this(host, database, 0);
+  }
+
+  /**
+   * Creates a MongoDB schema, specifying how many documents a cursor fetches
+   * per round trip.
+   *
+   * @param host Mongo host, e.g. "localhost"
+   * @param database Mongo database name, e.g. "foodmart"
+   * @param batchSize Cursor batch size, or 0 to use the server's default
+   */
+  public MongoSchema(String host, String database, int batchSize) {
     super();
+    this.batchSize = batchSize;
     try {
       MongoClient mongo = new MongoClient(host);
       this.mongoDb = mongo.getDB(database);
@@ -36,7 +36,9 @@ public Schema create(SchemaPlus parentSchema, String name,
     Map map = (Map) operand;
     String host = (String) map.get("host");
     String database = (String) map.get("database");
-    return new MongoSchema(host, database);
+    Number batchSize = (Number) map.get("batchSize");
+    return new MongoSchema(host, database,
+        batchSize == null ? 0 : batchSize.intValue());
   }
 }
 
@@ -87,6 +87,23 @@ public RelNode toRel(
    */
   public Enumerable<Object> find(DB mongoDb, String filterJson,
       String projectJson, List<Map.Entry<String, Class>> fields) {
+    return find(mongoDb, filterJson, projectJson, fields, 0);
+  }
+
+  /** Executes a "find" operation on the underlying collection, fetching
+   * documents in batches of a given size.
+   *
+   * @param mongoDb MongoDB connection
+   * @param filterJson Filter JSON string, or null
+   * @param projectJson Project JSON string, or null
+   * @param fields List of fields to project; or null to return map
+   * @param batchSize Number of documents to fetch per round trip, or 0 to
+   *                  use the server's default
+   * @return Enumerator of results
+   */
+  public Enumerable<Object> find(DB mongoDb, String filterJson,
+      String projectJson, final List<Map.Entry<String, Class>> fields,
+      final int batchSize) {
     final DBCollection collection =
         mongoDb.getCollection(collectionName);
     final DBObject filter =
@@ -97,6 +114,13 @@ public Enumerable<Object> find(DB mongoDb, String filterJson,
     return new AbstractEnumerable<Object>() {
       public Enumerator<Object> enumerator() {
         final DBCursor cursor = collection.find(filter, project);
+        if (batchSize > 0) {
+          cursor.batchSize(batchSize);
+        }
+        if (fields != null) {
+          // Decode only the fields of the row, straight from BSON.
+          cursor.setDecoderFactory(MongoRowDecoder.factory(fields));
+        }
         return new MongoEnumerator(cursor, getter);
       }
     };
@@ -152,7 +176,8 @@ public MongoQueryable(QueryProvider queryProvider, SchemaPlus schema,
     public Enumerator<T> enumerator() {
       //noinspection unchecked
       final Enumerable<T> enumerable =
-          (Enumerable<T>) getTable().find(getMongoDb(), null, null, null);
+          (Enumerable<T>) getTable().find(getMongoDb(), null, null, null,
+              getBatchSize());
       return enumerable.enumerator();
     }
 
@@ -160,6 +185,10 @@ private DB getMongoDb() {
       return schema.unwrap(MongoSchema.class).mongoDb;
     }
 
+    private int getBatchSize() {
+      return schema.unwrap(MongoSchema.class).batchSize;
+    }
+
     private MongoTable getTable() {
       return (MongoTable) table;
     }
@@ -181,7 +210,8 @@ public Enumerable<Object> aggregate(List<Map.Entry<String, Class>> fields,
     @SuppressWarnings("UnusedDeclaration")
     public Enumerable<Object> find(String filterJson,
         String projectJson, List<Map.Entry<String, Class>> fields) {
-      return getTable().find(getMongoDb(), filterJson, projectJson, fields);
+      return getTable().find(getMongoDb(), filterJson, projectJson, fields,
+          getBatchSize());
     }
   }
 }
@@ -114,13 +114,34 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
             mongoImplementor.table.getExpression(
                 MongoTable.MongoQueryable.class));
     List<String> opList = Pair.right(mongoImplementor.list);
-    final Expression ops =
-        list.append("ops",
-            constantArrayList(opList, String.class));
-    Expression enumerable =
-        list.append("enumerable",
-            Expressions.call(table,
-                MongoMethod.MONGO_QUERYABLE_AGGREGATE.method, fields, ops));
+    final Expression enumerable;
+    if (opList.isEmpty()) {
+      // A scan of whole documents. Use a cursor, whose batch size can be
+      // set, and return each document as a map.
+      enumerable =
+          list.append("enumerable",
+              Expressions.call(table,
+                  MongoMethod.MONGO_QUERYABLE_FIND.method,
+                  Expressions.constant(null, String.class),
+                  Expressions.constant(null, String.class),
+                  Expressions.constant(null, List.class)));
+    } else if (opList.size() == 1 && project != null) {
+      // A projection that only includes fields can also use a cursor.
+      enumerable =
+          list.append("enumerable",
+              Expressions.call(table,
+                  MongoMethod.MONGO_QUERYABLE_FIND.method,
+                  Expressions.constant(null, String.class),
+                  Expressions.constant(project), fields));
+    } else {
+      final Expression ops =
+          list.append("ops",
+              constantArrayList(opList, String.class));
+      enumerable =
+          list.append("enumerable",
+              Expressions.call(table,
+                  MongoMethod.MONGO_QUERYABLE_AGGREGATE.method, fields, ops));
+    }
     if (OptiqPrepareImpl.DEBUG) {
       System.out.println("Mongo: " + opList);
     }
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.impl.mongodb;
+
+import org.bson.BasicBSONEncoder;
+
+import com.google.common.collect.ImmutableList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link MongoRowDecoder}. Does not need a MongoDB server.
+ */
+public class MongoRowDecoderTest {
+  private static List<Map.Entry<String, Class>> fields(Object... namesClasses) {
+    final List<Map.Entry<String, Class>> list =
+        new ArrayList<Map.Entry<String, Class>>();
+    for (int i = 0; i < namesClasses.length; i += 2) {
+      list.add(
+          new AbstractMap.SimpleEntry<String, Class>(
+              (String) namesClasses[i], (Class) namesClasses[i + 1]));
+    }
+    return list;
+  }
+
+  private static DBObject decode(List<Map.Entry<String, Class>> fields,
+      DBObject document) {
+    final byte[] bytes = new BasicBSONEncoder().encode(document);
+    return MongoRowDecoder.factory(fields).create().decode(bytes, null);
+  }
+
+  /** Decodes the fields of a row, skipping fields of other types, including
+   * a nested document. */
+  @Test public void testDecode() {
+    final DBObject document = new BasicDBObject()
+        .append("skipped", new BasicDBObject("a", ImmutableList.of(1, 2)))
+        .append("city", "ACMAR")
+        .append("flag", true)
+        .append("pop", 6055)
+        .append("big", 12345678901L)
+        .append("missing", null)
+        .append("loc", 1.5d);
+    final DBObject row =
+        decode(
+            fields("loc", Double.class, "city", String.class, "pop",
+                Integer.class, "big", Long.class, "flag", Boolean.class,
+                "absent", String.class),
+            document);
+    assertThat(row, instanceOf(MongoRowDecoder.Row.class));
+    assertThat(Arrays.asList(((MongoRowDecoder.Row) row).values),
+        equalTo(
+            Arrays.<Object>asList(1.5d, "ACMAR", 6055, 12345678901L, true,
+                null)));
+    assertThat(row.get("city"), equalTo((Object) "ACMAR"));
+  }
+
+  /** If a field of the row is a document or array, the whole document is
+   * decoded in the usual way. */
+  @Test public void testDecodeNested() {
+    final DBObject document = new BasicDBObject()
+        .append("city", "ACMAR")
+        .append("loc", ImmutableList.of(-86.5, 33.5));
+    final DBObject row =
+        decode(fields("city", String.class, "loc", List.class), document);
+    assertThat(row, not(instanceOf(MongoRowDecoder.Row.class)));
+    assertThat(row.get("city"), equalTo((Object) "ACMAR"));
+  }
+
+  /** An error reply from the server is decoded in the usual way, so that
+   * its error fields are not lost. */
+  @Test public void testDecodeError() {
+    final List<Map.Entry<String, Class>> fields =
+        fields("city", String.class, "pop", Integer.class);
+    final DBObject reply = decode(fields,
+        new BasicDBObject("$err", "not master").append("code", 10107));
+    assertThat(reply, not(instanceOf(MongoRowDecoder.Row.class)));
+    assertThat(reply.get("$err"), equalTo((Object) "not master"));
+    assertThat(reply.get("code"), equalTo((Object) 10107));
+
+    final DBObject reply2 = decode(fields,
+        new BasicDBObject("ok", 0.0).append("errmsg", "exceeded time limit")
+            .append("code", 50));
+    assertThat(reply2, not(instanceOf(MongoRowDecoder.Row.class)));
+    assertThat(reply2.get("errmsg"),
+        equalTo((Object) "exceeded time limit"));
+  }
+
+  /** A decoded row is read-only, and says so. */
+  @Test public void testReadOnly() {
+    final DBObject row =
+        decode(fields("city", String.class),
+            new BasicDBObject("city", "ACMAR"));
+    try {
+      row.put("city", "BOAZ");
+      fail("expected error");
+    } catch (UnsupportedOperationException e) {
+      assertThat(e.getMessage(),
+          equalTo("put: row decoded by MongoRowDecoder is read-only"));
+    }
+  }
+}
+
+// End MongoRowDecoderTest.java
@@ -665,6 +665,97 @@ public Void apply(ResultSet resultSet) {
             "STATE=WV; CITY=BLUEWELL\n" + "STATE=WV; CITY=ATHENS\n");
   }
 
+  /** Tests a join between two collections, which is implemented by a
+   * "$lookup" stage rather than by fetching both collections. */
+  @Test public void testJoin() {
+    OptiqAssert.that()
+        .enable(enabled())
+        .withModel(MONGO_FOODMART_MODEL)
+        .query(
+            "select s.\"store_name\", w.\"state\"\n"
+            + "from (\n"
+            + "  select _MAP['store_id'] as \"id\",\n"
+            + "    cast(_MAP['store_name'] as varchar(20)) as \"store_name\"\n"
+            + "  from \"_foodmart\".\"store\") as s\n"
+            + "join (\n"
+            + "  select _MAP['warehouse_id'] as \"id\",\n"
+            + "    cast(_MAP['warehouse_state_province'] as varchar(20))\n"
+            + "      as \"state\"\n"
+            + "  from \"_foodmart\".\"warehouse\") as w\n"
+            + "on s.\"id\" = w.\"id\"")
+        .explainContains("MongoJoinRel(")
+        .returnsCount(24);
+  }
+
+  /** Tests that a join between collections in different databases is not
+   * implemented by "$lookup", which can only read from the database of its
+   * pipeline. */
+  @Test public void testJoinTwoDatabases() {
+    OptiqAssert.that()
+        .enable(enabled())
+        .withModel(
+            "{\n"
+            + "  version: '1.0',\n"
+            + "  schemas: [\n"
+            + MONGO_FOODMART_SCHEMA
+            + "     ,\n"
+            + "     {\n"
+            + "       type: 'custom',\n"
+            + "       name: '_test',\n"
+            + "       factory: 'net.hydromatic.optiq.impl.mongodb.MongoSchemaFactory',\n"
+            + "       operand: {\n"
+            + "         host: 'localhost',\n"
+            + "         database: 'test'\n"
+            + "       }\n"
+            + "     }\n"
+            + "   ]\n"
+            + "}")
+        .query(
+            "select s.\"store_name\", z.\"city\"\n"
+            + "from (\n"
+            + "  select _MAP['store_state'] as \"state\",\n"
+            + "    cast(_MAP['store_name'] as varchar(20)) as \"store_name\"\n"
+            + "  from \"_foodmart\".\"store\") as s\n"
+            + "join (\n"
+            + "  select _MAP['state'] as \"state\",\n"
+            + "    cast(_MAP['city'] as varchar(20)) as \"city\"\n"
+            + "  from \"_test\".\"zips\") as z\n"
+            + "on s.\"state\" = z.\"state\"")
+        .explainMatches("", checkNoMongoJoin())
+        .runs();
+  }
+
+  /** Tests that a join whose keys are converted to another type is not
+   * implemented by "$lookup", which would compare the values before
+   * conversion. */
+  @Test public void testJoinCastKeys() {
+    OptiqAssert.that()
+        .enable(enabled())
+        .withModel(MONGO_FOODMART_MODEL)
+        .query(
+            "select s.\"store_name\", w.\"warehouse_state_province\"\n"
+            + "from \"store\" as s\n"
+            + "join \"warehouse\" as w on s.\"store_id\" = w.\"warehouse_id\"")
+        .explainMatches("", checkNoMongoJoin())
+        .returnsCount(24);
+  }
+
+  /** Returns a checker that fails if a plan contains a
+   * {@link net.hydromatic.optiq.impl.mongodb.MongoJoinRel}. */
+  private static Function1<ResultSet, Void> checkNoMongoJoin() {
+    return new Function1<ResultSet, Void>() {
+      public Void apply(ResultSet resultSet) {
+        try {
+          final String plan = OptiqAssert.toString(resultSet);
+          assertThat(plan.contains("MongoJoinRel("), equalTo(false));
+          return null;
+        } catch (SQLException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+  }
+
   @Ignore
   @Test public void testFoodmartQueries() {
     final List<Pair<String, String>> queries = JdbcTest.getFoodmartQueries();
@@ -26,6 +26,7 @@
 import org.apache.spark.api.java.function.FlatMapFunction;
 
 import java.lang.reflect.Method;
+import java.util.Comparator;
 import java.util.HashMap;
 
 /**
@@ -40,6 +41,16 @@ public enum SparkMethod {
   CREATE_RDD(SparkRuntime.class, "createRdd", JavaSparkContext.class,
       Enumerable.class),
   GET_SPARK_CONTEXT(SparkRuntime.class, "getSparkContext", DataContext.class),
+  HASH_JOIN(SparkRuntime.class, "hashJoin", JavaRDD.class, JavaRDD.class,
+      SparkRuntime.OptiqFunction.class, SparkRuntime.OptiqFunction.class,
+      SparkRuntime.OptiqFunction2.class),
+  BROADCAST_JOIN(SparkRuntime.class, "broadcastJoin", JavaSparkContext.class,
+      JavaRDD.class, JavaRDD.class, SparkRuntime.OptiqFunction.class,
+      SparkRuntime.OptiqFunction.class, SparkRuntime.OptiqFunction2.class),
+  AGGREGATE(SparkRuntime.class, "aggregate", JavaRDD.class,
+      SparkRuntime.OptiqFunction.class, SparkRuntime.OptiqFunction.class,
+      SparkRuntime.AggKind[].class, SparkRuntime.OptiqFunction2.class),
+  SORT(SparkRuntime.class, "sort", JavaRDD.class, Comparator.class),
   RDD_FLAT_MAP(JavaRDD.class, "flatMap", FlatMapFunction.class),
   FLAT_MAP_FUNCTION_CALL(FlatMapFunction.class, "call", Object.class);
 
@@ -21,10 +21,13 @@
 import net.hydromatic.optiq.BuiltinMethod;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
 import net.hydromatic.optiq.rules.java.*;
+import net.hydromatic.optiq.runtime.Hook;
+import net.hydromatic.optiq.util.BitSets;
 
 import org.eigenbase.rel.*;
 import org.eigenbase.rel.convert.ConverterRule;
 import org.eigenbase.rel.metadata.RelMetadataQuery;
+import org.eigenbase.rel.rules.EquiJoinRel;
 import org.eigenbase.rel.rules.FilterToCalcRule;
 import org.eigenbase.rel.rules.ProjectToCalcRule;
 import org.eigenbase.relopt.*;
@@ -32,7 +35,13 @@
 import org.eigenbase.reltype.RelDataTypeField;
 import org.eigenbase.rex.RexLiteral;
 import org.eigenbase.rex.RexMultisetUtil;
+import org.eigenbase.rex.RexNode;
 import org.eigenbase.rex.RexProgram;
+import org.eigenbase.sql.fun.SqlCountAggFunction;
+import org.eigenbase.sql.fun.SqlMinMaxAggFunction;
+import org.eigenbase.sql.fun.SqlSumAggFunction;
+import org.eigenbase.util.Holder;
+import org.eigenbase.util.ImmutableIntList;
 import org.eigenbase.util.Pair;
 
 import com.google.common.collect.ImmutableList;
@@ -64,7 +73,10 @@ public static List<RelOptRule> rules() {
         EnumerableToSparkConverterRule.INSTANCE,
         SparkToEnumerableConverterRule.INSTANCE,
         SPARK_VALUES_RULE,
-        SPARK_CALC_RULE);
+        SPARK_CALC_RULE,
+        SPARK_JOIN_RULE,
+        SPARK_AGGREGATE_RULE,
+        SPARK_SORT_RULE);
   }
 
   /** Planner rule that converts from enumerable to Spark convention. */
@@ -367,6 +379,492 @@ public Result implementSpark(Implementor implementor) {
     }
   }
 
+  /** Returns a lambda that computes the key of a row: the value of the key
+   * field if there is one, otherwise a list of the values of the key
+   * fields. */
+  private static Expression keySelector(PhysType physType,
+      ParameterExpression row_, List<Integer> keys) {
+    final List<Expression> expressions = new ArrayList<Expression>();
+    for (int key : keys) {
+      expressions.add(box(physType.fieldReference(row_, key)));
+    }
+    return Expressions.lambda(
+        SparkRuntime.OptiqFunction.class,
+        expressions.size() == 1
+            ? expressions.get(0)
+            : Expressions.call(
+                Arrays.class,
+                "asList",
+                Expressions.newArrayInit(Object.class, expressions)),
+        row_);
+  }
+
+  private static Expression box(Expression expression) {
+    final Primitive primitive = Primitive.of(expression.getType());
+    return primitive == null
+        ? expression
+        : Expressions.box(expression, primitive);
+  }
+
+  public static final SparkJoinRule SPARK_JOIN_RULE =
+      new SparkJoinRule();
+
+  /**
+   * Rule to convert an inner equi-join {@link JoinRel} to a
+   * {@link net.hydromatic.optiq.impl.spark.SparkRules.SparkJoinRel}.
+   */
+  private static class SparkJoinRule extends ConverterRule {
+    private SparkJoinRule() {
+      super(
+          JoinRel.class,
+          Convention.NONE,
+          SparkRel.CONVENTION,
+          "SparkJoinRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      final JoinRel join = (JoinRel) rel;
+      if (join.getJoinType() != JoinRelType.INNER) {
+        return null;
+      }
+      final JoinInfo info =
+          JoinInfo.of(join.getLeft(), join.getRight(), join.getCondition());
+      if (!info.isEqui() || info.leftKeys.isEmpty()) {
+        return null;
+      }
+      final List<RelDataTypeField> leftFields =
+          join.getLeft().getRowType().getFieldList();
+      final List<RelDataTypeField> rightFields =
+          join.getRight().getRowType().getFieldList();
+      for (Pair<Integer, Integer> pair
+          : Pair.zip(info.leftKeys, info.rightKeys)) {
+        if (!keyTypesMatch(leftFields.get(pair.left).getType(),
+            rightFields.get(pair.right).getType())) {
+          return null;
+        }
+      }
+      final RelNode left =
+          convert(join.getLeft(),
+              join.getLeft().getTraitSet().replace(SparkRel.CONVENTION));
+      final RelNode right =
+          convert(join.getRight(),
+              join.getRight().getTraitSet().replace(SparkRel.CONVENTION));
+      final RelOptCluster cluster = join.getCluster();
+      return new SparkJoinRel(
+          cluster,
+          join.getTraitSet().replace(SparkRel.CONVENTION),
+          left,
+          right,
+          info.getEquiCondition(left, right, cluster.getRexBuilder()),
+          info.leftKeys,
+          info.rightKeys,
+          join.getVariablesStopped());
+    }
+
+    /** Returns whether values of two types are equal in SQL if and only if
+     * they are equal in Java, and so can be used as the keys of a hash
+     * join.
+     *
+     * <p>Values of different types (say INTEGER and BIGINT) are never equal
+     * in Java. Nor are DECIMAL values of different scales (1.0 and 1.00),
+     * or CHAR values of different lengths, which are padded with spaces to
+     * different lengths.</p> */
+    private static boolean keyTypesMatch(RelDataType left, RelDataType right) {
+      if (left.getSqlTypeName() != right.getSqlTypeName()) {
+        return false;
+      }
+      switch (left.getSqlTypeName()) {
+      case DECIMAL:
+        return left.getScale() == right.getScale();
+      case CHAR:
+        return left.getPrecision() == right.getPrecision();
+      default:
+        return true;
+      }
+    }
+  }
+
+  /** Implementation of an inner equi-join in Spark convention.
+   *
+   * <p>If {@link RelMetadataQuery#getRowCount} estimates that the right input
+   * is small, it is collected and broadcast to every partition of the left
+   * input, and the left input is not shuffled. Otherwise both inputs are
+   * shuffled on the join key.</p> */
+  public static class SparkJoinRel
+      extends EquiJoinRel
+      implements SparkRel {
+    /** Largest estimated number of rows in the right input for which a
+     * broadcast join is used, unless
+     * {@link Hook#SPARK_BROADCAST_THRESHOLD} changes it. */
+    public static final double BROADCAST_THRESHOLD = 10000d;
+
+    public SparkJoinRel(
+        RelOptCluster cluster,
+        RelTraitSet traitSet,
+        RelNode left,
+        RelNode right,
+        RexNode condition,
+        ImmutableIntList leftKeys,
+        ImmutableIntList rightKeys,
+        Set<String> variablesStopped) {
+      super(cluster, traitSet, left, right, condition, leftKeys, rightKeys,
+          JoinRelType.INNER, variablesStopped);
+      assert getConvention() == SparkRel.CONVENTION;
+    }
+
+    @Override
+    public SparkJoinRel copy(RelTraitSet traitSet, RexNode condition,
+        RelNode left, RelNode right, JoinRelType joinType,
+        boolean semiJoinDone) {
+      assert joinType == JoinRelType.INNER;
+      final JoinInfo joinInfo = JoinInfo.of(left, right, condition);
+      assert joinInfo.isEqui();
+      return new SparkJoinRel(getCluster(), traitSet, left, right,
+          condition, joinInfo.leftKeys, joinInfo.rightKeys,
+          variablesStopped);
+    }
+
+    /** Returns whether the right input is small enough to broadcast. */
+    boolean isBroadcast() {
+      final Double rowCount = RelMetadataQuery.getRowCount(right);
+      final Holder<Double> threshold = Holder.of(BROADCAST_THRESHOLD);
+      Hook.SPARK_BROADCAST_THRESHOLD.run(threshold);
+      return rowCount != null && rowCount <= threshold.get();
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner) {
+      final double rowCount = RelMetadataQuery.getRowCount(this);
+      final double leftRowCount = RelMetadataQuery.getRowCount(left);
+      final double rightRowCount = RelMetadataQuery.getRowCount(right);
+      // Each row of the inputs is hashed once. A shuffle join also sends
+      // both inputs across the network.
+      final double io =
+          isBroadcast() ? rightRowCount : leftRowCount + rightRowCount;
+      return planner.getCostFactory().makeCost(
+          rowCount + leftRowCount + rightRowCount, 0, io);
+    }
+
+    public Result implementSpark(Implementor implementor) {
+      // final JavaRDD<Left> left = <<left impl>>;
+      // final JavaRDD<Right> right = <<right impl>>;
+      // return SparkRuntime.hashJoin(left, right,
+      //     new OptiqFunction<Left, Object>() {
+      //       public Object call(Left l) { return l.deptno; }
+      //     },
+      //     new OptiqFunction<Right, Object>() {
+      //       public Object call(Right r) { return r.deptno; }
+      //     },
+      //     new OptiqFunction2<Left, Right, X>() {
+      //       public X call(Left l, Right r) { return new X(...); }
+      //     });
+      final JavaTypeFactory typeFactory = implementor.getTypeFactory();
+      final BlockBuilder builder = new BlockBuilder();
+      final Result leftResult =
+          implementor.visitInput(this, 0, (SparkRel) left);
+      final Expression leftRdd_ = builder.append("left", leftResult.block);
+      final Result rightResult =
+          implementor.visitInput(this, 1, (SparkRel) right);
+      final Expression rightRdd_ =
+          builder.append("right", rightResult.block);
+
+      final PhysType physType =
+          PhysTypeImpl.of(typeFactory, getRowType(), JavaRowFormat.CUSTOM);
+      final ParameterExpression l_ =
+          Expressions.parameter(
+              Primitive.box(leftResult.physType.getJavaRowType()), "l");
+      final ParameterExpression r_ =
+          Expressions.parameter(
+              Primitive.box(rightResult.physType.getJavaRowType()), "r");
+      final List<Expression> expressions = new ArrayList<Expression>();
+      for (int i = 0; i < left.getRowType().getFieldCount(); i++) {
+        expressions.add(leftResult.physType.fieldReference(l_, i));
+      }
+      for (int i = 0; i < right.getRowType().getFieldCount(); i++) {
+        expressions.add(rightResult.physType.fieldReference(r_, i));
+      }
+      final Expression resultSelector =
+          Expressions.lambda(
+              SparkRuntime.OptiqFunction2.class,
+              physType.record(expressions),
+              l_,
+              r_);
+      final Expression leftKeySelector =
+          keySelector(leftResult.physType, l_, leftKeys);
+      final Expression rightKeySelector =
+          keySelector(rightResult.physType, r_, rightKeys);
+      final Expression join;
+      if (isBroadcast()) {
+        join =
+            Expressions.call(SparkMethod.BROADCAST_JOIN.method,
+                Expressions.call(SparkMethod.GET_SPARK_CONTEXT.method,
+                    implementor.getRootExpression()),
+                leftRdd_, rightRdd_, leftKeySelector, rightKeySelector,
+                resultSelector);
+      } else {
+        join =
+            Expressions.call(SparkMethod.HASH_JOIN.method,
+                leftRdd_, rightRdd_, leftKeySelector, rightKeySelector,
+                resultSelector);
+      }
+      builder.add(Expressions.return_(null, join));
+      return implementor.result(physType, builder.toBlock());
+    }
+  }
+
+  public static final SparkAggregateRule SPARK_AGGREGATE_RULE =
+      new SparkAggregateRule();
+
+  /**
+   * Rule to convert an {@link AggregateRel} to a
+   * {@link net.hydromatic.optiq.impl.spark.SparkRules.SparkAggregateRel}.
+   */
+  private static class SparkAggregateRule extends ConverterRule {
+    private SparkAggregateRule() {
+      super(
+          AggregateRel.class,
+          Convention.NONE,
+          SparkRel.CONVENTION,
+          "SparkAggregateRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      final AggregateRel agg = (AggregateRel) rel;
+      if (agg.getGroupSet().isEmpty()) {
+        // Without GROUP BY, an empty input must still produce a row, but
+        // combineByKey would produce none.
+        return null;
+      }
+      for (AggregateCall aggCall : agg.getAggCallList()) {
+        if (SparkAggregateRel.aggKind(aggCall) == null) {
+          return null;
+        }
+      }
+      final RelTraitSet traitSet =
+          agg.getTraitSet().replace(SparkRel.CONVENTION);
+      return new SparkAggregateRel(
+          rel.getCluster(),
+          traitSet,
+          convert(agg.getChild(), traitSet),
+          agg.getGroupSet(),
+          agg.getAggCallList());
+    }
+  }
+
+  /** Implementation of {@link AggregateRel} in Spark convention.
+   *
+   * <p>Uses {@code combineByKey}, so each partition computes partial
+   * aggregates before rows are shuffled. Supports COUNT, SUM, MIN and MAX,
+   * without DISTINCT, and requires at least one GROUP BY key.</p> */
+  public static class SparkAggregateRel
+      extends AggregateRelBase
+      implements SparkRel {
+    public SparkAggregateRel(
+        RelOptCluster cluster,
+        RelTraitSet traitSet,
+        RelNode child,
+        BitSet groupSet,
+        List<AggregateCall> aggCalls) {
+      super(cluster, traitSet, child, groupSet, aggCalls);
+      assert getConvention() == SparkRel.CONVENTION;
+    }
+
+    @Override
+    public SparkAggregateRel copy(RelTraitSet traitSet, RelNode input,
+        BitSet groupSet, List<AggregateCall> aggCalls) {
+      return new SparkAggregateRel(getCluster(), traitSet, input, groupSet,
+          aggCalls);
+    }
+
+    /** Returns how to compute an aggregate function in Spark, or null if it
+     * cannot be computed. */
+    static SparkRuntime.AggKind aggKind(AggregateCall aggCall) {
+      if (aggCall.isDistinct() || aggCall.getArgList().size() > 1) {
+        return null;
+      }
+      final Aggregation aggregation = aggCall.getAggregation();
+      if (aggregation instanceof SqlCountAggFunction) {
+        return SparkRuntime.AggKind.COUNT;
+      }
+      if (aggCall.getArgList().isEmpty()) {
+        return null;
+      }
+      if (aggregation instanceof SqlSumAggFunction) {
+        return SparkRuntime.AggKind.SUM;
+      } else if (aggregation instanceof SqlMinMaxAggFunction) {
+        return ((SqlMinMaxAggFunction) aggregation).isMin()
+            ? SparkRuntime.AggKind.MIN
+            : SparkRuntime.AggKind.MAX;
+      }
+      return null;
+    }
+
+    public Result implementSpark(Implementor implementor) {
+      // final JavaRDD<Employee> inputRdd = <<child impl>>;
+      // return SparkRuntime.aggregate(inputRdd,
+      //     new OptiqFunction<Employee, Object>() {
+      //       public Object call(Employee e) { return e.deptno; }
+      //     },
+      //     new OptiqFunction<Employee, Object[]>() {
+      //       public Object[] call(Employee e) {
+      //         return new Object[] {Boolean.TRUE, e.salary};
+      //       }
+      //     },
+      //     new AggKind[] {AggKind.COUNT, AggKind.SUM},
+      //     new OptiqFunction2<Object, Object[], X>() {
+      //       public X call(Object key, Object[] acc) {
+      //         return new X(SqlFunctions.toInt(key), ...);
+      //       }
+      //     });
+      final JavaTypeFactory typeFactory = implementor.getTypeFactory();
+      final BlockBuilder builder = new BlockBuilder();
+      final Result result =
+          implementor.visitInput(this, 0, (SparkRel) getChild());
+      final Expression inputRdd_ = builder.append("inputRdd", result.block);
+
+      final PhysType physType =
+          PhysTypeImpl.of(typeFactory, getRowType(), JavaRowFormat.CUSTOM);
+      final List<Integer> groupList = BitSets.toList(groupSet);
+      final ParameterExpression e_ =
+          Expressions.parameter(
+              Primitive.box(result.physType.getJavaRowType()), "e");
+
+      final List<Expression> arguments = new ArrayList<Expression>();
+      final List<Expression> aggKinds = new ArrayList<Expression>();
+      for (AggregateCall aggCall : aggCalls) {
+        aggKinds.add(
+            Expressions.field(null, SparkRuntime.AggKind.class,
+                aggKind(aggCall).name()));
+        arguments.add(
+            aggCall.getArgList().isEmpty()
+                ? Expressions.field(null, Boolean.class, "TRUE")
+                : box(
+                    result.physType.fieldReference(e_,
+                        aggCall.getArgList().get(0))));
+      }
+
+      final ParameterExpression key_ =
+          Expressions.parameter(Object.class, "key");
+      final ParameterExpression acc_ =
+          Expressions.parameter(Object[].class, "acc");
+      final List<Expression> expressions = new ArrayList<Expression>();
+      for (int i = 0; i < groupList.size(); i++) {
+        final Expression key =
+            groupList.size() == 1
+                ? key_
+                : Expressions.call(
+                    Expressions.convert_(key_, List.class),
+                    BuiltinMethod.LIST_GET.method,
+                    Expressions.constant(i));
+        expressions.add(
+            RexToLixTranslator.convert(key, physType.getJavaFieldType(i)));
+      }
+      for (int i = 0; i < aggCalls.size(); i++) {
+        expressions.add(
+            RexToLixTranslator.convert(
+                Expressions.arrayIndex(acc_, Expressions.constant(i)),
+                physType.getJavaFieldType(groupList.size() + i)));
+      }
+
+      builder.add(
+          Expressions.return_(null,
+              Expressions.call(SparkMethod.AGGREGATE.method,
+                  inputRdd_,
+                  keySelector(result.physType, e_, groupList),
+                  Expressions.lambda(
+                      SparkRuntime.OptiqFunction.class,
+                      Expressions.newArrayInit(Object.class, arguments),
+                      e_),
+                  Expressions.newArrayInit(SparkRuntime.AggKind.class,
+                      aggKinds),
+                  Expressions.lambda(
+                      SparkRuntime.OptiqFunction2.class,
+                      physType.record(expressions),
+                      key_,
+                      acc_))));
+      return implementor.result(physType, builder.toBlock());
+    }
+  }
+
+  public static final SparkSortRule SPARK_SORT_RULE =
+      new SparkSortRule();
+
+  /**
+   * Rule to convert a {@link SortRel} without OFFSET or FETCH to a
+   * {@link net.hydromatic.optiq.impl.spark.SparkRules.SparkSortRel}.
+   */
+  private static class SparkSortRule extends ConverterRule {
+    private SparkSortRule() {
+      super(
+          SortRel.class,
+          Convention.NONE,
+          SparkRel.CONVENTION,
+          "SparkSortRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      final SortRel sort = (SortRel) rel;
+      if (sort.offset != null || sort.fetch != null) {
+        return null;
+      }
+      final RelNode input = sort.getChild();
+      return new SparkSortRel(
+          rel.getCluster(),
+          sort.getTraitSet().replace(SparkRel.CONVENTION),
+          convert(input,
+              input.getTraitSet().replace(SparkRel.CONVENTION)),
+          sort.getCollation());
+    }
+  }
+
+  /** Implementation of {@link SortRel} in Spark convention.
+   *
+   * <p>Uses {@code sortByKey}, which range-partitions the rows and sorts each
+   * partition, so that the partitions, collected in order, are sorted.</p> */
+  public static class SparkSortRel
+      extends SortRel
+      implements SparkRel {
+    public SparkSortRel(RelOptCluster cluster, RelTraitSet traitSet,
+        RelNode child, RelCollation collation) {
+      super(cluster, traitSet, child, collation, null, null);
+      assert getConvention() == SparkRel.CONVENTION;
+    }
+
+    @Override
+    public SparkSortRel copy(RelTraitSet traitSet, RelNode newInput,
+        RelCollation newCollation, RexNode offset, RexNode fetch) {
+      assert offset == null && fetch == null;
+      return new SparkSortRel(getCluster(), traitSet, newInput,
+          newCollation);
+    }
+
+    public Result implementSpark(Implementor implementor) {
+      // final JavaRDD<Employee> inputRdd = <<child impl>>;
+      // return SparkRuntime.sort(inputRdd,
+      //     new OptiqComparator<Employee>() {
+      //       public int compare(Employee v0, Employee v1) {...}
+      //     });
+      final BlockBuilder builder = new BlockBuilder();
+      final Result result =
+          implementor.visitInput(this, 0, (SparkRel) getChild());
+      final Expression inputRdd_ = builder.append("inputRdd", result.block);
+      final PhysType physType =
+          PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(),
+              JavaRowFormat.CUSTOM);
+
+      // The comparator is sent to executors, so it must be serializable.
+      final Expression comparator =
+          result.physType.generateComparator(collation,
+              SparkRuntime.OptiqComparator.class);
+      builder.add(
+          Expressions.return_(null,
+              Expressions.call(SparkMethod.SORT.method,
+                  inputRdd_,
+                  comparator)));
+      return implementor.result(physType, builder.toBlock());
+    }
+  }
+
   // Play area
 
   public static void main(String[] args) {
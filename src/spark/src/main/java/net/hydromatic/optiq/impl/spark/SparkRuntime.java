@@ -21,12 +21,21 @@
 
 import net.hydromatic.optiq.DataContext;
 
+import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
 
+import java.io.Serializable;
+import java.math.BigDecimal;
 import java.util.*;
 
+import scala.Tuple2;
+
 /**
  * Runtime utilities for Optiq's Spark adapter. Generated code calls these
  * methods.
@@ -52,6 +61,176 @@ public static <T> Enumerable<T> asEnumerable(JavaRDD<T> rdd) {
     return Linq4j.asEnumerable(rdd.collect());
   }
 
+  /** Joins two RDDs on a key by shuffling both of them. Rows whose key is
+   * null, or is a list containing null, do not match any row. */
+  public static <L, R, T> JavaRDD<T> hashJoin(JavaRDD<L> left,
+      JavaRDD<R> right, OptiqFunction<L, Object> leftKeySelector,
+      OptiqFunction<R, Object> rightKeySelector,
+      final OptiqFunction2<L, R, T> resultSelector) {
+    return keyBy(left, leftKeySelector)
+        .join(keyBy(right, rightKeySelector))
+        .values()
+        .map(
+            new Function<Tuple2<L, R>, T>() {
+              public T call(Tuple2<L, R> pair) throws Exception {
+                return resultSelector.call(pair._1(), pair._2());
+              }
+            });
+  }
+
+  /** Joins two RDDs on a key by sending the whole of the right RDD, which
+   * must be small, to every partition of the left RDD. Rows whose key is
+   * null, or is a list containing null, do not match any row. */
+  public static <L, R, T> JavaRDD<T> broadcastJoin(JavaSparkContext sc,
+      JavaRDD<L> left, JavaRDD<R> right,
+      final OptiqFunction<L, Object> leftKeySelector,
+      OptiqFunction<R, Object> rightKeySelector,
+      final OptiqFunction2<L, R, T> resultSelector) {
+    final HashMap<Object, List<R>> map = new HashMap<Object, List<R>>();
+    for (R r : right.collect()) {
+      final Object key;
+      try {
+        key = rightKeySelector.call(r);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      if (hasNull(key)) {
+        continue;
+      }
+      List<R> list = map.get(key);
+      if (list == null) {
+        list = new ArrayList<R>();
+        map.put(key, list);
+      }
+      list.add(r);
+    }
+    final Broadcast<HashMap<Object, List<R>>> broadcast = sc.broadcast(map);
+    return left.flatMap(
+        new FlatMapFunction<L, T>() {
+          public Iterable<T> call(L l) throws Exception {
+            final List<R> rights =
+                broadcast.value().get(leftKeySelector.call(l));
+            if (rights == null) {
+              return Collections.emptyList();
+            }
+            final List<T> list = new ArrayList<T>(rights.size());
+            for (R r : rights) {
+              list.add(resultSelector.call(l, r));
+            }
+            return list;
+          }
+        });
+  }
+
+  /** Converts an RDD into a pair RDD whose key is computed from each row,
+   * discarding rows whose key contains null. */
+  private static <T> JavaPairRDD<Object, T> keyBy(JavaRDD<T> rdd,
+      final OptiqFunction<T, Object> keySelector) {
+    return rdd
+        .map(
+            new PairFunction<T, Object, T>() {
+              public Tuple2<Object, T> call(T t) throws Exception {
+                return new Tuple2<Object, T>(keySelector.call(t), t);
+              }
+            })
+        .filter(
+            new Function<Tuple2<Object, T>, Boolean>() {
+              public Boolean call(Tuple2<Object, T> pair) {
+                return !hasNull(pair._1());
+              }
+            });
+  }
+
+  private static boolean hasNull(Object key) {
+    return key == null || key instanceof List && ((List) key).contains(null);
+  }
+
+  /**
+   * Aggregates an RDD.
+   *
+   * <p>Rows are grouped by key using {@code combineByKey}, which combines
+   * the rows of each partition before the shuffle, so that each partition
+   * sends at most one partial result per key.</p>
+   *
+   * @param rdd Input RDD
+   * @param keySelector Computes the key of a row
+   * @param argumentSelector Computes the argument of each aggregate function
+   *                         for a row; null to ignore the row
+   * @param aggKinds Aggregate functions
+   * @param resultSelector Creates an output row from a key and the values of
+   *                       the aggregate functions
+   */
+  public static <T, R> JavaRDD<R> aggregate(JavaRDD<T> rdd,
+      final OptiqFunction<T, Object> keySelector,
+      final OptiqFunction<T, Object[]> argumentSelector,
+      final AggKind[] aggKinds,
+      final OptiqFunction2<Object, Object[], R> resultSelector) {
+    return rdd
+        .map(
+            new PairFunction<T, Object, Object[]>() {
+              public Tuple2<Object, Object[]> call(T t) throws Exception {
+                return new Tuple2<Object, Object[]>(keySelector.call(t),
+                    argumentSelector.call(t));
+              }
+            })
+        .combineByKey(
+            new Function<Object[], Object[]>() {
+              public Object[] call(Object[] arguments) {
+                final Object[] accumulators = new Object[aggKinds.length];
+                for (int i = 0; i < aggKinds.length; i++) {
+                  accumulators[i] =
+                      aggKinds[i].add(aggKinds[i].init(), arguments[i]);
+                }
+                return accumulators;
+              }
+            },
+            new Function2<Object[], Object[], Object[]>() {
+              public Object[] call(Object[] accumulators,
+                  Object[] arguments) {
+                for (int i = 0; i < aggKinds.length; i++) {
+                  accumulators[i] =
+                      aggKinds[i].add(accumulators[i], arguments[i]);
+                }
+                return accumulators;
+              }
+            },
+            new Function2<Object[], Object[], Object[]>() {
+              public Object[] call(Object[] accumulators0,
+                  Object[] accumulators1) {
+                for (int i = 0; i < aggKinds.length; i++) {
+                  accumulators0[i] =
+                      aggKinds[i].merge(accumulators0[i], accumulators1[i]);
+                }
+                return accumulators0;
+              }
+            })
+        .map(
+            new Function<Tuple2<Object, Object[]>, R>() {
+              public R call(Tuple2<Object, Object[]> pair) throws Exception {
+                return resultSelector.call(pair._1(), pair._2());
+              }
+            });
+  }
+
+  /** Sorts an RDD. The comparator must be serializable. */
+  public static <T> JavaRDD<T> sort(JavaRDD<T> rdd,
+      Comparator<T> comparator) {
+    return rdd
+        .map(
+            new PairFunction<T, T, Boolean>() {
+              public Tuple2<T, Boolean> call(T t) {
+                return new Tuple2<T, Boolean>(t, Boolean.TRUE);
+              }
+            })
+        .sortByKey(comparator, true)
+        .map(
+            new Function<Tuple2<T, Boolean>, T>() {
+              public T call(Tuple2<T, Boolean> pair) {
+                return pair._1();
+              }
+            });
+  }
+
   /** Returns the Spark context for the current execution.
    *
    * <p>Currently a global variable; maybe later held within {@code root}.</p>
@@ -66,6 +245,110 @@ public static JavaSparkContext getSparkContext(DataContext root) {
       extends FlatMapFunction<T, R>
       implements net.hydromatic.linq4j.function.Function {
   }
+
+  /** Combines linq4j {@link net.hydromatic.linq4j.function.Function}
+   * and Spark {@link org.apache.spark.api.java.function.Function}. */
+  public abstract static class OptiqFunction<T, R>
+      extends Function<T, R>
+      implements net.hydromatic.linq4j.function.Function {
+  }
+
+  /** Combines linq4j {@link net.hydromatic.linq4j.function.Function}
+   * and Spark {@link org.apache.spark.api.java.function.Function2}. */
+  public abstract static class OptiqFunction2<T1, T2, R>
+      extends Function2<T1, T2, R>
+      implements net.hydromatic.linq4j.function.Function {
+  }
+
+  /** Comparator that can be sent to Spark executors. */
+  public abstract static class OptiqComparator<T>
+      implements Comparator<T>, Serializable {
+  }
+
+  /** Aggregate function that {@link #aggregate} can compute. Each ignores
+   * null arguments. */
+  public enum AggKind {
+    COUNT {
+      public Object init() {
+        return 0L;
+      }
+
+      public Object add(Object accumulator, Object value) {
+        return value == null ? accumulator : (Long) accumulator + 1L;
+      }
+
+      public Object merge(Object accumulator0, Object accumulator1) {
+        return (Long) accumulator0 + (Long) accumulator1;
+      }
+    },
+    SUM {
+      public Object merge(Object accumulator0, Object accumulator1) {
+        if (accumulator0 == null) {
+          return accumulator1;
+        }
+        if (accumulator1 == null) {
+          return accumulator0;
+        }
+        return plus((Number) accumulator0, (Number) accumulator1);
+      }
+    },
+    MIN {
+      public Object merge(Object accumulator0, Object accumulator1) {
+        return accumulator0 == null
+            || accumulator1 != null
+            && compare(accumulator1, accumulator0) < 0
+            ? accumulator1
+            : accumulator0;
+      }
+    },
+    MAX {
+      public Object merge(Object accumulator0, Object accumulator1) {
+        return accumulator0 == null
+            || accumulator1 != null
+            && compare(accumulator1, accumulator0) > 0
+            ? accumulator1
+            : accumulator0;
+      }
+    };
+
+    /** Returns the value of the function over no rows. */
+    public Object init() {
+      return null;
+    }
+
+    /** Adds a value to an accumulator. */
+    public Object add(Object accumulator, Object value) {
+      return merge(accumulator, value);
+    }
+
+    /** Combines two accumulators. */
+    public abstract Object merge(Object accumulator0, Object accumulator1);
+
+    private static int compare(Object o0, Object o1) {
+      //noinspection unchecked
+      return ((Comparable) o0).compareTo(o1);
+    }
+
+    private static Number plus(Number n0, Number n1) {
+      if (n0 instanceof Integer) {
+        return n0.intValue() + n1.intValue();
+      } else if (n0 instanceof Long) {
+        return n0.longValue() + n1.longValue();
+      } else if (n0 instanceof Double) {
+        return n0.doubleValue() + n1.doubleValue();
+      } else if (n0 instanceof Float) {
+        return n0.floatValue() + n1.floatValue();
+      } else if (n0 instanceof Short) {
+        return (short) (n0.shortValue() + n1.shortValue());
+      } else if (n0 instanceof Byte) {
+        return (byte) (n0.byteValue() + n1.byteValue());
+      } else if (n0 instanceof BigDecimal) {
+        return ((BigDecimal) n0).add((BigDecimal) n1);
+      } else {
+        throw new AssertionError("cannot add " + n0.getClass());
+      }
+    }
+  }
 }
 
 // End SparkRuntime.java
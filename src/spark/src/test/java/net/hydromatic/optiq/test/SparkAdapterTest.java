@@ -16,6 +16,12 @@
  */
 package net.hydromatic.optiq.test;
 
+import net.hydromatic.optiq.runtime.Hook;
+
+import org.eigenbase.util.Holder;
+
+import com.google.common.base.Function;
+
 import org.junit.Test;
 
 import java.sql.*;
@@ -57,6 +63,91 @@ public class SparkAdapterTest {
             + "  SparkCalcRel(expr#0..1=[{inputs}], expr#2=[2], expr#3=[<($t0, $t2)], proj#0..1=[{exprs}], $condition=[$t3])\n"
             + "    SparkValuesRel(tuples=[[{ 1, 'a' }, { 2, 'b' }]])\n");
   }
+
+  /** Tests a join evaluated by Spark. */
+  @Test public void testJoin() throws SQLException {
+    OptiqAssert.that()
+        .with(OptiqAssert.Config.SPARK)
+        .query(
+            "select t.y, u.z\n"
+            + "from (values (1, 'a'), (2, 'b'), (3, 'c')) as t(x, y)\n"
+            + "join (values (1, 'p'), (1, 'q'), (3, 'r')) as u(x, z)\n"
+            + "on t.x = u.x")
+        .returnsUnordered(
+            "Y=a; Z=p",
+            "Y=a; Z=q",
+            "Y=c; Z=r")
+        .explainContains("SparkJoinRel(")
+        .planContains("SparkRuntime.broadcastJoin(");
+  }
+
+  /** Tests a join evaluated by Spark that shuffles both inputs, because the
+   * right input is deemed too large to broadcast. */
+  @Test public void testShuffleJoin() throws SQLException {
+    OptiqAssert.that()
+        .with(OptiqAssert.Config.SPARK)
+        .query(
+            "select t.y, u.z\n"
+            + "from (values (1, 'a'), (2, 'b'), (3, 'c')) as t(x, y)\n"
+            + "join (values (1, 'p'), (1, 'q'), (3, 'r')) as u(x, z)\n"
+            + "on t.x = u.x")
+        .withHook(Hook.SPARK_BROADCAST_THRESHOLD,
+            new Function<Holder<Double>, Void>() {
+              public Void apply(Holder<Double> threshold) {
+                threshold.set(-1d);
+                return null;
+              }
+            })
+        .returnsUnordered(
+            "Y=a; Z=p",
+            "Y=a; Z=q",
+            "Y=c; Z=r")
+        .planContains("SparkRuntime.hashJoin(");
+  }
+
+  /** Tests that keys of DECIMAL type with different scales, which are not
+   * equal in Java, are not joined by Spark. */
+  @Test public void testJoinDecimalKeysDifferentScale() throws SQLException {
+    OptiqAssert.that()
+        .with(OptiqAssert.Config.SPARK)
+        .query(
+            "select t.y, u.z\n"
+            + "from (values (cast(1 as decimal(5, 1)), 'a'),\n"
+            + "  (cast(2 as decimal(5, 1)), 'b')) as t(x, y)\n"
+            + "join (values (cast(1 as decimal(5, 2)), 'p'),\n"
+            + "  (cast(3 as decimal(5, 2)), 'r')) as u(x, z)\n"
+            + "on t.x = u.x")
+        .returnsUnordered("Y=a; Z=p");
+  }
+
+  /** Tests GROUP BY evaluated by Spark. */
+  @Test public void testGroupBy() throws SQLException {
+    OptiqAssert.that()
+        .with(OptiqAssert.Config.SPARK)
+        .query(
+            "select x, count(*) as c, sum(y) as s, min(y) as m\n"
+            + "from (values (1, 10), (2, 20), (1, 30)) as t(x, y)\n"
+            + "group by x")
+        .returnsUnordered(
+            "X=1; C=2; S=40; M=10",
+            "X=2; C=1; S=20; M=20")
+        .explainContains("SparkAggregateRel(");
+  }
+
+  /** Tests ORDER BY evaluated by Spark. */
+  @Test public void testOrderBy() throws SQLException {
+    OptiqAssert.that()
+        .with(OptiqAssert.Config.SPARK)
+        .query(
+            "select *\n"
+            + "from (values (2, 'b'), (3, 'c'), (1, 'a')) as t(x, y)\n"
+            + "order by x desc")
+        .returns(
+            "X=3; Y=c\n"
+            + "X=2; Y=b\n"
+            + "X=1; Y=a\n")
+        .explainContains("SparkSortRel(");
+  }
 }
 
 // End SparkAdapterTest.java
@@ -33,6 +33,11 @@
  * JDBC driver for Splunk.
  *
  * <p>It accepts connect strings that start with "jdbc:splunk:".</p>
+ *
+ * <p>Besides "url", "user" and "password", it accepts the properties
+ * "parallelism", the number of slices of the time range of a search to
+ * export concurrently (default 1), and "timeout", how long to wait for the
+ * first result of a search, in milliseconds (default 1800000).</p>
  */
 public class SplunkDriver extends net.hydromatic.optiq.jdbc.Driver {
   protected SplunkDriver() {
@@ -76,7 +81,13 @@ public Connection connect(String url, Properties info) throws SQLException {
               "Must specify 'password' property");
         }
         URL url2 = new URL(url1);
-        splunkConnection = new SplunkConnectionImpl(url2, user, password);
+        final int parallelism =
+            Integer.parseInt(info.getProperty("parallelism", "1"));
+        final int timeout =
+            Integer.parseInt(info.getProperty("timeout", "1800000"));
+        splunkConnection =
+            new SplunkConnectionImpl(url2, user, password, parallelism,
+                timeout);
       }
     } catch (Exception e) {
       throw new SQLException("Cannot connect", e);
@@ -25,11 +25,14 @@
 import org.eigenbase.sql.*;
 import org.eigenbase.sql.fun.SqlStdOperatorTable;
 import org.eigenbase.sql.type.SqlTypeName;
+import org.eigenbase.sql.type.SqlTypeUtil;
 import org.eigenbase.util.NlsString;
 import org.eigenbase.util.Pair;
 
 import com.google.common.collect.ImmutableSet;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -120,6 +123,7 @@ public void onMatch(RelOptRuleCall call) {
     }
 
     String filterString;
+    final String[] bounds = {splunkRel.earliest, splunkRel.latest};
 
     if (filterIdx <= relLength
         && call.rels[relLength - filterIdx] instanceof FilterRel) {
@@ -131,17 +135,34 @@ public void onMatch(RelOptRuleCall call) {
         topProj = (ProjectRel) call.rels[relLength - topProjIdx];
       }
 
-      RexCall filterCall = (RexCall) filter.getCondition();
-      SqlOperator op = filterCall.getOperator();
-      List<RexNode> operands = filterCall.getOperands();
+      // Conditions on "_time" become the earliest and latest times of the
+      // search, so that Splunk reads, and we can slice, only that range.
+      final List<RexNode> conditions = new ArrayList<RexNode>();
+      for (RexNode condition
+          : RelOptUtil.conjunctions(filter.getCondition())) {
+        if (!pushTime(condition, topRow.getFieldNames(), bounds)) {
+          conditions.add(condition);
+        }
+      }
+      final RexNode condition =
+          RexUtil.composeConjunction(
+              filter.getCluster().getRexBuilder(), conditions, true);
 
       LOGGER.fine("fieldNames: " + getFieldsString(topRow));
 
-      final StringBuilder buf = new StringBuilder();
-      if (getFilter(op, operands, buf, topRow.getFieldNames())) {
-        filterString = buf.toString();
+      if (condition == null) {
+        filterString = "";
       } else {
-        return; // can't handle
+        RexCall filterCall = (RexCall) condition;
+        SqlOperator op = filterCall.getOperator();
+        List<RexNode> operands = filterCall.getOperands();
+
+        final StringBuilder buf = new StringBuilder();
+        if (getFilter(op, operands, buf, topRow.getFieldNames())) {
+          filterString = buf.toString();
+        } else {
+          return; // can't handle
+        }
       }
     } else {
       filterString = "";
@@ -155,8 +176,156 @@ public void onMatch(RelOptRuleCall call) {
 
     call.transformTo(
         appendSearchString(
-            filterString, splunkRel, topProj, bottomProj,
-            topRow, null));
+            filterString, splunkRel, bounds[0], bounds[1], topProj,
+            bottomProj, topRow, null));
+  }
+
+  /**
+   * If a condition compares the "_time" field to a constant, narrows the
+   * earliest and latest times of the search accordingly.
+   *
+   * <p>The comparison must be numeric or of timestamps. Other comparisons,
+   * such as of strings, do not order values by time (as strings, "9" is
+   * greater than "10"), so are left to the search.</p>
+   *
+   * <p>Splunk includes the earliest time and excludes the latest time, and
+   * we use whole seconds, so only "&gt;=" and "&lt;" with a whole number of
+   * seconds are translated exactly; other comparisons widen the range to
+   * whole seconds and must still be evaluated by the search.</p>
+   *
+   * @param condition Condition
+   * @param fieldNames Names of the fields that the condition references
+   * @param bounds Earliest and latest times; modified
+   * @return Whether the condition is implied by the new bounds
+   */
+  private static boolean pushTime(RexNode condition, List<String> fieldNames,
+      String[] bounds) {
+    if (!(condition instanceof RexCall)) {
+      return false;
+    }
+    final RexCall call = (RexCall) condition;
+    if (call.getOperands().size() != 2) {
+      return false;
+    }
+    SqlKind kind = call.getKind();
+    RexNode left = call.getOperands().get(0);
+    RexNode right = call.getOperands().get(1);
+    if (isTime(right, fieldNames)) {
+      final RexNode temp = left;
+      left = right;
+      right = temp;
+      kind = reverse(kind);
+    }
+    if (!isTime(left, fieldNames)
+        || !isTimeType(left.getType())
+        || !(right instanceof RexLiteral)) {
+      return false;
+    }
+    final BigDecimal value = seconds((RexLiteral) right);
+    if (value == null) {
+      return false;
+    }
+    final BigDecimal floor = value.setScale(0, RoundingMode.FLOOR);
+    final boolean whole = floor.compareTo(value) == 0;
+    final BigDecimal earliest;
+    final BigDecimal latest;
+    switch (kind) {
+    case EQUALS:
+      earliest = floor;
+      latest = floor.add(BigDecimal.ONE);
+      break;
+    case GREATER_THAN:
+    case GREATER_THAN_OR_EQUAL:
+      earliest = floor;
+      latest = null;
+      break;
+    case LESS_THAN:
+      earliest = null;
+      latest = value.setScale(0, RoundingMode.CEILING);
+      break;
+    case LESS_THAN_OR_EQUAL:
+      earliest = null;
+      latest = floor.add(BigDecimal.ONE);
+      break;
+    default:
+      return false;
+    }
+    final BigDecimal oldEarliest = seconds(bounds[0]);
+    final BigDecimal oldLatest = seconds(bounds[1]);
+    if (bounds[0] != null && oldEarliest == null
+        || bounds[1] != null && oldLatest == null) {
+      // A relative time such as "-24h"; we cannot compare it to ours.
+      return false;
+    }
+    if (earliest != null
+        && (oldEarliest == null || earliest.compareTo(oldEarliest) > 0)) {
+      bounds[0] = earliest.toPlainString();
+    }
+    if (latest != null
+        && (oldLatest == null || latest.compareTo(oldLatest) < 0)) {
+      bounds[1] = latest.toPlainString();
+    }
+    return whole
+        && (kind == SqlKind.GREATER_THAN_OR_EQUAL
+            || kind == SqlKind.LESS_THAN);
+  }
+
+  /** Returns whether an expression is a reference to the "_time" field,
+   * possibly cast. */
+  private static boolean isTime(RexNode node, List<String> fieldNames) {
+    if (node.isA(SqlKind.CAST)) {
+      node = ((RexCall) node).getOperands().get(0);
+    }
+    return node instanceof RexInputRef
+        && fieldNames.get(((RexInputRef) node).getIndex()).equals("_time");
+  }
+
+  /** Returns whether values of a type are ordered by time, and therefore
+   * comparisons of "_time" can become bounds on the search. */
+  private static boolean isTimeType(RelDataType type) {
+    return SqlTypeUtil.isNumeric(type)
+        || type.getSqlTypeName() == SqlTypeName.TIMESTAMP;
+  }
+
+  /** Returns the kind of comparison that has the same meaning if its
+   * operands are swapped. */
+  private static SqlKind reverse(SqlKind kind) {
+    switch (kind) {
+    case GREATER_THAN:
+      return SqlKind.LESS_THAN;
+    case GREATER_THAN_OR_EQUAL:
+      return SqlKind.LESS_THAN_OR_EQUAL;
+    case LESS_THAN:
+      return SqlKind.GREATER_THAN;
+    case LESS_THAN_OR_EQUAL:
+      return SqlKind.GREATER_THAN_OR_EQUAL;
+    default:
+      return kind;
+    }
+  }
+
+  /** Converts a literal to seconds since the epoch, or returns null. */
+  private static BigDecimal seconds(RexLiteral literal) {
+    final Comparable value = literal.getValue();
+    if (value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    } else if (value instanceof Calendar) {
+      return BigDecimal.valueOf(((Calendar) value).getTimeInMillis(), 3);
+    }
+    return null;
+  }
+
+  /** Converts an epoch time such as "1400000000" to seconds, or returns
+   * null. */
+  private static BigDecimal seconds(String s) {
+    if (s == null) {
+      return null;
+    }
+    try {
+      return new BigDecimal(s.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
   }
 
   /**
@@ -164,12 +333,16 @@ public void onMatch(RelOptRuleCall call) {
    *
    * @param toAppend Search string to append
    * @param splunkRel Relational expression
+   * @param earliest Earliest time of the search, or null
+   * @param latest Latest time of the search, or null
    * @param topProj Top projection
    * @param bottomProj Bottom projection
    */
   protected RelNode appendSearchString(
       String toAppend,
       SplunkTableAccessRel splunkRel,
+      String earliest,
+      String latest,
       ProjectRel topProj,
       ProjectRel bottomProj,
       RelDataType topRow,
@@ -248,8 +421,8 @@ protected RelNode appendSearchString(
             splunkRel.getTable(),
             splunkRel.splunkTable,
             searchWithFilter,
-            splunkRel.earliest,
-            splunkRel.latest,
+            earliest,
+            latest,
             resultType.getFieldNames());
 
     LOGGER.fine(
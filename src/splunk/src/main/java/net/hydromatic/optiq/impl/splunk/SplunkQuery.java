@@ -62,7 +62,24 @@ public Iterator<T> iterator() {
   public Enumerator<T> enumerator() {
     //noinspection unchecked
     return (Enumerator<T>) splunkConnection.getSearchResultEnumerator(
-        search, getArgs(), fieldList);
+        getSearch(), getArgs(), fieldList);
+  }
+
+  /** Returns the search string, with a "fields" command so that Splunk
+   * discards the fields that the query does not need before it exports the
+   * results. */
+  private String getSearch() {
+    if (fieldList == null || fieldList.isEmpty()) {
+      return search;
+    }
+    final StringBuilder buf = new StringBuilder(search).append(" | fields ");
+    for (int i = 0; i < fieldList.size(); i++) {
+      if (i > 0) {
+        buf.append(", ");
+      }
+      buf.append(SplunkPushDownRule.searchEscape(fieldList.get(i)));
+    }
+    return buf.toString();
   }
 
   private Map<String, String> getArgs() {
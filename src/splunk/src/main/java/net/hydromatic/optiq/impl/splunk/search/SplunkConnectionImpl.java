@@ -22,12 +22,15 @@
 import net.hydromatic.optiq.impl.splunk.util.HttpUtils;
 import net.hydromatic.optiq.impl.splunk.util.StringUtils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import au.com.bytecode.opencsv.CSVReader;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -45,9 +48,34 @@ public class SplunkConnectionImpl implements SplunkConnection {
       Pattern.compile(
           "<response>\\s*<sessionKey>([0-9a-f]+)</sessionKey>\\s*</response>");
 
+  /** Pattern of a time relative to now, such as "-24h". Units "mon" and "y"
+   * and snapping ("@d") are not supported. */
+  private static final Pattern RELATIVE_TIME =
+      Pattern.compile("([+-])([0-9]+)(s|m|h|d|w)");
+
+  /** Maximum number of rows that a slice reads ahead of the consumer. */
+  private static final int QUEUE_SIZE = 1024;
+
+  /** Placeholder for a null row, because a queue cannot hold null. */
+  private static final Object NULL = new Object();
+
+  /** Marks the end of a slice's rows. */
+  private static final Object END = new Object();
+
+  /** Failure of a slice, passed to the consumer in place of a row. */
+  private static class Failure {
+    final Throwable e;
+
+    Failure(Throwable e) {
+      this.e = e;
+    }
+  }
+
   final URL url;
   final String username;
   final String password;
+  final int parallelism;
+  final int timeout;
   String sessionKey;
   final Map<String, String> requestHeaders = new HashMap<String, String>();
 
@@ -57,9 +85,27 @@ public SplunkConnectionImpl(String url, String username, String password)
   }
 
   public SplunkConnectionImpl(URL url, String username, String password) {
+    this(url, username, password, 1, 1800000);
+  }
+
+  /**
+   * Creates a SplunkConnectionImpl.
+   *
+   * @param url URL of Splunk's management port
+   * @param username User name
+   * @param password Password
+   * @param parallelism Number of slices of the time range of a search to
+   *                    export concurrently
+   * @param timeout How long to wait for the first result of a search, in
+   *                milliseconds
+   */
+  public SplunkConnectionImpl(URL url, String username, String password,
+      int parallelism, int timeout) {
     this.url      = url;
     this.username = username;
     this.password = password;
+    this.parallelism = parallelism;
+    this.timeout = timeout;
     connect();
   }
 
@@ -121,14 +167,108 @@ public void getSearchResults(String search, Map<String, String> otherArgs,
 
   public Enumerator<Object> getSearchResultEnumerator(String search,
       Map<String, String> otherArgs, List<String> fieldList) {
+    if (parallelism > 1 && otherArgs != null) {
+      final List<Long> bounds =
+          slices(otherArgs.get("earliest_time"),
+              otherArgs.get("latest_time"), parallelism,
+              System.currentTimeMillis() / 1000L);
+      if (bounds.size() > 2) {
+        return new SlicedSearchEnumerator(search, otherArgs, fieldList,
+            bounds);
+      }
+    }
     return getSearchResults_(search, otherArgs, fieldList, null);
   }
 
+  /** Cuts the time range of a search into at most {@code n} slices of equal
+   * width, each at least one second wide. Returns the boundaries of the
+   * slices, in seconds since the epoch, starting with the earliest time and
+   * ending with the latest time; or an empty list if the range cannot be
+   * cut, for example if there is no earliest time. */
+  static List<Long> slices(String earliest, String latest, int n, long now) {
+    final Long lo = parseTime(earliest, now);
+    final Long hi = latest == null ? Long.valueOf(now) : parseTime(latest, now);
+    if (lo == null || hi == null || hi - lo < 2) {
+      return Collections.emptyList();
+    }
+    final List<Long> bounds = new ArrayList<Long>();
+    bounds.add(lo);
+    for (int i = 1; i < n; i++) {
+      final long v = lo + (hi - lo) * i / n;
+      if (v > bounds.get(bounds.size() - 1)) {
+        bounds.add(v);
+      }
+    }
+    bounds.add(hi);
+    return bounds;
+  }
+
+  /** Converts a Splunk time modifier to seconds since the epoch, or returns
+   * null if it is not of a form that we understand. Supports "now", epoch
+   * times such as "1400000000" and relative times such as "-24h". */
+  static Long parseTime(String s, long now) {
+    if (s == null) {
+      return null;
+    }
+    s = s.trim();
+    if (s.equals("now")) {
+      return now;
+    }
+    try {
+      return (long) Math.floor(Double.parseDouble(s));
+    } catch (NumberFormatException e) {
+      // not an epoch time; try a relative time
+    }
+    final Matcher m = RELATIVE_TIME.matcher(s);
+    if (!m.matches()) {
+      return null;
+    }
+    long seconds = Long.parseLong(m.group(2));
+    switch (m.group(3).charAt(0)) {
+    case 'w':
+      seconds *= 7;
+      // fall through
+    case 'd':
+      seconds *= 24;
+      // fall through
+    case 'h':
+      seconds *= 60;
+      // fall through
+    case 'm':
+      seconds *= 60;
+      break;
+    }
+    return m.group(1).equals("-") ? now - seconds : now + seconds;
+  }
+
   private Enumerator<Object> getSearchResults_(
       String search,
       Map<String, String> otherArgs,
       List<String> wantedFields,
       SearchResultListener srl) {
+    try {
+      InputStream in = export(search, otherArgs);
+      if (srl == null) {
+        return new SplunkResultEnumerator(in, wantedFields);
+      } else {
+        parseResults(
+            in,
+            srl);
+        return null;
+      }
+    } catch (Exception e) {
+      StringWriter sw = new StringWriter();
+      e.printStackTrace(new PrintWriter(sw));
+      LOGGER.warning(e.getMessage() + "\n"
+          + sw);
+      return srl == null ? Linq4j.emptyEnumerator() : null;
+    }
+  }
+
+  /** Sends a search to the export endpoint, and returns a stream of its
+   * results in CSV format. */
+  private InputStream export(String search, Map<String, String> otherArgs)
+      throws IOException {
     String searchUrl =
         String.format(
             "%s://%s:%d/services/search/jobs/export",
@@ -150,25 +290,7 @@ private Enumerator<Object> getSearchResults_(
     args.put("check_connection", "0");
 
     appendURLEncodedArgs(data, args);
-    try {
-      // wait at most 30 minutes for first result
-      InputStream in =
-          post(searchUrl, data, requestHeaders, 10000, 1800000);
-      if (srl == null) {
-        return new SplunkResultEnumerator(in, wantedFields);
-      } else {
-        parseResults(
-            in,
-            srl);
-        return null;
-      }
-    } catch (Exception e) {
-      StringWriter sw = new StringWriter();
-      e.printStackTrace(new PrintWriter(sw));
-      LOGGER.warning(e.getMessage() + "\n"
-          + sw);
-      return srl == null ? Linq4j.emptyEnumerator() : null;
-    }
+    return post(searchUrl, data, requestHeaders, 10000, timeout);
   }
 
   private static void parseResults(InputStream in, SearchResultListener srl)
@@ -432,6 +554,115 @@ public void close() {
       }
     }
   }
+
+  /** Enumerator that exports the slices of the time range of a search
+   * concurrently, and returns rows in the order that they arrive.
+   *
+   * <p>Splunk includes the earliest time of a search and excludes the latest
+   * time, so the slices neither overlap nor leave gaps.</p> */
+  private class SlicedSearchEnumerator implements Enumerator<Object> {
+    private final ExecutorService executor;
+    private final BlockingQueue<Object> queue =
+        new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+    private int remaining;
+    private Object current;
+
+    SlicedSearchEnumerator(String search, Map<String, String> otherArgs,
+        List<String> fieldList, List<Long> bounds) {
+      remaining = bounds.size() - 1;
+      executor =
+          Executors.newFixedThreadPool(remaining,
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("splunk-slice-%d")
+                  .build());
+      for (int i = 0; i < remaining; i++) {
+        final Map<String, String> args =
+            new LinkedHashMap<String, String>(otherArgs);
+        args.put("earliest_time", String.valueOf(bounds.get(i)));
+        args.put("latest_time", String.valueOf(bounds.get(i + 1)));
+        executor.execute(new Slice(search, args, fieldList));
+      }
+    }
+
+    public Object current() {
+      return current == NULL ? null : current;
+    }
+
+    public boolean moveNext() {
+      while (remaining > 0) {
+        final Object o;
+        try {
+          o = queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+        if (o == END) {
+          --remaining;
+        } else if (o instanceof Failure) {
+          close();
+          throw new RuntimeException("error while exporting slice",
+              ((Failure) o).e);
+        } else {
+          current = o;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public void reset() {
+      throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+      executor.shutdownNow();
+    }
+
+    /** Task that exports one slice and puts its rows into the queue.
+     *
+     * <p>Unlike an unsliced search, which logs an error and returns no rows,
+     * a slice that fails passes the error to the consumer; otherwise the
+     * query would silently return the rows of only the other slices.</p> */
+    private class Slice implements Runnable {
+      private final String search;
+      private final Map<String, String> args;
+      private final List<String> fieldList;
+
+      Slice(String search, Map<String, String> args, List<String> fieldList) {
+        this.search = search;
+        this.args = args;
+        this.fieldList = fieldList;
+      }
+
+      public void run() {
+        Enumerator<Object> enumerator = null;
+        try {
+          try {
+            enumerator =
+                new SplunkResultEnumerator(export(search, args), fieldList);
+            while (enumerator.moveNext()) {
+              final Object row = enumerator.current();
+              queue.put(row == null ? NULL : row);
+            }
+            queue.put(END);
+          } catch (InterruptedException e) {
+            // The consumer has closed the enumerator.
+            Thread.currentThread().interrupt();
+          } catch (Throwable e) {
+            queue.put(new Failure(e));
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          if (enumerator != null) {
+            enumerator.close();
+          }
+        }
+      }
+    }
+  }
 }
 
 // End SplunkConnectionImpl.java
@@ -16,16 +16,30 @@
  */
 package net.hydromatic.optiq.test;
 
+import net.hydromatic.linq4j.Enumerator;
+
+import net.hydromatic.optiq.impl.splunk.search.SplunkConnectionImpl;
+
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
 import java.sql.*;
 import java.util.*;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
 
@@ -272,6 +286,198 @@ public Void apply(ResultSet a0) {
             "host=mailsv; C=9829"));
   }
 
+  /** Tests that a search over a time range is exported as several
+   * concurrent slices of that range, and that every row is returned once.
+   * Uses a stand-in for Splunk's REST API that returns one event per
+   * second, so it does not need Splunk. */
+  @Test public void testSlicedExport() throws Exception {
+    final List<Map<String, String>> requests =
+        Collections.synchronizedList(new ArrayList<Map<String, String>>());
+    final HttpServer server = startExportServer(requests, null);
+    try {
+      final SplunkConnectionImpl connection =
+          new SplunkConnectionImpl(
+              new URL("http://localhost:" + server.getAddress().getPort()),
+              SPLUNK_USER, SPLUNK_PASSWORD, 4, 60000);
+      final Enumerator<Object> enumerator =
+          connection.getSearchResultEnumerator("search",
+              ImmutableMap.of("earliest_time", "0", "latest_time", "100"),
+              Arrays.asList("source", "_time"));
+      final Set<String> times = new HashSet<String>();
+      int n = 0;
+      while (enumerator.moveNext()) {
+        final String[] row = (String[]) enumerator.current();
+        assertThat(row[0], equalTo("s" + row[1]));
+        times.add(row[1]);
+        ++n;
+      }
+      enumerator.close();
+      assertThat(n, equalTo(100));
+      assertThat(times.size(), equalTo(100));
+      assertThat(requests.size(), equalTo(4));
+      final Set<String> earliest = new HashSet<String>();
+      for (Map<String, String> request : requests) {
+        earliest.add(request.get("earliest_time"));
+      }
+      assertThat(earliest,
+          equalTo((Set<String>) ImmutableSet.of("0", "25", "50", "75")));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /** Tests that if one slice of a sliced export fails, the enumerator throws,
+   * rather than returning the rows of the other slices or waiting forever
+   * for the failed slice to finish. */
+  @Test public void testSlicedExportFailure() throws Exception {
+    final List<Map<String, String>> requests =
+        Collections.synchronizedList(new ArrayList<Map<String, String>>());
+    final HttpServer server = startExportServer(requests, "50");
+    try {
+      final SplunkConnectionImpl connection =
+          new SplunkConnectionImpl(
+              new URL("http://localhost:" + server.getAddress().getPort()),
+              SPLUNK_USER, SPLUNK_PASSWORD, 4, 60000);
+      final Enumerator<Object> enumerator =
+          connection.getSearchResultEnumerator("search",
+              ImmutableMap.of("earliest_time", "0", "latest_time", "100"),
+              Arrays.asList("source", "_time"));
+      int n = 0;
+      try {
+        while (enumerator.moveNext()) {
+          ++n;
+        }
+        fail("expected error, got " + n + " rows");
+      } catch (RuntimeException e) {
+        assertThat(e.getMessage(), equalTo("error while exporting slice"));
+        assertThat(e.getCause(), instanceOf(IOException.class));
+      } finally {
+        enumerator.close();
+      }
+      assertThat(n < 100, is(true));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /** Tests that comparisons of "_time" to a number become the earliest and
+   * latest times of the search, but comparisons of strings, which do not
+   * order values by time, do not. */
+  @Test public void testPushTime() throws Exception {
+    final List<Map<String, String>> requests =
+        Collections.synchronizedList(new ArrayList<Map<String, String>>());
+    final HttpServer server = startExportServer(requests, null);
+    loadDriverClass();
+    Connection connection = null;
+    Statement statement = null;
+    try {
+      final Properties info = new Properties();
+      info.put("url", "http://localhost:" + server.getAddress().getPort());
+      info.put("user", SPLUNK_USER);
+      info.put("password", SPLUNK_PASSWORD);
+      connection = DriverManager.getConnection("jdbc:splunk:", info);
+      statement = connection.createStatement();
+      ResultSet resultSet = statement.executeQuery(
+          "select \"source\", \"_time\" from \"splunk\".\"splunk\"\n"
+          + "where cast(\"_time\" as integer) >= 10\n"
+          + "and cast(\"_time\" as integer) < 20");
+      int n = 0;
+      while (resultSet.next()) {
+        ++n;
+      }
+      resultSet.close();
+      assertThat(n, equalTo(10));
+      assertThat(requests.size(), equalTo(1));
+      assertThat(requests.get(0).get("earliest_time"), equalTo("10"));
+      assertThat(requests.get(0).get("latest_time"), equalTo("20"));
+
+      requests.clear();
+      resultSet = statement.executeQuery(
+          "select \"source\", \"_time\" from \"splunk\".\"splunk\"\n"
+          + "where cast(\"_time\" as varchar(20)) >= '90'");
+      while (resultSet.next()) {
+        // consume the rows
+      }
+      resultSet.close();
+      assertThat(requests.size(), equalTo(1));
+      assertThat(requests.get(0).containsKey("earliest_time"), is(false));
+      assertThat(requests.get(0).containsKey("latest_time"), is(false));
+    } finally {
+      close(connection, statement);
+      server.stop(0);
+    }
+  }
+
+  /** Starts a stand-in for Splunk's REST API that returns one event per
+   * second of the requested time range, by default from 0 to 100. If
+   * {@code failEarliestTime} is not null, a request for a slice starting at
+   * that time fails with HTTP status 500. */
+  private static HttpServer startExportServer(
+      final List<Map<String, String>> requests,
+      final String failEarliestTime) throws IOException {
+    final HttpServer server =
+        HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/services/auth/login",
+        new HttpHandler() {
+          public void handle(HttpExchange exchange) throws IOException {
+            respond(exchange,
+                "<response><sessionKey>0123abcd</sessionKey></response>");
+          }
+        });
+    server.createContext("/services/search/jobs/export",
+        new HttpHandler() {
+          public void handle(HttpExchange exchange) throws IOException {
+            final Map<String, String> args = parseArgs(exchange);
+            requests.add(args);
+            final String earliest = args.get("earliest_time");
+            final String latest = args.get("latest_time");
+            if (failEarliestTime != null
+                && failEarliestTime.equals(earliest)) {
+              exchange.sendResponseHeaders(500, -1);
+              exchange.close();
+              return;
+            }
+            final StringBuilder buf = new StringBuilder("source,_time\n");
+            final int end = latest == null ? 100 : Integer.parseInt(latest);
+            for (int t = earliest == null ? 0 : Integer.parseInt(earliest);
+                 t < end; t++) {
+              buf.append("s").append(t).append(",").append(t).append("\n");
+            }
+            respond(exchange, buf.toString());
+          }
+        });
+    server.start();
+    return server;
+  }
+
+  private static Map<String, String> parseArgs(HttpExchange exchange)
+      throws IOException {
+    final BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+    final StringBuilder body = new StringBuilder();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      body.append(line);
+    }
+    final Map<String, String> args = new HashMap<String, String>();
+    for (String pair : body.toString().split("&")) {
+      final int i = pair.indexOf('=');
+      args.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"),
+          URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+    }
+    return args;
+  }
+
+  private static void respond(HttpExchange exchange, String response)
+      throws IOException {
+    final byte[] bytes = response.getBytes("UTF-8");
+    exchange.sendResponseHeaders(200, bytes.length);
+    final OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
   private void checkSql(String sql, Function<ResultSet, Void> f)
       throws SQLException {
     if (!enabled()) {
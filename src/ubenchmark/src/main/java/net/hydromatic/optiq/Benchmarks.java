@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq;
+
+import net.hydromatic.optiq.config.Lex;
+import net.hydromatic.optiq.impl.tpcds.TpcdsSchema;
+import net.hydromatic.optiq.impl.tpch.TpchQueries;
+import net.hydromatic.optiq.impl.tpch.TpchSchema;
+import net.hydromatic.optiq.jdbc.OptiqConnection;
+import net.hydromatic.optiq.tools.FrameworkConfig;
+import net.hydromatic.optiq.tools.Frameworks;
+import net.hydromatic.optiq.tools.Programs;
+
+import net.hydromatic.tpcds.query.Query;
+
+import java.sql.*;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Queries, schemas and connections shared by micro-benchmarks.
+ *
+ * <p>JMH 0.7 cannot parameterize a benchmark, so the query is chosen by the
+ * system property {@code optiq.ubenchmark.query}, of the form
+ * {@code tpch-<i>n</i>} or {@code tpcds-<i>n</i>}; for example,</p>
+ *
+ * <blockquote>
+ *   <code>java -Doptiq.ubenchmark.query=tpcds-17 -jar
+ *   ./target/ubenchmarks.jar PrepareTest</code>
+ * </blockquote>
+ *
+ * <p>Queries run against schemas "TPCH" and "TPCDS" of scale factor 0.01.
+ * Benchmarks that only plan a query never read their data.</p>
+ */
+public class Benchmarks {
+  /** Name of the query to benchmark. */
+  public static final String QUERY =
+      System.getProperty("optiq.ubenchmark.query", "tpch-3");
+
+  private Benchmarks() {}
+
+  /** Returns the SQL text of a query. TPC-DS queries are generated with a
+   * fixed seed, so that every run plans the same query. */
+  public static String sql(String name) {
+    if (name.startsWith("tpch-")) {
+      final int i = Integer.parseInt(name.substring("tpch-".length()));
+      return TpchQueries.QUERIES.get(i - 1);
+    }
+    if (name.startsWith("tpcds-")) {
+      final int i = Integer.parseInt(name.substring("tpcds-".length()));
+      return Query.of(i).sql(-1, new Random(0));
+    }
+    throw new IllegalArgumentException("unknown query '" + name
+        + "'; expected 'tpch-<n>' or 'tpcds-<n>'");
+  }
+
+  /** Adds the "TPCH" and "TPCDS" schemas to a root schema. */
+  public static SchemaPlus addTpcSchemas(SchemaPlus rootSchema) {
+    rootSchema.add("TPCH", new TpchSchema(0.01, 1, 1, true));
+    rootSchema.add("TPCDS", new TpcdsSchema(0.01, 1, 1));
+    return rootSchema;
+  }
+
+  /** Creates a configuration for a
+   * {@link net.hydromatic.optiq.tools.Planner} over the TPC schemas.
+   * Program 0 is the Volcano planner, with heuristic join ordering for
+   * queries with many joins; program 1 is a Hep planner that converts
+   * filters and projects to calcs. */
+  public static FrameworkConfig config() {
+    final SchemaPlus rootSchema = Frameworks.createRootSchema(false);
+    addTpcSchemas(rootSchema);
+    return Frameworks.newConfigBuilder()
+        .lex(Lex.ORACLE)
+        .defaultSchema(rootSchema)
+        .programs(Programs.heuristicJoinOrder(Programs.RULE_SET, false),
+            Programs.CALC_PROGRAM)
+        .build();
+  }
+
+  /** Creates a JDBC connection. */
+  public static OptiqConnection connect(Properties info) {
+    try {
+      Class.forName("net.hydromatic.optiq.jdbc.Driver");
+      final Connection connection =
+          DriverManager.getConnection("jdbc:optiq:", info);
+      return connection.unwrap(OptiqConnection.class);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
+
+// End Benchmarks.java
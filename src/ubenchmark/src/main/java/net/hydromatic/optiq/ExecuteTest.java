@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq;
+
+import net.hydromatic.optiq.impl.clone.CloneSchema;
+import net.hydromatic.optiq.impl.java.ReflectiveSchema;
+import net.hydromatic.optiq.jdbc.OptiqConnection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.*;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Measures the execution of join, aggregate and sort over in-memory
+ * tables.
+ *
+ * <p>The tables are generated from a fixed seed, so every run sees the same
+ * data, and are copied into a {@link CloneSchema}. The number of sales is
+ * given by the system property {@code optiq.ubenchmark.rows} (default
+ * 100,000); there is one product per 100 sales.</p>
+ *
+ * <p>Statements are prepared once, so the measured time is that of
+ * execution, including fetching every row.</p>
+ */
+public class ExecuteTest {
+  /** Number of rows in the "sales" table. */
+  public static final int ROWS =
+      Integer.getInteger("optiq.ubenchmark.rows", 100000);
+
+  /** Connection to a schema of generated data, and statements to run. */
+  @State(Scope.Thread)
+  @BenchmarkMode(Mode.AverageTime)
+  public static class SalesState {
+    OptiqConnection connection;
+    PreparedStatement join;
+    PreparedStatement aggregate;
+    PreparedStatement sort;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+      final Properties info = new Properties();
+      info.put("lex", "JAVA");
+      connection = Benchmarks.connect(info);
+      final SchemaPlus rootSchema = connection.getRootSchema();
+      final SchemaPlus source = rootSchema.add("source",
+          new ReflectiveSchema(new SalesSchema(ROWS, new Random(0))));
+      rootSchema.add("sales", new CloneSchema(source));
+      connection.setSchema("sales");
+      join = connection.prepareStatement(
+          "select p.category, s.quantity\n"
+          + "from sales as s\n"
+          + "join products as p on s.productId = p.productId");
+      aggregate = connection.prepareStatement(
+          "select productId, count(*) as c, sum(quantity) as q\n"
+          + "from sales\n"
+          + "group by productId");
+      sort = connection.prepareStatement(
+          "select saleId, price from sales order by price desc");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+      connection.close();
+    }
+  }
+
+  /** Executes a statement and reads every row. */
+  private static int run(PreparedStatement statement) throws SQLException {
+    final ResultSet resultSet = statement.executeQuery();
+    int n = 0;
+    while (resultSet.next()) {
+      ++n;
+    }
+    resultSet.close();
+    return n;
+  }
+
+  @GenerateMicroBenchmark
+  public int join(SalesState state) throws SQLException {
+    return run(state.join);
+  }
+
+  @GenerateMicroBenchmark
+  public int aggregate(SalesState state) throws SQLException {
+    return run(state.aggregate);
+  }
+
+  @GenerateMicroBenchmark
+  public int sort(SalesState state) throws SQLException {
+    return run(state.sort);
+  }
+
+  /** Schema of generated sales data. */
+  public static class SalesSchema {
+    public final Product[] products;
+    public final Sale[] sales;
+
+    SalesSchema(int rowCount, Random random) {
+      products = new Product[Math.max(1, rowCount / 100)];
+      for (int i = 0; i < products.length; i++) {
+        products[i] =
+            new Product(i, "category " + random.nextInt(20), "product " + i);
+      }
+      sales = new Sale[rowCount];
+      for (int i = 0; i < rowCount; i++) {
+        sales[i] = new Sale(i, random.nextInt(products.length),
+            1 + random.nextInt(10), random.nextInt(10000) / 100d);
+      }
+    }
+  }
+
+  /** Row of the "products" table. */
+  public static class Product {
+    public final int productId;
+    public final String category;
+    public final String name;
+
+    public Product(int productId, String category, String name) {
+      this.productId = productId;
+      this.category = category;
+      this.name = name;
+    }
+  }
+
+  /** Row of the "sales" table. */
+  public static class Sale {
+    public final int saleId;
+    public final int productId;
+    public final int quantity;
+    public final double price;
+
+    public Sale(int saleId, int productId, int quantity, double price) {
+      this.saleId = saleId;
+      this.productId = productId;
+      this.quantity = quantity;
+      this.price = price;
+    }
+  }
+}
+
+// End ExecuteTest.java
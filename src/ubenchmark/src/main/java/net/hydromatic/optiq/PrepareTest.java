@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq;
+
+import net.hydromatic.optiq.config.Lex;
+import net.hydromatic.optiq.rules.java.EnumerableConvention;
+import net.hydromatic.optiq.tools.FrameworkConfig;
+import net.hydromatic.optiq.tools.Frameworks;
+import net.hydromatic.optiq.tools.Planner;
+
+import org.eigenbase.rel.RelNode;
+import org.eigenbase.sql.SqlNode;
+import org.eigenbase.sql.parser.SqlParser;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures each phase of query preparation in isolation: parse, validate,
+ * conversion to relational algebra
+ * ({@link org.eigenbase.sql2rel.SqlToRelConverter}), optimization by
+ * {@link org.eigenbase.relopt.volcano.VolcanoPlanner}, and optimization by
+ * {@link org.eigenbase.relopt.hep.HepPlanner}.
+ *
+ * <p>The input to each phase is prepared, outside the measured time, by a
+ * state whose setup runs the preceding phases. The query is chosen by
+ * {@link Benchmarks#QUERY}.</p>
+ */
+public class PrepareTest {
+
+  /** Query and planner. */
+  @State(Scope.Thread)
+  @BenchmarkMode(Mode.AverageTime)
+  public static class QueryState {
+    final FrameworkConfig config = Benchmarks.config();
+    final String sql = Benchmarks.sql(Benchmarks.QUERY);
+    final Planner planner = Frameworks.getPlanner(config);
+
+    /** Returns the planner to its initial state, ready to parse. */
+    void restart() {
+      planner.close();
+      planner.reset();
+    }
+  }
+
+  /** Parse tree, ready to validate. */
+  public static class ParsedState extends QueryState {
+    SqlNode parsed;
+
+    @Setup(Level.Invocation)
+    public void parse() throws Exception {
+      restart();
+      parsed = planner.parse(sql);
+    }
+  }
+
+  /** Validated parse tree, ready to convert. */
+  public static class ValidatedState extends QueryState {
+    SqlNode validated;
+
+    @Setup(Level.Invocation)
+    public void validate() throws Exception {
+      restart();
+      validated = planner.validate(planner.parse(sql));
+    }
+  }
+
+  /** Logical plan, ready to optimize. A plan is registered in the planner,
+   * so each invocation needs a fresh one. */
+  public static class ConvertedState extends QueryState {
+    RelNode converted;
+
+    @Setup(Level.Invocation)
+    public void convert() throws Exception {
+      restart();
+      converted = planner.convert(planner.validate(planner.parse(sql)));
+    }
+  }
+
+  /** Physical plan produced by the Volcano planner, ready for the Hep
+   * planner. Hep copies its input, so the plan can be re-used. */
+  public static class PlannedState extends QueryState {
+    RelNode planned;
+
+    @Setup(Level.Iteration)
+    public void plan() throws Exception {
+      restart();
+      final RelNode converted =
+          planner.convert(planner.validate(planner.parse(sql)));
+      planned = planner.transform(0,
+          planner.getEmptyTraitSet().replace(EnumerableConvention.INSTANCE),
+          converted);
+    }
+  }
+
+  @GenerateMicroBenchmark
+  public SqlNode parse(QueryState state) throws Exception {
+    final Lex lex = state.config.getLex();
+    return SqlParser.create(state.config.getParserFactory(), state.sql,
+        lex.quoting, lex.unquotedCasing, lex.quotedCasing).parseStmt();
+  }
+
+  @GenerateMicroBenchmark
+  public SqlNode validate(ParsedState state) throws Exception {
+    return state.planner.validate(state.parsed);
+  }
+
+  @GenerateMicroBenchmark
+  public RelNode convert(ValidatedState state) throws Exception {
+    return state.planner.convert(state.validated);
+  }
+
+  @GenerateMicroBenchmark
+  public RelNode volcano(ConvertedState state) throws Exception {
+    return state.planner.transform(0,
+        state.planner.getEmptyTraitSet()
+            .replace(EnumerableConvention.INSTANCE),
+        state.converted);
+  }
+
+  @GenerateMicroBenchmark
+  public RelNode hep(PlannedState state) throws Exception {
+    return state.planner.transform(1, state.planned.getTraitSet(),
+        state.planned);
+  }
+}
+
+// End PrepareTest.java
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq;
+
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
+
+import net.hydromatic.optiq.impl.clone.CloneSchema;
+import net.hydromatic.optiq.jdbc.JavaTypeFactoryImpl;
+
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeImpl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures loading and scanning a cloned table that has a column of
+ * strings with many distinct values, which the clone stores in a string
+ * dictionary.
+ *
+ * <p>The benchmark uses only the public API: it builds the table via
+ * {@link CloneSchema#createCloneTable}, and compares a scan of the table
+ * with a scan of the list of rows it was copied from.</p>
+ *
+ * <p>To run, see {@link StatementTest}.</p>
+ */
+public class StringDictionaryTest {
+  static final int ROW_COUNT = 100000;
+  static final int DISTINCT_COUNT = 20000;
+
+  /** Source rows, and a table that holds a copy of them. */
+  @State(Scope.Thread)
+  @BenchmarkMode(Mode.AverageTime)
+  public static class Tables {
+    final JavaTypeFactoryImpl typeFactory = new JavaTypeFactoryImpl();
+    final RelDataType rowType =
+        typeFactory.builder()
+            .add("id", typeFactory.createType(int.class))
+            .add("name", typeFactory.createType(String.class))
+            .build();
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    final QueryableTable table;
+
+    {
+      final Random random = new Random(0);
+      for (int i = 0; i < ROW_COUNT; i++) {
+        rows.add(
+            new Object[] {i, "customer #" + random.nextInt(DISTINCT_COUNT)});
+      }
+      table = load();
+      scan(table); // load the content now, not during the first scan
+    }
+
+    QueryableTable load() {
+      return (QueryableTable) CloneSchema.createCloneTable(typeFactory,
+          RelDataTypeImpl.proto(rowType), null, Linq4j.asEnumerable(rows));
+    }
+  }
+
+  private static int scan(QueryableTable table) {
+    final Enumerator<Object[]> enumerator =
+        table.<Object[]>asQueryable(null, null, "t").enumerator();
+    int n = 0;
+    while (enumerator.moveNext()) {
+      n += ((String) enumerator.current()[1]).length();
+    }
+    enumerator.close();
+    return n;
+  }
+
+  @GenerateMicroBenchmark
+  public int scanList(Tables state) {
+    int n = 0;
+    for (Object[] row : state.rows) {
+      n += ((String) row[1]).length();
+    }
+    return n;
+  }
+
+  @GenerateMicroBenchmark
+  public int scanClone(Tables state) {
+    return scan(state.table);
+  }
+
+  @GenerateMicroBenchmark
+  public int loadClone(Tables state) {
+    return scan(state.load());
+  }
+}
+
+// End StringDictionaryTest.java
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.optiq.prepare;
+
+import net.hydromatic.optiq.Benchmarks;
+import net.hydromatic.optiq.jdbc.OptiqConnection;
+import net.hydromatic.optiq.runtime.Bindable;
+import net.hydromatic.optiq.runtime.Hook;
+
+import com.google.common.base.Function;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.PreparedStatement;
+import java.util.Properties;
+
+/**
+ * Measures the compilation by Janino of the Java code generated for a
+ * query, and the cost of finding the compiled class in
+ * {@link BindableCache} instead.
+ *
+ * <p>The code is captured, via {@link Hook#JAVA_PLAN}, while preparing the
+ * query chosen by {@link Benchmarks#QUERY}.</p>
+ */
+public class CompileTest {
+  /** Name of the generated class. */
+  private static final String CLASS_NAME = "Baz";
+
+  /** Generated code of a query. */
+  @State(Scope.Thread)
+  @BenchmarkMode(Mode.AverageTime)
+  public static class CodeState {
+    final ClassLoader classLoader = OptiqPrepareImpl.class.getClassLoader();
+    final BindableCache cache = new BindableCache(10);
+    String source;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+      final String[] sources = {null};
+      final Hook.Closeable hook = Hook.JAVA_PLAN.addThread(
+          new Function<String, Void>() {
+            public Void apply(String source) {
+              sources[0] = source;
+              return null;
+            }
+          });
+      final OptiqConnection connection =
+          Benchmarks.connect(new Properties());
+      try {
+        Benchmarks.addTpcSchemas(connection.getRootSchema());
+        final PreparedStatement statement =
+            connection.prepareStatement(Benchmarks.sql(Benchmarks.QUERY));
+        statement.close();
+      } finally {
+        hook.close();
+        connection.close();
+      }
+      source = sources[0];
+      cache.get(CLASS_NAME, source, classLoader);
+    }
+  }
+
+  @GenerateMicroBenchmark
+  public Class compile(CodeState state) throws Exception {
+    return BindableCache.compile(CLASS_NAME, state.source,
+        state.classLoader);
+  }
+
+  @GenerateMicroBenchmark
+  public Bindable cached(CodeState state) throws Exception {
+    return state.cache.get(CLASS_NAME, state.source, state.classLoader);
+  }
+}
+
+// End CompileTest.java